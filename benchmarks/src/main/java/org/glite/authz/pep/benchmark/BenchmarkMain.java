@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs the benchmarks with the GC profiler, to report the allocation rate
+ * with the throughput, unless another profiler is given on the command line.
+ */
+public final class BenchmarkMain {
+
+    /** Prevents instantiation */
+    private BenchmarkMain() {
+    }
+
+    /**
+     * Runs the JMH benchmarks.
+     * 
+     * @param args
+     *            the JMH command line options
+     * @throws Exception
+     *             if the benchmarks can not be run
+     */
+    public static void main(String[] args) throws Exception {
+        List<String> options= new ArrayList<String>(Arrays.asList(args));
+        if (!options.contains("-prof") && !options.contains("-h")
+                && !options.contains("-l")) {
+            options.add("-prof");
+            options.add("gc");
+        }
+        org.openjdk.jmh.Main.main(options.toArray(new String[options.size()]));
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.glite.authz.common.model.Request;
+import org.glite.authz.common.model.Response;
+import org.glite.authz.pep.client.Deadline;
+import org.glite.authz.pep.client.PEPClient;
+import org.glite.authz.pep.client.PEPClientException;
+import org.glite.authz.pep.client.config.PEPClientConfiguration;
+import org.glite.authz.pep.client.http.HessianRequestEntity;
+import org.glite.authz.pep.profile.CommonXACMLAuthorizationProfile;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of bursts of concurrent asynchronous authorizations, on the
+ * platform thread pool and on virtual threads. The PEP daemon is simulated
+ * by a request blocking {@link #PEPD_LATENCY} millis, so the throughput
+ * shows how many blocked authorizations the client sustains.
+ * <p>
+ * The virtual thread mode requires Java 21, the client falls back to the
+ * platform thread pool on older runtimes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations= 3, time= 2)
+@Measurement(iterations= 5, time= 2)
+@Fork(1)
+public class ConcurrencyBenchmark {
+
+    /** Simulated PEP daemon latency in millis */
+    static final long PEPD_LATENCY= 10;
+
+    @Param({ "false", "true" })
+    public boolean virtualThreads;
+
+    @Param({ "1000", "10000" })
+    public int concurrency;
+
+    private PEPClient client_;
+
+    private Request request_;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        PEPClientConfiguration config= new PEPClientConfiguration();
+        config.addPEPDaemonEndpoint("http://localhost:8154/authz");
+        config.setVirtualThreads(virtualThreads);
+        config.setMaxAsyncRequests(concurrency);
+        client_= new SimulatedPEPClient(config);
+        CommonXACMLAuthorizationProfile profile= CommonXACMLAuthorizationProfile.getInstance();
+        request_= profile.createRequest(Fixtures.createProxyChain(),
+                                        Fixtures.RESOURCE_ID,
+                                        Fixtures.ACTION_ID);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        client_.shutdown();
+    }
+
+    /**
+     * Submits a burst of authorizations and waits for all of them. The
+     * score multiplied by the concurrency is the authorization throughput.
+     */
+    @Benchmark
+    public int authorizeBurst() throws Exception {
+        List<CompletableFuture<Response>> futures= new ArrayList<CompletableFuture<Response>>(concurrency);
+        for (int i= 0; i < concurrency; i++) {
+            futures.add(client_.authorizeAsync(request_));
+        }
+        int results= 0;
+        for (CompletableFuture<Response> future : futures) {
+            results+= future.get().getResults().size();
+        }
+        return results;
+    }
+
+    /**
+     * PEP client whose PEP daemon requests block for the simulated latency,
+     * as a blocking socket read does.
+     */
+    private static final class SimulatedPEPClient extends PEPClient {
+
+        private final Response response_;
+
+        SimulatedPEPClient(PEPClientConfiguration config) throws Exception {
+            super(config);
+            response_= Fixtures.createPermitResponse(CommonXACMLAuthorizationProfile.getInstance(),
+                                                     1);
+        }
+
+        protected Response performRequest(String pepUrl,
+                HessianRequestEntity requestEntity, Deadline deadline)
+                throws PEPClientException {
+            try {
+                Thread.sleep(PEPD_LATENCY);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new PEPClientException("Interrupted", e);
+            }
+            return response_;
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.benchmark;
+
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+
+import org.glite.authz.common.model.AttributeAssignment;
+import org.glite.authz.common.model.Obligation;
+import org.glite.authz.common.model.Response;
+import org.glite.authz.common.model.Result;
+import org.glite.authz.common.model.Status;
+import org.glite.authz.common.model.StatusCode;
+import org.glite.authz.pep.profile.CommonXACMLAuthorizationProfile;
+
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.BasicConstraints;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.cert.X509v3CertificateBuilder;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.ContentSigner;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+
+import eu.emi.security.authn.x509.proxy.ProxyCertificate;
+import eu.emi.security.authn.x509.proxy.ProxyCertificateOptions;
+import eu.emi.security.authn.x509.proxy.ProxyGenerator;
+
+/**
+ * Fixtures of the benchmarks.
+ * <p>
+ * The proxy chain is the one of a typical grid job: a RFC 3820 proxy of a
+ * proxy of the user certificate, all 2048 bits RSA keys signed with
+ * SHA-256, generated once per benchmark trial.
+ */
+public final class Fixtures {
+
+    /** Resource id of the requests */
+    public static final String RESOURCE_ID= "http://ce.example.org/cream-pbs-atlas";
+
+    /** Action id of the requests */
+    public static final String ACTION_ID= "http://glite.org/xacml/action/execute";
+
+    /** Key size */
+    private static final int KEY_SIZE= 2048;
+
+    /** Signature algorithm */
+    private static final String SIGNATURE_ALGORITHM= "SHA256withRSA";
+
+    /** Validity of the certificates */
+    private static final long VALIDITY= 24L * 3600L * 1000L;
+
+    /** Prevents instantiation */
+    private Fixtures() {
+    }
+
+    /**
+     * Creates a proxy chain: proxy of proxy, proxy and user certificate.
+     * 
+     * @return the proxy chain, the end entity first
+     * @throws Exception
+     *             if the certificates can not be generated
+     */
+    public static X509Certificate[] createProxyChain() throws Exception {
+        KeyPairGenerator generator= KeyPairGenerator.getInstance("RSA");
+        generator.initialize(KEY_SIZE);
+        KeyPair caKeys= generator.generateKeyPair();
+        KeyPair userKeys= generator.generateKeyPair();
+        X500Name caName= new X500Name("CN=Benchmark CA,O=Grid,C=CH");
+        X500Name userName= new X500Name("CN=John Doe,OU=Physics,O=Grid,C=CH");
+        X509Certificate userCert= createCertificate(caName,
+                                                    caKeys.getPrivate(),
+                                                    userName,
+                                                    userKeys.getPublic(),
+                                                    false);
+        ProxyCertificate proxy= ProxyGenerator.generate(new ProxyCertificateOptions(new X509Certificate[] { userCert }),
+                                                        userKeys.getPrivate());
+        ProxyCertificate proxyOfProxy= ProxyGenerator.generate(new ProxyCertificateOptions(proxy.getCertificateChain()),
+                                                               proxy.getPrivateKey());
+        return proxyOfProxy.getCertificateChain();
+    }
+
+    /**
+     * Creates a certificate.
+     */
+    private static X509Certificate createCertificate(X500Name issuer,
+            PrivateKey issuerKey, X500Name subject, PublicKey subjectKey,
+            boolean ca) throws Exception {
+        long now= System.currentTimeMillis();
+        X509v3CertificateBuilder builder= new JcaX509v3CertificateBuilder(issuer,
+                                                                          BigInteger.valueOf(now),
+                                                                          new Date(now - VALIDITY),
+                                                                          new Date(now + VALIDITY),
+                                                                          subject,
+                                                                          subjectKey);
+        builder.addExtension(Extension.basicConstraints,
+                             true,
+                             new BasicConstraints(ca));
+        ContentSigner signer= new JcaContentSignerBuilder(SIGNATURE_ALGORITHM).build(issuerKey);
+        return new JcaX509CertificateConverter().getCertificate(builder.build(signer));
+    }
+
+    /**
+     * Creates a permit response with the POSIX mapping obligation of the
+     * profile, as returned by the PEP daemon.
+     * 
+     * @param profile
+     *            the authorization profile
+     * @param groups
+     *            number of secondary groups
+     * @return the response
+     */
+    public static Response createPermitResponse(CommonXACMLAuthorizationProfile profile,
+            int groups) {
+        Obligation obligation= new Obligation();
+        obligation.setId(profile.getMapUserToPOSIXEnvironmentObligationIdentifier());
+        obligation.setFulfillOn(Result.DECISION_PERMIT);
+        obligation.getAttributeAssignments().add(createAttributeAssignment(profile.getUserIdAttributeAssignmentIdentifier(),
+                                                                           "atlas042"));
+        obligation.getAttributeAssignments().add(createAttributeAssignment(profile.getPrimaryGroupIdAttributeAssignmentIdentifier(),
+                                                                           "atlas"));
+        for (int i= 0; i < groups; i++) {
+            obligation.getAttributeAssignments().add(createAttributeAssignment(profile.getGroupIdAttributeAssignmentIdentifier(),
+                                                                               "atlasgrp" + i));
+        }
+        StatusCode code= new StatusCode();
+        code.setCode(StatusCode.SC_OK);
+        Status status= new Status();
+        status.setCode(code);
+        Result result= new Result();
+        result.setDecision(Result.DECISION_PERMIT);
+        result.setResourceId(RESOURCE_ID);
+        result.setStatus(status);
+        result.getObligations().add(obligation);
+        Response response= new Response();
+        response.getResults().add(result);
+        return response;
+    }
+
+    /**
+     * Creates a string attribute assignment.
+     */
+    private static AttributeAssignment createAttributeAssignment(String id,
+            String value) {
+        AttributeAssignment assignment= new AttributeAssignment();
+        assignment.setAttributeId(id);
+        assignment.setDataType("http://www.w3.org/2001/XMLSchema#string");
+        assignment.setValue(value);
+        return assignment;
+    }
+}
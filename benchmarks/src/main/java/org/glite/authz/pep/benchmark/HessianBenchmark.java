@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.glite.authz.common.model.Request;
+import org.glite.authz.common.model.Response;
+import org.glite.authz.common.util.Base64;
+import org.glite.authz.pep.client.http.HessianRequestEntity;
+import org.glite.authz.pep.profile.CommonXACMLAuthorizationProfile;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.caucho.hessian.io.HessianInput;
+import com.caucho.hessian.io.HessianOutput;
+
+/**
+ * Benchmarks of the base64 encoded Hessian serialization of the request and
+ * deserialization of the response.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations= 5, time= 1)
+@Measurement(iterations= 5, time= 1)
+@Fork(1)
+public class HessianBenchmark {
+
+    private Request request_;
+
+    private byte[] encodedResponse_;
+
+    @Setup
+    public void setup() throws Exception {
+        CommonXACMLAuthorizationProfile profile= CommonXACMLAuthorizationProfile.getInstance();
+        request_= profile.createRequest(Fixtures.createProxyChain(),
+                                        Fixtures.RESOURCE_ID,
+                                        Fixtures.ACTION_ID);
+        Response response= Fixtures.createPermitResponse(profile, 10);
+        response.setRequest(request_);
+        ByteArrayOutputStream out= new ByteArrayOutputStream();
+        HessianOutput hout= new HessianOutput(out);
+        hout.writeObject(response);
+        hout.flush();
+        encodedResponse_= Base64.encodeBytes(out.toByteArray()).getBytes("UTF-8");
+    }
+
+    /**
+     * Streams the request into a discarding output stream, as the HTTP
+     * transports do.
+     */
+    @Benchmark
+    public void encodeRequestEntity(Blackhole bh) throws IOException {
+        HessianRequestEntity entity= new HessianRequestEntity(request_);
+        entity.writeRequest(new BlackholeOutputStream(bh));
+    }
+
+    /**
+     * Serializes the request to a byte array, then encodes it to a string, as
+     * done before the streaming request entity.
+     */
+    @Benchmark
+    public String encodeRequestBuffered() throws IOException {
+        ByteArrayOutputStream out= new ByteArrayOutputStream();
+        HessianOutput hout= new HessianOutput(out);
+        hout.writeObject(request_);
+        hout.flush();
+        return Base64.encodeBytes(out.toByteArray());
+    }
+
+    @Benchmark
+    public Response decodeResponse() throws IOException {
+        InputStream is= new Base64.InputStream(new ByteArrayInputStream(encodedResponse_));
+        HessianInput hin= new HessianInput(is);
+        return (Response) hin.readObject(Response.class);
+    }
+
+    /**
+     * Output stream feeding the written bytes to the blackhole.
+     */
+    private static final class BlackholeOutputStream extends OutputStream {
+
+        private final Blackhole bh_;
+
+        BlackholeOutputStream(Blackhole bh) {
+            bh_= bh;
+        }
+
+        public void write(int b) {
+            bh_.consume(b);
+        }
+
+        public void write(byte[] b, int off, int len) {
+            bh_.consume(b);
+            bh_.consume(len);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.benchmark;
+
+import java.security.cert.X509Certificate;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.glite.authz.common.model.Obligation;
+import org.glite.authz.common.model.Request;
+import org.glite.authz.common.model.Response;
+import org.glite.authz.common.model.Subject;
+import org.glite.authz.pep.profile.CommonXACMLAuthorizationProfile;
+import org.glite.authz.pep.profile.ProfileException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks of the authorization profile: request creation from a proxy
+ * chain and POSIX mapping obligation lookup in the response.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations= 5, time= 1)
+@Measurement(iterations= 5, time= 1)
+@Fork(1)
+public class ProfileBenchmark {
+
+    /** Number of secondary groups in the POSIX mapping obligation */
+    @Param({ "1", "10" })
+    public int groups;
+
+    private CommonXACMLAuthorizationProfile profile_;
+
+    private X509Certificate[] chain_;
+
+    private Subject subject_;
+
+    private Response response_;
+
+    @Setup
+    public void setup() throws Exception {
+        profile_= CommonXACMLAuthorizationProfile.getInstance();
+        chain_= Fixtures.createProxyChain();
+        subject_= profile_.createSubjectKeyInfo(chain_);
+        response_= Fixtures.createPermitResponse(profile_, groups);
+    }
+
+    @Benchmark
+    public Request createRequestFromChain() throws ProfileException {
+        return profile_.createRequest(chain_,
+                                      Fixtures.RESOURCE_ID,
+                                      Fixtures.ACTION_ID);
+    }
+
+    @Benchmark
+    public Request createRequestFromSubject() {
+        return profile_.createRequest(subject_,
+                                      profile_.createResourceId(Fixtures.RESOURCE_ID),
+                                      profile_.createActionId(Fixtures.ACTION_ID));
+    }
+
+    @Benchmark
+    public Subject createSubjectKeyInfo() throws ProfileException {
+        return profile_.createSubjectKeyInfo(chain_);
+    }
+
+    @Benchmark
+    public void getObligationPosixMapping(Blackhole bh)
+            throws ProfileException {
+        Obligation obligation= profile_.getObligationPosixMapping(response_);
+        String userId= profile_.getAttributeAssignmentUserId(obligation);
+        List<String> groupIds= profile_.getAttributeAssignmentGroupIds(obligation);
+        bh.consume(userId);
+        bh.consume(groupIds);
+    }
+}
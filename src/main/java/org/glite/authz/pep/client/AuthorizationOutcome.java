@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client;
+
+import org.glite.authz.common.model.Request;
+import org.glite.authz.common.model.Response;
+
+/**
+ * Outcome of one request of a batch authorization: either the response of
+ * the PEP daemon, or the exception raised while authorizing the request.
+ * 
+ * @see PEPClient#authorizeAll(java.util.List)
+ */
+public class AuthorizationOutcome {
+
+    /** The authorization request */
+    private final Request request_;
+
+    /** The response, <code>null</code> if the authorization failed */
+    private final Response response_;
+
+    /** The failure, <code>null</code> if the authorization succeeded */
+    private final PEPClientException exception_;
+
+    /**
+     * Constructor.
+     * 
+     * @param request
+     *            the authorization request
+     * @param response
+     *            the response, or <code>null</code> if the authorization
+     *            failed
+     * @param exception
+     *            the failure, or <code>null</code> if the authorization
+     *            succeeded
+     */
+    public AuthorizationOutcome(Request request, Response response,
+            PEPClientException exception) {
+        request_= request;
+        response_= response;
+        exception_= exception;
+    }
+
+    /**
+     * Returns the authorization request.
+     * 
+     * @return the request
+     */
+    public Request getRequest() {
+        return request_;
+    }
+
+    /**
+     * Returns the response of the PEP daemon.
+     * 
+     * @return the response, or <code>null</code> if the authorization failed
+     */
+    public Response getResponse() {
+        return response_;
+    }
+
+    /**
+     * Returns the exception raised while authorizing the request.
+     * 
+     * @return the exception, or <code>null</code> if the authorization
+     *         succeeded
+     */
+    public PEPClientException getException() {
+        return exception_;
+    }
+
+    /**
+     * Checks if the request was successfully authorized.
+     * 
+     * @return <code>true</code> if a response was received
+     */
+    public boolean isSuccess() {
+        return exception_ == null;
+    }
+
+    /** {@inheritDoc} */
+    public String toString() {
+        if (isSuccess()) {
+            return "AuthorizationOutcome{response:" + response_ + "}";
+        }
+        return "AuthorizationOutcome{exception:" + exception_.getMessage()
+                + "}";
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread factory creating named daemon threads, so the PEP client threads
+ * never prevent the JVM to exit.
+ */
+class DaemonThreadFactory implements ThreadFactory {
+
+    /** Thread name prefix */
+    private final String namePrefix_;
+
+    /** Thread sequence number */
+    private final AtomicInteger threadNumber_= new AtomicInteger(1);
+
+    /**
+     * Constructor.
+     * 
+     * @param namePrefix
+     *            prefix of the thread names
+     */
+    DaemonThreadFactory(String namePrefix) {
+        namePrefix_= namePrefix;
+    }
+
+    /** {@inheritDoc} */
+    public Thread newThread(Runnable runnable) {
+        Thread thread= new Thread(runnable, namePrefix_ + "-"
+                + threadNumber_.getAndIncrement());
+        thread.setDaemon(true);
+        return thread;
+    }
+}
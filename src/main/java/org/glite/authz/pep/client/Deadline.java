@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time budget of an authorization, shared by the PIPs, the connection
+ * acquisition, connect and read of each PEP daemon request, and the
+ * failover attempts.
+ * <p>
+ * Each step is given the smaller of its own configured timeout and the
+ * remaining budget, and the authorization fails with a
+ * {@link PEPClientTimeoutException} once the budget is spent. Each failover
+ * attempt is given a share of the remaining budget, see {@link #share(int)}.
+ * <p>
+ * This class is immutable and thread-safe.
+ */
+public final class Deadline {
+
+    /** Deadline never expiring */
+    public static final Deadline NONE= new Deadline(0, 0);
+
+    /** The budget in millis, <code>0</code> if unlimited */
+    private final long timeout_;
+
+    /** Expiration time, from {@link System#nanoTime()} */
+    private final long expiresAt_;
+
+    /**
+     * Constructor.
+     */
+    private Deadline(long timeout, long expiresAt) {
+        timeout_= timeout;
+        expiresAt_= expiresAt;
+    }
+
+    /**
+     * Returns a deadline expiring after the timeout.
+     * 
+     * @param timeout
+     *            the budget in millis, <code>0</code> for no deadline
+     * @return the deadline
+     */
+    public static Deadline after(long timeout) {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("timeout can not be negative");
+        }
+        if (timeout == 0) {
+            return NONE;
+        }
+        return new Deadline(timeout,
+                            System.nanoTime()
+                                    + TimeUnit.MILLISECONDS.toNanos(timeout));
+    }
+
+    /**
+     * Returns the budget.
+     * 
+     * @return the budget in millis, <code>0</code> if unlimited
+     */
+    public long getTimeout() {
+        return timeout_;
+    }
+
+    /**
+     * Returns whether the deadline is unlimited.
+     * 
+     * @return <code>true</code> if the deadline never expires
+     */
+    public boolean isUnlimited() {
+        return timeout_ == 0;
+    }
+
+    /**
+     * Returns the remaining budget in nanos.
+     * 
+     * @return the remaining nanos, <code>0</code> if expired,
+     *         {@link Long#MAX_VALUE} if unlimited
+     */
+    public long remainingNanos() {
+        if (isUnlimited()) {
+            return Long.MAX_VALUE;
+        }
+        return Math.max(0, expiresAt_ - System.nanoTime());
+    }
+
+    /**
+     * Returns the remaining budget in millis, rounded up.
+     * 
+     * @return the remaining millis, <code>0</code> if expired,
+     *         {@link Long#MAX_VALUE} if unlimited
+     */
+    public long remaining() {
+        long remaining= remainingNanos();
+        if (remaining == Long.MAX_VALUE) {
+            return Long.MAX_VALUE;
+        }
+        return (remaining + 999999) / 1000000;
+    }
+
+    /**
+     * Returns whether the budget is spent.
+     * 
+     * @return <code>true</code> if the deadline has expired
+     */
+    public boolean isExpired() {
+        return remainingNanos() == 0;
+    }
+
+    /**
+     * Returns the timeout of a step: the smaller of its configured timeout
+     * and the remaining budget.
+     * 
+     * @param timeout
+     *            the configured timeout of the step in millis,
+     *            <code>0</code> for no timeout
+     * @return the timeout in millis, at least 1 if the deadline is not
+     *         unlimited, <code>0</code> for no timeout
+     */
+    public int timeout(int timeout) {
+        if (isUnlimited()) {
+            return timeout;
+        }
+        long remaining= Math.max(1, remaining());
+        if (timeout > 0 && timeout < remaining) {
+            return timeout;
+        }
+        return (int) Math.min(Integer.MAX_VALUE, remaining);
+    }
+
+    /**
+     * Returns the deadline of the next of several attempts, such as the
+     * failover requests to the remaining endpoints: the remaining budget is
+     * split evenly between them, so that a hung endpoint does not consume
+     * the budget of the others.
+     * 
+     * @param attempts
+     *            the number of attempts left, including the next one
+     * @return the deadline of the next attempt, this deadline if unlimited or
+     *         if it is the last attempt
+     */
+    public Deadline share(int attempts) {
+        if (isUnlimited() || attempts <= 1) {
+            return this;
+        }
+        long share= remainingNanos() / attempts;
+        return new Deadline(Math.max(1, TimeUnit.NANOSECONDS.toMillis(share)),
+                            System.nanoTime() + share);
+    }
+
+    /**
+     * Checks that the budget is not spent.
+     * 
+     * @param step
+     *            the authorization step about to start, for the error message
+     * @param cause
+     *            the failure of the previous attempt, may be
+     *            <code>null</code>
+     * @throws PEPClientTimeoutException
+     *             if the deadline has expired
+     */
+    public void check(String step, Exception cause)
+            throws PEPClientTimeoutException {
+        if (isExpired()) {
+            throw new PEPClientTimeoutException("Authorization deadline of "
+                    + timeout_ + " ms exceeded before " + step, cause);
+        }
+    }
+}
@@ -18,40 +18,89 @@
  */
 package org.glite.authz.pep.client;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.UnsupportedEncodingException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.glite.authz.common.model.Action;
+import org.glite.authz.common.model.Attribute;
+import org.glite.authz.common.model.Environment;
 import org.glite.authz.common.model.Request;
+import org.glite.authz.common.model.Resource;
 import org.glite.authz.common.model.Response;
 import org.glite.authz.common.model.Result;
-import org.glite.authz.common.util.Base64;
+import org.glite.authz.common.model.Subject;
+import org.glite.authz.pep.client.cache.DecisionCache;
+import org.glite.authz.pep.client.cache.RequestCoalescer;
+import org.glite.authz.pep.client.cache.RequestKey;
+import org.glite.authz.pep.client.cache.ResponseSnapshot;
 import org.glite.authz.pep.client.config.PEPClientConfiguration;
+import org.glite.authz.pep.client.endpoint.CircuitBreaker;
+import org.glite.authz.pep.client.endpoint.ConcurrencyLimitPolicy;
+import org.glite.authz.pep.client.endpoint.ConcurrencyLimiter;
+import org.glite.authz.pep.client.endpoint.Endpoint;
+import org.glite.authz.pep.client.endpoint.EndpointProber;
+import org.glite.authz.pep.client.endpoint.HedgingBudget;
+import org.glite.authz.pep.client.endpoint.LoadBalancer;
+import org.glite.authz.pep.client.http.CommonsHttpTransport;
+import org.glite.authz.pep.client.http.HessianCodec;
+import org.glite.authz.pep.client.http.HessianRequestEntity;
 import org.glite.authz.pep.client.http.HttpClientBuilder;
+import org.glite.authz.pep.client.http.HttpTransport;
+import org.glite.authz.pep.client.http.HttpTransportType;
+import org.glite.authz.pep.client.http.JdkHttpTransport;
 import org.glite.authz.pep.client.http.TLSProtocolSocketFactory;
+import org.glite.authz.pep.client.metrics.AuthorizationPhase;
+import org.glite.authz.pep.client.metrics.ConnectionPoolMonitor;
+import org.glite.authz.pep.client.metrics.PEPClientMetrics;
+import org.glite.authz.pep.client.metrics.WindowedLatencyHistogram;
+import org.glite.authz.pep.client.obligation.ObligationDispatcher;
+import org.glite.authz.pep.client.pip.ParallelPIPRunner;
+import org.glite.authz.pep.client.tls.TLSContext;
+import org.glite.authz.pep.client.tls.TLSContextRegistry;
 import org.glite.authz.pep.obligation.ObligationHandler;
 import org.glite.authz.pep.obligation.ObligationProcessingException;
 import org.glite.authz.pep.pip.PIPProcessingException;
 import org.glite.authz.pep.pip.PolicyInformationPoint;
 
 import org.apache.commons.httpclient.HttpClient;
-import org.apache.commons.httpclient.HttpStatus;
-import org.apache.commons.httpclient.methods.PostMethod;
-import org.apache.commons.httpclient.methods.RequestEntity;
-import org.apache.commons.httpclient.methods.StringRequestEntity;
+import org.apache.commons.httpclient.HttpConnectionManager;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
-import com.caucho.hessian.io.HessianInput;
-import com.caucho.hessian.io.HessianOutput;
-
 /**
  * A PEP client to communicate with the Argus PEP Server and authorize request.
  * 
  * It uses a multi-threaded http client to authorize the request. The http
  * client tries to keep alive connection whitin its pool of connections.
+ * Alternatively, the JDK HTTP/2 client can be configured as transport.
  * 
  * @author Valery Tschopp &lt;valery.tschopp&#64;switch.ch&gt;
  */
@@ -60,53 +109,434 @@ public class PEPClient {
     /** Class logger. */
     private final Log log= LogFactory.getLog(PEPClient.class);
 
+    /** Min number of recently observed latencies before hedging requests */
+    private static final int HEDGING_MIN_SAMPLES= 20;
+
+    /** Window in millis of the latencies driving the hedging delay */
+    private static final long HEDGING_LATENCY_WINDOW= 30000;
+
+    /** Max number of hedged requests in a burst */
+    private static final int HEDGING_MAX_BURST= 10;
+
     /** Unmodifiable list of PIPs */
     private List<PolicyInformationPoint> pips_= null;
 
-    /** Unmodifiable list of ObligationHandlers */
-    private List<ObligationHandler> obligationHandlers_= null;
+    /** Runs the PIPs in parallel, <code>null</code> to run them serially */
+    private ParallelPIPRunner pipRunner_= null;
+
+    /** Thread pool of the PIPs run in parallel */
+    private ExecutorService pipThreadPool_= null;
+
+    /** Obligation handlers indexed by obligation identifier */
+    private ObligationDispatcher obligationDispatcher_= null;
 
     /** Unmodifiable list of PEP daemon endpoints */
     private List<String> pepdEndpoints_= null;
 
-    /** HTTP client used to contact the PEP daemon. */
-    private HttpClient httpClient_= null;
+    /** PEP daemon endpoints with their health state */
+    private List<Endpoint> endpoints_= null;
+
+    /** Orders the endpoints according to the load balancing strategy */
+    private LoadBalancer loadBalancer_= null;
+
+    /** Background prober of the unavailable endpoints */
+    private EndpointProber endpointProber_= null;
+
+    /** Recent latencies of the successful PEP daemon requests, in nanos */
+    private WindowedLatencyHistogram latencies_= new WindowedLatencyHistogram(HEDGING_LATENCY_WINDOW);
+
+    /** Thread pool of the hedged requests, <code>null</code> if disabled */
+    private ExecutorService hedgingThreadPool_= null;
+
+    /** Budget of the hedged requests */
+    private HedgingBudget hedgingBudget_= null;
+
+    /** Percentile of the latencies used as hedging delay */
+    private double hedgingPercentile_;
+
+    /** Min hedging delay in nanos */
+    private long hedgingMinDelay_;
+
+    /** Metrics of the client */
+    private PEPClientMetrics metrics_= null;
+
+    /** JMX name of the metrics MXBean, <code>null</code> if not registered */
+    private ObjectName metricsMBeanName_= null;
+
+    /** HTTP transport used to contact the PEP daemon. */
+    private HttpTransport transport_= null;
+
+    /** Shared TLS context, <code>null</code> if not shared */
+    private TLSContext sharedTLSContext_= null;
+
+    /** Own TLS context, <code>null</code> if shared or TLS isn't used */
+    private TLSContext ownTLSContext_= null;
+
+    /** Cache of the PEP daemon responses, <code>null</code> if disabled */
+    private DecisionCache decisionCache_= null;
+
+    /** Coalescer of the identical requests, <code>null</code> if disabled */
+    private RequestCoalescer requestCoalescer_= null;
+
+    /** Executor running the asynchronous requests */
+    private Executor asyncExecutor_= null;
+
+    /** Internal thread pool, <code>null</code> if an executor is configured */
+    private ExecutorService asyncThreadPool_= null;
+
+    /** Permits for the asynchronous requests in progress */
+    private Semaphore asyncPermits_= null;
+
+    /** Max number of asynchronous requests in progress */
+    private int maxAsyncRequests_;
+
+    /** Max number of requests of a batch authorized in parallel */
+    private int batchParallelism_;
+
+    /** Default authorization deadline in millis, <code>0</code> if none */
+    private long authorizationTimeout_;
+
+    /** Handling of the requests exceeding an endpoint concurrency limit */
+    private ConcurrencyLimitPolicy concurrencyLimitPolicy_;
+
+    /** Max time in millis to wait for an endpoint concurrency limit */
+    private long concurrencyLimitQueueTimeout_;
+
+    /** Number of connections opened to each endpoint by the warm up */
+    private int warmUpConnections_;
 
     /**
      * Constructor. Creates a new PEP client based on the given configuration.
-     * The PEP client uses a multi-threaded {@link HttpClient} with a pool of
-     * connections.
+     * By default, the PEP client uses a multi-threaded {@link HttpClient} with
+     * a pool of connections.
      * 
      * @param config
      *            the client configuration used for this client
      * @throws PEPClientException
      */
     public PEPClient(PEPClientConfiguration config) throws PEPClientException {
-        HttpClientBuilder httpClientBuilder= new HttpClientBuilder();
-        httpClientBuilder.setConnectionTimeout(config.getConnectionTimeout());
-        httpClientBuilder.setMaxConnectionsPerHost(config.getMaxConnectionsPerHost());
-        httpClientBuilder.setMaxTotalConnections(config.getMaxTotalConnections());
-        // httpClientBuilder.setReceiveBufferSize(config.getReceiveBufferSize());
-        // httpClientBuilder.setSendBufferSize(config.getSendBufferSize());
-
-        if (config.getTrustManager() != null) {
-            // if the key manager is null, it just means TLS client-auth isn't
-            // enabled
-            httpClientBuilder.setHttpsProtocolSocketFactory(new TLSProtocolSocketFactory(config.getKeyManager(),
-                                                                                         config.getTrustManager()));
-        }
-        httpClient_= httpClientBuilder.buildClient();
-
         pepdEndpoints_= config.getPEPDaemonEndpoints();
         if (pepdEndpoints_.isEmpty()) {
             throw new PEPClientException("Configuration doesn't contain any PEP Server endpoint URL");
         }
+        List<Endpoint> endpoints= new ArrayList<Endpoint>(pepdEndpoints_.size());
+        for (String url : pepdEndpoints_) {
+            try {
+                ConcurrencyLimiter concurrencyLimiter= null;
+                if (config.isConcurrencyLimitEnabled()) {
+                    int minLimit= config.getMinConcurrencyLimit();
+                    int maxLimit= Math.max(minLimit,
+                                           config.getMaxConcurrencyLimit());
+                    int initialLimit= Math.min(maxLimit,
+                                               Math.max(minLimit,
+                                                        config.getMaxConnectionsPerHost()));
+                    concurrencyLimiter= new ConcurrencyLimiter(initialLimit,
+                                                               minLimit,
+                                                               maxLimit);
+                }
+                endpoints.add(new Endpoint(url,
+                                           config.getPEPDaemonEndpointWeight(url),
+                                           config.getCircuitBreakerThreshold(),
+                                           concurrencyLimiter));
+            } catch (IllegalArgumentException e) {
+                throw new PEPClientException(e.getMessage(), e);
+            }
+        }
+        endpoints_= Collections.unmodifiableList(endpoints);
+        metrics_= new PEPClientMetrics(endpoints_);
+        TLSContext tlsContext= null;
+        if (config.getTrustManager() != null) {
+            // if the key manager is null, it just means TLS client-auth
+            // isn't enabled
+            try {
+                if (config.isSharedTLSContext()) {
+                    sharedTLSContext_= TLSContextRegistry.getInstance().acquire(config.getKeyMaterialIdentity(),
+                                                                               config.getTrustMaterialIdentity(),
+                                                                               config.getKeyManager(),
+                                                                               config.getTrustManager(),
+                                                                               config.getTrustStoreMonitor(),
+                                                                               config.getTLSSessionCacheSize(),
+                                                                               config.getTLSSessionTimeout());
+                    tlsContext= sharedTLSContext_;
+                }
+                else {
+                    ownTLSContext_= new TLSContext(config.getKeyManager(),
+                                                   config.getTrustManager(),
+                                                   config.getTrustStoreMonitor(),
+                                                   config.getTLSSessionCacheSize(),
+                                                   config.getTLSSessionTimeout());
+                    tlsContext= ownTLSContext_;
+                }
+            } catch (IllegalArgumentException e) {
+                throw new PEPClientException(e.getMessage(), e);
+            }
+            metrics_.setTLSHandshakes(tlsContext);
+            // the trust store of a shared context is the one of its creator
+            metrics_.setTrustStore(tlsContext.getTrustStoreMonitor());
+        }
+        if (config.getHttpTransportType() == HttpTransportType.JDK_HTTPCLIENT) {
+            transport_= new JdkHttpTransport(config.getConnectionTimeout(),
+                                             config.getReadTimeout(),
+                                             tlsContext,
+                                             metrics_);
+        }
+        else {
+            HttpClientBuilder httpClientBuilder= new HttpClientBuilder();
+            httpClientBuilder.setConnectionTimeout(config.getConnectionTimeout());
+            httpClientBuilder.setSocketTimeout(config.getReadTimeout());
+            httpClientBuilder.setMaxConnectionsPerHost(config.getMaxConnectionsPerHost());
+            httpClientBuilder.setMaxTotalConnections(config.getMaxTotalConnections());
+            httpClientBuilder.setConnectionPoolTimeout(config.getConnectionPoolTimeout());
+            httpClientBuilder.setConnectionIdleTimeout(config.getConnectionIdleTimeout());
+            httpClientBuilder.setIdleConnectionCheckInterval(config.getIdleConnectionCheckInterval());
+            httpClientBuilder.setStaleCheckingEnabled(config.isStaleConnectionCheck());
+            httpClientBuilder.setRetryOnStaleConnection(!config.isStaleConnectionCheck());
+            // httpClientBuilder.setReceiveBufferSize(config.getReceiveBufferSize());
+            // httpClientBuilder.setSendBufferSize(config.getSendBufferSize());
+
+            if (tlsContext != null) {
+                httpClientBuilder.setHttpsProtocolSocketFactory(new TLSProtocolSocketFactory(tlsContext));
+            }
+            HttpClient httpClient= httpClientBuilder.buildClient();
+            HttpConnectionManager connectionManager= httpClient.getHttpConnectionManager();
+            if (connectionManager instanceof ConnectionPoolMonitor) {
+                metrics_.setConnectionPool((ConnectionPoolMonitor) connectionManager);
+            }
+            transport_= new CommonsHttpTransport(httpClient, metrics_);
+        }
+        loadBalancer_= new LoadBalancer(endpoints_,
+                                        config.getLoadBalancingStrategy());
+        endpointProber_= new EndpointProber(endpoints_,
+                                            config.getEndpointProbeInterval(),
+                                            config.getConnectionTimeout(),
+                                            new DaemonThreadFactory("PEPClient-prober"));
+        boolean virtualThreads= config.isVirtualThreads();
+        if (virtualThreads && !VirtualThreads.isSupported()) {
+            log.warn("Virtual threads not supported by the Java runtime "
+                    + System.getProperty("java.version")
+                    + ", using platform threads");
+            virtualThreads= false;
+        }
         pips_= config.getPolicyInformationPoints();
-        obligationHandlers_= config.getObligationHandlers();
+        if (config.getPIPThreads() > 0 && pips_.size() > 1) {
+            Map<PolicyInformationPoint, List<PolicyInformationPoint>> pipDependencies= new IdentityHashMap<PolicyInformationPoint, List<PolicyInformationPoint>>();
+            Map<PolicyInformationPoint, Long> pipTimeouts= new IdentityHashMap<PolicyInformationPoint, Long>();
+            for (PolicyInformationPoint pip : pips_) {
+                pipDependencies.put(pip,
+                                    config.getPolicyInformationPointDependencies(pip));
+                pipTimeouts.put(pip,
+                                Long.valueOf(config.getPolicyInformationPointTimeout(pip)));
+            }
+            if (virtualThreads) {
+                pipThreadPool_= VirtualThreads.newThreadPerTaskExecutor("PEPClient-pip");
+            }
+            else {
+                ThreadPoolExecutor pipThreadPool= new ThreadPoolExecutor(config.getPIPThreads(),
+                                                                         config.getPIPThreads(),
+                                                                         60L,
+                                                                         TimeUnit.SECONDS,
+                                                                         new LinkedBlockingQueue<Runnable>(),
+                                                                         new DaemonThreadFactory("PEPClient-pip"));
+                pipThreadPool.allowCoreThreadTimeOut(true);
+                pipThreadPool_= pipThreadPool;
+            }
+            pipRunner_= new ParallelPIPRunner(pips_,
+                                              pipDependencies,
+                                              pipTimeouts,
+                                              pipThreadPool_);
+        }
+        obligationDispatcher_= new ObligationDispatcher(config.getObligationHandlers(),
+                                                        config.getEveryResultObligationHandlers());
+        if (config.getDecisionCacheSize() > 0) {
+            decisionCache_= new DecisionCache(config.getDecisionCacheSize(),
+                                              config.getDecisionCacheTTL());
+        }
+        if (config.isRequestCoalescing()) {
+            requestCoalescer_= new RequestCoalescer();
+        }
+        asyncExecutor_= config.getAsyncExecutor();
+        if (asyncExecutor_ == null && virtualThreads) {
+            asyncThreadPool_= VirtualThreads.newThreadPerTaskExecutor("PEPClient-async");
+            asyncExecutor_= asyncThreadPool_;
+        }
+        else if (asyncExecutor_ == null) {
+            int threads= config.getAsyncThreads();
+            ThreadPoolExecutor threadPool= new ThreadPoolExecutor(threads,
+                                                                  threads,
+                                                                  60L,
+                                                                  TimeUnit.SECONDS,
+                                                                  new LinkedBlockingQueue<Runnable>(),
+                                                                  new DaemonThreadFactory("PEPClient-async"));
+            threadPool.allowCoreThreadTimeOut(true);
+            asyncThreadPool_= threadPool;
+            asyncExecutor_= threadPool;
+        }
+        if (config.isHedgingEnabled() && endpoints_.size() > 1) {
+            if (virtualThreads) {
+                hedgingThreadPool_= VirtualThreads.newThreadPerTaskExecutor("PEPClient-hedging");
+            }
+            else {
+                hedgingThreadPool_= Executors.newCachedThreadPool(new DaemonThreadFactory("PEPClient-hedging"));
+            }
+            hedgingBudget_= new HedgingBudget(config.getHedgingBudgetRatio(),
+                                              HEDGING_MAX_BURST);
+            hedgingPercentile_= config.getHedgingPercentile();
+            hedgingMinDelay_= TimeUnit.MILLISECONDS.toNanos(config.getHedgingMinDelay());
+        }
+        maxAsyncRequests_= config.getMaxAsyncRequests();
+        asyncPermits_= new Semaphore(maxAsyncRequests_);
+        batchParallelism_= config.getBatchParallelism();
+        authorizationTimeout_= config.getAuthorizationTimeout();
+        concurrencyLimitPolicy_= config.getConcurrencyLimitPolicy();
+        concurrencyLimitQueueTimeout_= config.getConcurrencyLimitQueueTimeout();
+        warmUpConnections_= config.getWarmUpConnections();
+        if (config.getMetricsMBeanName() != null) {
+            registerMetricsMBean(config.getMetricsMBeanName());
+        }
+        if (config.isWarmUp()) {
+            warmUp();
+        }
+    }
+
+    /**
+     * Warms up the client, so that the first authorizations have the
+     * steady-state latency: the configured number of connections are opened
+     * to each PEP daemon endpoint, paying for the DNS resolution, the TCP
+     * connection and the TLS handshake with the certificate validation, and
+     * a request is serialized and a response decoded once with Hessian.
+     * <p>
+     * The endpoints are warmed up in turn. An endpoint which can not be
+     * reached is logged and skipped, the failover handles it on the first
+     * requests.
+     * 
+     * @return the number of connections ready, over all endpoints
+     * @see PEPClientConfiguration#setWarmUpConnections(int)
+     */
+    public int warmUp() {
+        return warmUp(warmUpConnections_);
+    }
+
+    /**
+     * Warms up the client, opening the given number of connections to each
+     * PEP daemon endpoint, see {@link #warmUp()}.
+     * 
+     * @param connections
+     *            the number of connections per endpoint
+     * @return the number of connections ready, over all endpoints
+     */
+    public int warmUp(int connections) {
+        if (connections < 1) {
+            throw new IllegalArgumentException("Number of warm up connections must be greater than zero");
+        }
+        long startTime= System.nanoTime();
+        try {
+            new HessianRequestEntity(createDryRunRequest()).writeRequest(OutputStream.nullOutputStream());
+            HessianCodec.dryRun();
+        } catch (IOException e) {
+            log.warn("Hessian dry run failed", e);
+        }
+        int ready= 0;
+        for (Endpoint endpoint : endpoints_) {
+            try {
+                ready+= transport_.warmUp(endpoint.getUrl(), connections);
+            } catch (PEPClientException e) {
+                log.warn("Unable to warm up PEP Server " + endpoint + ": "
+                        + e.getMessage());
+            }
+        }
+        if (log.isInfoEnabled()) {
+            log.info(ready + " connections warmed up in "
+                    + TimeUnit.NANOSECONDS.toMillis(System.nanoTime()
+                            - startTime) + " ms");
+        }
+        return ready;
+    }
+
+    /**
+     * Creates a request with a subject, a resource, an action and an
+     * environment, to load the Hessian serializers of the request model.
+     * 
+     * @return the request
+     */
+    private static Request createDryRunRequest() {
+        Subject subject= new Subject();
+        subject.getAttributes().add(createDryRunAttribute());
+        Resource resource= new Resource();
+        resource.getAttributes().add(createDryRunAttribute());
+        Action action= new Action();
+        action.getAttributes().add(createDryRunAttribute());
+        Environment environment= new Environment();
+        environment.getAttributes().add(createDryRunAttribute());
+        Request request= new Request();
+        request.getSubjects().add(subject);
+        request.getResources().add(resource);
+        request.setAction(action);
+        request.setEnvironment(environment);
+        return request;
+    }
+
+    /**
+     * Creates a string attribute of the dry run request.
+     * 
+     * @return the attribute
+     */
+    private static Attribute createDryRunAttribute() {
+        Attribute attribute= new Attribute("warm-up", Attribute.DT_STRING);
+        attribute.getValues().add("warm-up");
+        return attribute;
+    }
+
+    /**
+     * Registers the metrics MXBean in the platform MBean server. A
+     * registration failure is logged, the client works without JMX.
+     * 
+     * @param name
+     *            the JMX object name
+     */
+    private void registerMetricsMBean(String name) {
+        try {
+            ObjectName objectName= new ObjectName(name);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics_,
+                                                                     objectName);
+            metricsMBeanName_= objectName;
+        } catch (JMException e) {
+            log.warn("Unable to register the metrics MXBean " + name, e);
+        }
+    }
+
+    /**
+     * Returns the metrics of the client: latencies per authorization phase
+     * and per PEP daemon endpoint, and counters.
+     * 
+     * @return the client metrics
+     */
+    public PEPClientMetrics getMetrics() {
+        return metrics_;
     }
 
     /**
-     * Authorizes the request with the PEP daemon and return the response
+     * Authorizes the request with the PEP daemon and return the response.
+     * <p>
+     * If the decision cache is enabled, a response previously received for
+     * the same request, after PIP processing, is returned without contacting
+     * the PEP daemon. The obligation handlers are always applied.
+     * <p>
+     * If request coalescing is enabled, identical requests, after PIP
+     * processing, authorized concurrently share a single PEP daemon call, and
+     * each receive a copy of its response.
+     * <p>
+     * The PEP daemon endpoint is selected according to the configured load
+     * balancing strategy, then the other endpoints are tried in the configured
+     * order. The endpoints marked as unavailable by their circuit breaker are skipped,
+     * and only tried if all the available endpoints have failed.
+     * <p>
+     * If hedging is enabled and the selected endpoint has not responded
+     * within the hedging delay, the request is also sent to the next
+     * available endpoint, and the first successful response is returned.
+     * <p>
+     * If an authorization timeout is configured, the authorization fails
+     * with a {@link PEPClientTimeoutException} once it is spent, see
+     * {@link #authorize(Request, long)}.
      * 
      * @param request
      *            the authorization request
@@ -115,42 +545,731 @@ public class PEPClient {
      *             if a processing error occurs.
      */
     public Response authorize(Request request) throws PEPClientException {
+        return authorize(request, authorizationTimeout_);
+    }
+
+    /**
+     * Authorizes the request with the PEP daemon within the given time
+     * budget, and return the response.
+     * <p>
+     * The request is processed as by {@link #authorize(Request)}, but the
+     * timeout is a deadline for the whole authorization: the PIPs, the wait
+     * for an identical request in progress, and each PEP daemon request and
+     * failover attempt. Each step is given the smaller of its configured
+     * timeout and the remaining budget, and no new attempt is started once
+     * the budget is spent.
+     * 
+     * @param request
+     *            the authorization request
+     * @param timeout
+     *            the authorization deadline in millis, <code>0</code> for no
+     *            deadline
+     * @return the reponse
+     * @throws PEPClientTimeoutException
+     *             if the deadline expired before a response was received
+     * @throws PEPClientException
+     *             if a processing error occurs.
+     */
+    public Response authorize(Request request, long timeout)
+            throws PEPClientException {
+        Deadline deadline= Deadline.after(timeout);
+        long startTime= System.nanoTime();
+        boolean success= false;
+        try {
+            Response response= authorizeRequest(request, deadline);
+            success= true;
+            return response;
+        } finally {
+            metrics_.recordAuthorization(startTime, success);
+        }
+    }
+
+    /**
+     * Authorizes the request, see {@link #authorize(Request, long)}.
+     * 
+     * @param request
+     *            the authorization request
+     * @param deadline
+     *            the authorization deadline
+     * @return the reponse
+     * @throws PEPClientException
+     *             if a processing error occurs.
+     */
+    private Response authorizeRequest(final Request request,
+            final Deadline deadline) throws PEPClientException {
         Response response= null;
-        Exception cause= null;
+        long pipStartTime= System.nanoTime();
         try {
-            runPolicyInformationPoints(request);
+            runPolicyInformationPoints(request, deadline);
         } catch (PIPProcessingException e) {
+            metrics_.recordError(e);
+            deadline.check("the PIPs completed", e);
             throw new PEPClientException("PIP processing failure", e);
+        } finally {
+            metrics_.recordPhase(AuthorizationPhase.PIP, pipStartTime);
         }
-        for (String endpoint : pepdEndpoints_) {
-            try {
-                response= performRequest(endpoint, request);
-                // success, exit loop
-                break;
-            } catch (PEPClientException e) {
-                log.error("Request failed for PEP Server " + endpoint, e);
-                cause= e;
+        RequestKey requestKey= null;
+        if (decisionCache_ != null || requestCoalescer_ != null) {
+            requestKey= RequestKey.create(request);
+        }
+        if (decisionCache_ != null) {
+            response= decisionCache_.get(requestKey);
+            if (response != null) {
+                metrics_.recordCacheHit();
+                if (log.isDebugEnabled()) {
+                    log.debug("cached response " + requestKey);
+                }
             }
         }
         if (response == null) {
-            String error= "No PEP Server " + pepdEndpoints_
-                    + " was able to process the request";
-            log.error(error);
-            PEPClientException exception= new PEPClientException(error,cause);
-            if (cause != null) {
-                exception.setStackTrace(cause.getStackTrace());
+            if (requestCoalescer_ != null) {
+                final RequestKey key= requestKey;
+                response= requestCoalescer_.execute(key,
+                                                    new RequestCoalescer.Call() {
+                                                        public Response call()
+                                                                throws PEPClientException {
+                                                            return dispatchRequest(request,
+                                                                                   key,
+                                                                                   deadline);
+                                                        }
+                                                    },
+                                                    deadline);
+            }
+            else {
+                response= dispatchRequest(request, requestKey, deadline);
             }
-            throw exception;
         }
+        long obligationStartTime= System.nanoTime();
         try {
             runObligationHandlers(request, response);
         } catch (ObligationProcessingException e) {
+            metrics_.recordError(e);
             throw new PEPClientException("ObligationHandler processing failure",
                                          e);
+        } finally {
+            metrics_.recordPhase(AuthorizationPhase.OBLIGATION,
+                                 obligationStartTime);
         }
         return response;
     }
 
+    /**
+     * Asynchronously authorizes the request with the PEP daemon.
+     * <p>
+     * The request is processed as by {@link #authorize(Request)} on the
+     * configured executor, and the returned future is completed with the
+     * response, or exceptionally with the {@link PEPClientException}. If the
+     * maximum number of asynchronous requests in progress is reached, the
+     * returned future is immediately completed exceptionally.
+     * 
+     * @param request
+     *            the authorization request
+     * @return the future response
+     */
+    public CompletableFuture<Response> authorizeAsync(Request request) {
+        CompletableFuture<Response> future= new CompletableFuture<Response>();
+        if (!asyncPermits_.tryAcquire()) {
+            future.completeExceptionally(new PEPClientException("Too many asynchronous requests in progress (max "
+                    + maxAsyncRequests_ + ")"));
+            return future;
+        }
+        try {
+            asyncExecutor_.execute(new AsyncAuthorization(request, future));
+        } catch (RejectedExecutionException e) {
+            asyncPermits_.release();
+            future.completeExceptionally(new PEPClientException("Asynchronous request rejected by the executor",
+                                                                e));
+        }
+        return future;
+    }
+
+    /**
+     * Authorizes a batch of requests with the PEP daemon.
+     * <p>
+     * The requests are processed as by {@link #authorize(Request)}, in
+     * parallel on the configured executor and the calling thread, up to the
+     * configured batch parallelism. The workers on the executor count as
+     * asynchronous requests in progress: when the max is reached, fewer
+     * workers are started, at worst none. This method returns when all the
+     * requests have been processed.
+     * <p>
+     * Identical requests within the batch are authorized only once: the PIPs
+     * and the obligation handlers run once per unique request, and each
+     * duplicate gets its own copy of the processed response.
+     * 
+     * @param requests
+     *            the authorization requests
+     * @return the outcomes of the requests, in the order of the requests
+     */
+    public List<AuthorizationOutcome> authorizeAll(List<Request> requests) {
+        // deduplicate identical requests, before PIP processing
+        List<Request> uniqueRequests= new ArrayList<Request>();
+        int[] uniqueIndexes= new int[requests.size()];
+        Map<RequestKey, Integer> keys= new HashMap<RequestKey, Integer>();
+        for (int i= 0; i < requests.size(); i++) {
+            Request request= requests.get(i);
+            RequestKey key= RequestKey.create(request);
+            Integer index= keys.get(key);
+            if (index == null) {
+                index= uniqueRequests.size();
+                keys.put(key, index);
+                uniqueRequests.add(request);
+            }
+            uniqueIndexes[i]= index;
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("authorizing " + uniqueRequests.size()
+                    + " unique requests of " + requests.size());
+        }
+
+        // the calling thread is one of the workers
+        int maxWorkers= Math.min(batchParallelism_, uniqueRequests.size()) - 1;
+        int workers= 0;
+        while (workers < maxWorkers && asyncPermits_.tryAcquire()) {
+            workers++;
+        }
+        if (workers < maxWorkers && log.isDebugEnabled()) {
+            log.debug("max asynchronous requests reached, " + workers
+                    + " batch workers of " + maxWorkers);
+        }
+        BatchAuthorization batch= new BatchAuthorization(uniqueRequests,
+                                                         workers);
+        for (int i= 0; i < workers; i++) {
+            try {
+                asyncExecutor_.execute(batch);
+            } catch (RejectedExecutionException e) {
+                log.warn("Batch worker rejected by the executor", e);
+                batch.discard();
+            }
+        }
+        AuthorizationOutcome[] outcomes= batch.process();
+
+        List<AuthorizationOutcome> results= new ArrayList<AuthorizationOutcome>(requests.size());
+        ResponseSnapshot[] snapshots= new ResponseSnapshot[outcomes.length];
+        boolean[] returned= new boolean[outcomes.length];
+        for (int i= 0; i < requests.size(); i++) {
+            int index= uniqueIndexes[i];
+            AuthorizationOutcome outcome= outcomes[index];
+            if (returned[index]) {
+                outcome= copyOutcome(requests.get(i), outcome, snapshots, index);
+            }
+            returned[index]= true;
+            results.add(outcome);
+        }
+        return results;
+    }
+
+    /**
+     * Copies the outcome of a unique request for a duplicate request. The
+     * response is copied, so that the duplicates do not share a mutable
+     * response object.
+     * 
+     * @param request
+     *            the duplicate request
+     * @param outcome
+     *            the outcome of the unique request
+     * @param snapshots
+     *            the snapshots of the unique responses, by unique index
+     * @param index
+     *            the unique request index
+     * @return the outcome of the duplicate request
+     */
+    private AuthorizationOutcome copyOutcome(Request request,
+            AuthorizationOutcome outcome, ResponseSnapshot[] snapshots,
+            int index) {
+        if (outcome.getResponse() == null) {
+            return new AuthorizationOutcome(request,
+                                            null,
+                                            outcome.getException());
+        }
+        try {
+            if (snapshots[index] == null) {
+                snapshots[index]= ResponseSnapshot.create(outcome.getResponse());
+            }
+            return new AuthorizationOutcome(request,
+                                            snapshots[index].restore(),
+                                            null);
+        } catch (IOException e) {
+            log.error("Unable to copy the response of a duplicate request", e);
+            return new AuthorizationOutcome(request,
+                                            null,
+                                            new PEPClientException("Unable to copy the response of a duplicate request",
+                                                                   e));
+        }
+    }
+
+    /**
+     * Shuts down the client. The internal thread pool is stopped, the
+     * asynchronous requests not yet started are completed exceptionally, the
+     * pooled connections are closed, and the TLS context is released: the
+     * trust store reloads stop when no other client uses it. The client can
+     * not be used afterward.
+     */
+    public void shutdown() {
+        endpointProber_.shutdown();
+        if (pipThreadPool_ != null) {
+            pipThreadPool_.shutdownNow();
+        }
+        if (hedgingThreadPool_ != null) {
+            hedgingThreadPool_.shutdownNow();
+        }
+        if (asyncThreadPool_ != null) {
+            List<Runnable> discarded= asyncThreadPool_.shutdownNow();
+            for (Runnable runnable : discarded) {
+                if (runnable instanceof AsyncAuthorization) {
+                    ((AsyncAuthorization) runnable).discard();
+                }
+                else if (runnable instanceof BatchAuthorization) {
+                    ((BatchAuthorization) runnable).discard();
+                }
+            }
+        }
+        transport_.shutdown();
+        if (sharedTLSContext_ != null) {
+            TLSContextRegistry.getInstance().release(sharedTLSContext_);
+            sharedTLSContext_= null;
+        }
+        if (ownTLSContext_ != null) {
+            ownTLSContext_.dispose();
+            ownTLSContext_= null;
+        }
+        if (metricsMBeanName_ != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(metricsMBeanName_);
+            } catch (JMException e) {
+                log.warn("Unable to unregister the metrics MXBean "
+                        + metricsMBeanName_, e);
+            }
+        }
+    }
+
+    /**
+     * Sends the request to the PEP daemon endpoints, and caches the response
+     * if the decision cache is enabled.
+     * 
+     * @param request
+     *            the authorization request
+     * @param requestKey
+     *            the request key, <code>null</code> if the decision cache is
+     *            disabled
+     * @param deadline
+     *            the authorization deadline
+     * @return the response
+     * @throws PEPClientException
+     *             if no endpoint was able to process the request
+     */
+    private Response dispatchRequest(Request request, RequestKey requestKey,
+            Deadline deadline) throws PEPClientException {
+        Response response= dispatchRequest(request, deadline);
+        if (decisionCache_ != null) {
+            decisionCache_.put(requestKey, response);
+        }
+        return response;
+    }
+
+    /**
+     * Sends the request to the PEP daemon endpoints, in the load balancer
+     * order, until one returns a response. The endpoints with an open circuit
+     * are skipped, and only tried as last resort. The request entity is
+     * created once, and the first attempt is hedged if enabled. No attempt is
+     * started once the deadline has expired.
+     * 
+     * @param request
+     *            the authorization request
+     * @param deadline
+     *            the authorization deadline
+     * @return the response of the first successful endpoint
+     * @throws PEPClientTimeoutException
+     *             if the deadline expired before an endpoint processed the
+     *             request
+     * @throws PEPClientException
+     *             if no endpoint was able to process the request
+     */
+    private Response dispatchRequest(Request request, Deadline deadline)
+            throws PEPClientException {
+        HessianRequestEntity requestEntity= createRequestEntity(request);
+        boolean hedge= false;
+        if (hedgingBudget_ != null) {
+            hedgingBudget_.deposit();
+            hedge= true;
+        }
+        Exception cause= null;
+        // the skipped endpoints are tried last, each attempt is given a share
+        // of the remaining budget
+        int attempts= endpoints_.size();
+        List<Endpoint> skipped= new ArrayList<Endpoint>(0);
+        Iterator<Endpoint> endpoints= loadBalancer_.select().iterator();
+        while (endpoints.hasNext()) {
+            Endpoint endpoint= endpoints.next();
+            // before claiming a half-open trial, which the check would leak
+            deadline.check("the request to PEP Server " + endpoint, cause);
+            if (!isAvailable(endpoint, skipped)) {
+                continue;
+            }
+            try {
+                Response response;
+                if (hedge) {
+                    hedge= false;
+                    response= performHedgedRequest(endpoint,
+                                                   endpoints,
+                                                   skipped,
+                                                   requestEntity,
+                                                   deadline,
+                                                   attempts--);
+                }
+                else {
+                    response= performRequest(endpoint,
+                                             true,
+                                             requestEntity,
+                                             deadline.share(attempts--));
+                }
+                if (cause != null) {
+                    metrics_.recordFailover();
+                }
+                return response;
+            } catch (PEPClientException e) {
+                log.error("Request failed for PEP Server " + endpoint, e);
+                cause= e;
+            }
+        }
+        // last resort: the unavailable endpoints
+        for (Endpoint endpoint : skipped) {
+            deadline.check("the request to unavailable PEP Server "
+                    + endpoint, cause);
+            try {
+                Response response= performRequest(endpoint,
+                                                  false,
+                                                  requestEntity,
+                                                  deadline.share(attempts--));
+                if (cause != null) {
+                    metrics_.recordFailover();
+                }
+                return response;
+            } catch (PEPClientException e) {
+                log.error("Request failed for unavailable PEP Server "
+                        + endpoint, e);
+                cause= e;
+            }
+        }
+        deadline.check("a PEP Server processed the request", cause);
+        String error= "No PEP Server " + pepdEndpoints_
+                + " was able to process the request";
+        log.error(error);
+        PEPClientException exception= new PEPClientException(error, cause);
+        if (cause != null) {
+            exception.setStackTrace(cause.getStackTrace());
+        }
+        throw exception;
+    }
+
+    /**
+     * Checks if the endpoint circuit breaker allows a request, otherwise adds
+     * the endpoint to the skipped ones.
+     * 
+     * @param endpoint
+     *            the PEP daemon endpoint
+     * @param skipped
+     *            the skipped endpoints
+     * @return <code>true</code> if the endpoint is available
+     */
+    private boolean isAvailable(Endpoint endpoint, List<Endpoint> skipped) {
+        if (endpoint.getCircuitBreaker().allowRequest()) {
+            return true;
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("PEP Server " + endpoint + " unavailable, skipped");
+        }
+        skipped.add(endpoint);
+        return false;
+    }
+
+    /**
+     * Sends the request to the primary endpoint and, if it has not responded
+     * within the hedging delay and the hedging budget allows it, also to the
+     * next available endpoint. The first successful response is returned,
+     * the slower request completes in background.
+     * 
+     * @param primary
+     *            the primary PEP daemon endpoint
+     * @param others
+     *            the next endpoints to try
+     * @param skipped
+     *            the skipped endpoints
+     * @param requestEntity
+     *            the serialized authorization request
+     * @param deadline
+     *            the authorization deadline
+     * @param attempts
+     *            the number of attempts left, sharing the remaining budget
+     * @return the first successful response
+     * @throws PEPClientTimeoutException
+     *             if the deadline expired before a response was received
+     * @throws PEPClientException
+     *             if the primary request, and the hedged request if any,
+     *             failed
+     */
+    private Response performHedgedRequest(Endpoint primary,
+            Iterator<Endpoint> others, List<Endpoint> skipped,
+            HessianRequestEntity requestEntity, Deadline deadline, int attempts)
+            throws PEPClientException {
+        if (latencies_.getCount() < HEDGING_MIN_SAMPLES) {
+            return performRequest(primary,
+                                  true,
+                                  requestEntity,
+                                  deadline.share(attempts));
+        }
+        long delay= Math.max(hedgingMinDelay_,
+                             latencies_.getPercentile(hedgingPercentile_));
+        CompletionService<Response> completionService= new ExecutorCompletionService<Response>(hedgingThreadPool_);
+        Future<Response> primaryFuture= submitRequest(completionService,
+                                                      primary,
+                                                      requestEntity,
+                                                      deadline.share(attempts));
+        Future<Response> secondaryFuture= null;
+        Endpoint secondary= null;
+        PEPClientException primaryFailure= null;
+        try {
+            Future<Response> future= completionService.poll(Math.min(delay,
+                                                                     deadline.remainingNanos()),
+                                                            TimeUnit.NANOSECONDS);
+            if (future == null && !deadline.isExpired()
+                    && hedgingBudget_.tryWithdraw()) {
+                while (secondary == null && others.hasNext()) {
+                    Endpoint endpoint= others.next();
+                    if (isAvailable(endpoint, skipped)) {
+                        secondary= endpoint;
+                    }
+                }
+                if (secondary != null) {
+                    if (log.isDebugEnabled()) {
+                        log.debug("PEP Server " + primary
+                                + " has not responded in " + delay
+                                + " ns, hedging request to " + secondary);
+                    }
+                    try {
+                        secondaryFuture= submitRequest(completionService,
+                                                       secondary,
+                                                       requestEntity,
+                                                       deadline.share(attempts - 1));
+                        metrics_.recordHedgedRequest();
+                    } catch (PEPClientException e) {
+                        // wait for the primary request only
+                        log.warn("Hedged request to PEP Server " + secondary
+                                + " not sent", e);
+                    }
+                }
+            }
+            int pending= (secondaryFuture == null) ? 1 : 2;
+            while (pending > 0) {
+                if (future == null && deadline.isUnlimited()) {
+                    future= completionService.take();
+                }
+                while (future == null) {
+                    deadline.check("the PEP Server " + primary + " responded",
+                                   primaryFailure);
+                    future= completionService.poll(deadline.remainingNanos(),
+                                                   TimeUnit.NANOSECONDS);
+                }
+                try {
+                    return future.get();
+                } catch (ExecutionException e) {
+                    Throwable cause= e.getCause();
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    PEPClientException failure= (PEPClientException) cause;
+                    if (future == primaryFuture) {
+                        primaryFailure= failure;
+                    }
+                    else {
+                        log.error("Hedged request failed for PEP Server "
+                                + secondary, failure);
+                        if (primaryFailure == null) {
+                            primaryFailure= failure;
+                        }
+                    }
+                }
+                future= null;
+                pending--;
+            }
+            throw primaryFailure;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PEPClientException("Interrupted while waiting for the PEP Server "
+                                                 + primary + " response",
+                                         e);
+        }
+    }
+
+    /**
+     * Submits the request to the endpoint on the hedging thread pool.
+     * 
+     * @param completionService
+     *            the completion service of the hedging thread pool
+     * @param endpoint
+     *            the PEP daemon endpoint
+     * @param requestEntity
+     *            the serialized authorization request
+     * @param deadline
+     *            the authorization deadline
+     * @return the future response
+     * @throws PEPClientException
+     *             if the request is rejected by the thread pool
+     */
+    private Future<Response> submitRequest(
+            CompletionService<Response> completionService,
+            final Endpoint endpoint, final HessianRequestEntity requestEntity,
+            final Deadline deadline) throws PEPClientException {
+        try {
+            return completionService.submit(new Callable<Response>() {
+                public Response call() throws PEPClientException {
+                    return performRequest(endpoint,
+                                          true,
+                                          requestEntity,
+                                          deadline);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // the request allowed by the circuit breaker is not sent
+            endpoint.getCircuitBreaker().releaseTrial();
+            throw new PEPClientException("Request rejected by the hedging thread pool",
+                                         e);
+        }
+    }
+
+    /**
+     * Calls out to the PEP daemon endpoint and records the latency and the
+     * outcome in the endpoint circuit breaker, and concurrency limiter if
+     * enabled.
+     * <p>
+     * A request timing out is a failure of the endpoint, which did not
+     * respond within its attempt deadline. A request failing because no
+     * pooled connection was free says nothing about the endpoint health: it
+     * is not sent, and the half-open trial is released without recording a
+     * failure, and its concurrency limit slot is cancelled. So is a request
+     * refused by the concurrency limit. Every request sent, including one
+     * timing out, adapts the concurrency limit.
+     * 
+     * @param endpoint
+     *            the PEP daemon endpoint
+     * @param allowed
+     *            whether the endpoint circuit breaker allowed the request,
+     *            which then holds the half-open trial if any, rather than
+     *            a last resort request to an unavailable endpoint
+     * @param requestEntity
+     *            the serialized authorization request
+     * @param deadline
+     *            the deadline of the attempt
+     * @return the response to the request
+     * @throws PEPClientException
+     *             thrown if there is a problem processing the request
+     */
+    private Response performRequest(Endpoint endpoint, boolean allowed,
+            HessianRequestEntity requestEntity, Deadline deadline)
+            throws PEPClientException {
+        CircuitBreaker circuitBreaker= endpoint.getCircuitBreaker();
+        ConcurrencyLimiter concurrencyLimiter= endpoint.getConcurrencyLimiter();
+        if (concurrencyLimiter != null) {
+            boolean acquired= false;
+            try {
+                acquireConcurrencyLimit(endpoint, concurrencyLimiter, deadline);
+                acquired= true;
+            } finally {
+                if (!acquired && allowed) {
+                    circuitBreaker.releaseTrial();
+                }
+            }
+        }
+        boolean success= false;
+        boolean sent= true;
+        long startTime= endpoint.requestStarted();
+        try {
+            Response response= performRequest(endpoint.getUrl(),
+                                              requestEntity,
+                                              deadline);
+            success= true;
+            return response;
+        } catch (PEPClientException e) {
+            metrics_.recordError(e);
+            sent= !(e instanceof PEPClientPoolTimeoutException);
+            throw e;
+        } finally {
+            endpoint.requestEnded(startTime, success);
+            if (concurrencyLimiter != null) {
+                if (!sent) {
+                    concurrencyLimiter.cancel();
+                }
+                else {
+                    concurrencyLimiter.release(startTime, success);
+                }
+            }
+            metrics_.recordEndpointRequest(endpoint, startTime, success);
+            if (!sent) {
+                if (allowed) {
+                    circuitBreaker.releaseTrial();
+                }
+            }
+            else if (success) {
+                latencies_.record(System.nanoTime() - startTime);
+                if (circuitBreaker.getState() != CircuitBreaker.State.CLOSED) {
+                    log.info("PEP Server " + endpoint + " is available again");
+                }
+                circuitBreaker.recordSuccess();
+            }
+            else if (circuitBreaker.recordFailure()) {
+                log.warn("PEP Server " + endpoint
+                        + " marked as unavailable after "
+                        + circuitBreaker.getConsecutiveFailures()
+                        + " consecutive failures");
+                endpointProber_.schedule();
+            }
+        }
+    }
+
+    /**
+     * Waits for the endpoint concurrency limit to allow a request, according
+     * to the concurrency limit policy.
+     * 
+     * @param endpoint
+     *            the PEP daemon endpoint
+     * @param concurrencyLimiter
+     *            the endpoint concurrency limiter
+     * @param deadline
+     *            the authorization deadline, bounding the wait
+     * @throws PEPClientException
+     *             if the request is refused by the limit
+     */
+    private void acquireConcurrencyLimit(Endpoint endpoint,
+            ConcurrencyLimiter concurrencyLimiter, Deadline deadline)
+            throws PEPClientException {
+        boolean acquired;
+        if (concurrencyLimitPolicy_ == ConcurrencyLimitPolicy.SHED) {
+            acquired= concurrencyLimiter.tryAcquire();
+        }
+        else {
+            long timeout= Math.min(concurrencyLimitQueueTimeout_,
+                                   deadline.remaining());
+            try {
+                acquired= concurrencyLimiter.tryAcquire(timeout,
+                                                        TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new PEPClientException("Interrupted while waiting for the PEP Server "
+                                                     + endpoint
+                                                     + " concurrency limit",
+                                             e);
+            }
+        }
+        if (!acquired) {
+            throw new PEPClientException("PEP Server " + endpoint
+                    + " concurrency limit of "
+                    + concurrencyLimiter.getLimit() + " requests reached");
+        }
+    }
+
     /**
      * Calls out to the remote PEP and returns the response.
      * 
@@ -164,76 +1283,113 @@ public class PEPClient {
      */
     protected Response performRequest(String pepUrl, Request authzRequest)
             throws PEPClientException {
+        return performRequest(pepUrl, createRequestEntity(authzRequest));
+    }
 
-        String b64Message= null;
+    /**
+     * Creates the request entity streaming the base64 encoded Hessian
+     * serialization of the request. The entity is repeatable, and can be
+     * sent to several PEP daemons.
+     * 
+     * @param authzRequest
+     *            the authorization request
+     * @return the request entity
+     * @throws PEPClientException
+     *             if the request can not be serialized
+     */
+    protected HessianRequestEntity createRequestEntity(Request authzRequest)
+            throws PEPClientException {
+        long startTime= System.nanoTime();
         try {
-            ByteArrayOutputStream out= new ByteArrayOutputStream();
-            HessianOutput hout= new HessianOutput(out);
-            hout.writeObject(authzRequest);
-            hout.flush();
-            b64Message= Base64.encodeBytes(out.toByteArray());
+            return new HessianRequestEntity(authzRequest);
         } catch (IOException e) {
+            metrics_.recordError(e);
             log.error("Unable to serialize request object", e);
             throw new PEPClientException("Unable to serialize request object",
                                          e);
+        } finally {
+            metrics_.recordPhase(AuthorizationPhase.SERIALIZATION, startTime);
         }
+    }
 
-        PostMethod postMethod= new PostMethod(pepUrl);
-        try {
-            RequestEntity requestEntity= new StringRequestEntity(b64Message,
-                                                                 "application/octet-stream",
-                                                                 "UTF-8");
-            postMethod.setRequestEntity(requestEntity);
-        } catch (UnsupportedEncodingException e) {
-            throw new PEPClientException(e);
-        }
+    /**
+     * Sends the request entity to the remote PEP with the HTTP transport, and
+     * returns the response.
+     * 
+     * @param pepUrl
+     *            the remote PEP to which to callout
+     * @param requestEntity
+     *            the serialized authorization request
+     * @return the response to the request
+     * @throws PEPClientException
+     *             thrown if there is a problem processing the request
+     */
+    protected Response performRequest(String pepUrl,
+            HessianRequestEntity requestEntity) throws PEPClientException {
+        return performRequest(pepUrl, requestEntity, Deadline.NONE);
+    }
 
-        Response response= null;
-        try {
-            httpClient_.executeMethod(postMethod);
-            if (postMethod.getStatusCode() == HttpStatus.SC_OK) {
-                try {
-                    InputStream is= new Base64.InputStream(postMethod.getResponseBodyAsStream());
-                    HessianInput hin= new HessianInput(is);
-                    response= (Response) hin.readObject(Response.class);
-                } catch (IOException e) {
-                    log.error("Unable to deserialize response object", e);
-                    throw new PEPClientException("Unable to deserialize response object",
-                                                 e);
-                }
-            }
-            else {
-                String error= postMethod.getStatusCode()
-                        + " status code response from the PEP Server " + pepUrl;
-                log.error(error);
-                throw new PEPClientException(error);
+    /**
+     * Sends the request entity to the remote PEP with the HTTP transport,
+     * within the deadline, and returns the response.
+     * 
+     * @param pepUrl
+     *            the remote PEP to which to callout
+     * @param requestEntity
+     *            the serialized authorization request
+     * @param deadline
+     *            the authorization deadline, bounding the read timeout
+     * @return the response to the request
+     * @throws PEPClientException
+     *             thrown if there is a problem processing the request
+     */
+    protected Response performRequest(String pepUrl,
+            HessianRequestEntity requestEntity, Deadline deadline)
+            throws PEPClientException {
+        return transport_.send(pepUrl, requestEntity, deadline);
+    }
 
-            }
-        } catch (IOException e) {
-            log.error("Unable to read response from PEP Server " + pepUrl, e);
-            throw new PEPClientException("Unable to read response from PEP Server "
-                                                 + pepUrl,
-                                         e);
-        } finally {
-            log.debug("release connection");
-            postMethod.releaseConnection();
+    /**
+     * Runs the PIPs over the request within the deadline. Only the PIPs run
+     * in parallel can be interrupted by the deadline, the serial PIPs are
+     * checked against it once completed.
+     * 
+     * @param request
+     *            the request
+     * @param deadline
+     *            the authorization deadline
+     * @throws PIPProcessingException
+     *             thrown if a PIP failed to populate the request, or the
+     *             PIPs did not complete in time
+     */
+    private void runPolicyInformationPoints(Request request, Deadline deadline)
+            throws PIPProcessingException {
+        if (pipRunner_ != null && !deadline.isUnlimited()) {
+            pipRunner_.run(request, Math.max(1, deadline.remaining()));
+            return;
+        }
+        runPolicyInformationPoints(request);
+        if (deadline.isExpired()) {
+            throw new PIPProcessingException("PIPs not completed in "
+                    + deadline.getTimeout() + " ms");
         }
-
-        return response;
     }
 
     /**
-     * Run the list of PIPs over the request.
+     * Run the list of PIPs over the request. The independent PIPs are run in
+     * parallel if PIP threads are configured.
      * 
      * @param request
      *            the request
-     * @param pips
-     *            PIPs to run over the request
      * @throws PIPProcessingException
      *             thrown if a PIP failed to populate the request
      */
     protected void runPolicyInformationPoints(Request request)
             throws PIPProcessingException {
+        if (pipRunner_ != null) {
+            pipRunner_.run(request);
+            return;
+        }
         boolean pipApplied;
         for (PolicyInformationPoint pip : pips_) {
             if (log.isDebugEnabled()) {
@@ -247,7 +1403,9 @@ public class PEPClient {
     }
 
     /**
-     * Runs the obligations handlers over the returned response.
+     * Runs the obligations handlers over the returned response. Only the
+     * handlers of the obligations contained in a result, and the handlers
+     * processing every result, are applied to the result.
      * 
      * @param request
      *            the authorization request made
@@ -261,10 +1419,17 @@ public class PEPClient {
             throws ObligationProcessingException {
         if (response == null)
             return;
+        if (obligationDispatcher_.size() == 0) {
+            return;
+        }
         boolean ohApplied;
         List<Result> results= response.getResults();
         for (Result result : results) {
-            for (ObligationHandler oh : obligationHandlers_) {
+            List<ObligationHandler> handlers= obligationDispatcher_.select(result);
+            metrics_.recordObligationDispatch(handlers.size(),
+                                              obligationDispatcher_.size()
+                                                      - handlers.size());
+            for (ObligationHandler oh : handlers) {
                 if (log.isDebugEnabled()) {
                     log.debug("applying OH " + oh.getObligationId());
                 }
@@ -277,4 +1442,151 @@ public class PEPClient {
         }
     }
 
+    /**
+     * Asynchronous authorization task, completes the future with the
+     * response.
+     */
+    private final class AsyncAuthorization implements Runnable {
+
+        /** The authorization request */
+        private final Request request_;
+
+        /** The future response */
+        private final CompletableFuture<Response> future_;
+
+        AsyncAuthorization(Request request, CompletableFuture<Response> future) {
+            request_= request;
+            future_= future;
+        }
+
+        /** {@inheritDoc} */
+        public void run() {
+            Response response= null;
+            Throwable failure= null;
+            try {
+                response= authorize(request_);
+            } catch (Throwable t) {
+                failure= t;
+            } finally {
+                // release first, the dependent stages may authorize again
+                asyncPermits_.release();
+            }
+            if (failure == null) {
+                future_.complete(response);
+            }
+            else {
+                future_.completeExceptionally(failure);
+            }
+        }
+
+        /** Completes the future exceptionally, the task will never run. */
+        void discard() {
+            asyncPermits_.release();
+            future_.completeExceptionally(new PEPClientException("PEP client shut down"));
+        }
+    }
+
+    /**
+     * Batch authorization shared by the calling thread and the workers
+     * running on the executor. Each worker authorizes the next pending
+     * request until all the requests are processed.
+     */
+    private final class BatchAuthorization implements Runnable {
+
+        /** The unique requests of the batch */
+        private final List<Request> requests_;
+
+        /** The outcomes, in the requests order */
+        private final AuthorizationOutcome[] outcomes_;
+
+        /** Index of the next pending request */
+        private final AtomicInteger nextIndex_= new AtomicInteger();
+
+        /** Whether the batch was interrupted */
+        private final AtomicBoolean cancelled_= new AtomicBoolean();
+
+        /** Counts down the workers running on the executor */
+        private final CountDownLatch workersDone_;
+
+        BatchAuthorization(List<Request> requests, int workers) {
+            requests_= requests;
+            outcomes_= new AuthorizationOutcome[requests.size()];
+            workersDone_= new CountDownLatch(workers);
+        }
+
+        /** {@inheritDoc} */
+        public void run() {
+            try {
+                authorizePending();
+            } finally {
+                asyncPermits_.release();
+                workersDone_.countDown();
+            }
+        }
+
+        /** The worker will never run. */
+        void discard() {
+            asyncPermits_.release();
+            workersDone_.countDown();
+        }
+
+        /**
+         * Processes the batch in the calling thread, and waits for the
+         * workers to complete.
+         * 
+         * @return the outcomes, in the requests order
+         */
+        AuthorizationOutcome[] process() {
+            authorizePending();
+            boolean interrupted= false;
+            while (true) {
+                try {
+                    workersDone_.await();
+                    break;
+                } catch (InterruptedException e) {
+                    // let the workers complete the requests in progress
+                    interrupted= true;
+                    cancelled_.set(true);
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            return outcomes_;
+        }
+
+        /** Authorizes the pending requests. */
+        private void authorizePending() {
+            int index;
+            while ((index= nextIndex_.getAndIncrement()) < outcomes_.length) {
+                Request request= requests_.get(index);
+                if (cancelled_.get()) {
+                    outcomes_[index]= new AuthorizationOutcome(request,
+                                                               null,
+                                                               new PEPClientException("Batch authorization interrupted"));
+                    continue;
+                }
+                try {
+                    Response response= authorize(request);
+                    outcomes_[index]= new AuthorizationOutcome(request,
+                                                               response,
+                                                               null);
+                } catch (PEPClientException e) {
+                    outcomes_[index]= new AuthorizationOutcome(request, null, e);
+                } catch (RuntimeException e) {
+                    outcomes_[index]= new AuthorizationOutcome(request,
+                                                               null,
+                                                               new PEPClientException(e));
+                } catch (Error e) {
+                    // the outcome is set before the error propagates
+                    outcomes_[index]= new AuthorizationOutcome(request,
+                                                               null,
+                                                               new PEPClientException("Authorization failed: "
+                                                                       + e));
+                    throw e;
+                }
+            }
+        }
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client;
+
+/**
+ * Exception thrown when no pooled connection to a PEP daemon becomes free
+ * within the connection manager timeout.
+ * <p>
+ * The pool is exhausted by the requests of this client, not by the PEP
+ * daemon: the failure is not recorded against the endpoint health.
+ */
+public class PEPClientPoolTimeoutException extends PEPClientException {
+
+    /**
+     * Serial version uid
+     */
+    private static final long serialVersionUID= -2871066404319158392L;
+
+    /**
+     * Constructor.
+     * 
+     * @param message
+     */
+    public PEPClientPoolTimeoutException(String message) {
+        super(message);
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param message
+     * @param wrappedException
+     *            the connection manager timeout exception
+     */
+    public PEPClientPoolTimeoutException(String message,
+            Exception wrappedException) {
+        super(message, wrappedException);
+    }
+}
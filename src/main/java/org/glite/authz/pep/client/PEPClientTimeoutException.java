@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client;
+
+/**
+ * Exception thrown when an authorization exceeds its deadline.
+ * 
+ * @see PEPClient#authorize(org.glite.authz.common.model.Request, long)
+ */
+public class PEPClientTimeoutException extends PEPClientException {
+
+    /**
+     * Serial version uid
+     */
+    private static final long serialVersionUID= 3186372953541407721L;
+
+    /**
+     * Constructor.
+     * 
+     * @param message
+     */
+    public PEPClientTimeoutException(String message) {
+        super(message);
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param message
+     * @param wrappedException
+     *            the failure of the last attempt, may be <code>null</code>
+     */
+    public PEPClientTimeoutException(String message, Exception wrappedException) {
+        super(message, wrappedException);
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates the virtual thread executors of the Java 21 runtime. The client is
+ * compiled for Java 11, so the virtual thread API is looked up by
+ * reflection.
+ */
+final class VirtualThreads {
+
+    /**
+     * <code>Executors.newThreadPerTaskExecutor(ThreadFactory)</code>,
+     * <code>null</code> if not supported
+     */
+    private static final Method NEW_THREAD_PER_TASK_EXECUTOR;
+
+    /** <code>Thread.ofVirtual()</code>, <code>null</code> if not supported */
+    private static final Method OF_VIRTUAL;
+
+    /** <code>Thread.Builder.name(String, long)</code> */
+    private static final Method BUILDER_NAME;
+
+    /** <code>Thread.Builder.factory()</code> */
+    private static final Method BUILDER_FACTORY;
+
+    static {
+        Method newThreadPerTaskExecutor= null;
+        Method ofVirtual= null;
+        Method builderName= null;
+        Method builderFactory= null;
+        try {
+            Class<?> builderClass= Class.forName("java.lang.Thread$Builder");
+            builderName= builderClass.getMethod("name", String.class, long.class);
+            builderFactory= builderClass.getMethod("factory");
+            ofVirtual= Thread.class.getMethod("ofVirtual");
+            newThreadPerTaskExecutor= Executors.class.getMethod("newThreadPerTaskExecutor",
+                                                               ThreadFactory.class);
+        } catch (ClassNotFoundException e) {
+            ofVirtual= null;
+        } catch (NoSuchMethodException e) {
+            ofVirtual= null;
+        }
+        OF_VIRTUAL= ofVirtual;
+        NEW_THREAD_PER_TASK_EXECUTOR= newThreadPerTaskExecutor;
+        BUILDER_NAME= builderName;
+        BUILDER_FACTORY= builderFactory;
+    }
+
+    /** Prevents instantiation */
+    private VirtualThreads() {
+    }
+
+    /**
+     * Returns whether the runtime supports virtual threads.
+     * 
+     * @return <code>true</code> on Java 21 or later
+     */
+    static boolean isSupported() {
+        return OF_VIRTUAL != null;
+    }
+
+    /**
+     * Creates an executor starting a new named virtual thread for each task.
+     * 
+     * @param namePrefix
+     *            prefix of the thread names
+     * @return the executor
+     * @throws UnsupportedOperationException
+     *             if the runtime does not support virtual threads
+     */
+    static ExecutorService newThreadPerTaskExecutor(String namePrefix) {
+        if (!isSupported()) {
+            throw new UnsupportedOperationException("Virtual threads require Java 21 or later");
+        }
+        try {
+            Object builder= OF_VIRTUAL.invoke(null);
+            builder= BUILDER_NAME.invoke(builder, namePrefix + "-", 1L);
+            ThreadFactory factory= (ThreadFactory) BUILDER_FACTORY.invoke(builder);
+            return (ExecutorService) NEW_THREAD_PER_TASK_EXECUTOR.invoke(null,
+                                                                         factory);
+        } catch (IllegalAccessException e) {
+            throw new UnsupportedOperationException("Virtual threads not accessible",
+                                                    e);
+        } catch (InvocationTargetException e) {
+            throw new UnsupportedOperationException("Unable to create the virtual thread executor",
+                                                    e.getCause());
+        }
+    }
+}
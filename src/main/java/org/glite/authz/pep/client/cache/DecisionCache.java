@@ -0,0 +1,271 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client.cache;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.glite.authz.common.model.Response;
+import org.glite.authz.common.model.Result;
+
+/**
+ * Bounded cache of the PEP daemon authorization responses.
+ * <p>
+ * The responses are cached as received from the PEP daemon, before the
+ * obligation handlers are applied. Each lookup returns a new copy of the
+ * cached response, so the obligation handlers are always evaluated on a
+ * pristine response. Responses containing an
+ * {@link Result#DECISION_INDETERMINATE} result are never cached.
+ * <p>
+ * The cache holds at most <code>maxEntries</code> responses, the least
+ * recently used one is evicted first. A cached response expires
+ * <code>timeToLive</code> milliseconds after it was stored.
+ * <p>
+ * This class is thread-safe.
+ */
+public class DecisionCache {
+
+    /** Class logger. */
+    private final Log log= LogFactory.getLog(DecisionCache.class);
+
+    /** Maximum number of cached responses */
+    private final int maxEntries_;
+
+    /** Time-to-live in millis of a cached response */
+    private final long timeToLive_;
+
+    /** Cached entries in access order, guarded by itself */
+    private final Map<RequestKey, CacheEntry> entries_;
+
+    /** Number of cache hits */
+    private final AtomicLong hits_= new AtomicLong();
+
+    /** Number of cache misses */
+    private final AtomicLong misses_= new AtomicLong();
+
+    /**
+     * Constructor.
+     * 
+     * @param maxEntries
+     *            maximum number of cached responses, must be greater than
+     *            zero
+     * @param timeToLive
+     *            time-to-live in millis of the cached responses, must be
+     *            greater than zero
+     */
+    public DecisionCache(int maxEntries, long timeToLive) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("Maximum number of cache entries must be greater than zero.");
+        }
+        if (timeToLive < 1) {
+            throw new IllegalArgumentException("Cache entry time-to-live must be greater than zero.");
+        }
+        maxEntries_= maxEntries;
+        timeToLive_= timeToLive;
+        entries_= new LinkedHashMap<RequestKey, CacheEntry>(16, 0.75f, true) {
+            private static final long serialVersionUID= 1L;
+
+            protected boolean removeEldestEntry(
+                    Map.Entry<RequestKey, CacheEntry> eldest) {
+                return size() > maxEntries_;
+            }
+        };
+    }
+
+    /**
+     * Returns a copy of the cached response for the request key.
+     * 
+     * @param key
+     *            the request key
+     * @return a new copy of the cached response, or <code>null</code> if no
+     *         valid response is cached
+     */
+    public Response get(RequestKey key) {
+        CacheEntry entry;
+        synchronized (entries_) {
+            entry= entries_.get(key);
+            if (entry != null && entry.isExpired(System.currentTimeMillis())) {
+                entries_.remove(key);
+                entry= null;
+            }
+        }
+        if (entry == null) {
+            misses_.incrementAndGet();
+            return null;
+        }
+        try {
+            Response response= entry.snapshot_.restore();
+            hits_.incrementAndGet();
+            return response;
+        } catch (IOException e) {
+            log.warn("Unable to restore cached response " + key, e);
+            remove(key);
+            misses_.incrementAndGet();
+            return null;
+        }
+    }
+
+    /**
+     * Caches the response for the request key, if the response is cacheable.
+     * 
+     * @param key
+     *            the request key
+     * @param response
+     *            the PEP daemon response, before obligation processing
+     * @return <code>true</code> if the response was cached
+     */
+    public boolean put(RequestKey key, Response response) {
+        if (!isCacheable(response)) {
+            return false;
+        }
+        ResponseSnapshot snapshot;
+        try {
+            snapshot= ResponseSnapshot.create(response);
+        } catch (IOException e) {
+            log.warn("Unable to cache response " + key, e);
+            return false;
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("caching response " + key + " (" + snapshot.size()
+                    + " bytes)");
+        }
+        CacheEntry entry= new CacheEntry(snapshot, System.currentTimeMillis()
+                + timeToLive_);
+        synchronized (entries_) {
+            entries_.put(key, entry);
+        }
+        return true;
+    }
+
+    /**
+     * Removes the cached response for the request key.
+     * 
+     * @param key
+     *            the request key
+     */
+    public void remove(RequestKey key) {
+        synchronized (entries_) {
+            entries_.remove(key);
+        }
+    }
+
+    /** Removes all the cached responses. */
+    public void clear() {
+        synchronized (entries_) {
+            entries_.clear();
+        }
+    }
+
+    /**
+     * Returns the number of cached responses, including the expired ones not
+     * yet evicted.
+     * 
+     * @return number of cached responses
+     */
+    public int size() {
+        synchronized (entries_) {
+            return entries_.size();
+        }
+    }
+
+    /**
+     * Returns the number of lookups returning a cached response.
+     * 
+     * @return number of cache hits
+     */
+    public long getHits() {
+        return hits_.get();
+    }
+
+    /**
+     * Returns the number of lookups not returning a cached response.
+     * 
+     * @return number of cache misses
+     */
+    public long getMisses() {
+        return misses_.get();
+    }
+
+    /**
+     * Returns the maximum number of cached responses.
+     * 
+     * @return maximum number of cached responses
+     */
+    public int getMaxEntries() {
+        return maxEntries_;
+    }
+
+    /**
+     * Returns the time-to-live in millis of the cached responses.
+     * 
+     * @return time-to-live in millis
+     */
+    public long getTimeToLive() {
+        return timeToLive_;
+    }
+
+    /**
+     * Checks if the response can be cached. A response is cacheable if it
+     * contains at least one result, and none of the results is
+     * {@link Result#DECISION_INDETERMINATE}.
+     * 
+     * @param response
+     *            the PEP daemon response
+     * @return <code>true</code> if the response can be cached
+     */
+    protected boolean isCacheable(Response response) {
+        if (response == null) {
+            return false;
+        }
+        List<Result> results= response.getResults();
+        if (results == null || results.isEmpty()) {
+            return false;
+        }
+        for (Result result : results) {
+            if (result.getDecision() == Result.DECISION_INDETERMINATE) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Cached response and its expiration time. */
+    private static final class CacheEntry {
+
+        /** Response snapshot */
+        private final ResponseSnapshot snapshot_;
+
+        /** Expiration time in millis */
+        private final long expiresAt_;
+
+        CacheEntry(ResponseSnapshot snapshot, long expiresAt) {
+            snapshot_= snapshot;
+            expiresAt_= expiresAt;
+        }
+
+        boolean isExpired(long now) {
+            return now >= expiresAt_;
+        }
+    }
+}
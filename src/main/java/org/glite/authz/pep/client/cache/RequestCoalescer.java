@@ -0,0 +1,293 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client.cache;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.glite.authz.common.model.Response;
+import org.glite.authz.pep.client.Deadline;
+import org.glite.authz.pep.client.PEPClientException;
+import org.glite.authz.pep.client.PEPClientTimeoutException;
+
+/**
+ * Coalesces the identical authorization requests in progress, so they share
+ * a single PEP daemon call.
+ * <p>
+ * The first caller of {@link #execute(RequestKey, Call)} for a key performs
+ * the call. The callers for the same key arriving while the call is in
+ * progress wait for it, and each receive a new copy of its response, or its
+ * failure. Nothing is retained once the call has completed.
+ * <p>
+ * A call which exceeded the deadline of its caller is not a failure of the
+ * waiting callers: each of them performs or joins the call again within its
+ * own deadline, and fails with a {@link PEPClientTimeoutException} once it
+ * expired.
+ * <p>
+ * This class is thread-safe.
+ */
+public class RequestCoalescer {
+
+    /** The call to the PEP daemon */
+    public interface Call {
+
+        /**
+         * Performs the PEP daemon call.
+         * 
+         * @return the response
+         * @throws PEPClientException
+         *             if the call failed
+         */
+        Response call() throws PEPClientException;
+    }
+
+    /** Class logger. */
+    private final Log log= LogFactory.getLog(RequestCoalescer.class);
+
+    /** Calls in progress */
+    private final ConcurrentMap<RequestKey, InFlightCall> inFlight_= new ConcurrentHashMap<RequestKey, InFlightCall>();
+
+    /** Number of requests which joined a call in progress */
+    private final AtomicLong coalesced_= new AtomicLong();
+
+    /**
+     * Performs the call, or waits for the identical call in progress.
+     * 
+     * @param key
+     *            the request key
+     * @param call
+     *            the PEP daemon call
+     * @return the response, a copy if the call was shared
+     * @throws PEPClientException
+     *             if the call failed
+     */
+    public Response execute(RequestKey key, Call call)
+            throws PEPClientException {
+        return execute(key, call, Deadline.NONE);
+    }
+
+    /**
+     * Performs the call, or waits for the identical call in progress until
+     * the deadline of the caller.
+     * 
+     * @param key
+     *            the request key
+     * @param call
+     *            the PEP daemon call
+     * @param deadline
+     *            the authorization deadline of the caller
+     * @return the response, a copy if the call was shared
+     * @throws PEPClientTimeoutException
+     *             if the deadline expired while waiting for the call in
+     *             progress, or before the call was performed again
+     * @throws PEPClientException
+     *             if the call failed
+     */
+    public Response execute(RequestKey key, Call call, Deadline deadline)
+            throws PEPClientException {
+        while (true) {
+            InFlightCall inFlight= new InFlightCall();
+            InFlightCall existing= inFlight_.putIfAbsent(key, inFlight);
+            if (existing == null) {
+                return lead(key, inFlight, call);
+            }
+            if (existing.join()) {
+                coalesced_.incrementAndGet();
+                if (log.isDebugEnabled()) {
+                    log.debug("coalesced request " + key);
+                }
+                Response response= existing.await(key, deadline);
+                if (response != null) {
+                    return response;
+                }
+                // the call exceeded the deadline of its caller
+                deadline.check("the coalesced request " + key
+                        + " was performed again", existing.getFailure());
+                continue;
+            }
+            // completed meanwhile, try again
+            inFlight_.remove(key, existing);
+        }
+    }
+
+    /**
+     * Returns the number of requests which joined a call in progress.
+     * 
+     * @return number of coalesced requests
+     */
+    public long getCoalesced() {
+        return coalesced_.get();
+    }
+
+    /**
+     * Performs the call and hands its outcome to the waiting callers.
+     */
+    private Response lead(RequestKey key, InFlightCall inFlight, Call call)
+            throws PEPClientException {
+        Response response= null;
+        PEPClientException failure= null;
+        try {
+            response= call.call();
+            return response;
+        } catch (PEPClientException e) {
+            failure= e;
+            throw e;
+        } catch (RuntimeException e) {
+            failure= new PEPClientException("Coalesced request failed", e);
+            throw e;
+        } finally {
+            inFlight_.remove(key, inFlight);
+            inFlight.complete(response, failure);
+        }
+    }
+
+    /** A call in progress and its outcome. */
+    private static final class InFlightCall {
+
+        /** Lock of the call state */
+        private final ReentrantLock lock_= new ReentrantLock();
+
+        /** Signaled when the call completes */
+        private final Condition done_= lock_.newCondition();
+
+        /** Number of waiting callers */
+        private int followers_= 0;
+
+        /** Whether the call has completed */
+        private boolean completed_= false;
+
+        /** Copy of the response, if successful and shared */
+        private ResponseSnapshot snapshot_= null;
+
+        /** Failure of the call or of the response copy */
+        private PEPClientException failure_= null;
+
+        /**
+         * Joins the call, unless already completed.
+         * 
+         * @return <code>true</code> if joined
+         */
+        boolean join() {
+            lock_.lock();
+            try {
+                if (completed_) {
+                    return false;
+                }
+                followers_++;
+                return true;
+            } finally {
+                lock_.unlock();
+            }
+        }
+
+        /**
+         * Completes the call, and wakes up the waiting callers.
+         */
+        void complete(Response response, PEPClientException failure) {
+            lock_.lock();
+            try {
+                completed_= true;
+                failure_= failure;
+                if (response != null) {
+                    if (followers_ > 0) {
+                        try {
+                            snapshot_= ResponseSnapshot.create(response);
+                        } catch (IOException e) {
+                            failure_= new PEPClientException("Unable to copy the coalesced response",
+                                                             e);
+                        }
+                    }
+                }
+                else if (failure_ == null) {
+                    failure_= new PEPClientException("Coalesced request failed");
+                }
+                done_.signalAll();
+            } finally {
+                lock_.unlock();
+            }
+        }
+
+        /**
+         * Returns the failure of the completed call.
+         * 
+         * @return the failure, <code>null</code> if successful
+         */
+        PEPClientException getFailure() {
+            lock_.lock();
+            try {
+                return failure_;
+            } finally {
+                lock_.unlock();
+            }
+        }
+
+        /**
+         * Waits for the call to complete, or the deadline to expire.
+         * 
+         * @return the response copy, <code>null</code> if the call exceeded
+         *         the deadline of its caller
+         */
+        Response await(RequestKey key, Deadline deadline)
+                throws PEPClientException {
+            ResponseSnapshot snapshot;
+            PEPClientException failure;
+            lock_.lock();
+            try {
+                while (!completed_) {
+                    if (deadline.isUnlimited()) {
+                        done_.await();
+                    }
+                    else {
+                        deadline.check("the coalesced request " + key
+                                + " completed", null);
+                        done_.awaitNanos(deadline.remainingNanos());
+                    }
+                }
+                snapshot= snapshot_;
+                failure= failure_;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new PEPClientException("Interrupted while waiting for the coalesced request "
+                                                     + key,
+                                             e);
+            } finally {
+                lock_.unlock();
+            }
+            if (snapshot == null) {
+                if (failure instanceof PEPClientTimeoutException) {
+                    return null;
+                }
+                throw new PEPClientException("Coalesced request " + key
+                        + " failed", failure);
+            }
+            try {
+                return snapshot.restore();
+            } catch (IOException e) {
+                throw new PEPClientException("Unable to copy the coalesced response",
+                                             e);
+            }
+        }
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client.cache;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.glite.authz.common.model.Action;
+import org.glite.authz.common.model.Attribute;
+import org.glite.authz.common.model.Environment;
+import org.glite.authz.common.model.Request;
+import org.glite.authz.common.model.Resource;
+import org.glite.authz.common.model.Subject;
+
+/**
+ * Immutable key identifying an authorization request by its content.
+ * <p>
+ * The key is the SHA-256 digest of a canonical form of the request, where the
+ * subjects, resources, attributes and attribute values are sorted. Two
+ * requests containing the same attributes therefore have the same key,
+ * whatever the order in which the attributes were added.
+ * <p>
+ * The key is computed when created, later modifications of the request are
+ * not reflected.
+ */
+public final class RequestKey {
+
+    /** Digest algorithm used to compute the key */
+    private static final String DIGEST_ALGORITHM= "SHA-256";
+
+    /** Hexadecimal digits */
+    private static final char[] HEX_DIGITS= "0123456789abcdef".toCharArray();
+
+    /** Orders the tokens, <code>null</code> first */
+    private static final Comparator<String> TOKEN_ORDER= new Comparator<String>() {
+        public int compare(String token1, String token2) {
+            if (token1 == null) {
+                return token2 == null ? 0 : -1;
+            }
+            if (token2 == null) {
+                return 1;
+            }
+            return token1.compareTo(token2);
+        }
+    };
+
+    /** Digest of the canonical request */
+    private final byte[] digest_;
+
+    /** Cached hash code */
+    private final int hashCode_;
+
+    /**
+     * Constructor.
+     *
+     * @param digest
+     *            digest of the canonical request
+     */
+    private RequestKey(byte[] digest) {
+        digest_= digest;
+        hashCode_= Arrays.hashCode(digest);
+    }
+
+    /**
+     * Creates the key of the given request.
+     *
+     * @param request
+     *            the authorization request
+     * @return the request key
+     */
+    public static RequestKey create(Request request) {
+        if (request == null) {
+            throw new IllegalArgumentException("request can not be null");
+        }
+        String canonical= canonicalize(request);
+        try {
+            MessageDigest md= MessageDigest.getInstance(DIGEST_ALGORITHM);
+            return new RequestKey(md.digest(canonical.getBytes("UTF-8")));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(DIGEST_ALGORITHM
+                    + " digest not supported by the JVM", e);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException("UTF-8 encoding not supported by the JVM",
+                                            e);
+        }
+    }
+
+    /**
+     * Returns the canonical form of the request. Each element is length
+     * prefixed, or marked absent if <code>null</code>, and the elements of
+     * the sets are sorted.
+     *
+     * @param request
+     *            the authorization request
+     * @return the canonical string representation of the request
+     */
+    static String canonicalize(Request request) {
+        StringBuilder sb= new StringBuilder();
+        List<String> subjects= new ArrayList<String>();
+        for (Subject subject : request.getSubjects()) {
+            StringBuilder subjectSb= new StringBuilder();
+            appendToken(subjectSb, subject.getCategory());
+            appendAttributes(subjectSb, subject.getAttributes());
+            subjects.add(subjectSb.toString());
+        }
+        appendSorted(sb.append('S'), subjects);
+        List<String> resources= new ArrayList<String>();
+        for (Resource resource : request.getResources()) {
+            StringBuilder resourceSb= new StringBuilder();
+            appendToken(resourceSb, resource.getResourceContent());
+            appendAttributes(resourceSb, resource.getAttributes());
+            resources.add(resourceSb.toString());
+        }
+        appendSorted(sb.append('R'), resources);
+        Action action= request.getAction();
+        sb.append('A');
+        if (action != null) {
+            appendAttributes(sb, action.getAttributes());
+        }
+        Environment environment= request.getEnvironment();
+        sb.append('E');
+        if (environment != null) {
+            appendAttributes(sb, environment.getAttributes());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Appends the sorted canonical forms of the attributes.
+     */
+    private static void appendAttributes(StringBuilder sb,
+            Collection<Attribute> attributes) {
+        List<String> canonicals= new ArrayList<String>(attributes.size());
+        for (Attribute attribute : attributes) {
+            StringBuilder attributeSb= new StringBuilder();
+            appendToken(attributeSb, attribute.getId());
+            appendToken(attributeSb, attribute.getDataType());
+            appendToken(attributeSb, attribute.getIssuer());
+            List<String> values= new ArrayList<String>();
+            for (Object value : attribute.getValues()) {
+                values.add(value == null ? null : value.toString());
+            }
+            appendSorted(attributeSb, values);
+            canonicals.add(attributeSb.toString());
+        }
+        appendSorted(sb, canonicals);
+    }
+
+    /**
+     * Sorts the tokens and appends them as a counted list. A
+     * <code>null</code> token is kept distinct from an empty one.
+     */
+    private static void appendSorted(StringBuilder sb, List<String> tokens) {
+        List<String> sorted= new ArrayList<String>(tokens);
+        Collections.sort(sorted, TOKEN_ORDER);
+        sb.append(sorted.size()).append('[');
+        for (String token : sorted) {
+            appendToken(sb, token);
+        }
+        sb.append(']');
+    }
+
+    /**
+     * Appends a length prefixed token, or <code>-</code> for a
+     * <code>null</code> token.
+     */
+    private static void appendToken(StringBuilder sb, String token) {
+        if (token == null) {
+            sb.append('-');
+        }
+        else {
+            sb.append(token.length()).append(':').append(token);
+        }
+    }
+
+    /** {@inheritDoc} */
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof RequestKey)) {
+            return false;
+        }
+        return Arrays.equals(digest_, ((RequestKey) obj).digest_);
+    }
+
+    /** {@inheritDoc} */
+    public int hashCode() {
+        return hashCode_;
+    }
+
+    /**
+     * Returns the hexadecimal representation of the key.
+     *
+     * @return the key as hexadecimal string
+     */
+    public String toString() {
+        char[] hex= new char[digest_.length * 2];
+        for (int i= 0; i < digest_.length; i++) {
+            hex[2 * i]= HEX_DIGITS[(digest_[i] >> 4) & 0x0f];
+            hex[2 * i + 1]= HEX_DIGITS[digest_[i] & 0x0f];
+        }
+        return new String(hex);
+    }
+}
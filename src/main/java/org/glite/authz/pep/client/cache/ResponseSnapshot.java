@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.glite.authz.common.model.Response;
+
+import com.caucho.hessian.io.HessianInput;
+import com.caucho.hessian.io.HessianOutput;
+
+/**
+ * Immutable Hessian serialized copy of a {@link Response}.
+ * <p>
+ * Each call to {@link #restore()} returns a new and independent response
+ * object, which can be processed by the obligation handlers without altering
+ * the snapshot.
+ */
+public final class ResponseSnapshot {
+
+    /** Hessian encoded response */
+    private final byte[] encoded_;
+
+    /**
+     * Constructor.
+     * 
+     * @param encoded
+     *            the Hessian encoded response
+     */
+    private ResponseSnapshot(byte[] encoded) {
+        encoded_= encoded;
+    }
+
+    /**
+     * Takes a snapshot of the response.
+     * 
+     * @param response
+     *            the response to copy
+     * @return the snapshot of the response
+     * @throws IOException
+     *             if the response can not be serialized
+     */
+    public static ResponseSnapshot create(Response response)
+            throws IOException {
+        ByteArrayOutputStream out= new ByteArrayOutputStream(1024);
+        HessianOutput hout= new HessianOutput(out);
+        hout.writeObject(response);
+        hout.flush();
+        return new ResponseSnapshot(out.toByteArray());
+    }
+
+    /**
+     * Restores a new copy of the response.
+     * 
+     * @return a new response object equal to the original one
+     * @throws IOException
+     *             if the response can not be deserialized
+     */
+    public Response restore() throws IOException {
+        HessianInput hin= new HessianInput(new ByteArrayInputStream(encoded_));
+        return (Response) hin.readObject(Response.class);
+    }
+
+    /**
+     * Returns the size of the serialized response.
+     * 
+     * @return size in bytes
+     */
+    int size() {
+        return encoded_.length;
+    }
+}
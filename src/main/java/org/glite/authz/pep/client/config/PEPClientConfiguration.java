@@ -23,9 +23,16 @@ import java.io.IOException;
 import java.security.GeneralSecurityException;
 import java.security.KeyStore;
 import java.security.KeyStoreException;
+import java.security.cert.X509CRL;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 
 import javax.net.ssl.X509KeyManager;
 import javax.net.ssl.X509TrustManager;
@@ -33,14 +40,31 @@ import javax.net.ssl.X509TrustManager;
 import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.glite.authz.pep.client.endpoint.ConcurrencyLimitPolicy;
+import org.glite.authz.pep.client.endpoint.Endpoint;
+import org.glite.authz.pep.client.endpoint.LoadBalancingStrategy;
+import org.glite.authz.pep.client.http.HttpTransportType;
+import org.glite.authz.pep.client.metrics.TrustStoreMonitor;
+import org.glite.authz.pep.client.tls.CADirectory;
+import org.glite.authz.pep.client.tls.CADirectoryLoader;
+import org.glite.authz.pep.client.tls.CRLTrustManager;
+import org.glite.authz.pep.client.tls.CachingTrustManager;
+import org.glite.authz.pep.client.tls.Reloadable;
+import org.glite.authz.pep.client.tls.ReloadingKeyManager;
+import org.glite.authz.pep.client.tls.ReloadingTrustManager;
+import org.glite.authz.pep.client.tls.TLSMaterialWatcher;
+import org.glite.authz.pep.client.tls.TLSContext;
 import org.glite.authz.pep.obligation.ObligationHandler;
 import org.glite.authz.pep.pip.PolicyInformationPoint;
 
 import eu.emi.security.authn.x509.CommonX509TrustManager;
-import eu.emi.security.authn.x509.X509CertChainValidator;
+import eu.emi.security.authn.x509.CrlCheckingMode;
+import eu.emi.security.authn.x509.ProxySupport;
+import eu.emi.security.authn.x509.RevocationParameters;
+import eu.emi.security.authn.x509.ValidatorParams;
+import eu.emi.security.authn.x509.X509CertChainValidatorExt;
 import eu.emi.security.authn.x509.impl.InMemoryKeystoreCertChainValidator;
 import eu.emi.security.authn.x509.impl.OpensslCertChainValidator;
-import eu.emi.security.authn.x509.impl.PEMCredential;
 
 /**
  * PEP client configuration
@@ -55,34 +79,217 @@ public class PEPClientConfiguration {
     /** Registered PEP daemon endpoints. */
     private List<String> pepdEndpoints_;
 
+    /** Weights of the PEP daemon endpoints */
+    private Map<String, Integer> pepdEndpointWeights_;
+
+    /** Load balancing strategy over the PEP daemon endpoints */
+    private LoadBalancingStrategy loadBalancingStrategy_= LoadBalancingStrategy.FAILOVER;
+
     /** Registered {@link PolicyInformationPoint}s. */
     private List<PolicyInformationPoint> pips_;
 
+    /** PIPs each registered PIP depends on */
+    private Map<PolicyInformationPoint, List<PolicyInformationPoint>> pipDependencies_;
+
+    /** Timeouts in millis of the registered PIPs */
+    private Map<PolicyInformationPoint, Long> pipTimeouts_;
+
+    /**
+     * Number of threads running the independent PIPs in parallel,
+     * <code>0</code> runs the PIPs serially on the caller thread.
+     */
+    private int pipThreads_= 0;
+
     /** Obligation processing service. */
     private List<ObligationHandler> obligationHandlers_;
 
-    /** HTTPS trust manager */
+    /** Obligation handlers processing every result */
+    private List<ObligationHandler> everyResultObligationHandlers_;
+
+    /** HTTPS trust manager, caching the validations if enabled */
     private X509TrustManager trustManager_= null;
 
+    /** HTTPS trust manager validating each chain */
+    private X509TrustManager validatingTrustManager_= null;
+
+    /** Validator of the trust manager */
+    private X509CertChainValidatorExt validator_= null;
+
+    /** Trust manager reloading the CA directory, <code>null</code> if none */
+    private ReloadingTrustManager reloadingTrustManager_= null;
+
+    /** CA directory of the trust material, <code>null</code> if none */
+    private String caDirectoryName_= null;
+
+    /** Whether the CA directory is loaded without namespaces nor refresh */
+    private boolean caDirectoryLoaded_= false;
+
+    /** Snapshot file of the loaded CA directory, <code>null</code> if none */
+    private String caSnapshotFileName_= null;
+
+    /** Options of the CA directory validator */
+    private TrustValidatorOptions trustValidatorOptions_= new TrustValidatorOptions();
+
+    /**
+     * Max time in millis a server certificate chain validation is cached,
+     * <code>0</code> disables the cache.
+     */
+    private long trustValidationCacheTTL_= 0;
+
+    /** Max number of cached server certificate chain validations */
+    private int trustValidationCacheSize_= 100;
+
     /** HTTPS client authentication key manager */
     private X509KeyManager keyManager_= null;
 
+    /** Identifies the trust material, <code>null</code> if none */
+    private Object trustMaterialIdentity_= null;
+
+    /** Identifies the key material, <code>null</code> if none */
+    private Object keyMaterialIdentity_= null;
+
+    /** Whether the TLS context is shared with the other clients */
+    private boolean sharedTLSContext_= false;
+
+    /** Whether the key and trust material files are watched and reloaded */
+    private boolean tlsMaterialWatch_= false;
+
+    /** Key and trust material currently watched */
+    private final List<Reloadable> watchedMaterial_= new ArrayList<Reloadable>();
+
+    /** Max number of cached TLS sessions, <code>0</code> is no limit */
+    private int tlsSessionCacheSize_= TLSContext.DEFAULT_SESSION_CACHE_SIZE;
+
+    /** Time in seconds a TLS session can be resumed, <code>0</code> is no limit */
+    private int tlsSessionTimeout_= TLSContext.DEFAULT_SESSION_TIMEOUT;
+
     /**
      * HTTP connection timeout in millis, <code>0</code> is no timeout.
      */
     private int connectionTimeout_= 5000;
 
+    /**
+     * HTTP read timeout in millis, <code>0</code> is no timeout.
+     */
+    private int readTimeout_= 0;
+
+    /**
+     * Default authorization deadline in millis, <code>0</code> is no
+     * deadline.
+     */
+    private long authorizationTimeout_= 0;
+
     /** Max connections per host for the multi-threaded Http client */
     private int maxConnectionsPerHost_= 5;
 
     /** Max total number of connections for the multi-threaded Http client */
     private int maxTotalConnections_= 20;
 
+    /**
+     * Max time in millis to wait for a free connection of the pool,
+     * <code>0</code> is no timeout.
+     */
+    private long connectionPoolTimeout_= 0;
+
+    /**
+     * Max time in millis a connection stays idle in the pool, <code>0</code>
+     * is no limit.
+     */
+    private long connectionIdleTimeout_= 0;
+
+    /** Interval in millis between the checks of the idle connections */
+    private long idleConnectionCheckInterval_= 5000;
+
+    /** Whether a pooled connection is checked before each request */
+    private boolean staleConnectionCheck_= true;
+
+    /** Whether the client is warmed up when it is created */
+    private boolean warmUp_= false;
+
+    /** Number of connections opened to each endpoint by the warm up */
+    private int warmUpConnections_= 1;
+
+    /**
+     * Max number of responses in the decision cache, <code>0</code> disables
+     * the cache.
+     */
+    private int decisionCacheSize_= 0;
+
+    /** Time-to-live in millis of the responses in the decision cache */
+    private int decisionCacheTTL_= 60000;
+
+    /** HTTP transport used to contact the PEP daemons */
+    private HttpTransportType httpTransportType_= HttpTransportType.COMMONS_HTTPCLIENT;
+
+    /** JMX name of the metrics MXBean, <code>null</code> if not registered */
+    private String metricsMBeanName_= null;
+
+    /** Whether identical concurrent requests share a PEP daemon call */
+    private boolean requestCoalescing_= false;
+
+    /**
+     * Executor running the asynchronous requests, <code>null</code> to use
+     * the client internal thread pool.
+     */
+    private Executor asyncExecutor_= null;
+
+    /** Number of threads of the client internal thread pool */
+    private int asyncThreads_= 20;
+
+    /** Whether the client threads are virtual threads */
+    private boolean virtualThreads_= false;
+
+    /** Max number of asynchronous requests in progress */
+    private int maxAsyncRequests_= 100;
+
+    /** Max number of requests of a batch authorized in parallel */
+    private int batchParallelism_= 5;
+
+    /**
+     * Number of consecutive failures marking a PEP daemon endpoint as
+     * unavailable, <code>0</code> disables the circuit breaker.
+     */
+    private int circuitBreakerThreshold_= 3;
+
+    /** Interval in millis between the probes of the unavailable endpoints */
+    private int endpointProbeInterval_= 5000;
+
+    /** Whether the slow requests are hedged to a secondary endpoint */
+    private boolean hedgingEnabled_= false;
+
+    /** Percentile of the observed latencies used as hedging delay */
+    private double hedgingPercentile_= 95.0;
+
+    /** Min hedging delay in millis */
+    private int hedgingMinDelay_= 10;
+
+    /** Max ratio of hedged requests */
+    private double hedgingBudgetRatio_= 0.1;
+
+    /** Whether the requests in progress per endpoint are adaptively limited */
+    private boolean concurrencyLimitEnabled_= false;
+
+    /** Min concurrency limit per endpoint */
+    private int minConcurrencyLimit_= 1;
+
+    /** Max concurrency limit per endpoint */
+    private int maxConcurrencyLimit_= 100;
+
+    /** Handling of the requests exceeding the concurrency limit */
+    private ConcurrencyLimitPolicy concurrencyLimitPolicy_= ConcurrencyLimitPolicy.QUEUE;
+
+    /** Max time in millis a request waits for the concurrency limit */
+    private long concurrencyLimitQueueTimeout_= 1000;
+
     /** Default constructor. */
     public PEPClientConfiguration() {
         pepdEndpoints_= new ArrayList<String>();
+        pepdEndpointWeights_= new HashMap<String, Integer>();
         pips_= new ArrayList<PolicyInformationPoint>();
+        pipDependencies_= new IdentityHashMap<PolicyInformationPoint, List<PolicyInformationPoint>>();
+        pipTimeouts_= new IdentityHashMap<PolicyInformationPoint, Long>();
         obligationHandlers_= new ArrayList<ObligationHandler>();
+        everyResultObligationHandlers_= new ArrayList<ObligationHandler>();
     }
 
     /**
@@ -104,6 +311,60 @@ public class PEPClientConfiguration {
         pepdEndpoints_.add(endpoint);
     }
 
+    /**
+     * Adds a PEP daemon endpoint URL with a weight, used by the
+     * {@link LoadBalancingStrategy#WEIGHTED} load balancing strategy.
+     * 
+     * @param endpoint
+     *            PEP daemon endpoint url to add
+     * @param weight
+     *            the endpoint weight, must be greater than zero
+     */
+    public void addPEPDaemonEndpoint(String endpoint, int weight) {
+        if (weight < 1) {
+            throw new IllegalArgumentException("Endpoint weight must be greater than zero");
+        }
+        pepdEndpoints_.add(endpoint);
+        pepdEndpointWeights_.put(endpoint, weight);
+    }
+
+    /**
+     * Gets the weight of a PEP daemon endpoint.
+     * 
+     * @param endpoint
+     *            PEP daemon endpoint url
+     * @return the endpoint weight, {@link Endpoint#DEFAULT_WEIGHT} if not
+     *         set
+     */
+    public int getPEPDaemonEndpointWeight(String endpoint) {
+        Integer weight= pepdEndpointWeights_.get(endpoint);
+        return weight == null ? Endpoint.DEFAULT_WEIGHT : weight;
+    }
+
+    /**
+     * Gets the load balancing strategy over the PEP daemon endpoints.
+     * 
+     * @return the load balancing strategy
+     */
+    public LoadBalancingStrategy getLoadBalancingStrategy() {
+        return loadBalancingStrategy_;
+    }
+
+    /**
+     * Sets the load balancing strategy over the PEP daemon endpoints. The
+     * default {@link LoadBalancingStrategy#FAILOVER} strategy sends all the
+     * requests to the first endpoint.
+     * 
+     * @param strategy
+     *            the load balancing strategy
+     */
+    public void setLoadBalancingStrategy(LoadBalancingStrategy strategy) {
+        if (strategy == null) {
+            throw new IllegalArgumentException("Load balancing strategy can not be null");
+        }
+        loadBalancingStrategy_= strategy;
+    }
+
     /**
      * Gets the policy information points meant to be applied to each request.
      * 
@@ -116,13 +377,119 @@ public class PEPClientConfiguration {
 
     /**
      * Adds a {@link PolicyInformationPoint} to the list of PIP to be applied to
-     * each request.
+     * each request. The PIP depends on the previously added PIP, and is
+     * therefore never run in parallel with it.
      * 
      * @param pip
      *            policy information point to add
      */
     public void addPolicyInformationPoint(PolicyInformationPoint pip) {
+        List<PolicyInformationPoint> dependencies= new ArrayList<PolicyInformationPoint>();
+        if (!pips_.isEmpty()) {
+            dependencies.add(pips_.get(pips_.size() - 1));
+        }
         pips_.add(pip);
+        pipDependencies_.put(pip, dependencies);
+    }
+
+    /**
+     * Adds a {@link PolicyInformationPoint} to the list of PIP to be applied to
+     * each request, depending only on the given PIPs. If the PIPs are run in
+     * parallel, the PIP starts as soon as the PIPs it depends on have
+     * populated the request, concurrently with the other PIPs.
+     * <p>
+     * When the PIPs are run serially, they are applied in the order they
+     * were added, and the timeout is not enforced.
+     * 
+     * @param pip
+     *            policy information point to add
+     * @param timeout
+     *            time in millis the PIP has to populate the request,
+     *            <code>0</code> for no timeout
+     * @param dependencies
+     *            the identifiers of the PIPs this PIP depends on, they must be
+     *            already added. None for an independent PIP.
+     * @see #setPIPThreads(int)
+     */
+    public void addPolicyInformationPoint(PolicyInformationPoint pip,
+            long timeout, String... dependencies) {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("PIP timeout can not be negative");
+        }
+        List<PolicyInformationPoint> pipDependencies= new ArrayList<PolicyInformationPoint>();
+        for (String dependency : dependencies) {
+            PolicyInformationPoint dependencyPIP= null;
+            for (PolicyInformationPoint registered : pips_) {
+                if (registered.getId() != null
+                        && registered.getId().equals(dependency)) {
+                    dependencyPIP= registered;
+                }
+            }
+            if (dependencyPIP == null) {
+                throw new IllegalArgumentException("PIP " + dependency
+                        + " must be added before the PIPs depending on it");
+            }
+            pipDependencies.add(dependencyPIP);
+        }
+        pips_.add(pip);
+        pipDependencies_.put(pip, pipDependencies);
+        pipTimeouts_.put(pip, Long.valueOf(timeout));
+    }
+
+    /**
+     * Returns the PIPs the given PIP depends on.
+     * 
+     * @param pip
+     *            a registered policy information point
+     * @return an unmodifiable list of the PIPs it depends on
+     */
+    public List<PolicyInformationPoint> getPolicyInformationPointDependencies(
+            PolicyInformationPoint pip) {
+        List<PolicyInformationPoint> dependencies= pipDependencies_.get(pip);
+        if (dependencies == null) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(dependencies);
+    }
+
+    /**
+     * Returns the timeout of the given PIP.
+     * 
+     * @param pip
+     *            a registered policy information point
+     * @return the timeout in millis, <code>0</code> for no timeout
+     */
+    public long getPolicyInformationPointTimeout(PolicyInformationPoint pip) {
+        Long timeout= pipTimeouts_.get(pip);
+        return timeout != null ? timeout.longValue() : 0;
+    }
+
+    /**
+     * Returns the number of threads running the PIPs in parallel.
+     * 
+     * @return the number of threads, <code>0</code> if the PIPs are run
+     *         serially
+     */
+    public int getPIPThreads() {
+        return pipThreads_;
+    }
+
+    /**
+     * Sets the number of threads running the independent PIPs in parallel.
+     * Each PIP run in parallel populates a private copy of the request, which
+     * is merged back when the PIP completes. Default is <code>0</code>, the
+     * PIPs are run serially on the caller thread.
+     * 
+     * @param threads
+     *            the number of threads, <code>0</code> to run the PIPs
+     *            serially
+     * @see #addPolicyInformationPoint(PolicyInformationPoint, long, String...)
+     */
+    public void setPIPThreads(int threads) {
+        if (threads < 0) {
+            throw new IllegalArgumentException("PIP threads can not be negative");
+        }
+        pipThreads_= threads;
     }
 
     /**
@@ -146,6 +513,39 @@ public class PEPClientConfiguration {
         obligationHandlers_.add(oh);
     }
 
+    /**
+     * Adds an {@link ObligationHandler} to the list of OHs used to process
+     * response obligations.
+     * <p>
+     * By default, a handler is only applied to the results containing its
+     * obligation, see {@link ObligationHandler#getObligationId()}. A handler
+     * processing every result is applied to all of them, whatever their
+     * obligations.
+     * 
+     * @param oh
+     *            obligation handler to add
+     * @param everyResult
+     *            whether the handler processes every result
+     */
+    public void addObligationHandler(ObligationHandler oh, boolean everyResult) {
+        obligationHandlers_.add(oh);
+        if (everyResult) {
+            everyResultObligationHandlers_.add(oh);
+        }
+    }
+
+    /**
+     * Gets the obligation handlers processing every result, whatever their
+     * obligations.
+     * 
+     * @return an unmodifiable list of obligation handlers processing every
+     *         result
+     * @see #addObligationHandler(ObligationHandler, boolean)
+     */
+    public List<ObligationHandler> getEveryResultObligationHandlers() {
+        return Collections.unmodifiableList(everyResultObligationHandlers_);
+    }
+
     /**
      * Returns the HTTP connection timeout in millisecond. Default is
      * <code>5000</code> milliseconds.
@@ -167,11 +567,71 @@ public class PEPClientConfiguration {
         connectionTimeout_= timeout;
     }
 
+    /**
+     * Returns the HTTP read timeout in millis, the maximum time to wait for
+     * data from the PEP daemon. Default is <code>0</code>, no timeout.
+     * 
+     * @return the read timeout
+     */
+    public int getReadTimeout() {
+        return readTimeout_;
+    }
+
+    /**
+     * Sets the HTTP read timeout in millis. <code>0</code> for no timeout.
+     * 
+     * @param timeout
+     *            HTTP read timeout in millis
+     */
+    public void setReadTimeout(int timeout) {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("Read timeout can not be negative");
+        }
+        readTimeout_= timeout;
+    }
+
+    /**
+     * Returns the default authorization deadline in millis. Default is
+     * <code>0</code>, no deadline.
+     * 
+     * @return the authorization deadline
+     */
+    public long getAuthorizationTimeout() {
+        return authorizationTimeout_;
+    }
+
+    /**
+     * Sets the default authorization deadline in millis. The deadline is the
+     * time budget of a whole authorization: the PIPs, and each PEP daemon
+     * request and failover attempt. The connection, read and PIP timeouts
+     * are reduced to the remaining budget, and the authorization fails with a
+     * {@link org.glite.authz.pep.client.PEPClientTimeoutException} once the
+     * budget is spent.
+     * <p>
+     * With the commons-httpclient transport, the connection pool wait and
+     * the connection establishment are bounded by their own timeouts only.
+     * 
+     * @param timeout
+     *            the authorization deadline in millis, <code>0</code> for no
+     *            deadline
+     */
+    public void setAuthorizationTimeout(long timeout) {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("Authorization timeout can not be negative");
+        }
+        authorizationTimeout_= timeout;
+    }
+
     /**
      * Sets the directory containing the trust material X509 certificates used
      * to authenticate the server side of a secure socket (server
      * authentication). This is typically the EUGridPMA bundle directory
      * <code>/etc/grid-security/certificates</code>
+     * <p>
+     * The CA certificates and CRLs are loaded and refreshed according to the
+     * {@link #setTrustValidatorOptions(TrustValidatorOptions)}, and reloaded
+     * when the directory changes if {@link #setTLSMaterialWatch(boolean)} is
+     * enabled.
      * 
      * @param cadirname
      *            the directory containing the CA issuing certificates in PEM
@@ -192,119 +652,602 @@ public class PEPClientConfiguration {
             throw new PEPClientConfigurationException( cadirname + " is not a valid directory");            
         }
         
-        X509CertChainValidator validator= new OpensslCertChainValidator(cadirname);
-        trustManager_= new CommonX509TrustManager(validator);
+        final String directory= cadirname;
+        final TrustValidatorOptions options= new TrustValidatorOptions(trustValidatorOptions_);
+        // the trust manager reloads the validator, except in lazy mode where
+        // the validator refreshes its CA certificates itself
+        final long updateInterval= options.isLazyMode()
+                && options.getRefreshInterval() > 0 ? options.getRefreshInterval()
+                : -1;
+        ReloadingTrustManager trustManager;
+        try {
+            trustManager= new ReloadingTrustManager(new ReloadingTrustManager.ValidatorFactory() {
+                public X509CertChainValidatorExt createValidator() {
+                    ValidatorParams params= new ValidatorParams(new RevocationParameters(options.getCrlCheckingMode()),
+                                                                ProxySupport.ALLOW);
+                    return new OpensslCertChainValidator(directory,
+                                                         options.isOpenssl1Mode(),
+                                                         options.getNamespaceCheckingMode(),
+                                                         updateInterval,
+                                                         params,
+                                                         options.isLazyMode());
+                }
+            }, options.getRefreshInterval(), options.isLazyMode());
+        } catch (RuntimeException e) {
+            throw new PEPClientConfigurationException("Failed to load the trust material " + cadirname, e);
+        }
+        setTrustManager(trustManager.getValidator(), trustManager, trustManager);
+        caDirectoryName_= cadirname;
+        trustMaterialIdentity_= "cadir:" + canonicalPath(caDirectory) + "?" + options;
+        updateWatches();
     }
 
     /**
-     * Sets the trust material X509 certificates used to authenticate the server
-     * side of a secure socket (server authentication).
+     * Returns a copy of the options of the validator of the CA directory
+     * trust material.
      * 
-     * @param truststore
-     *            the trust store containing the trusted server certificates or
-     *            issuing CA certificates.
-     * @throws PEPClientConfigurationException
-     *             if an error occurs creating the trust manager
+     * @return the trust validator options
      */
-    public void setTrustMaterial(KeyStore truststore)
-            throws PEPClientConfigurationException {
-        try {
-            X509CertChainValidator validator= new InMemoryKeystoreCertChainValidator(truststore);
-            trustManager_= new CommonX509TrustManager(validator);
-        } catch (IOException e) {
-            throw new PEPClientConfigurationException(e);
-        } catch (KeyStoreException e) {
-            throw new PEPClientConfigurationException(e);
-        }
+    public TrustValidatorOptions getTrustValidatorOptions() {
+        return new TrustValidatorOptions(trustValidatorOptions_);
     }
 
     /**
-     * Sets the key material X509 certificate-based key pairs used to
-     * authenticate the client side of a secure socket (client authentication).
-     * The certificate and private key must be in PEM format.
+     * Sets the options of the validator of the CA directory trust material
+     * set by {@link #setTrustMaterial(String)}, before or after: the refresh
+     * interval, the CRL and namespace checking modes, and the lazy mode. Only
+     * the CRL checking mode applies to the trust material set by
+     * {@link #setTrustMaterialWithoutNamespaces(String, String)}. The options
+     * are copied.
      * 
-     * @param usercert
-     *            the filename containing the X509 certificate in PEM format
-     * @param userkey
-     *            the filename containing the private key in PEM format
-     * @param password
-     *            the password of the private key, and of the resulting
-     *            keystore. It can not be <code>null</code>.
+     * @param options
+     *            the trust validator options
      * @throws PEPClientConfigurationException
-     *             if an error occurs reading the key material or creating the
-     *             key manager
+     *             if the CA directory trust material is already set and can
+     *             not be loaded again with the options
      */
-    public void setKeyMaterial(String usercert, String userkey, String password)
+    public void setTrustValidatorOptions(TrustValidatorOptions options)
             throws PEPClientConfigurationException {
-        if (password == null) {
-            throw new IllegalArgumentException("password can not be null");
-        }
-        if (log_.isDebugEnabled()) {
-            log_.debug("usercert: " + usercert);
-            log_.debug("userkey: " + userkey + " password: " + password);
+        if (options == null) {
+            throw new IllegalArgumentException("Trust validator options can not be null");
         }
-        try {
-            PEMCredential credential= new PEMCredential(userkey, usercert, password.toCharArray());
-            keyManager_= credential.getKeyManager();
-        } catch (GeneralSecurityException e) {
-            throw new PEPClientConfigurationException(e);
-        } catch (IOException e) {
-            throw new PEPClientConfigurationException(e);
+        trustValidatorOptions_= new TrustValidatorOptions(options);
+        if (caDirectoryName_ != null) {
+            if (caDirectoryLoaded_) {
+                setTrustMaterialWithoutNamespaces(caDirectoryName_, caSnapshotFileName_);
+            }
+            else {
+                setTrustMaterial(caDirectoryName_);
+            }
         }
     }
 
     /**
-     * Sets the key material X509 certificate-based key pairs used to
-     * authenticate the client side of a secure socket (client authentication).
-     * 
-     * @param keystore
-     *            the KeyStore containing the certificate-based key pairs
-     * @param password
-     *            password of the keystore, can not be <code>null</code>
-     * @throws PEPClientConfigurationException
-     *             if an error occurs reading the key material or creating the
-     *             key manager
-     */
-//    public void setKeyMaterial(KeyStore keystore, String password)
-//            throws PEPClientConfigurationException {
-//        if (password == null) {
-//            throw new IllegalArgumentException("password can not be null");
-//        }
-//        try {
-//            keyManager_= new PKIKeyManager(keystore, password);
-//        } catch (GeneralSecurityException e) {
-//            throw new PEPClientConfigurationException(e);
-//        }
-//    }
-
-    /**
-     * Gets the trust manager if any
+     * Returns the statistics source of the CA directory trust material: load
+     * durations and trust store size.
      * 
-     * @return the {@link X509TrustManager} or <code>null</code> if no trust
-     *         material have been defined
+     * @return the trust store monitor, <code>null</code> if the trust material
+     *         is not a CA directory set by {@link #setTrustMaterial(String)}
      */
-    public X509TrustManager getTrustManager() {
-        return trustManager_;
+    public TrustStoreMonitor getTrustStoreMonitor() {
+        return reloadingTrustManager_;
     }
 
     /**
-     * Gets the key manager if any
+     * Returns the CRLs of the CA directory set by
+     * {@link #setTrustMaterialWithoutNamespaces(String, String)} past their
+     * next update time: the directory must be loaded again to refresh them.
      * 
-     * @return the {@link X509KeyManager} or <code>null</code> if no key
-     *         material have been defined
+     * @return the expired CRLs, empty if none or if the trust material is not
+     *         such a CA directory
      */
-    public X509KeyManager getKeyManager() {
-        return keyManager_;
+    public List<X509CRL> getExpiredCRLs() {
+        if (validatingTrustManager_ instanceof CRLTrustManager) {
+            return ((CRLTrustManager) validatingTrustManager_).getExpiredCRLs();
+        }
+        return Collections.emptyList();
     }
 
     /**
-     * Gets the maximum number of connections per host to keep alive. Default is
-     * <code>5</code>.
+     * Sets the directory containing the trust material X509 certificates and
+     * CRLs, loaded for a fast startup by a {@link CADirectoryLoader}: the CA
+     * certificate and CRL files are parsed in parallel, and saved in a binary
+     * snapshot file reused by the next startups while the directory is
+     * unchanged.
+     * <p>
+     * Unlike {@link #setTrustMaterial(String)}, the directory is loaded once
+     * and not refreshed, and the signing policy and namespace files are
+     * <b>not enforced</b>: any CA of the directory can issue any subject. The
+     * CRLs are checked according to the CRL checking mode of the
+     * {@link #setTrustValidatorOptions(TrustValidatorOptions)}: by default
+     * while valid, the expired ones being logged as warnings and returned by
+     * {@link #getExpiredCRLs()}, and with {@link CrlCheckingMode#REQUIRE} a
+     * certificate without valid CRL of its issuer is rejected.
      * 
-     * @return maximum number of connection per host
+     * @param cadirname
+     *            the directory containing the CA issuing certificates and the
+     *            CRLs in PEM format, typically
+     *            <code>/etc/grid-security/certificates</code>
+     * @param snapshotfile
+     *            the snapshot file, <code>null</code> to parse the directory
+     *            files at each startup
+     * @throws PEPClientConfigurationException
+     *             if an error occurs loading the cadirname or creating the
+     *             trust manager
      */
-    public int getMaxConnectionsPerHost() {
-        return maxConnectionsPerHost_;
+    public void setTrustMaterialWithoutNamespaces(String cadirname, String snapshotfile)
+            throws PEPClientConfigurationException {
+        if (log_.isDebugEnabled()) {
+            log_.debug("cadirname: " + cadirname + " snapshotfile: " + snapshotfile);
+        }
+
+        File caDirectory= new File(cadirname);
+        if (!caDirectory.isDirectory()) {
+            throw new PEPClientConfigurationException( cadirname + " is not a valid directory");            
+        }
+        File snapshot= snapshotfile != null ? new File(snapshotfile) : null;
+
+        CrlCheckingMode crlCheckingMode= trustValidatorOptions_.getCrlCheckingMode();
+        try {
+            CADirectory ca= new CADirectoryLoader(caDirectory, snapshot, ForkJoinPool.commonPool()).load();
+            X509CertChainValidatorExt validator= new InMemoryKeystoreCertChainValidator(ca.createKeyStore());
+            X509TrustManager trustManager= new CRLTrustManager(new CommonX509TrustManager(validator),
+                                                               ca,
+                                                               crlCheckingMode);
+            setTrustManager(validator, trustManager, null);
+            caDirectoryName_= cadirname;
+            caDirectoryLoaded_= true;
+            caSnapshotFileName_= snapshotfile;
+            trustMaterialIdentity_= "cadir-loaded:" + canonicalPath(caDirectory) + "?crlCheckingMode="
+                    + crlCheckingMode;
+        } catch (IOException e) {
+            throw new PEPClientConfigurationException(e);
+        } catch (KeyStoreException e) {
+            throw new PEPClientConfigurationException(e);
+        }
+        updateWatches();
+    }
+
+    /**
+     * Sets the trust material X509 certificates used to authenticate the server
+     * side of a secure socket (server authentication).
+     * 
+     * @param truststore
+     *            the trust store containing the trusted server certificates or
+     *            issuing CA certificates.
+     * @throws PEPClientConfigurationException
+     *             if an error occurs creating the trust manager
+     */
+    public void setTrustMaterial(KeyStore truststore)
+            throws PEPClientConfigurationException {
+        try {
+            X509CertChainValidatorExt validator= new InMemoryKeystoreCertChainValidator(truststore);
+            setTrustManager(validator);
+            trustMaterialIdentity_= truststore;
+        } catch (IOException e) {
+            throw new PEPClientConfigurationException(e);
+        } catch (KeyStoreException e) {
+            throw new PEPClientConfigurationException(e);
+        }
+        updateWatches();
+    }
+
+    /**
+     * Sets the trust manager of the validator, wrapped in a
+     * {@link CachingTrustManager} if the validation cache is enabled.
+     * 
+     * @param validator
+     *            the certificate chain validator
+     */
+    private void setTrustManager(X509CertChainValidatorExt validator) {
+        setTrustManager(validator, new CommonX509TrustManager(validator), null);
+    }
+
+    /**
+     * Replaces the validating trust manager, and stops the reloads of the
+     * previous one once no client uses it.
+     * 
+     * @param validator
+     *            the certificate chain validator
+     * @param trustManager
+     *            the trust manager validating with the validator
+     * @param reloadingTrustManager
+     *            the trust manager reloading the validator, <code>null</code>
+     *            if not reloaded
+     */
+    private void setTrustManager(X509CertChainValidatorExt validator,
+            X509TrustManager trustManager,
+            ReloadingTrustManager reloadingTrustManager) {
+        if (reloadingTrustManager_ != null) {
+            reloadingTrustManager_.dispose();
+        }
+        reloadingTrustManager_= reloadingTrustManager;
+        caDirectoryName_= null;
+        caDirectoryLoaded_= false;
+        caSnapshotFileName_= null;
+        validator_= validator;
+        validatingTrustManager_= trustManager;
+        updateTrustManager();
+    }
+
+    /**
+     * Wraps the validating trust manager according to the validation cache
+     * settings. The replaced {@link CachingTrustManager} stops watching its
+     * trust material.
+     */
+    private void updateTrustManager() {
+        if (trustManager_ instanceof CachingTrustManager) {
+            ((CachingTrustManager) trustManager_).unwatch();
+        }
+        if (validatingTrustManager_ == null) {
+            return;
+        }
+        if (trustValidationCacheTTL_ > 0) {
+            CachingTrustManager cachingTrustManager= new CachingTrustManager(validatingTrustManager_,
+                                                                             trustValidationCacheTTL_,
+                                                                             trustValidationCacheSize_);
+            if (reloadingTrustManager_ != null) {
+                cachingTrustManager.watch(reloadingTrustManager_);
+            }
+            else {
+                cachingTrustManager.watch(validator_);
+            }
+            trustManager_= cachingTrustManager;
+        }
+        else {
+            trustManager_= validatingTrustManager_;
+        }
+    }
+
+    /**
+     * Returns the max time in millis a successful validation of a PEP daemon
+     * certificate chain is cached. Default is <code>0</code>, the validation
+     * cache is disabled.
+     * 
+     * @return the validation cache time-to-live
+     */
+    public long getTrustValidationCacheTTL() {
+        return trustValidationCacheTTL_;
+    }
+
+    /**
+     * Sets the max time in millis a successful validation of a PEP daemon
+     * certificate chain is cached. A chain found in the cache is trusted
+     * without path validation nor CRL lookup, until the time-to-live or the
+     * earliest expiration of its certificates. The cache is cleared when the
+     * trust material is reloaded, see {@link CachingTrustManager}.
+     * <p>
+     * Applies to the trust material set by {@link #setTrustMaterial(String)},
+     * {@link #setTrustMaterialWithoutNamespaces(String, String)} or
+     * {@link #setTrustMaterial(KeyStore)}, before or after.
+     * 
+     * @param ttl
+     *            the validation cache time-to-live in millis, <code>0</code>
+     *            to disable the cache
+     */
+    public void setTrustValidationCacheTTL(long ttl) {
+        if (ttl < 0) {
+            throw new IllegalArgumentException("Trust validation cache TTL can not be negative");
+        }
+        trustValidationCacheTTL_= ttl;
+        updateTrustManager();
+    }
+
+    /**
+     * Returns the max number of PEP daemon certificate chain validations
+     * cached. Default is <code>100</code>.
+     * 
+     * @return the validation cache size
+     */
+    public int getTrustValidationCacheSize() {
+        return trustValidationCacheSize_;
+    }
+
+    /**
+     * Sets the max number of PEP daemon certificate chain validations
+     * cached, the least recently used one is evicted first.
+     * 
+     * @param size
+     *            the validation cache size, must be greater than zero
+     * @see #setTrustValidationCacheTTL(long)
+     */
+    public void setTrustValidationCacheSize(int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("Trust validation cache size must be greater than zero");
+        }
+        trustValidationCacheSize_= size;
+        updateTrustManager();
+    }
+
+    /**
+     * Sets the key material X509 certificate-based key pairs used to
+     * authenticate the client side of a secure socket (client authentication).
+     * The certificate and private key must be in PEM format, and are reloaded
+     * when rotated if {@link #setTLSMaterialWatch(boolean)} is enabled.
+     * 
+     * @param usercert
+     *            the filename containing the X509 certificate in PEM format
+     * @param userkey
+     *            the filename containing the private key in PEM format
+     * @param password
+     *            the password of the private key, and of the resulting
+     *            keystore. It can not be <code>null</code>.
+     * @throws PEPClientConfigurationException
+     *             if an error occurs reading the key material or creating the
+     *             key manager
+     */
+    public void setKeyMaterial(String usercert, String userkey, String password)
+            throws PEPClientConfigurationException {
+        if (password == null) {
+            throw new IllegalArgumentException("password can not be null");
+        }
+        if (log_.isDebugEnabled()) {
+            log_.debug("usercert: " + usercert);
+            log_.debug("userkey: " + userkey + " password: " + password);
+        }
+        try {
+            keyManager_= new ReloadingKeyManager(usercert, userkey, password.toCharArray());
+            keyMaterialIdentity_= "pem:" + canonicalPath(new File(usercert))
+                    + "," + canonicalPath(new File(userkey));
+        } catch (GeneralSecurityException e) {
+            throw new PEPClientConfigurationException(e);
+        } catch (IOException e) {
+            throw new PEPClientConfigurationException(e);
+        }
+        updateWatches();
+    }
+
+    /**
+     * Sets the key material X509 certificate-based key pairs used to
+     * authenticate the client side of a secure socket (client authentication).
+     * 
+     * @param keystore
+     *            the KeyStore containing the certificate-based key pairs
+     * @param password
+     *            password of the keystore, can not be <code>null</code>
+     * @throws PEPClientConfigurationException
+     *             if an error occurs reading the key material or creating the
+     *             key manager
+     */
+//    public void setKeyMaterial(KeyStore keystore, String password)
+//            throws PEPClientConfigurationException {
+//        if (password == null) {
+//            throw new IllegalArgumentException("password can not be null");
+//        }
+//        try {
+//            keyManager_= new PKIKeyManager(keystore, password);
+//        } catch (GeneralSecurityException e) {
+//            throw new PEPClientConfigurationException(e);
+//        }
+//    }
+
+    /**
+     * Gets the trust manager if any
+     * 
+     * @return the {@link X509TrustManager} or <code>null</code> if no trust
+     *         material have been defined
+     */
+    public X509TrustManager getTrustManager() {
+        return trustManager_;
+    }
+
+    /**
+     * Gets the key manager if any
+     * 
+     * @return the {@link X509KeyManager} or <code>null</code> if no key
+     *         material have been defined
+     */
+    public X509KeyManager getKeyManager() {
+        return keyManager_;
+    }
+
+    /**
+     * Gets the identity of the trust material: the canonical path of the CA
+     * directory, or the trust store, the validation cache settings, and
+     * whether the material is watched. Clients with the same trust material
+     * identity can share their TLS context, whose trust manager is then
+     * watched if theirs would be.
+     * 
+     * @return the trust material identity, <code>null</code> if no trust
+     *         material have been defined
+     * @see #setSharedTLSContext(boolean)
+     */
+    public Object getTrustMaterialIdentity() {
+        if (trustMaterialIdentity_ == null) {
+            return null;
+        }
+        // the cache size is irrelevant when the cache is disabled
+        return Arrays.asList(trustMaterialIdentity_,
+                             Long.valueOf(trustValidationCacheTTL_),
+                             Integer.valueOf(trustValidationCacheTTL_ > 0 ? trustValidationCacheSize_
+                                     : 0),
+                             Boolean.valueOf(tlsMaterialWatch_));
+    }
+
+    /**
+     * Gets the identity of the key material: the canonical paths of the
+     * certificate and private key files, and whether they are watched.
+     * 
+     * @return the key material identity, <code>null</code> if no key
+     *         material have been defined
+     * @see #setSharedTLSContext(boolean)
+     */
+    public Object getKeyMaterialIdentity() {
+        if (keyMaterialIdentity_ == null) {
+            return null;
+        }
+        return Arrays.asList(keyMaterialIdentity_,
+                             Boolean.valueOf(tlsMaterialWatch_));
+    }
+
+    /**
+     * Returns the canonical path of a file, or its absolute path if it can
+     * not be resolved.
+     * 
+     * @param file
+     *            the file
+     * @return the file path
+     */
+    private static String canonicalPath(File file) {
+        try {
+            return file.getCanonicalPath();
+        } catch (IOException e) {
+            return file.getAbsolutePath();
+        }
+    }
+
+    /**
+     * Returns whether the TLS context is shared with the other clients of the
+     * JVM. Default is <code>false</code>.
+     * 
+     * @return <code>true</code> if the TLS context is shared
+     */
+    public boolean isSharedTLSContext() {
+        return sharedTLSContext_;
+    }
+
+    /**
+     * Sets whether the TLS context is shared with the other clients of the
+     * JVM configured with the same key and trust material files or trust
+     * store, and the same TLS session settings and material watch. The
+     * clients then resume the TLS sessions established by each other, instead
+     * of performing a full handshake for each new connection.
+     * 
+     * @param shared
+     *            <code>true</code> to share the TLS context
+     * @see org.glite.authz.pep.client.tls.TLSContextRegistry
+     */
+    public void setSharedTLSContext(boolean shared) {
+        sharedTLSContext_= shared;
+    }
+
+    /**
+     * Returns whether the key and trust material files are watched, and
+     * reloaded when they change. Default is <code>false</code>.
+     * 
+     * @return <code>true</code> if the material files are watched
+     */
+    public boolean isTLSMaterialWatch() {
+        return tlsMaterialWatch_;
+    }
+
+    /**
+     * Sets whether the key and trust material files are watched, and
+     * reloaded when they change, before or after the material is set. The
+     * PEM key material of {@link #setKeyMaterial(String, String, String)} and
+     * the CA directory of {@link #setTrustMaterial(String)} are watched.
+     * <p>
+     * The files are watched while the material is used by a client: the
+     * watches are removed when the last client using it is shut down. The
+     * reloaded material is used by the next full TLS handshakes of the
+     * clients already created with this configuration: their connection
+     * pools and in-flight requests are kept. After a key material reload, the
+     * cached TLS sessions are invalidated so that the new certificate is
+     * presented. See {@link TLSMaterialWatcher}.
+     * 
+     * @param watch
+     *            <code>true</code> to watch the material files
+     * @throws PEPClientConfigurationException
+     *             if the material files can not be watched
+     */
+    public void setTLSMaterialWatch(boolean watch)
+            throws PEPClientConfigurationException {
+        tlsMaterialWatch_= watch;
+        updateWatches();
+    }
+
+    /**
+     * Sets the files of the current key and trust material watched if
+     * enabled, and stops watching the previous ones. The files are watched
+     * while the material is used by a client, see {@link Reloadable}.
+     * 
+     * @throws PEPClientConfigurationException
+     *             if the material files can not be watched
+     */
+    private void updateWatches() throws PEPClientConfigurationException {
+        List<File> none= Collections.emptyList();
+        try {
+            for (Reloadable material : watchedMaterial_) {
+                material.setWatchedFiles(none);
+            }
+            watchedMaterial_.clear();
+            if (!tlsMaterialWatch_) {
+                return;
+            }
+            if (keyManager_ instanceof ReloadingKeyManager) {
+                ReloadingKeyManager keyManager= (ReloadingKeyManager) keyManager_;
+                watchedMaterial_.add(keyManager);
+                keyManager.setWatchedFiles(Arrays.asList(new File(keyManager.getCertificateFile()),
+                                                         new File(keyManager.getKeyFile())));
+            }
+            if (reloadingTrustManager_ != null && caDirectoryName_ != null) {
+                watchedMaterial_.add(reloadingTrustManager_);
+                reloadingTrustManager_.setWatchedFiles(Collections.singletonList(new File(caDirectoryName_)));
+            }
+        } catch (IOException e) {
+            throw new PEPClientConfigurationException("Failed to watch the TLS material files", e);
+        }
+    }
+
+    /**
+     * Returns the max number of TLS sessions cached for resumption. Default
+     * is <code>20480</code>.
+     * 
+     * @return the TLS session cache size
+     */
+    public int getTLSSessionCacheSize() {
+        return tlsSessionCacheSize_;
+    }
+
+    /**
+     * Sets the max number of TLS sessions cached for resumption. A session
+     * is cached per PEP daemon host and port, by TLS 1.2 session id or TLS
+     * 1.3 session ticket, and resumed by the next connections without
+     * certificate chain validation nor client key signature.
+     * 
+     * @param size
+     *            the TLS session cache size, <code>0</code> for no limit
+     */
+    public void setTLSSessionCacheSize(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("TLS session cache size can not be negative");
+        }
+        tlsSessionCacheSize_= size;
+    }
+
+    /**
+     * Returns the time in seconds a cached TLS session can be resumed.
+     * Default is <code>86400</code> seconds.
+     * 
+     * @return the TLS session timeout in seconds
+     */
+    public int getTLSSessionTimeout() {
+        return tlsSessionTimeout_;
+    }
+
+    /**
+     * Sets the time in seconds a cached TLS session can be resumed. The PEP
+     * daemon may accept resumption for a shorter time.
+     * 
+     * @param timeout
+     *            the TLS session timeout in seconds, <code>0</code> for no
+     *            limit
+     */
+    public void setTLSSessionTimeout(int timeout) {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("TLS session timeout can not be negative");
+        }
+        tlsSessionTimeout_= timeout;
+    }
+
+    /**
+     * Gets the maximum number of connections per host to keep alive. Default is
+     * <code>5</code>.
+     * 
+     * @return maximum number of connection per host
+     */
+    public int getMaxConnectionsPerHost() {
+        return maxConnectionsPerHost_;
     }
 
     /**
@@ -339,4 +1282,704 @@ public class PEPClientConfiguration {
     public int getMaxTotalConnections() {
         return maxTotalConnections_;
     }
-}
\ No newline at end of file
+
+    /**
+     * Gets the maximum time in millis to wait for a free connection when all
+     * the connections of the pool are in use. Default is <code>0</code>, no
+     * timeout.
+     * 
+     * @return the connection pool timeout
+     */
+    public long getConnectionPoolTimeout() {
+        return connectionPoolTimeout_;
+    }
+
+    /**
+     * Sets the maximum time in millis to wait for a free connection when all
+     * the connections of the pool are in use, the request to the PEP daemon
+     * fails after this time. <code>0</code> to wait until a connection is
+     * free.
+     * <p>
+     * Only used by the {@link HttpTransportType#COMMONS_HTTPCLIENT}
+     * transport, the JDK HTTP client has no connection limit.
+     * 
+     * @param timeout
+     *            the connection pool timeout in millis
+     * @see org.glite.authz.pep.client.http.HttpClientBuilder#setConnectionPoolTimeout(long)
+     */
+    public void setConnectionPoolTimeout(long timeout) {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("Connection pool timeout can not be negative");
+        }
+        connectionPoolTimeout_= timeout;
+    }
+
+    /**
+     * Gets the maximum time in millis a connection stays idle in the pool,
+     * the keep-alive TTL. Default is <code>0</code>, no limit.
+     * 
+     * @return the connection idle timeout
+     */
+    public long getConnectionIdleTimeout() {
+        return connectionIdleTimeout_;
+    }
+
+    /**
+     * Sets the maximum time in millis a connection stays idle in the pool.
+     * The idle connections are closed by a background thread every
+     * {@link #setIdleConnectionCheckInterval(long)}. The timeout should be
+     * lower than the PEP daemon keep-alive timeout, so the connections are
+     * closed before the daemon closes them. <code>0</code> keeps the idle
+     * connections open.
+     * <p>
+     * Only used by the {@link HttpTransportType#COMMONS_HTTPCLIENT}
+     * transport.
+     * 
+     * @param timeout
+     *            the connection idle timeout in millis
+     */
+    public void setConnectionIdleTimeout(long timeout) {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("Connection idle timeout can not be negative");
+        }
+        connectionIdleTimeout_= timeout;
+    }
+
+    /**
+     * Gets the interval in millis between the checks of the idle
+     * connections. Default is <code>5000</code>.
+     * 
+     * @return the idle connection check interval
+     */
+    public long getIdleConnectionCheckInterval() {
+        return idleConnectionCheckInterval_;
+    }
+
+    /**
+     * Sets the interval in millis between the checks of the idle
+     * connections.
+     * 
+     * @param interval
+     *            the idle connection check interval in millis, must be
+     *            greater than zero
+     * @see #setConnectionIdleTimeout(long)
+     */
+    public void setIdleConnectionCheckInterval(long interval) {
+        if (interval < 1) {
+            throw new IllegalArgumentException("Idle connection check interval must be greater than zero");
+        }
+        idleConnectionCheckInterval_= interval;
+    }
+
+    /**
+     * Returns whether a pooled connection is checked before each request.
+     * Default is <code>true</code>.
+     * 
+     * @return <code>true</code> if the stale connection check is enabled
+     */
+    public boolean isStaleConnectionCheck() {
+        return staleConnectionCheck_;
+    }
+
+    /**
+     * Sets whether a pooled connection is checked before each request, to
+     * detect if it was closed by the PEP daemon. The check is a blocking read
+     * adding latency to each request. When disabled, a request failing on a
+     * connection closed by the PEP daemon is retried once on a new
+     * connection instead.
+     * <p>
+     * Only used by the {@link HttpTransportType#COMMONS_HTTPCLIENT}
+     * transport.
+     * 
+     * @param check
+     *            <code>false</code> to retry on stale connections instead of
+     *            checking them
+     */
+    public void setStaleConnectionCheck(boolean check) {
+        staleConnectionCheck_= check;
+    }
+
+    /**
+     * Returns whether the client is warmed up when it is created. Default is
+     * <code>false</code>.
+     * 
+     * @return <code>true</code> if the client is warmed up at creation
+     */
+    public boolean isWarmUp() {
+        return warmUp_;
+    }
+
+    /**
+     * Sets whether the client is warmed up when it is created: the
+     * connections to each PEP daemon endpoint are opened, including the TLS
+     * handshake, and the Hessian serialization is run once, so that the
+     * first requests do not pay for them. The client can also be warmed up
+     * later with {@link org.glite.authz.pep.client.PEPClient#warmUp()}.
+     * 
+     * @param warmUp
+     *            <code>true</code> to warm up the client at creation
+     * @see #setWarmUpConnections(int)
+     */
+    public void setWarmUp(boolean warmUp) {
+        warmUp_= warmUp;
+    }
+
+    /**
+     * Returns the number of connections opened to each PEP daemon endpoint
+     * by the warm up. Default is <code>1</code>.
+     * 
+     * @return the number of warm up connections per endpoint
+     */
+    public int getWarmUpConnections() {
+        return warmUpConnections_;
+    }
+
+    /**
+     * Sets the number of connections opened to each PEP daemon endpoint by
+     * the warm up. With the {@link HttpTransportType#COMMONS_HTTPCLIENT}
+     * transport, it is limited by the max connections per host.
+     * 
+     * @param connections
+     *            the number of warm up connections per endpoint, must be
+     *            greater than zero
+     * @see #setWarmUp(boolean)
+     */
+    public void setWarmUpConnections(int connections) {
+        if (connections < 1) {
+            throw new IllegalArgumentException("Number of warm up connections must be greater than zero");
+        }
+        warmUpConnections_= connections;
+    }
+
+    /**
+     * Returns the maximum number of responses kept in the decision cache.
+     * Default is <code>0</code>, the decision cache is disabled.
+     * 
+     * @return maximum number of cached responses
+     */
+    public int getDecisionCacheSize() {
+        return decisionCacheSize_;
+    }
+
+    /**
+     * Sets the maximum number of responses kept in the decision cache.
+     * <code>0</code> disables the decision cache.
+     * <p>
+     * The responses are cached by the content of the request, after the PIPs
+     * have been applied. The obligation handlers are applied on each cached
+     * response returned.
+     * 
+     * @param size
+     *            maximum number of cached responses
+     */
+    public void setDecisionCacheSize(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("Decision cache size can not be negative");
+        }
+        decisionCacheSize_= size;
+    }
+
+    /**
+     * Returns the time-to-live in millis of the cached responses. Default is
+     * <code>60000</code> milliseconds.
+     * 
+     * @return the time-to-live of the cached responses
+     */
+    public int getDecisionCacheTTL() {
+        return decisionCacheTTL_;
+    }
+
+    /**
+     * Sets the time-to-live in millis of the cached responses.
+     * 
+     * @param ttl
+     *            time-to-live in millis, must be greater than zero
+     */
+    public void setDecisionCacheTTL(int ttl) {
+        if (ttl < 1) {
+            throw new IllegalArgumentException("Decision cache time-to-live must be greater than zero");
+        }
+        decisionCacheTTL_= ttl;
+    }
+
+    /**
+     * Returns the HTTP transport used to contact the PEP daemons.
+     * 
+     * @return the HTTP transport type
+     */
+    public HttpTransportType getHttpTransportType() {
+        return httpTransportType_;
+    }
+
+    /**
+     * Sets the HTTP transport used to contact the PEP daemons. The default
+     * {@link HttpTransportType#COMMONS_HTTPCLIENT} transport uses a pool of
+     * HTTP/1.1 connections, sized by the max connections settings. The
+     * {@link HttpTransportType#JDK_HTTPCLIENT} transport multiplexes the
+     * requests with HTTP/2 when the PEP daemon supports it, and ignores the
+     * max connections settings.
+     * 
+     * @param type
+     *            the HTTP transport type
+     */
+    public void setHttpTransportType(HttpTransportType type) {
+        if (type == null) {
+            throw new IllegalArgumentException("HTTP transport type can not be null");
+        }
+        httpTransportType_= type;
+    }
+
+    /**
+     * Returns the JMX object name of the client metrics MXBean.
+     * 
+     * @return the object name, <code>null</code> if not registered
+     */
+    public String getMetricsMBeanName() {
+        return metricsMBeanName_;
+    }
+
+    /**
+     * Sets the JMX object name under which the client metrics MXBean is
+     * registered in the platform MBean server, for example
+     * <code>org.glite.authz.pep.client:type=PEPClientMetrics,name=wn</code>.
+     * The name must be unique among the PEP clients of the JVM. The metrics
+     * are always available with
+     * {@link org.glite.authz.pep.client.PEPClient#getMetrics()}.
+     * 
+     * @param name
+     *            the JMX object name, <code>null</code> to not register the
+     *            MXBean
+     */
+    public void setMetricsMBeanName(String name) {
+        metricsMBeanName_= name;
+    }
+
+    /**
+     * Returns whether identical concurrent requests share a single PEP
+     * daemon call.
+     * 
+     * @return <code>true</code> if request coalescing is enabled
+     */
+    public boolean isRequestCoalescing() {
+        return requestCoalescing_;
+    }
+
+    /**
+     * Enables or disables the request coalescing. When enabled, the
+     * identical requests, after PIP processing, authorized concurrently
+     * share a single PEP daemon call, and each receive a copy of its
+     * response. Unlike the decision cache, no response is kept once the call
+     * has completed. Disabled by default.
+     * 
+     * @param coalescing
+     *            <code>true</code> to enable request coalescing
+     */
+    public void setRequestCoalescing(boolean coalescing) {
+        requestCoalescing_= coalescing;
+    }
+
+    /**
+     * Returns the executor running the asynchronous requests. Default is
+     * <code>null</code>, the client uses its own thread pool.
+     * 
+     * @return the executor or <code>null</code>
+     */
+    public Executor getAsyncExecutor() {
+        return asyncExecutor_;
+    }
+
+    /**
+     * Sets the executor running the asynchronous requests. The executor is
+     * not shut down by the client.
+     * 
+     * @param executor
+     *            the executor, or <code>null</code> to use the client
+     *            internal thread pool
+     */
+    public void setAsyncExecutor(Executor executor) {
+        asyncExecutor_= executor;
+    }
+
+    /**
+     * Returns the number of threads of the client internal thread pool
+     * running the asynchronous requests. Default is <code>20</code>.
+     * 
+     * @return number of threads
+     */
+    public int getAsyncThreads() {
+        return asyncThreads_;
+    }
+
+    /**
+     * Sets the number of threads of the client internal thread pool running
+     * the asynchronous requests. Not used if an executor is set with
+     * {@link #setAsyncExecutor(Executor)}.
+     * 
+     * @param threads
+     *            number of threads, must be greater than zero
+     */
+    public void setAsyncThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Number of threads must be greater than zero");
+        }
+        asyncThreads_= threads;
+    }
+
+    /**
+     * Returns whether the client runs its asynchronous requests, parallel
+     * PIPs and hedged requests on virtual threads. Default is
+     * <code>false</code>.
+     * 
+     * @return <code>true</code> if virtual threads are used
+     */
+    public boolean isVirtualThreads() {
+        return virtualThreads_;
+    }
+
+    /**
+     * Sets whether the client runs its asynchronous requests, parallel PIPs
+     * and hedged requests on virtual threads, one per task, instead of
+     * platform thread pools. The number of asynchronous requests in progress
+     * is then only bounded by {@link #setMaxAsyncRequests(int)}, and
+     * {@link #setAsyncThreads(int)} is not used.
+     * <p>
+     * Virtual threads require Java 21, the platform thread pools are used on
+     * older runtimes. The {@link HttpTransportType#JDK_HTTPCLIENT} transport
+     * is recommended with virtual threads: the commons-httpclient connection
+     * pool waits for a free connection in a <code>synchronized</code> block,
+     * which pins the virtual thread to its carrier thread.
+     * 
+     * @param virtualThreads
+     *            <code>true</code> to use virtual threads
+     */
+    public void setVirtualThreads(boolean virtualThreads) {
+        virtualThreads_= virtualThreads;
+    }
+
+    /**
+     * Returns the maximum number of asynchronous requests in progress.
+     * Default is <code>100</code>.
+     * 
+     * @return maximum number of asynchronous requests in progress
+     */
+    public int getMaxAsyncRequests() {
+        return maxAsyncRequests_;
+    }
+
+    /**
+     * Sets the maximum number of asynchronous requests in progress, either
+     * queued or running. Additional requests are rejected.
+     * 
+     * @param maxRequests
+     *            maximum number of asynchronous requests, must be greater than
+     *            zero
+     */
+    public void setMaxAsyncRequests(int maxRequests) {
+        if (maxRequests < 1) {
+            throw new IllegalArgumentException("Maximum number of asynchronous requests must be greater than zero");
+        }
+        maxAsyncRequests_= maxRequests;
+    }
+
+    /**
+     * Returns the maximum number of requests of a batch authorized in
+     * parallel. Default is <code>5</code>.
+     * 
+     * @return maximum number of requests authorized in parallel
+     */
+    public int getBatchParallelism() {
+        return batchParallelism_;
+    }
+
+    /**
+     * Sets the maximum number of requests of a batch authorized in parallel.
+     * Each request in progress uses a connection of the pool, the value
+     * should not exceed the maximum number of connections per host.
+     * 
+     * @param parallelism
+     *            maximum number of requests authorized in parallel, must be
+     *            greater than zero
+     * @see #setMaxConnectionsPerHost(int)
+     */
+    public void setBatchParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Batch parallelism must be greater than zero");
+        }
+        batchParallelism_= parallelism;
+    }
+
+    /**
+     * Returns the number of consecutive failures marking a PEP daemon
+     * endpoint as unavailable.
+     * 
+     * @return the failure threshold, <code>0</code> if the circuit breaker
+     *         is disabled
+     */
+    public int getCircuitBreakerThreshold() {
+        return circuitBreakerThreshold_;
+    }
+
+    /**
+     * Sets the number of consecutive failures marking a PEP daemon endpoint
+     * as unavailable. The unavailable endpoints are skipped until a
+     * background probe shows they accept connections again, then a single
+     * trial request decides if they are available again. If all the
+     * endpoints are unavailable, they are all tried anyway.
+     * 
+     * @param threshold
+     *            the failure threshold, <code>0</code> to disable the
+     *            circuit breaker
+     */
+    public void setCircuitBreakerThreshold(int threshold) {
+        if (threshold < 0) {
+            throw new IllegalArgumentException("Circuit breaker threshold can not be negative");
+        }
+        circuitBreakerThreshold_= threshold;
+    }
+
+    /**
+     * Returns the interval between the probes of the unavailable PEP daemon
+     * endpoints.
+     * 
+     * @return the probe interval in millis
+     */
+    public int getEndpointProbeInterval() {
+        return endpointProbeInterval_;
+    }
+
+    /**
+     * Sets the interval between the probes of the unavailable PEP daemon
+     * endpoints.
+     * 
+     * @param interval
+     *            the probe interval in millis, must be greater than zero
+     */
+    public void setEndpointProbeInterval(int interval) {
+        if (interval < 1) {
+            throw new IllegalArgumentException("Endpoint probe interval must be greater than zero");
+        }
+        endpointProbeInterval_= interval;
+    }
+
+    /**
+     * Returns whether the slow requests are hedged to a secondary PEP daemon
+     * endpoint.
+     * 
+     * @return <code>true</code> if hedging is enabled
+     */
+    public boolean isHedgingEnabled() {
+        return hedgingEnabled_;
+    }
+
+    /**
+     * Enables or disables the hedged requests. When enabled, if the selected
+     * PEP daemon endpoint has not responded within the hedging delay, the
+     * same request is also sent to the next available endpoint, and the
+     * first successful response is used. Disabled by default.
+     * 
+     * @param enabled
+     *            <code>true</code> to enable hedging
+     * @see #setHedgingPercentile(double)
+     * @see #setHedgingBudgetRatio(double)
+     */
+    public void setHedgingEnabled(boolean enabled) {
+        hedgingEnabled_= enabled;
+    }
+
+    /**
+     * Returns the percentile of the observed latencies used as hedging delay.
+     * 
+     * @return the percentile
+     */
+    public double getHedgingPercentile() {
+        return hedgingPercentile_;
+    }
+
+    /**
+     * Sets the percentile of the observed PEP daemon latencies used as
+     * hedging delay. With the default <code>95</code>, about 5% of the
+     * requests are hedged. Only the latencies of the last minute at most are
+     * considered, so the delay follows the current PEP daemon latency.
+     * 
+     * @param percentile
+     *            the percentile, greater than <code>0</code> and lower than
+     *            <code>100</code>
+     */
+    public void setHedgingPercentile(double percentile) {
+        if (percentile <= 0 || percentile >= 100) {
+            throw new IllegalArgumentException("Hedging percentile must be between 0 and 100");
+        }
+        hedgingPercentile_= percentile;
+    }
+
+    /**
+     * Returns the min hedging delay.
+     * 
+     * @return the min hedging delay in millis
+     */
+    public int getHedgingMinDelay() {
+        return hedgingMinDelay_;
+    }
+
+    /**
+     * Sets the min hedging delay, a request is never hedged before this
+     * delay, whatever the observed latencies.
+     * 
+     * @param delay
+     *            the min hedging delay in millis
+     */
+    public void setHedgingMinDelay(int delay) {
+        if (delay < 0) {
+            throw new IllegalArgumentException("Hedging min delay can not be negative");
+        }
+        hedgingMinDelay_= delay;
+    }
+
+    /**
+     * Returns the max ratio of hedged requests.
+     * 
+     * @return the hedging budget ratio
+     */
+    public double getHedgingBudgetRatio() {
+        return hedgingBudgetRatio_;
+    }
+
+    /**
+     * Sets the max ratio of hedged requests. When the PEP daemons are slow
+     * for all the requests, hedging stops at this ratio instead of doubling
+     * the load.
+     * 
+     * @param ratio
+     *            the max ratio of hedged requests, between <code>0</code>
+     *            and <code>1</code>
+     */
+    public void setHedgingBudgetRatio(double ratio) {
+        if (ratio < 0 || ratio > 1) {
+            throw new IllegalArgumentException("Hedging budget ratio must be between 0 and 1");
+        }
+        hedgingBudgetRatio_= ratio;
+    }
+
+    /**
+     * Returns whether the requests in progress per PEP daemon endpoint are
+     * adaptively limited. Default is <code>false</code>.
+     * 
+     * @return <code>true</code> if the concurrency limit is enabled
+     */
+    public boolean isConcurrencyLimitEnabled() {
+        return concurrencyLimitEnabled_;
+    }
+
+    /**
+     * Enables the adaptive concurrency limit. The number of requests in
+     * progress to each PEP daemon endpoint is limited, and the limit adapts
+     * to the observed round trip times and failures: it grows while the
+     * endpoint keeps its latency, and shrinks when the latency increases, so
+     * the load stays near the endpoint capacity. The limit starts at the max
+     * connections per host, within the min and max limits.
+     * 
+     * @param enabled
+     *            <code>true</code> to enable the concurrency limit
+     * @see #setConcurrencyLimitPolicy(ConcurrencyLimitPolicy)
+     * @see org.glite.authz.pep.client.endpoint.ConcurrencyLimiter
+     */
+    public void setConcurrencyLimitEnabled(boolean enabled) {
+        concurrencyLimitEnabled_= enabled;
+    }
+
+    /**
+     * Returns the min concurrency limit per endpoint. Default is
+     * <code>1</code>.
+     * 
+     * @return the min concurrency limit
+     */
+    public int getMinConcurrencyLimit() {
+        return minConcurrencyLimit_;
+    }
+
+    /**
+     * Sets the min concurrency limit per endpoint.
+     * 
+     * @param limit
+     *            the min concurrency limit, greater than zero
+     */
+    public void setMinConcurrencyLimit(int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("Min concurrency limit must be greater than zero");
+        }
+        minConcurrencyLimit_= limit;
+    }
+
+    /**
+     * Returns the max concurrency limit per endpoint. Default is
+     * <code>100</code>.
+     * 
+     * @return the max concurrency limit
+     */
+    public int getMaxConcurrencyLimit() {
+        return maxConcurrencyLimit_;
+    }
+
+    /**
+     * Sets the max concurrency limit per endpoint.
+     * 
+     * @param limit
+     *            the max concurrency limit, greater than zero
+     */
+    public void setMaxConcurrencyLimit(int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("Max concurrency limit must be greater than zero");
+        }
+        maxConcurrencyLimit_= limit;
+    }
+
+    /**
+     * Returns the handling of the requests exceeding the concurrency limit.
+     * Default is {@link ConcurrencyLimitPolicy#QUEUE}.
+     * 
+     * @return the concurrency limit policy
+     */
+    public ConcurrencyLimitPolicy getConcurrencyLimitPolicy() {
+        return concurrencyLimitPolicy_;
+    }
+
+    /**
+     * Sets the handling of the requests exceeding the concurrency limit. A
+     * request refused by an endpoint is sent to the next endpoint.
+     * 
+     * @param policy
+     *            the concurrency limit policy
+     */
+    public void setConcurrencyLimitPolicy(ConcurrencyLimitPolicy policy) {
+        if (policy == null) {
+            throw new IllegalArgumentException("Concurrency limit policy can not be null");
+        }
+        concurrencyLimitPolicy_= policy;
+    }
+
+    /**
+     * Returns the max time a request waits for the concurrency limit with
+     * the {@link ConcurrencyLimitPolicy#QUEUE} policy. Default is
+     * <code>1000</code>.
+     * 
+     * @return the queue timeout in millis
+     */
+    public long getConcurrencyLimitQueueTimeout() {
+        return concurrencyLimitQueueTimeout_;
+    }
+
+    /**
+     * Sets the max time a request waits for the concurrency limit with the
+     * {@link ConcurrencyLimitPolicy#QUEUE} policy. The authorization deadline
+     * also bounds the wait.
+     * 
+     * @param timeout
+     *            the queue timeout in millis
+     */
+    public void setConcurrencyLimitQueueTimeout(long timeout) {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("Concurrency limit queue timeout can not be negative");
+        }
+        concurrencyLimitQueueTimeout_= timeout;
+    }
+}
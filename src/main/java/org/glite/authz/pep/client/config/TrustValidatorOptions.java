@@ -0,0 +1,203 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client.config;
+
+import eu.emi.security.authn.x509.CrlCheckingMode;
+import eu.emi.security.authn.x509.NamespaceCheckingMode;
+
+/**
+ * Options of the validator of a CA directory trust material, see
+ * {@link PEPClientConfiguration#setTrustValidatorOptions(TrustValidatorOptions)}.
+ * <p>
+ * The defaults are the ones of the canl <code>OpensslCertChainValidator</code>:
+ * the CA certificates and CRLs are all loaded at startup and refreshed every
+ * 10 minutes, the CRLs are checked if valid, and the EUGridPMA then Globus
+ * namespace policies are enforced if present.
+ * <p>
+ * With a big CA bundle, the lazy mode loads a CA certificate and its CRL
+ * only when a chain issued by that CA is validated, and keeps them for the
+ * refresh interval: the startup is fast, the memory is used only by the CAs
+ * of the PEP daemons, and there is no refresh of the whole bundle.
+ */
+public class TrustValidatorOptions {
+
+    /** Default refresh interval in millis, 10 minutes */
+    public static final long DEFAULT_REFRESH_INTERVAL= 600000;
+
+    /** Refresh interval in millis, <code>0</code> is no refresh */
+    private long refreshInterval_= DEFAULT_REFRESH_INTERVAL;
+
+    /** CRL checking mode */
+    private CrlCheckingMode crlCheckingMode_= CrlCheckingMode.IF_VALID;
+
+    /** Namespace checking mode */
+    private NamespaceCheckingMode namespaceCheckingMode_= NamespaceCheckingMode.EUGRIDPMA_GLOBUS;
+
+    /** Whether the CA certificates and CRLs are loaded on demand */
+    private boolean lazyMode_= false;
+
+    /** Whether the CA directory uses the OpenSSL 1.0 subject hashes */
+    private boolean openssl1Mode_= true;
+
+    /** Default constructor. */
+    public TrustValidatorOptions() {
+    }
+
+    /**
+     * Copy constructor.
+     * 
+     * @param options
+     *            the options to copy
+     */
+    public TrustValidatorOptions(TrustValidatorOptions options) {
+        refreshInterval_= options.refreshInterval_;
+        crlCheckingMode_= options.crlCheckingMode_;
+        namespaceCheckingMode_= options.namespaceCheckingMode_;
+        lazyMode_= options.lazyMode_;
+        openssl1Mode_= options.openssl1Mode_;
+    }
+
+    /**
+     * Returns the interval in millis between two reloads of the CA
+     * certificates and CRLs. Default is {@link #DEFAULT_REFRESH_INTERVAL}.
+     * 
+     * @return the refresh interval in millis, <code>0</code> if never
+     *         refreshed
+     */
+    public long getRefreshInterval() {
+        return refreshInterval_;
+    }
+
+    /**
+     * Sets the interval in millis between two reloads of the CA certificates
+     * and CRLs. In lazy mode, it is the time a loaded CA certificate or CRL is
+     * used before being loaded again.
+     * 
+     * @param interval
+     *            the refresh interval in millis, <code>0</code> to never
+     *            refresh
+     */
+    public void setRefreshInterval(long interval) {
+        if (interval < 0) {
+            throw new IllegalArgumentException("Refresh interval can not be negative");
+        }
+        refreshInterval_= interval;
+    }
+
+    /**
+     * Returns the CRL checking mode. Default is
+     * {@link CrlCheckingMode#IF_VALID}.
+     * 
+     * @return the CRL checking mode
+     */
+    public CrlCheckingMode getCrlCheckingMode() {
+        return crlCheckingMode_;
+    }
+
+    /**
+     * Sets the CRL checking mode: {@link CrlCheckingMode#REQUIRE} rejects a
+     * chain without valid CRL of each CA, {@link CrlCheckingMode#IGNORE}
+     * neither loads nor checks the CRLs.
+     * 
+     * @param mode
+     *            the CRL checking mode
+     */
+    public void setCrlCheckingMode(CrlCheckingMode mode) {
+        if (mode == null) {
+            throw new IllegalArgumentException("CRL checking mode can not be null");
+        }
+        crlCheckingMode_= mode;
+    }
+
+    /**
+     * Returns the namespace checking mode. Default is
+     * {@link NamespaceCheckingMode#EUGRIDPMA_GLOBUS}.
+     * 
+     * @return the namespace checking mode
+     */
+    public NamespaceCheckingMode getNamespaceCheckingMode() {
+        return namespaceCheckingMode_;
+    }
+
+    /**
+     * Sets the namespace checking mode: which of the EUGridPMA
+     * <code>.namespaces</code> and Globus <code>.signing_policy</code>
+     * files are loaded and enforced. {@link NamespaceCheckingMode#IGNORE}
+     * loads none.
+     * 
+     * @param mode
+     *            the namespace checking mode
+     */
+    public void setNamespaceCheckingMode(NamespaceCheckingMode mode) {
+        if (mode == null) {
+            throw new IllegalArgumentException("Namespace checking mode can not be null");
+        }
+        namespaceCheckingMode_= mode;
+    }
+
+    /**
+     * Returns whether the CA certificates and CRLs are loaded on demand.
+     * Default is <code>false</code>.
+     * 
+     * @return <code>true</code> if lazy mode is enabled
+     */
+    public boolean isLazyMode() {
+        return lazyMode_;
+    }
+
+    /**
+     * Sets whether the CA certificates and CRLs are loaded on demand, when a
+     * chain they issued is validated, instead of all at startup.
+     * 
+     * @param lazyMode
+     *            <code>true</code> to enable lazy mode
+     */
+    public void setLazyMode(boolean lazyMode) {
+        lazyMode_= lazyMode;
+    }
+
+    /**
+     * Returns whether the CA directory file names are the OpenSSL 1.0
+     * subject hashes. Default is <code>true</code>.
+     * 
+     * @return <code>true</code> for the OpenSSL 1.0 hashes,
+     *         <code>false</code> for the OpenSSL 0.9.8 hashes
+     */
+    public boolean isOpenssl1Mode() {
+        return openssl1Mode_;
+    }
+
+    /**
+     * Sets whether the CA directory file names are the OpenSSL 1.0 subject
+     * hashes, or the legacy OpenSSL 0.9.8 hashes.
+     * 
+     * @param openssl1Mode
+     *            <code>true</code> for the OpenSSL 1.0 hashes
+     */
+    public void setOpenssl1Mode(boolean openssl1Mode) {
+        openssl1Mode_= openssl1Mode;
+    }
+
+    /** {@inheritDoc} */
+    public String toString() {
+        return "refreshInterval=" + refreshInterval_ + ",crlCheckingMode=" + crlCheckingMode_
+                + ",namespaceCheckingMode=" + namespaceCheckingMode_ + ",lazyMode=" + lazyMode_
+                + ",openssl1Mode=" + openssl1Mode_;
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client.endpoint;
+
+/**
+ * Circuit breaker tracking the health of a PEP daemon endpoint.
+ * <p>
+ * The circuit is <b>closed</b> while the endpoint processes the requests.
+ * After <code>failureThreshold</code> consecutive failures the circuit
+ * <b>opens</b>, and the endpoint is skipped. When a probe shows the endpoint
+ * is reachable again, the circuit becomes <b>half-open</b>: a single trial
+ * request is allowed, its success closes the circuit and its failure opens
+ * it again.
+ * <p>
+ * A failure threshold of <code>0</code> disables the circuit breaker, the
+ * circuit always stays closed.
+ * <p>
+ * This class is thread-safe.
+ */
+public class CircuitBreaker {
+
+    /** Circuit breaker states */
+    public enum State {
+        /** Requests are allowed */
+        CLOSED,
+        /** Requests are not allowed */
+        OPEN,
+        /** A single trial request is allowed */
+        HALF_OPEN
+    }
+
+    /** Number of consecutive failures opening the circuit */
+    private final int failureThreshold_;
+
+    /** Current state */
+    private State state_= State.CLOSED;
+
+    /** Number of consecutive failures */
+    private int consecutiveFailures_= 0;
+
+    /** Whether the half-open trial request is in progress */
+    private boolean trialInProgress_= false;
+
+    /** Time in millis when the circuit was last opened */
+    private long openedAt_= 0;
+
+    /**
+     * Constructor.
+     * 
+     * @param failureThreshold
+     *            number of consecutive failures opening the circuit,
+     *            <code>0</code> to disable the circuit breaker
+     */
+    public CircuitBreaker(int failureThreshold) {
+        if (failureThreshold < 0) {
+            throw new IllegalArgumentException("Failure threshold can not be negative");
+        }
+        failureThreshold_= failureThreshold;
+    }
+
+    /**
+     * Checks if a request can be sent to the endpoint. In the half-open
+     * state, only the first caller is allowed, and it must then record the
+     * success or failure of its trial request.
+     * 
+     * @return <code>true</code> if the request is allowed
+     */
+    public synchronized boolean allowRequest() {
+        switch (state_) {
+        case CLOSED:
+            return true;
+        case HALF_OPEN:
+            if (!trialInProgress_) {
+                trialInProgress_= true;
+                return true;
+            }
+            return false;
+        default:
+            return false;
+        }
+    }
+
+    /** Records a successful request, the circuit is closed. */
+    public synchronized void recordSuccess() {
+        consecutiveFailures_= 0;
+        trialInProgress_= false;
+        state_= State.CLOSED;
+    }
+
+    /**
+     * Records a failed request.
+     * 
+     * @return <code>true</code> if the failure has opened the circuit
+     */
+    public synchronized boolean recordFailure() {
+        consecutiveFailures_++;
+        trialInProgress_= false;
+        if (failureThreshold_ < 1 || state_ == State.OPEN) {
+            return false;
+        }
+        if (state_ == State.HALF_OPEN
+                || consecutiveFailures_ >= failureThreshold_) {
+            state_= State.OPEN;
+            openedAt_= System.currentTimeMillis();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Ends the half-open trial request without an outcome, when the request
+     * was not sent or failed for a reason unrelated to the endpoint. The
+     * next request is allowed as trial.
+     */
+    public synchronized void releaseTrial() {
+        trialInProgress_= false;
+    }
+
+    /**
+     * Moves an open circuit to the half-open state, after a successful
+     * probe of the endpoint.
+     * 
+     * @return <code>true</code> if the circuit was open
+     */
+    public synchronized boolean halfOpen() {
+        if (state_ == State.OPEN) {
+            state_= State.HALF_OPEN;
+            trialInProgress_= false;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the current state of the circuit.
+     * 
+     * @return the circuit state
+     */
+    public synchronized State getState() {
+        return state_;
+    }
+
+    /**
+     * Returns the number of consecutive failures.
+     * 
+     * @return number of consecutive failures
+     */
+    public synchronized int getConsecutiveFailures() {
+        return consecutiveFailures_;
+    }
+
+    /**
+     * Returns the time in millis when the circuit was last opened.
+     * 
+     * @return the time the circuit was opened, <code>0</code> if never
+     */
+    public synchronized long getOpenedAt() {
+        return openedAt_;
+    }
+}
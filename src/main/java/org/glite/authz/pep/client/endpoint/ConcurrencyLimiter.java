@@ -0,0 +1,261 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client.endpoint;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Adaptive limit of the requests in progress to a PEP daemon endpoint.
+ * <p>
+ * The limit follows an additive increase, multiplicative decrease (AIMD)
+ * algorithm, driven by the round trip time (RTT) of the requests. While the
+ * RTT stays below twice the min RTT observed and the limit is used, each
+ * successful request raises the limit by <code>1/limit</code>, about one
+ * per round trip. A failed request, or an RTT above this threshold, shows
+ * the endpoint is saturated, and lowers the limit by 10%. The requests sent
+ * before the last decrease can not lower it again, so a single saturation
+ * episode lowers the limit once.
+ * <p>
+ * The min RTT is measured over a sliding window of requests, so the limit
+ * adapts when the endpoint becomes faster or slower.
+ * <p>
+ * This class is thread-safe.
+ */
+public class ConcurrencyLimiter {
+
+    /** Multiplicative decrease factor */
+    private static final double BACKOFF_RATIO= 0.9;
+
+    /** RTT above which the endpoint is considered saturated, relative to the min RTT */
+    private static final double RTT_TOLERANCE= 2.0;
+
+    /** Number of requests after which the min RTT is measured again */
+    private static final int MIN_RTT_WINDOW= 500;
+
+    /** Min limit */
+    private final int minLimit_;
+
+    /** Max limit */
+    private final int maxLimit_;
+
+    /** Lock of the limiter state */
+    private final ReentrantLock lock_= new ReentrantLock();
+
+    /** Signaled when a request can be started */
+    private final Condition available_= lock_.newCondition();
+
+    /** Current limit */
+    private double limit_;
+
+    /** Number of requests in progress */
+    private int inFlight_= 0;
+
+    /** Min RTT in nanos of the previous window */
+    private long minRtt_= Long.MAX_VALUE;
+
+    /** Min RTT in nanos of the current window */
+    private long windowMinRtt_= Long.MAX_VALUE;
+
+    /** Number of requests of the current window */
+    private int windowSamples_= 0;
+
+    /** Time of the last decrease, from {@link System#nanoTime()} */
+    private long lastDecrease_;
+
+    /** Number of requests refused */
+    private long rejected_= 0;
+
+    /**
+     * Constructor.
+     * 
+     * @param initialLimit
+     *            the initial limit
+     * @param minLimit
+     *            the min limit, greater than zero
+     * @param maxLimit
+     *            the max limit
+     */
+    public ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit) {
+        if (minLimit < 1) {
+            throw new IllegalArgumentException("Min limit must be greater than zero");
+        }
+        if (maxLimit < minLimit) {
+            throw new IllegalArgumentException("Max limit can not be lower than min limit");
+        }
+        if (initialLimit < minLimit || initialLimit > maxLimit) {
+            throw new IllegalArgumentException("Initial limit must be between min and max limits");
+        }
+        minLimit_= minLimit;
+        maxLimit_= maxLimit;
+        limit_= initialLimit;
+        lastDecrease_= System.nanoTime();
+    }
+
+    /**
+     * Starts a request if the limit allows it.
+     * 
+     * @return <code>true</code> if the request can be sent, it must then be
+     *         released with {@link #release(long, boolean)}
+     */
+    public boolean tryAcquire() {
+        lock_.lock();
+        try {
+            if (inFlight_ < (int) limit_) {
+                inFlight_++;
+                return true;
+            }
+            rejected_++;
+            return false;
+        } finally {
+            lock_.unlock();
+        }
+    }
+
+    /**
+     * Starts a request, waiting at most the timeout for the limit to allow
+     * it.
+     * 
+     * @param timeout
+     *            the max time to wait
+     * @param unit
+     *            the timeout unit
+     * @return <code>true</code> if the request can be sent, it must then be
+     *         released with {@link #release(long, boolean)}
+     * @throws InterruptedException
+     *             if the thread is interrupted while waiting
+     */
+    public boolean tryAcquire(long timeout, TimeUnit unit)
+            throws InterruptedException {
+        long nanos= unit.toNanos(timeout);
+        lock_.lockInterruptibly();
+        try {
+            while (inFlight_ >= (int) limit_) {
+                if (nanos <= 0) {
+                    rejected_++;
+                    return false;
+                }
+                nanos= available_.awaitNanos(nanos);
+            }
+            inFlight_++;
+            return true;
+        } finally {
+            lock_.unlock();
+        }
+    }
+
+    /**
+     * Ends a request, and adapts the limit to its outcome and RTT.
+     * 
+     * @param startTime
+     *            the request start time, from {@link System#nanoTime()}
+     * @param success
+     *            whether the request was successful
+     */
+    public void release(long startTime, boolean success) {
+        long now= System.nanoTime();
+        long rtt= now - startTime;
+        lock_.lock();
+        try {
+            int inFlight= inFlight_;
+            inFlight_--;
+            boolean saturated= !success;
+            if (success) {
+                windowMinRtt_= Math.min(windowMinRtt_, rtt);
+                if (++windowSamples_ >= MIN_RTT_WINDOW) {
+                    minRtt_= windowMinRtt_;
+                    windowMinRtt_= Long.MAX_VALUE;
+                    windowSamples_= 0;
+                }
+                long baseline= Math.min(minRtt_, windowMinRtt_);
+                saturated= rtt > baseline * RTT_TOLERANCE;
+            }
+            if (saturated) {
+                // the requests sent before the last decrease do not count
+                if (startTime - lastDecrease_ > 0) {
+                    limit_= Math.max(minLimit_, limit_ * BACKOFF_RATIO);
+                    lastDecrease_= now;
+                }
+            }
+            else if (2 * inFlight >= limit_) {
+                limit_= Math.min(maxLimit_, limit_ + 1.0 / limit_);
+            }
+            available_.signalAll();
+        } finally {
+            lock_.unlock();
+        }
+    }
+
+    /**
+     * Ends a request without adapting the limit, when the request was not
+     * sent or failed for a reason unrelated to the endpoint.
+     */
+    public void cancel() {
+        lock_.lock();
+        try {
+            inFlight_--;
+            available_.signalAll();
+        } finally {
+            lock_.unlock();
+        }
+    }
+
+    /**
+     * Returns the current limit.
+     * 
+     * @return the max number of requests in progress
+     */
+    public int getLimit() {
+        lock_.lock();
+        try {
+            return (int) limit_;
+        } finally {
+            lock_.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of requests in progress.
+     * 
+     * @return the requests in progress
+     */
+    public int getInFlight() {
+        lock_.lock();
+        try {
+            return inFlight_;
+        } finally {
+            lock_.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of requests refused by the limit.
+     * 
+     * @return the number of refused requests
+     */
+    public long getRejected() {
+        lock_.lock();
+        try {
+            return rejected_;
+        } finally {
+            lock_.unlock();
+        }
+    }
+}
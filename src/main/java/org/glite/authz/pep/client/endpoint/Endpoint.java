@@ -0,0 +1,282 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client.endpoint;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A PEP daemon endpoint, its health state and its observed latency.
+ * <p>
+ * The latency is tracked as an exponentially weighted moving average (EWMA)
+ * of the request durations. A failed request counts as a penalty, at least
+ * twice the average, so that an endpoint failing fast does not look fast.
+ */
+public class Endpoint {
+
+    /** Default endpoint weight */
+    public static final int DEFAULT_WEIGHT= 1;
+
+    /** Smoothing factor of the latency EWMA */
+    private static final double EWMA_ALPHA= 0.2;
+
+    /** Ratio of the latency EWMA counted at least for a failed request */
+    private static final double FAILURE_PENALTY= 2.0;
+
+    /** Endpoint URL */
+    private final String url_;
+
+    /** Endpoint host name */
+    private final String host_;
+
+    /** Endpoint port */
+    private final int port_;
+
+    /** Endpoint circuit breaker */
+    private final CircuitBreaker circuitBreaker_;
+
+    /** Endpoint concurrency limiter, <code>null</code> if unlimited */
+    private final ConcurrencyLimiter concurrencyLimiter_;
+
+    /** Endpoint weight */
+    private final int weight_;
+
+    /** Latency EWMA in nanos, as double bits, <code>0</code> if unknown */
+    private final AtomicLong latencyEWMA_= new AtomicLong(Double.doubleToLongBits(0.0));
+
+    /** Number of requests in progress */
+    private final AtomicInteger inFlight_= new AtomicInteger();
+
+    /**
+     * Constructor.
+     * 
+     * @param url
+     *            the PEP daemon endpoint URL
+     * @param failureThreshold
+     *            number of consecutive failures marking the endpoint as
+     *            unavailable, <code>0</code> to disable the circuit breaker
+     * @throws IllegalArgumentException
+     *             if the URL is not a valid http or https URL
+     */
+    public Endpoint(String url, int failureThreshold)
+            throws IllegalArgumentException {
+        this(url, DEFAULT_WEIGHT, failureThreshold);
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param url
+     *            the PEP daemon endpoint URL
+     * @param weight
+     *            the endpoint weight for the weighted load balancing, must be
+     *            greater than zero
+     * @param failureThreshold
+     *            number of consecutive failures marking the endpoint as
+     *            unavailable, <code>0</code> to disable the circuit breaker
+     * @throws IllegalArgumentException
+     *             if the URL is not a valid http or https URL, or if the
+     *             weight is not positive
+     */
+    public Endpoint(String url, int weight, int failureThreshold)
+            throws IllegalArgumentException {
+        this(url, weight, failureThreshold, null);
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param url
+     *            the PEP daemon endpoint URL
+     * @param weight
+     *            the endpoint weight for the weighted load balancing, must be
+     *            greater than zero
+     * @param failureThreshold
+     *            number of consecutive failures marking the endpoint as
+     *            unavailable, <code>0</code> to disable the circuit breaker
+     * @param concurrencyLimiter
+     *            the limiter of the requests in progress, <code>null</code>
+     *            for no limit
+     * @throws IllegalArgumentException
+     *             if the URL is not a valid http or https URL, or if the
+     *             weight is not positive
+     */
+    public Endpoint(String url, int weight, int failureThreshold,
+            ConcurrencyLimiter concurrencyLimiter)
+            throws IllegalArgumentException {
+        if (weight < 1) {
+            throw new IllegalArgumentException("Endpoint weight must be greater than zero");
+        }
+        weight_= weight;
+        URI uri;
+        try {
+            uri= new URI(url);
+        } catch (URISyntaxException e) {
+            throw new IllegalArgumentException("Invalid PEP Server endpoint URL: "
+                                                       + url,
+                                               e);
+        }
+        String scheme= uri.getScheme();
+        if (uri.getHost() == null
+                || !("http".equalsIgnoreCase(scheme) || "https".equalsIgnoreCase(scheme))) {
+            throw new IllegalArgumentException("Invalid PEP Server endpoint URL: "
+                    + url);
+        }
+        url_= url;
+        host_= uri.getHost();
+        if (uri.getPort() != -1) {
+            port_= uri.getPort();
+        }
+        else {
+            port_= "https".equalsIgnoreCase(scheme) ? 443 : 80;
+        }
+        circuitBreaker_= new CircuitBreaker(failureThreshold);
+        concurrencyLimiter_= concurrencyLimiter;
+    }
+
+    /**
+     * Returns the endpoint URL.
+     * 
+     * @return the URL
+     */
+    public String getUrl() {
+        return url_;
+    }
+
+    /**
+     * Returns the endpoint host name.
+     * 
+     * @return the host name
+     */
+    public String getHost() {
+        return host_;
+    }
+
+    /**
+     * Returns the endpoint port.
+     * 
+     * @return the port
+     */
+    public int getPort() {
+        return port_;
+    }
+
+    /**
+     * Returns the endpoint circuit breaker.
+     * 
+     * @return the circuit breaker
+     */
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker_;
+    }
+
+    /**
+     * Returns the endpoint concurrency limiter.
+     * 
+     * @return the concurrency limiter, <code>null</code> if unlimited
+     */
+    public ConcurrencyLimiter getConcurrencyLimiter() {
+        return concurrencyLimiter_;
+    }
+
+    /**
+     * Returns the endpoint weight.
+     * 
+     * @return the weight
+     */
+    public int getWeight() {
+        return weight_;
+    }
+
+    /**
+     * Marks the start of a request to the endpoint.
+     * 
+     * @return the request start time in nanos, to pass to
+     *         {@link #requestEnded(long, boolean)}
+     */
+    public long requestStarted() {
+        inFlight_.incrementAndGet();
+        return System.nanoTime();
+    }
+
+    /**
+     * Marks the end of a request to the endpoint, and updates the latency
+     * EWMA with its duration, or with a penalty if it failed: the larger of
+     * its duration and twice the current average.
+     * 
+     * @param startTime
+     *            the request start time returned by {@link #requestStarted()}
+     * @param success
+     *            whether the request was successful
+     */
+    public void requestEnded(long startTime, boolean success) {
+        inFlight_.decrementAndGet();
+        double duration= System.nanoTime() - startTime;
+        while (true) {
+            long current= latencyEWMA_.get();
+            double ewma= Double.longBitsToDouble(current);
+            double latency= success ? duration : Math.max(duration,
+                                                          FAILURE_PENALTY
+                                                                  * ewma);
+            double updated= (ewma == 0.0) ? latency : ewma
+                    + EWMA_ALPHA * (latency - ewma);
+            if (latencyEWMA_.compareAndSet(current,
+                                           Double.doubleToLongBits(updated))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns the latency EWMA of the endpoint.
+     * 
+     * @return the average latency in nanos, <code>0</code> if no request was
+     *         sent yet
+     */
+    public double getLatencyEWMA() {
+        return Double.longBitsToDouble(latencyEWMA_.get());
+    }
+
+    /**
+     * Returns the number of requests in progress.
+     * 
+     * @return the number of requests in progress
+     */
+    public int getInFlight() {
+        return inFlight_.get();
+    }
+
+    /**
+     * Returns the endpoint load, the latency EWMA weighted by the number of
+     * requests in progress. Endpoints without latency have no load, so they
+     * are tried first.
+     * 
+     * @return the endpoint load
+     */
+    public double getLoad() {
+        return getLatencyEWMA() * (getInFlight() + 1);
+    }
+
+    /** {@inheritDoc} */
+    public String toString() {
+        return url_;
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client.endpoint;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Background prober of the unavailable PEP daemon endpoints.
+ * <p>
+ * While at least one endpoint circuit is open, the prober periodically
+ * opens a TCP connection to each unavailable endpoint. When the connection
+ * succeeds, the endpoint circuit becomes half-open and the next request is
+ * sent as a trial to the endpoint.
+ * <p>
+ * The prober thread is only started when an endpoint becomes unavailable.
+ */
+public class EndpointProber {
+
+    /** Class logger. */
+    private final Log log= LogFactory.getLog(EndpointProber.class);
+
+    /** The probed endpoints */
+    private final List<Endpoint> endpoints_;
+
+    /** Probe interval in millis */
+    private final long probeInterval_;
+
+    /** Probe connection timeout in millis */
+    private final int connectionTimeout_;
+
+    /** Factory of the prober thread */
+    private final ThreadFactory threadFactory_;
+
+    /** Scheduler, created on first use */
+    private ScheduledExecutorService scheduler_= null;
+
+    /** Whether a probe is scheduled */
+    private boolean scheduled_= false;
+
+    /** Whether the prober is shut down */
+    private boolean shutdown_= false;
+
+    /**
+     * Constructor.
+     * 
+     * @param endpoints
+     *            the endpoints to probe
+     * @param probeInterval
+     *            interval in millis between probes
+     * @param connectionTimeout
+     *            probe connection timeout in millis
+     * @param threadFactory
+     *            factory of the prober thread
+     */
+    public EndpointProber(List<Endpoint> endpoints, long probeInterval,
+            int connectionTimeout, ThreadFactory threadFactory) {
+        endpoints_= endpoints;
+        probeInterval_= probeInterval;
+        connectionTimeout_= connectionTimeout;
+        threadFactory_= threadFactory;
+    }
+
+    /**
+     * Schedules a probe of the unavailable endpoints, if not already
+     * scheduled.
+     */
+    public synchronized void schedule() {
+        if (shutdown_ || scheduled_) {
+            return;
+        }
+        if (scheduler_ == null) {
+            scheduler_= Executors.newSingleThreadScheduledExecutor(threadFactory_);
+        }
+        scheduled_= true;
+        scheduler_.schedule(new Runnable() {
+            public void run() {
+                probe();
+            }
+        }, probeInterval_, TimeUnit.MILLISECONDS);
+    }
+
+    /** Stops the prober thread. */
+    public synchronized void shutdown() {
+        shutdown_= true;
+        if (scheduler_ != null) {
+            scheduler_.shutdownNow();
+        }
+    }
+
+    /**
+     * Probes the unavailable endpoints, and reschedules itself while some
+     * endpoint is still unavailable.
+     */
+    protected void probe() {
+        synchronized (this) {
+            scheduled_= false;
+        }
+        boolean unavailable= false;
+        for (Endpoint endpoint : endpoints_) {
+            CircuitBreaker circuitBreaker= endpoint.getCircuitBreaker();
+            if (circuitBreaker.getState() != CircuitBreaker.State.OPEN) {
+                continue;
+            }
+            if (isReachable(endpoint)) {
+                if (circuitBreaker.halfOpen()) {
+                    log.info("PEP Server " + endpoint
+                            + " is reachable again, next request is a trial");
+                }
+            }
+            else {
+                unavailable= true;
+            }
+        }
+        if (unavailable) {
+            schedule();
+        }
+    }
+
+    /**
+     * Checks if a TCP connection can be opened to the endpoint.
+     * 
+     * @param endpoint
+     *            the endpoint to probe
+     * @return <code>true</code> if the endpoint accepts connections
+     */
+    protected boolean isReachable(Endpoint endpoint) {
+        Socket socket= new Socket();
+        try {
+            socket.connect(new InetSocketAddress(endpoint.getHost(),
+                                                 endpoint.getPort()),
+                           connectionTimeout_);
+            return true;
+        } catch (IOException e) {
+            if (log.isDebugEnabled()) {
+                log.debug("PEP Server " + endpoint + " still unreachable: "
+                        + e.getMessage());
+            }
+            return false;
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // ignored
+            }
+        }
+    }
+}
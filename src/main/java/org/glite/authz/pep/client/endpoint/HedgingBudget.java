@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client.endpoint;
+
+/**
+ * Token bucket limiting the number of hedged requests to a ratio of the
+ * requests.
+ * <p>
+ * Each request deposits <code>ratio</code> token in the bucket, and each
+ * hedged request withdraws a whole token. The bucket holds at most
+ * <code>maxTokens</code> tokens, so a burst of slow responses can not hedge
+ * more than that many requests before the ratio applies.
+ * <p>
+ * This class is thread-safe.
+ */
+public class HedgingBudget {
+
+    /** Token deposited by each request */
+    private final double ratio_;
+
+    /** Max number of tokens in the bucket */
+    private final double maxTokens_;
+
+    /** Tokens available */
+    private double tokens_= 0.0;
+
+    /**
+     * Constructor.
+     * 
+     * @param ratio
+     *            max ratio of hedged requests, between <code>0</code> and
+     *            <code>1</code>
+     * @param maxTokens
+     *            max number of tokens in the bucket
+     */
+    public HedgingBudget(double ratio, int maxTokens) {
+        if (ratio < 0 || ratio > 1) {
+            throw new IllegalArgumentException("Hedging ratio must be between 0 and 1");
+        }
+        if (maxTokens < 1) {
+            throw new IllegalArgumentException("Max tokens must be greater than zero");
+        }
+        ratio_= ratio;
+        maxTokens_= maxTokens;
+    }
+
+    /** Deposits the token of a request. */
+    public synchronized void deposit() {
+        tokens_= Math.min(maxTokens_, tokens_ + ratio_);
+    }
+
+    /**
+     * Withdraws a token for a hedged request, if available.
+     * 
+     * @return <code>true</code> if the hedged request is allowed
+     */
+    public synchronized boolean tryWithdraw() {
+        if (tokens_ >= 1.0) {
+            tokens_-= 1.0;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the number of available tokens.
+     * 
+     * @return the available tokens
+     */
+    public synchronized double getTokens() {
+        return tokens_;
+    }
+}
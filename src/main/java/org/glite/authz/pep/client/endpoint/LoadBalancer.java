@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client.endpoint;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Orders the PEP daemon endpoints for a request, according to the load
+ * balancing strategy.
+ * <p>
+ * The selected endpoint comes first, followed by the other endpoints in the
+ * configured order, to be used for failover.
+ * <p>
+ * This class is thread-safe.
+ */
+public class LoadBalancer {
+
+    /** The endpoints, in the configured order */
+    private final List<Endpoint> endpoints_;
+
+    /** The load balancing strategy */
+    private final LoadBalancingStrategy strategy_;
+
+    /** Round robin counter */
+    private final AtomicInteger counter_= new AtomicInteger();
+
+    /** Current weights of the smooth weighted round robin */
+    private final int[] currentWeights_;
+
+    /** Sum of the endpoint weights */
+    private final int totalWeight_;
+
+    /** Random generator for the power of two choices */
+    private final Random random_= new Random();
+
+    /**
+     * Constructor.
+     * 
+     * @param endpoints
+     *            the endpoints, in the configured order
+     * @param strategy
+     *            the load balancing strategy
+     */
+    public LoadBalancer(List<Endpoint> endpoints, LoadBalancingStrategy strategy) {
+        if (endpoints == null || endpoints.isEmpty()) {
+            throw new IllegalArgumentException("endpoints can not be null or empty");
+        }
+        if (strategy == null) {
+            throw new IllegalArgumentException("strategy can not be null");
+        }
+        endpoints_= endpoints;
+        strategy_= strategy;
+        currentWeights_= new int[endpoints.size()];
+        int totalWeight= 0;
+        for (Endpoint endpoint : endpoints) {
+            totalWeight+= endpoint.getWeight();
+        }
+        totalWeight_= totalWeight;
+    }
+
+    /**
+     * Returns the endpoints in the order they must be tried for the next
+     * request.
+     * 
+     * @return the ordered endpoints
+     */
+    public List<Endpoint> select() {
+        int size= endpoints_.size();
+        if (size == 1 || strategy_ == LoadBalancingStrategy.FAILOVER) {
+            return endpoints_;
+        }
+        int first;
+        switch (strategy_) {
+        case ROUND_ROBIN:
+            first= (counter_.getAndIncrement() & Integer.MAX_VALUE) % size;
+            break;
+        case WEIGHTED:
+            first= selectWeighted();
+            break;
+        default:
+            first= selectPowerOfTwoChoices();
+            break;
+        }
+        if (first == 0) {
+            return endpoints_;
+        }
+        List<Endpoint> ordered= new ArrayList<Endpoint>(size);
+        ordered.add(endpoints_.get(first));
+        for (int i= 0; i < size; i++) {
+            if (i != first) {
+                ordered.add(endpoints_.get(i));
+            }
+        }
+        return ordered;
+    }
+
+    /**
+     * Returns the load balancing strategy.
+     * 
+     * @return the strategy
+     */
+    public LoadBalancingStrategy getStrategy() {
+        return strategy_;
+    }
+
+    /**
+     * Smooth weighted round robin: each endpoint current weight is increased
+     * by its weight, the endpoint with the highest current weight is
+     * selected and its current weight is decreased by the total weight.
+     * 
+     * @return index of the selected endpoint
+     */
+    private synchronized int selectWeighted() {
+        int selected= 0;
+        for (int i= 0; i < currentWeights_.length; i++) {
+            currentWeights_[i]+= endpoints_.get(i).getWeight();
+            if (currentWeights_[i] > currentWeights_[selected]) {
+                selected= i;
+            }
+        }
+        currentWeights_[selected]-= totalWeight_;
+        return selected;
+    }
+
+    /**
+     * Power of two choices: selects two distinct endpoints at random, and
+     * returns the one with the lowest load.
+     * 
+     * @return index of the selected endpoint
+     */
+    private int selectPowerOfTwoChoices() {
+        int size= endpoints_.size();
+        int a= random_.nextInt(size);
+        int b= random_.nextInt(size - 1);
+        if (b >= a) {
+            b++;
+        }
+        return endpoints_.get(a).getLoad() <= endpoints_.get(b).getLoad() ? a : b;
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client.endpoint;
+
+/**
+ * Strategies distributing the requests over the PEP daemon endpoints.
+ * <p>
+ * Whatever the strategy, if the selected endpoint fails the request is sent
+ * to the other endpoints, in the configured order.
+ */
+public enum LoadBalancingStrategy {
+
+    /**
+     * All the requests go to the first endpoint, the other endpoints are
+     * only used when it fails.
+     */
+    FAILOVER,
+
+    /** The endpoints are selected in turn. */
+    ROUND_ROBIN,
+
+    /**
+     * The endpoints are selected in turn, proportionally to their weight.
+     */
+    WEIGHTED,
+
+    /**
+     * Two endpoints are selected at random, and the one with the lowest
+     * average latency and fewest requests in progress is used.
+     */
+    POWER_OF_TWO_CHOICES
+}
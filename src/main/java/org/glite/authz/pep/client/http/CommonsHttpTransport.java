@@ -0,0 +1,237 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client.http;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.httpclient.ConnectionPoolTimeoutException;
+import org.apache.commons.httpclient.HostConfiguration;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpConnection;
+import org.apache.commons.httpclient.HttpConnectionManager;
+import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.URI;
+import org.apache.commons.httpclient.methods.PostMethod;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.glite.authz.common.model.Response;
+import org.glite.authz.pep.client.Deadline;
+import org.glite.authz.pep.client.PEPClientException;
+import org.glite.authz.pep.client.PEPClientPoolTimeoutException;
+import org.glite.authz.pep.client.metrics.AuthorizationPhase;
+import org.glite.authz.pep.client.metrics.PEPClientMetrics;
+
+/**
+ * HTTP transport based on a commons-httpclient 3.x {@link HttpClient}.
+ * <p>
+ * Each request uses a connection of the HTTP client pool for its whole
+ * duration.
+ * 
+ * @see HttpClientBuilder
+ */
+public class CommonsHttpTransport implements HttpTransport {
+
+    /** Class logger. */
+    private final Log log= LogFactory.getLog(CommonsHttpTransport.class);
+
+    /** Max wait in millis for a pooled connection to warm up, without connection timeout */
+    private static final int WARM_UP_POOL_TIMEOUT= 1000;
+
+    /** HTTP client used to contact the PEP daemon. */
+    private final HttpClient httpClient_;
+
+    /** Metrics recording the request phases, <code>null</code> if none */
+    private final PEPClientMetrics metrics_;
+
+    /**
+     * Constructor.
+     * 
+     * @param httpClient
+     *            the HTTP client, with a multi-threaded connection manager
+     */
+    public CommonsHttpTransport(HttpClient httpClient) {
+        this(httpClient, null);
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param httpClient
+     *            the HTTP client, with a multi-threaded connection manager
+     * @param metrics
+     *            the metrics recording the request and response phases,
+     *            <code>null</code> if none
+     */
+    public CommonsHttpTransport(HttpClient httpClient, PEPClientMetrics metrics) {
+        if (httpClient == null) {
+            throw new IllegalArgumentException("HTTP client can not be null");
+        }
+        httpClient_= httpClient;
+        metrics_= metrics;
+    }
+
+    /**
+     * Returns the HTTP client used to contact the PEP daemon.
+     * 
+     * @return the HTTP client
+     */
+    public HttpClient getHttpClient() {
+        return httpClient_;
+    }
+
+    /** {@inheritDoc} */
+    public Response send(String url, HessianRequestEntity requestEntity)
+            throws PEPClientException {
+        return send(url, requestEntity, Deadline.NONE);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The connection pool timeout and the connection timeout are the ones of
+     * the connection manager, commons-httpclient 3.x does not support them
+     * per request. Only the socket read timeout is reduced to the deadline.
+     * A connection pool timeout is thrown as
+     * {@link PEPClientPoolTimeoutException}.
+     */
+    public Response send(String url, HessianRequestEntity requestEntity,
+            Deadline deadline) throws PEPClientException {
+        PostMethod postMethod= new PostMethod(url);
+        postMethod.setRequestEntity(requestEntity);
+        if (!deadline.isUnlimited()) {
+            int readTimeout= httpClient_.getHttpConnectionManager().getParams().getSoTimeout();
+            postMethod.getParams().setSoTimeout(deadline.timeout(readTimeout));
+        }
+
+        Response response= null;
+        try {
+            long startTime= System.nanoTime();
+            httpClient_.executeMethod(postMethod);
+            recordPhase(AuthorizationPhase.REQUEST, startTime);
+            if (postMethod.getStatusCode() == HttpStatus.SC_OK) {
+                startTime= System.nanoTime();
+                try {
+                    response= HessianCodec.readResponse(postMethod.getResponseBodyAsStream());
+                } catch (IOException e) {
+                    log.error("Unable to deserialize response object", e);
+                    throw new PEPClientException("Unable to deserialize response object",
+                                                 e);
+                }
+                recordPhase(AuthorizationPhase.RESPONSE, startTime);
+            }
+            else {
+                String error= postMethod.getStatusCode()
+                        + " status code response from the PEP Server " + url;
+                log.error(error);
+                throw new PEPClientException(error);
+
+            }
+        } catch (ConnectionPoolTimeoutException e) {
+            String error= "No free connection to the PEP Server " + url
+                    + " within " + httpClient_.getParams().getConnectionManagerTimeout()
+                    + " ms";
+            log.error(error);
+            throw new PEPClientPoolTimeoutException(error, e);
+        } catch (IOException e) {
+            log.error("Unable to read response from PEP Server " + url, e);
+            throw new PEPClientException("Unable to read response from PEP Server "
+                                                 + url,
+                                         e);
+        } finally {
+            log.debug("release connection");
+            postMethod.releaseConnection();
+        }
+
+        return response;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The connections are leased together from the connection manager, so
+     * that distinct connections are opened, then released to the pool. The
+     * number of connections is limited by the max connections per host. The
+     * TLS handshake is performed when the connection is opened by the
+     * {@link TLSProtocolSocketFactory}; through an HTTP proxy, only the
+     * connection to the proxy is opened.
+     * <p>
+     * The wait for a free pooled connection is bounded by the connection
+     * timeout, or one second without connection timeout, whatever the
+     * connection pool timeout: the warm up stops at the first connection not
+     * leased in time.
+     */
+    public int warmUp(String url, int connections) throws PEPClientException {
+        HttpConnectionManager connectionManager= httpClient_.getHttpConnectionManager();
+        HostConfiguration hostConfiguration= (HostConfiguration) httpClient_.getHostConfiguration().clone();
+        try {
+            hostConfiguration.setHost(new URI(url, true));
+        } catch (IOException e) {
+            throw new PEPClientException("Invalid PEP Server URL " + url, e);
+        }
+        int maxConnections= connectionManager.getParams().getMaxConnectionsPerHost(hostConfiguration);
+        long poolTimeout= connectionManager.getParams().getConnectionTimeout();
+        if (poolTimeout <= 0) {
+            poolTimeout= WARM_UP_POOL_TIMEOUT;
+        }
+        List<HttpConnection> leased= new ArrayList<HttpConnection>();
+        try {
+            while (leased.size() < Math.min(connections, maxConnections)) {
+                HttpConnection connection= connectionManager.getConnectionWithTimeout(hostConfiguration,
+                                                                                     poolTimeout);
+                leased.add(connection);
+                if (!connection.isOpen()) {
+                    connection.open();
+                }
+            }
+        } catch (ConnectionPoolTimeoutException e) {
+            log.debug("No free connection left to warm up for PEP Server "
+                    + url);
+        } catch (IOException e) {
+            log.error("Unable to open connection to PEP Server " + url, e);
+            throw new PEPClientException("Unable to open connection to PEP Server "
+                                                 + url,
+                                         e);
+        } finally {
+            for (HttpConnection connection : leased) {
+                connection.releaseConnection();
+            }
+        }
+        return leased.size();
+    }
+
+    /**
+     * Records the latency of a phase, if metrics are enabled.
+     */
+    private void recordPhase(AuthorizationPhase phase, long startTime) {
+        if (metrics_ != null) {
+            metrics_.recordPhase(phase, startTime);
+        }
+    }
+
+    /** {@inheritDoc} */
+    public void shutdown() {
+        HttpConnectionManager connectionManager= httpClient_.getHttpConnectionManager();
+        if (connectionManager instanceof MultiThreadedHttpConnectionManager) {
+            ((MultiThreadedHttpConnectionManager) connectionManager).shutdown();
+        }
+    }
+}
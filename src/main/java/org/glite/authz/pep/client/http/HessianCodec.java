@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.glite.authz.common.model.AttributeAssignment;
+import org.glite.authz.common.model.Obligation;
+import org.glite.authz.common.model.Response;
+import org.glite.authz.common.model.Result;
+import org.glite.authz.common.model.Status;
+import org.glite.authz.common.model.StatusCode;
+import org.glite.authz.common.util.Base64;
+
+import com.caucho.hessian.io.HessianInput;
+import com.caucho.hessian.io.HessianOutput;
+
+/**
+ * Decoding of the base64 encoded Hessian responses of the PEP daemon.
+ */
+public final class HessianCodec {
+
+    /** Prevents instantiation */
+    private HessianCodec() {
+    }
+
+    /**
+     * Reads the base64 encoded Hessian response.
+     * 
+     * @param in
+     *            the response body, not closed
+     * @return the response
+     * @throws IOException
+     *             if the response can not be read or deserialized
+     */
+    static Response readResponse(InputStream in) throws IOException {
+        InputStream is= new Base64.InputStream(in);
+        HessianInput hin= new HessianInput(is);
+        return (Response) hin.readObject(Response.class);
+    }
+
+    /**
+     * Encodes and decodes a response with an obligation, to load and
+     * initialize the Hessian serializers of the response model before the
+     * first real response.
+     * 
+     * @throws IOException
+     *             if the response can not be encoded or decoded
+     */
+    public static void dryRun() throws IOException {
+        AttributeAssignment assignment= new AttributeAssignment();
+        assignment.setAttributeId("warm-up");
+        assignment.setValue("warm-up");
+        Obligation obligation= new Obligation();
+        obligation.setId("warm-up");
+        obligation.setFulfillOn(Result.DECISION_PERMIT);
+        obligation.getAttributeAssignments().add(assignment);
+        StatusCode code= new StatusCode();
+        code.setCode(StatusCode.SC_OK);
+        Status status= new Status();
+        status.setCode(code);
+        Result result= new Result();
+        result.setDecision(Result.DECISION_PERMIT);
+        result.setStatus(status);
+        result.getObligations().add(obligation);
+        Response response= new Response();
+        response.getResults().add(result);
+
+        ByteArrayOutputStream out= new ByteArrayOutputStream();
+        Base64.OutputStream b64out= new Base64.OutputStream(out, Base64.ENCODE);
+        HessianOutput hout= new HessianOutput(b64out);
+        hout.writeObject(response);
+        hout.flush();
+        b64out.flushBase64();
+        readResponse(new ByteArrayInputStream(out.toByteArray()));
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.apache.commons.httpclient.methods.RequestEntity;
+import org.glite.authz.common.model.Request;
+import org.glite.authz.common.util.Base64;
+
+import com.caucho.hessian.io.HessianOutput;
+
+/**
+ * Request entity streaming the base64 encoded Hessian serialization of an
+ * authorization request to the connection.
+ * <p>
+ * The request is serialized and encoded once, when the entity is created,
+ * and each write streams the same immutable content. The entity is therefore
+ * repeatable, and sends the same bytes on every attempt, concurrently to
+ * several PEP daemons, even if the request is modified afterwards.
+ * <p>
+ * The content is identical to the base64 encoding of the serialized request
+ * by {@link Base64#encodeBytes(byte[])}.
+ */
+public class HessianRequestEntity implements RequestEntity {
+
+    /** Content type of the entity */
+    public static final String CONTENT_TYPE= "application/octet-stream; charset=UTF-8";
+
+    /** Max base64 line length */
+    private static final int BASE64_LINE_LENGTH= 76;
+
+    /** The authorization request */
+    private final Request request_;
+
+    /** The base64 encoded content */
+    private final byte[] content_;
+
+    /**
+     * Constructor. Serializes and encodes the request.
+     * 
+     * @param request
+     *            the authorization request
+     * @throws IOException
+     *             if the request can not be serialized
+     */
+    public HessianRequestEntity(Request request) throws IOException {
+        if (request == null) {
+            throw new IllegalArgumentException("request can not be null");
+        }
+        request_= request;
+        ByteArrayOutputStream serialized= new ByteArrayOutputStream();
+        serialize(request, serialized);
+        ByteArrayOutputStream encoded= new ByteArrayOutputStream((int) base64Length(serialized.size()));
+        Base64.OutputStream b64out= new Base64.OutputStream(encoded,
+                                                            Base64.ENCODE);
+        serialized.writeTo(b64out);
+        b64out.flushBase64();
+        b64out.flush();
+        content_= encoded.toByteArray();
+    }
+
+    /**
+     * Returns the authorization request.
+     * 
+     * @return the request
+     */
+    public Request getRequest() {
+        return request_;
+    }
+
+    /**
+     * Returns the base64 encoded content, shared and not to be modified.
+     * 
+     * @return the content
+     */
+    byte[] getContent() {
+        return content_;
+    }
+
+    /** {@inheritDoc} */
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    /** {@inheritDoc} */
+    public long getContentLength() {
+        return content_.length;
+    }
+
+    /** {@inheritDoc} */
+    public String getContentType() {
+        return CONTENT_TYPE;
+    }
+
+    /** {@inheritDoc} */
+    public void writeRequest(OutputStream out) throws IOException {
+        out.write(content_);
+        out.flush();
+    }
+
+    /**
+     * Writes the Hessian serialization of the request.
+     * 
+     * @param request
+     *            the authorization request
+     * @param out
+     *            the output stream, not closed
+     * @throws IOException
+     *             if the request can not be serialized or written
+     */
+    private static void serialize(Request request, OutputStream out)
+            throws IOException {
+        HessianOutput hout= new HessianOutput(out);
+        hout.writeObject(request);
+        hout.flush();
+    }
+
+    /**
+     * Returns the length of the base64 encoding, with a new line after each
+     * full line of 76 characters.
+     * 
+     * @param length
+     *            the length of the data to encode
+     * @return the length of the encoded data
+     */
+    static long base64Length(long length) {
+        long groups= length / 3;
+        long encoded= groups * 4;
+        if (length % 3 > 0) {
+            encoded+= 4;
+        }
+        return encoded + groups / (BASE64_LINE_LENGTH / 4);
+    }
+}
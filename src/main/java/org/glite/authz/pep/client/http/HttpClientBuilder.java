@@ -37,7 +37,8 @@ import org.apache.commons.httpclient.protocol.SecureProtocolSocketFactory;
  * 
  * This builder will produce clients that employ the {@link MultiThreadedHttpConnectionManager} and as such users of the
  * clients MUST be sure to invoke {@link org.apache.commons.httpclient.HttpMethod#releaseConnection()} after they have
- * finished with the method.
+ * finished with the method. The connection manager is an {@link InstrumentedHttpConnectionManager}, exposing the
+ * connection pool statistics.
  */
 public class HttpClientBuilder {
 
@@ -62,6 +63,24 @@ public class HttpClientBuilder {
     /** Amount of time, in milliseconds, to wait for a connection to be established, default is 5,000. */
     private int connectionTimeout;
 
+    /** Amount of time, in milliseconds, to wait for data on a connection, default is 0 (no timeout). */
+    private int socketTimeout;
+
+    /** Amount of time, in milliseconds, to wait for a free connection of the pool, default is 0 (no timeout). */
+    private long connectionPoolTimeout;
+
+    /** Amount of time, in milliseconds, a connection can stay idle in the pool, default is 0 (no limit). */
+    private long connectionIdleTimeout;
+
+    /** Interval, in milliseconds, between the checks of the idle connections, defaults to 5,000. */
+    private long idleConnectionCheckInterval;
+
+    /** Whether to check if a pooled connection was closed by the server before each request, defaults to true. */
+    private boolean staleCheckingEnabled;
+
+    /** Whether to retry a request once when its pooled connection was closed by the server, defaults to false. */
+    private boolean retryOnStaleConnection;
+
     /** Size of the buffer, in bytes, used to hold outbound information, defaults to 4,096. */
     private int sendBufferSize;
 
@@ -94,6 +113,12 @@ public class HttpClientBuilder {
         preemptiveAuthentication = false;
         contentCharSet = "UTF-8";
         connectionTimeout = 5000;
+        socketTimeout = 0;
+        connectionPoolTimeout = 0;
+        connectionIdleTimeout = 0;
+        idleConnectionCheckInterval = 5000;
+        staleCheckingEnabled = true;
+        retryOnStaleConnection = false;
         sendBufferSize = 4096;
         receiveBufferSize = 16384;
         tcpNoDelay = true;
@@ -116,19 +141,29 @@ public class HttpClientBuilder {
         HttpClientParams clientParams = new HttpClientParams();
         clientParams.setAuthenticationPreemptive(isPreemptiveAuthentication());
         clientParams.setContentCharset(getContentCharSet());
-        clientParams.setParameter(HttpClientParams.RETRY_HANDLER, new DefaultHttpMethodRetryHandler(
-                connectionRetryAttempts, false));
+        if (isRetryOnStaleConnection()) {
+            clientParams.setParameter(HttpClientParams.RETRY_HANDLER, new StaleConnectionRetryHandler());
+        } else {
+            clientParams.setParameter(HttpClientParams.RETRY_HANDLER, new DefaultHttpMethodRetryHandler(
+                    connectionRetryAttempts, false));
+        }
+        clientParams.setConnectionManagerTimeout(getConnectionPoolTimeout());
 
         HttpConnectionManagerParams connMgrParams = new HttpConnectionManagerParams();
         connMgrParams.setConnectionTimeout(getConnectionTimeout());
+        connMgrParams.setSoTimeout(getSocketTimeout());
         connMgrParams.setDefaultMaxConnectionsPerHost(getMaxConnectionsPerHost());
         connMgrParams.setMaxTotalConnections(getMaxTotalConnections());
         connMgrParams.setReceiveBufferSize(getReceiveBufferSize());
         connMgrParams.setSendBufferSize(getSendBufferSize());
         connMgrParams.setTcpNoDelay(isTcpNoDelay());
+        connMgrParams.setStaleCheckingEnabled(isStaleCheckingEnabled());
 
-        MultiThreadedHttpConnectionManager connMgr = new MultiThreadedHttpConnectionManager();
+        InstrumentedHttpConnectionManager connMgr = new InstrumentedHttpConnectionManager();
         connMgr.setParams(connMgrParams);
+        if (getConnectionIdleTimeout() > 0) {
+            connMgr.startIdleConnectionEviction(getConnectionIdleTimeout(), getIdleConnectionCheckInterval());
+        }
 
         HttpClient httpClient = new HttpClient(clientParams, connMgr);
 
@@ -276,6 +311,135 @@ public class HttpClientBuilder {
         connectionTimeout = timeout;
     }
 
+    /**
+     * Gets the time, in milliseconds, to wait for data on a connection. Default value is 0, no timeout.
+     * 
+     * @return time, in milliseconds, to wait for data on a connection
+     */
+    public int getSocketTimeout() {
+        return socketTimeout;
+    }
+
+    /**
+     * Sets the time, in milliseconds, to wait for data on a connection. A value of 0 indicates there is no timeout.
+     * 
+     * @param timeout time, in milliseconds, to wait for data on a connection
+     */
+    public void setSocketTimeout(int timeout) {
+        socketTimeout = timeout;
+    }
+
+    /**
+     * Gets the time, in milliseconds, to wait for a free connection when all the connections of the pool are in use.
+     * Default value is 0, no timeout.
+     * 
+     * @return time, in milliseconds, to wait for a free connection of the pool
+     */
+    public long getConnectionPoolTimeout() {
+        return connectionPoolTimeout;
+    }
+
+    /**
+     * Sets the time, in milliseconds, to wait for a free connection when all the connections of the pool are in use.
+     * A {@link org.apache.commons.httpclient.ConnectionPoolTimeoutException} is thrown when the timeout expires. A
+     * value of 0 indicates there is no timeout.
+     * 
+     * @param timeout time, in milliseconds, to wait for a free connection of the pool
+     */
+    public void setConnectionPoolTimeout(long timeout) {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("Connection pool timeout can not be negative.");
+        }
+        connectionPoolTimeout = timeout;
+    }
+
+    /**
+     * Gets the time, in milliseconds, a connection can stay idle in the pool. Default value is 0, no limit.
+     * 
+     * @return time, in milliseconds, a connection can stay idle in the pool
+     */
+    public long getConnectionIdleTimeout() {
+        return connectionIdleTimeout;
+    }
+
+    /**
+     * Sets the time, in milliseconds, a connection can stay idle in the pool. The idle connections are closed by a
+     * background thread, stopped when the connection manager is shut down. The timeout should be lower than the
+     * server keep-alive timeout, so the connections are closed before the server closes them. A value of 0 indicates
+     * there is no limit.
+     * 
+     * @param timeout time, in milliseconds, a connection can stay idle in the pool
+     */
+    public void setConnectionIdleTimeout(long timeout) {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("Connection idle timeout can not be negative.");
+        }
+        connectionIdleTimeout = timeout;
+    }
+
+    /**
+     * Gets the interval, in milliseconds, between the checks of the idle connections. Default value is 5,000.
+     * 
+     * @return interval, in milliseconds, between the checks of the idle connections
+     */
+    public long getIdleConnectionCheckInterval() {
+        return idleConnectionCheckInterval;
+    }
+
+    /**
+     * Sets the interval, in milliseconds, between the checks of the idle connections.
+     * 
+     * @param interval interval, in milliseconds, between the checks of the idle connections, must be greater than
+     *            zero
+     */
+    public void setIdleConnectionCheckInterval(long interval) {
+        if (interval < 1) {
+            throw new IllegalArgumentException("Idle connection check interval must be greater than zero.");
+        }
+        idleConnectionCheckInterval = interval;
+    }
+
+    /**
+     * Gets whether a pooled connection is checked before each request. Default value is <code>true</code>.
+     * 
+     * @return whether a pooled connection is checked before each request
+     */
+    public boolean isStaleCheckingEnabled() {
+        return staleCheckingEnabled;
+    }
+
+    /**
+     * Sets whether a pooled connection is checked before each request, to detect if it was closed by the server.
+     * The check is a blocking read, adding latency to each request.
+     * 
+     * @param enabled whether a pooled connection is checked before each request
+     * @see #setRetryOnStaleConnection(boolean)
+     */
+    public void setStaleCheckingEnabled(boolean enabled) {
+        staleCheckingEnabled = enabled;
+    }
+
+    /**
+     * Gets whether a request is retried once when its pooled connection was closed by the server. Default value is
+     * <code>false</code>.
+     * 
+     * @return whether a request is retried on a stale connection
+     */
+    public boolean isRetryOnStaleConnection() {
+        return retryOnStaleConnection;
+    }
+
+    /**
+     * Sets whether a request is retried once when its pooled connection was closed by the server, instead of
+     * failing. Replaces the connection retry attempts.
+     * 
+     * @param retry whether a request is retried on a stale connection
+     * @see StaleConnectionRetryHandler
+     */
+    public void setRetryOnStaleConnection(boolean retry) {
+        retryOnStaleConnection = retry;
+    }
+
     /**
      * Gets the size of buffer, in bytes, used when sending content. Default value is 4,096.
      * 
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client.http;
+
+import org.glite.authz.common.model.Response;
+import org.glite.authz.pep.client.Deadline;
+import org.glite.authz.pep.client.PEPClientException;
+
+/**
+ * HTTP transport sending the authorization requests to the PEP daemons.
+ * <p>
+ * Implementations must be thread-safe, a single transport is used
+ * concurrently by all the requests of a PEP client.
+ * 
+ * @see HttpTransportType
+ */
+public interface HttpTransport {
+
+    /**
+     * Posts the request entity to the PEP daemon and returns the response.
+     * 
+     * @param url
+     *            the PEP daemon endpoint URL
+     * @param requestEntity
+     *            the serialized authorization request
+     * @return the response
+     * @throws PEPClientException
+     *             if the request failed, or the PEP daemon returned an error
+     */
+    public Response send(String url, HessianRequestEntity requestEntity)
+            throws PEPClientException;
+
+    /**
+     * Posts the request entity to the PEP daemon and returns the response,
+     * within the deadline. The configured read timeout is reduced to the
+     * remaining budget of the deadline.
+     * 
+     * @param url
+     *            the PEP daemon endpoint URL
+     * @param requestEntity
+     *            the serialized authorization request
+     * @param deadline
+     *            the deadline of the authorization
+     * @return the response
+     * @throws PEPClientException
+     *             if the request failed or timed out, or the PEP daemon
+     *             returned an error
+     */
+    public Response send(String url, HessianRequestEntity requestEntity,
+            Deadline deadline) throws PEPClientException;
+
+    /**
+     * Warms up the transport for the PEP daemon: opens connections to the PEP
+     * daemon, completing the DNS resolution, the TCP connection and the TLS
+     * handshake, and keeps them for the next requests.
+     * 
+     * @param url
+     *            the PEP daemon endpoint URL
+     * @param connections
+     *            the number of connections to open
+     * @return the number of connections ready, which can be lower than
+     *         requested if the transport limits the connections per host,
+     *         shares a connection between the requests, or if the
+     *         connections are not ready in time
+     * @throws PEPClientException
+     *             if a connection can not be opened
+     */
+    public int warmUp(String url, int connections) throws PEPClientException;
+
+    /**
+     * Shuts down the transport and closes its connections. The transport can
+     * not be used afterward.
+     */
+    public void shutdown();
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client.http;
+
+/**
+ * The available {@link HttpTransport} implementations.
+ */
+public enum HttpTransportType {
+
+    /**
+     * Jakarta commons-httpclient 3.x, HTTP/1.1 with a pool of persistent
+     * connections. The default transport.
+     * 
+     * @see CommonsHttpTransport
+     */
+    COMMONS_HTTPCLIENT,
+
+    /**
+     * JDK <code>java.net.http.HttpClient</code>, HTTP/2 multiplexing the
+     * requests on a single connection per PEP daemon when supported, HTTP/1.1
+     * otherwise.
+     * 
+     * @see JdkHttpTransport
+     */
+    JDK_HTTPCLIENT
+}
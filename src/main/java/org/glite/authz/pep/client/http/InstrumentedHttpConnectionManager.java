@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client.http;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.glite.authz.pep.client.metrics.ConnectionPoolMonitor;
+import org.glite.authz.pep.client.metrics.ConnectionPoolStatistics;
+import org.glite.authz.pep.client.metrics.LatencyHistogram;
+import org.glite.authz.pep.client.metrics.LatencyStatistics;
+
+import org.apache.commons.httpclient.ConnectionPoolTimeoutException;
+import org.apache.commons.httpclient.HostConfiguration;
+import org.apache.commons.httpclient.HttpConnection;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.util.IdleConnectionTimeoutThread;
+
+/**
+ * A {@link MultiThreadedHttpConnectionManager} measuring the use of its
+ * connection pool: the leased and idle connections, the threads waiting for
+ * a connection, and the time waited.
+ * <p>
+ * The connections idle for too long can be closed by a background thread,
+ * stopped when the manager is shut down.
+ * <p>
+ * This class is thread-safe.
+ */
+public class InstrumentedHttpConnectionManager extends
+        MultiThreadedHttpConnectionManager implements ConnectionPoolMonitor {
+
+    /** Connections in use */
+    private final AtomicInteger leased_= new AtomicInteger();
+
+    /** Threads waiting for a connection */
+    private final AtomicInteger waiting_= new AtomicInteger();
+
+    /** Number of connections acquired */
+    private final AtomicLong acquisitions_= new AtomicLong();
+
+    /** Number of acquisitions timed out */
+    private final AtomicLong timeouts_= new AtomicLong();
+
+    /** Times waited for a connection, in nanos */
+    private final LatencyHistogram waitTimes_= new LatencyHistogram();
+
+    /** Closes the idle connections, <code>null</code> if not started */
+    private IdleConnectionTimeoutThread idleConnectionEvictor_= null;
+
+    /**
+     * Starts a background thread closing the connections idle for longer
+     * than the idle timeout, before the server closes them.
+     * 
+     * @param idleTimeout
+     *            the max idle time of a connection in millis
+     * @param interval
+     *            the interval in millis between the checks of the idle
+     *            connections
+     */
+    public synchronized void startIdleConnectionEviction(long idleTimeout,
+            long interval) {
+        if (idleTimeout < 1 || interval < 1) {
+            throw new IllegalArgumentException("Idle timeout and interval must be greater than zero");
+        }
+        if (idleConnectionEvictor_ != null) {
+            idleConnectionEvictor_.shutdown();
+        }
+        IdleConnectionTimeoutThread evictor= new IdleConnectionTimeoutThread();
+        evictor.setName("PEPClient-idle-connections");
+        evictor.setDaemon(true);
+        evictor.setConnectionTimeout(idleTimeout);
+        evictor.setTimeoutInterval(interval);
+        evictor.addConnectionManager(this);
+        evictor.start();
+        idleConnectionEvictor_= evictor;
+    }
+
+    /**
+     * Stops the idle connection eviction thread, and closes all the
+     * connections.
+     */
+    public synchronized void shutdown() {
+        if (idleConnectionEvictor_ != null) {
+            idleConnectionEvictor_.shutdown();
+            idleConnectionEvictor_= null;
+        }
+        super.shutdown();
+    }
+
+    /** {@inheritDoc} */
+    public HttpConnection getConnectionWithTimeout(
+            HostConfiguration hostConfiguration, long timeout)
+            throws ConnectionPoolTimeoutException {
+        long startTime= System.nanoTime();
+        waiting_.incrementAndGet();
+        try {
+            HttpConnection connection= super.getConnectionWithTimeout(hostConfiguration,
+                                                                      timeout);
+            leased_.incrementAndGet();
+            acquisitions_.incrementAndGet();
+            return connection;
+        } catch (ConnectionPoolTimeoutException e) {
+            timeouts_.incrementAndGet();
+            throw e;
+        } finally {
+            waiting_.decrementAndGet();
+            waitTimes_.record(System.nanoTime() - startTime);
+        }
+    }
+
+    /** {@inheritDoc} */
+    public void releaseConnection(HttpConnection connection) {
+        leased_.decrementAndGet();
+        super.releaseConnection(connection);
+    }
+
+    /**
+     * Returns the number of connections in use by a request.
+     * 
+     * @return the leased connections
+     */
+    public int getLeasedConnections() {
+        return Math.max(0, leased_.get());
+    }
+
+    /**
+     * Returns the number of threads waiting for a connection, or acquiring
+     * a free one.
+     * 
+     * @return the waiting threads
+     */
+    public int getWaitingThreads() {
+        return waiting_.get();
+    }
+
+    /** {@inheritDoc} */
+    public ConnectionPoolStatistics getConnectionPoolStatistics() {
+        int leased= getLeasedConnections();
+        int idle= Math.max(0, getConnectionsInPool() - leased);
+        return new ConnectionPoolStatistics(getParams().getMaxTotalConnections(),
+                                            leased,
+                                            idle,
+                                            getWaitingThreads(),
+                                            acquisitions_.get(),
+                                            timeouts_.get(),
+                                            new LatencyStatistics(waitTimes_));
+    }
+}
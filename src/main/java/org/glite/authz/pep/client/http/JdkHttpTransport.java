@@ -0,0 +1,370 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.net.ssl.X509KeyManager;
+import javax.net.ssl.X509TrustManager;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.glite.authz.common.model.Response;
+import org.glite.authz.pep.client.Deadline;
+import org.glite.authz.pep.client.PEPClientException;
+import org.glite.authz.pep.client.PEPClientTimeoutException;
+import org.glite.authz.pep.client.metrics.AuthorizationPhase;
+import org.glite.authz.pep.client.metrics.PEPClientMetrics;
+import org.glite.authz.pep.client.tls.TLSContext;
+
+/**
+ * HTTP transport based on the JDK <code>java.net.http.HttpClient</code>.
+ * <p>
+ * The transport prefers HTTP/2: when the PEP daemon supports it (ALPN for
+ * https), the concurrent requests are multiplexed on a single connection,
+ * and the I/O is performed asynchronously by the HTTP client selector
+ * thread. Otherwise the transport falls back to HTTP/1.1 with persistent
+ * connections.
+ * <p>
+ * Unlike the commons-httpclient transport, the JDK HTTP client verifies that
+ * the PEP daemon certificate matches the endpoint host name.
+ */
+public class JdkHttpTransport implements HttpTransport {
+
+    /** Class logger. */
+    private final Log log= LogFactory.getLog(JdkHttpTransport.class);
+
+    /** Max wait in millis for the connections to warm up, without connection timeout */
+    private static final int WARM_UP_TIMEOUT= 1000;
+
+    /** JDK HTTP client */
+    private final HttpClient httpClient_;
+
+    /** Metrics recording the request phases, <code>null</code> if none */
+    private final PEPClientMetrics metrics_;
+
+    /** Connection timeout in millis, <code>0</code> for no timeout */
+    private final int connectionTimeout_;
+
+    /** Response timeout in millis, <code>0</code> for no timeout */
+    private final int readTimeout_;
+
+    /**
+     * Constructor.
+     * 
+     * @param connectionTimeout
+     *            the connection timeout in millis, <code>0</code> for no
+     *            timeout
+     * @param keyManager
+     *            the client key manager, <code>null</code> if TLS client
+     *            authentication isn't enabled
+     * @param trustManager
+     *            the trust manager validating the PEP daemon certificates,
+     *            <code>null</code> to use the JVM default
+     * @throws IllegalArgumentException
+     *             if the TLS context can not be created
+     */
+    public JdkHttpTransport(int connectionTimeout, X509KeyManager keyManager,
+            X509TrustManager trustManager) throws IllegalArgumentException {
+        this(connectionTimeout, keyManager, trustManager, null);
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param connectionTimeout
+     *            the connection timeout in millis, <code>0</code> for no
+     *            timeout
+     * @param keyManager
+     *            the client key manager, <code>null</code> if TLS client
+     *            authentication isn't enabled
+     * @param trustManager
+     *            the trust manager validating the PEP daemon certificates,
+     *            <code>null</code> to use the JVM default
+     * @param metrics
+     *            the metrics recording the request and response phases,
+     *            <code>null</code> if none
+     * @throws IllegalArgumentException
+     *             if the TLS context can not be created
+     */
+    public JdkHttpTransport(int connectionTimeout, X509KeyManager keyManager,
+            X509TrustManager trustManager, PEPClientMetrics metrics)
+            throws IllegalArgumentException {
+        this(connectionTimeout, 0, keyManager, trustManager, metrics);
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param connectionTimeout
+     *            the connection timeout in millis, <code>0</code> for no
+     *            timeout
+     * @param readTimeout
+     *            the time in millis to wait for the response,
+     *            <code>0</code> for no timeout
+     * @param keyManager
+     *            the client key manager, <code>null</code> if TLS client
+     *            authentication isn't enabled
+     * @param trustManager
+     *            the trust manager validating the PEP daemon certificates,
+     *            <code>null</code> to use the JVM default
+     * @param metrics
+     *            the metrics recording the request and response phases,
+     *            <code>null</code> if none
+     * @throws IllegalArgumentException
+     *             if the TLS context can not be created
+     */
+    public JdkHttpTransport(int connectionTimeout, int readTimeout,
+            X509KeyManager keyManager, X509TrustManager trustManager,
+            PEPClientMetrics metrics) throws IllegalArgumentException {
+        this(connectionTimeout,
+             readTimeout,
+             trustManager != null ? new TLSContext(keyManager,
+                                                   trustManager,
+                                                   TLSContext.DEFAULT_SESSION_CACHE_SIZE,
+                                                   TLSContext.DEFAULT_SESSION_TIMEOUT)
+                                 : null,
+             metrics);
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param connectionTimeout
+     *            the connection timeout in millis, <code>0</code> for no
+     *            timeout
+     * @param readTimeout
+     *            the time in millis to wait for the response,
+     *            <code>0</code> for no timeout
+     * @param tlsContext
+     *            the TLS context of the connections, possibly shared,
+     *            <code>null</code> to use the JVM default
+     * @param metrics
+     *            the metrics recording the request and response phases,
+     *            <code>null</code> if none
+     */
+    public JdkHttpTransport(int connectionTimeout, int readTimeout,
+            TLSContext tlsContext, PEPClientMetrics metrics) {
+        metrics_= metrics;
+        connectionTimeout_= connectionTimeout;
+        readTimeout_= readTimeout;
+        HttpClient.Builder builder= HttpClient.newBuilder();
+        builder.version(HttpClient.Version.HTTP_2);
+        builder.followRedirects(HttpClient.Redirect.NEVER);
+        if (connectionTimeout > 0) {
+            builder.connectTimeout(Duration.ofMillis(connectionTimeout));
+        }
+        if (tlsContext != null) {
+            builder.sslContext(tlsContext.getSSLContext());
+        }
+        httpClient_= builder.build();
+    }
+
+    /** {@inheritDoc} */
+    public Response send(String url, HessianRequestEntity requestEntity)
+            throws PEPClientException {
+        return send(url, requestEntity, Deadline.NONE);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The request timeout, covering the connection and the wait for the
+     * response headers, is reduced to the deadline. The response body is
+     * received in memory before it is decoded, and the whole exchange is
+     * bounded by the same timeout: a PEP daemon sending the headers but
+     * stalling in the body can not hold the request beyond the deadline.
+     */
+    public Response send(String url, HessianRequestEntity requestEntity,
+            Deadline deadline) throws PEPClientException {
+        HttpRequest request;
+        int timeout= deadline.timeout(readTimeout_);
+        try {
+            HttpRequest.Builder builder= HttpRequest.newBuilder(URI.create(url))
+                                                    .header("Content-Type",
+                                                            requestEntity.getContentType())
+                                                    .POST(HttpRequest.BodyPublishers.ofByteArray(requestEntity.getContent()));
+            if (timeout > 0) {
+                builder.timeout(Duration.ofMillis(timeout));
+            }
+            request= builder.build();
+        } catch (IllegalArgumentException e) {
+            throw new PEPClientException("Invalid PEP Server URL " + url, e);
+        }
+
+        HttpResponse<byte[]> httpResponse;
+        CompletableFuture<HttpResponse<byte[]>> future= null;
+        try {
+            long startTime= System.nanoTime();
+            future= httpClient_.sendAsync(request,
+                                          HttpResponse.BodyHandlers.ofByteArray());
+            if (timeout > 0) {
+                httpResponse= future.get(timeout, TimeUnit.MILLISECONDS);
+            }
+            else {
+                httpResponse= future.get();
+            }
+            recordPhase(AuthorizationPhase.REQUEST, startTime);
+        } catch (ExecutionException e) {
+            Throwable cause= e.getCause();
+            log.error("Unable to read response from PEP Server " + url, cause);
+            throw new PEPClientException("Unable to read response from PEP Server "
+                                                 + url,
+                                         cause instanceof Exception ? (Exception) cause
+                                                 : e);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            String error= "PEP Server " + url + " response not received within "
+                    + timeout + " ms";
+            log.error(error);
+            if (deadline.isExpired()) {
+                throw new PEPClientTimeoutException(error, e);
+            }
+            throw new PEPClientException(error, e);
+        } catch (InterruptedException e) {
+            if (future != null) {
+                future.cancel(true);
+            }
+            Thread.currentThread().interrupt();
+            throw new PEPClientException("Interrupted while waiting for the PEP Server "
+                                                 + url,
+                                         e);
+        }
+
+        if (httpResponse.statusCode() != 200) {
+            String error= httpResponse.statusCode()
+                    + " status code response from the PEP Server " + url;
+            log.error(error);
+            throw new PEPClientException(error);
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("response from " + url + " using "
+                    + httpResponse.version());
+        }
+        long startTime= System.nanoTime();
+        try {
+            Response response= HessianCodec.readResponse(new ByteArrayInputStream(httpResponse.body()));
+            recordPhase(AuthorizationPhase.RESPONSE, startTime);
+            return response;
+        } catch (IOException e) {
+            log.error("Unable to deserialize response object", e);
+            throw new PEPClientException("Unable to deserialize response object",
+                                         e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The JDK HTTP client does not expose its connection pool: the
+     * connections are opened by concurrent <code>HEAD</code> requests to the
+     * PEP daemon, whatever their response status. With HTTP/2, a single
+     * connection is opened and shared by the requests, and is counted once.
+     * <p>
+     * The wait for the responses is bounded by the connection timeout, or one
+     * second without connection timeout: the connections of the requests not
+     * completed in time are not counted.
+     */
+    public int warmUp(String url, int connections) throws PEPClientException {
+        HttpRequest request;
+        try {
+            HttpRequest.Builder builder= HttpRequest.newBuilder(URI.create(url))
+                                                    .method("HEAD",
+                                                            HttpRequest.BodyPublishers.noBody());
+            if (readTimeout_ > 0) {
+                builder.timeout(Duration.ofMillis(readTimeout_));
+            }
+            request= builder.build();
+        } catch (IllegalArgumentException e) {
+            throw new PEPClientException("Invalid PEP Server URL " + url, e);
+        }
+        List<CompletableFuture<HttpResponse<Void>>> responses= new ArrayList<CompletableFuture<HttpResponse<Void>>>(connections);
+        for (int i= 0; i < connections; i++) {
+            responses.add(httpClient_.sendAsync(request,
+                                                HttpResponse.BodyHandlers.discarding()));
+        }
+        long timeout= connectionTimeout_ > 0 ? connectionTimeout_
+                : WARM_UP_TIMEOUT;
+        long endTime= System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        int completed= 0;
+        boolean multiplexed= false;
+        try {
+            for (CompletableFuture<HttpResponse<Void>> response : responses) {
+                long remaining= endTime - System.nanoTime();
+                HttpResponse<Void> httpResponse= response.get(Math.max(remaining,
+                                                                       0),
+                                                              TimeUnit.NANOSECONDS);
+                completed++;
+                if (httpResponse.version() == HttpClient.Version.HTTP_2) {
+                    multiplexed= true;
+                }
+            }
+        } catch (TimeoutException e) {
+            log.debug("Only " + completed + " of " + connections
+                    + " connections to PEP Server " + url
+                    + " warmed up in " + timeout + " ms");
+            for (CompletableFuture<HttpResponse<Void>> response : responses) {
+                response.cancel(true);
+            }
+        } catch (ExecutionException e) {
+            log.error("Unable to open connection to PEP Server " + url,
+                      e.getCause());
+            throw new PEPClientException("Unable to open connection to PEP Server "
+                                                 + url,
+                                         e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PEPClientException("Interrupted while warming up the PEP Server "
+                                                 + url,
+                                         e);
+        }
+        return multiplexed ? Math.min(completed, 1) : completed;
+    }
+
+    /**
+     * Records the latency of a phase, if metrics are enabled.
+     */
+    private void recordPhase(AuthorizationPhase phase, long startTime) {
+        if (metrics_ != null) {
+            metrics_.recordPhase(phase, startTime);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The JDK HTTP client releases its connections and selector thread when
+     * it is garbage collected.
+     */
+    public void shutdown() {
+        // nothing to do
+    }
+}
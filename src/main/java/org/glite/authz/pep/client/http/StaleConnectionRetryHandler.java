@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client.http;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketException;
+
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLHandshakeException;
+
+import org.apache.commons.httpclient.HttpMethod;
+import org.apache.commons.httpclient.HttpMethodRetryHandler;
+import org.apache.commons.httpclient.NoHttpResponseException;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Retries a request once when it failed because its pooled connection was
+ * closed by the server, replacing the stale connection check before each
+ * request.
+ * <p>
+ * A connection closed by the server while idle in the pool fails when
+ * reused: the server does not respond ({@link NoHttpResponseException}), or
+ * the socket is reset or broken ({@link SocketException}, wrapped in an
+ * {@link SSLException} on a TLS connection). The request is
+ * then sent again on a new connection. The PEP daemon requests are
+ * idempotent, and their entity is repeatable, so they can be safely sent
+ * again. Connection failures and timeouts are not retried.
+ */
+public class StaleConnectionRetryHandler implements HttpMethodRetryHandler {
+
+    /** Class logger. */
+    private final Log log= LogFactory.getLog(StaleConnectionRetryHandler.class);
+
+    /** {@inheritDoc} */
+    public boolean retryMethod(HttpMethod method, IOException exception,
+            int executionCount) {
+        if (executionCount > 1) {
+            return false;
+        }
+        if (exception instanceof NoHttpResponseException
+                || isBroken(exception)
+                || (exception instanceof SSLException
+                        && !(exception instanceof SSLHandshakeException) && isBroken(exception.getCause()))) {
+            if (log.isDebugEnabled()) {
+                log.debug("Stale connection, retrying request: " + exception);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns whether the exception is a reset or broken socket, not a
+     * connection failure.
+     * 
+     * @param exception
+     *            the exception, possibly <code>null</code>
+     * @return <code>true</code> if the socket is reset or broken
+     */
+    private static boolean isBroken(Throwable exception) {
+        return exception instanceof SocketException
+                && !(exception instanceof ConnectException);
+    }
+}
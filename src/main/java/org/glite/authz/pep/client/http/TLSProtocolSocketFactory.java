@@ -23,28 +23,28 @@ import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.SocketAddress;
-import java.security.GeneralSecurityException;
 
 import javax.net.SocketFactory;
-import javax.net.ssl.KeyManager;
 import javax.net.ssl.SSLContext;
-import javax.net.ssl.TrustManager;
+import javax.net.ssl.SSLSocket;
 import javax.net.ssl.X509KeyManager;
 import javax.net.ssl.X509TrustManager;
 
 import org.apache.commons.httpclient.params.HttpConnectionParams;
 import org.apache.commons.httpclient.protocol.SecureProtocolSocketFactory;
+import org.glite.authz.pep.client.tls.TLSContext;
 
 /** 
  * An SSL/TLS socket factory that uses {@link KeyStoreFactory}s to get its key and trust material. 
+ * 
+ * The sockets created for a connection of the HTTP client complete their TLS handshake when the connection is opened,
+ * within the connection timeout, and not on the first request sent. Opening a pooled connection, for example to warm
+ * up the pool, therefore also pays for the handshake.
  */
 public class TLSProtocolSocketFactory implements SecureProtocolSocketFactory {
 
-    /** Manager used to retrieve client-cert authentication keys for a given host. */
-    private X509KeyManager keyManager;
-
-    /** Manager used to validate the X.509 credentials of a given host. */
-    private X509TrustManager trustManager;
+    /** TLS context creating the sockets, and counting their handshakes. */
+    private TLSContext tlsContext;
 
     /** Currently active SSL context. */
     private SSLContext sslContext;
@@ -59,15 +59,21 @@ public class TLSProtocolSocketFactory implements SecureProtocolSocketFactory {
      *             {@link SSLContext} used to create new sockets
      */
     public TLSProtocolSocketFactory(X509KeyManager keyMgr, X509TrustManager trustMgr) throws IllegalArgumentException {
-        keyManager = keyMgr;
-        trustManager = trustMgr;
+        this(new TLSContext(keyMgr, trustMgr, TLSContext.DEFAULT_SESSION_CACHE_SIZE,
+                TLSContext.DEFAULT_SESSION_TIMEOUT));
+    }
 
-        try {
-            sslContext = SSLContext.getInstance("SSL");
-            sslContext.init(new KeyManager[] { keyManager }, new TrustManager[] { trustManager }, null);
-        } catch (GeneralSecurityException e) {
-            throw new IllegalArgumentException("Error create SSL context", e);
+    /**
+     * Constructor.
+     * 
+     * @param context TLS context used to create new sockets, possibly shared with other factories
+     */
+    public TLSProtocolSocketFactory(TLSContext context) {
+        if (context == null) {
+            throw new IllegalArgumentException("TLS context can not be null");
         }
+        tlsContext = context;
+        sslContext = context.getSSLContext();
     }
 
     /** {@inheritDoc} */
@@ -93,15 +99,45 @@ public class TLSProtocolSocketFactory implements SecureProtocolSocketFactory {
         }
         int timeout = connParams.getConnectionTimeout();
         SocketFactory socketfactory = sslContext.getSocketFactory();
+        Socket socket;
         if (timeout == 0) {
-            return socketfactory.createSocket(host, port, localHost, localPort);
+            socket = socketfactory.createSocket(host, port, localHost, localPort);
         } else {
-            Socket socket = socketfactory.createSocket();
+            socket = socketfactory.createSocket();
             SocketAddress localaddr = new InetSocketAddress(localHost, localPort);
             SocketAddress remoteaddr = new InetSocketAddress(host, port);
             socket.bind(localaddr);
             socket.connect(remoteaddr, timeout);
-            return socket;
+        }
+        startHandshake(socket, timeout);
+        return socket;
+    }
+
+    /**
+     * Performs the TLS handshake of a connected socket, within the timeout. The socket is closed if the handshake
+     * fails.
+     * 
+     * @param socket the connected socket
+     * @param timeout time, in milliseconds, the handshake may take, 0 for no timeout
+     * 
+     * @throws IOException thrown if the handshake fails
+     */
+    private void startHandshake(Socket socket, int timeout) throws IOException {
+        if (!(socket instanceof SSLSocket)) {
+            return;
+        }
+        try {
+            int soTimeout = socket.getSoTimeout();
+            socket.setSoTimeout(timeout);
+            tlsContext.startHandshake((SSLSocket) socket);
+            socket.setSoTimeout(soTimeout);
+        } catch (IOException e) {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // ignored
+            }
+            throw e;
         }
     }
 
@@ -16,7 +16,7 @@
  */
 
 /** 
- * Utilities and extensions for the HttpClient.
+ * HTTP transports, and utilities and extensions for the HttpClient.
  * 
  * see {@link org.apache.commons.httpclient.HttpClient}
  */
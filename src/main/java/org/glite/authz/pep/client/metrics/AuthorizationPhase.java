@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client.metrics;
+
+/**
+ * The phases of an authorization, measured by {@link PEPClientMetrics}.
+ */
+public enum AuthorizationPhase {
+
+    /** The whole authorization, from PIPs to obligation handlers */
+    AUTHORIZATION,
+
+    /** The policy information points */
+    PIP,
+
+    /** The request serialization, before the request is sent */
+    SERIALIZATION,
+
+    /**
+     * The PEP daemon request, from sending the request until the response
+     * headers are received
+     */
+    REQUEST,
+
+    /** The response body reading and deserialization */
+    RESPONSE,
+
+    /** The obligation handlers */
+    OBLIGATION
+}
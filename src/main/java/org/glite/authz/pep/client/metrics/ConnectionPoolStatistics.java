@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client.metrics;
+
+/**
+ * Immutable statistics of an HTTP connection pool.
+ */
+public class ConnectionPoolStatistics {
+
+    /** Max number of connections */
+    private final int maxConnections_;
+
+    /** Connections in use by a request */
+    private final int leased_;
+
+    /** Open connections available for a request */
+    private final int idle_;
+
+    /** Threads waiting for a connection */
+    private final int waiting_;
+
+    /** Number of connections acquired */
+    private final long acquisitions_;
+
+    /** Number of acquisitions timed out */
+    private final long timeouts_;
+
+    /** Times waited for a connection */
+    private final LatencyStatistics waitTime_;
+
+    /**
+     * Constructor.
+     * 
+     * @param maxConnections
+     *            the max number of connections
+     * @param leased
+     *            the number of connections in use
+     * @param idle
+     *            the number of open connections available
+     * @param waiting
+     *            the number of threads waiting for a connection
+     * @param acquisitions
+     *            the number of connections acquired
+     * @param timeouts
+     *            the number of acquisitions timed out
+     * @param waitTime
+     *            the times waited for a connection
+     */
+    public ConnectionPoolStatistics(int maxConnections, int leased, int idle,
+            int waiting, long acquisitions, long timeouts,
+            LatencyStatistics waitTime) {
+        maxConnections_= maxConnections;
+        leased_= leased;
+        idle_= idle;
+        waiting_= waiting;
+        acquisitions_= acquisitions;
+        timeouts_= timeouts;
+        waitTime_= waitTime;
+    }
+
+    /**
+     * Returns the max number of connections of the pool.
+     * 
+     * @return the max number of connections
+     */
+    public int getMaxConnections() {
+        return maxConnections_;
+    }
+
+    /**
+     * Returns the number of connections in use by a request.
+     * 
+     * @return the leased connections
+     */
+    public int getLeased() {
+        return leased_;
+    }
+
+    /**
+     * Returns the number of open connections available for a request.
+     * 
+     * @return the idle connections
+     */
+    public int getIdle() {
+        return idle_;
+    }
+
+    /**
+     * Returns the number of threads waiting for a connection.
+     * 
+     * @return the waiting threads
+     */
+    public int getWaiting() {
+        return waiting_;
+    }
+
+    /**
+     * Returns the number of connections acquired from the pool.
+     * 
+     * @return the number of acquisitions
+     */
+    public long getAcquisitions() {
+        return acquisitions_;
+    }
+
+    /**
+     * Returns the number of requests which did not get a connection within
+     * the connection pool timeout.
+     * 
+     * @return the number of timeouts
+     */
+    public long getTimeouts() {
+        return timeouts_;
+    }
+
+    /**
+     * Returns the times waited for a connection, including the timed out
+     * acquisitions.
+     * 
+     * @return the wait time statistics
+     */
+    public LatencyStatistics getWaitTime() {
+        return waitTime_;
+    }
+}
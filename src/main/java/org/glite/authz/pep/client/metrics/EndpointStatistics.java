@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client.metrics;
+
+/**
+ * Immutable statistics of a PEP daemon endpoint.
+ */
+public class EndpointStatistics {
+
+    /** Endpoint URL */
+    private final String url_;
+
+    /** Circuit breaker state */
+    private final String state_;
+
+    /** Requests in progress */
+    private final int inFlight_;
+
+    /** Number of requests */
+    private final long requests_;
+
+    /** Number of failed requests */
+    private final long failures_;
+
+    /** Latencies of the successful requests */
+    private final LatencyStatistics latency_;
+
+    /** Concurrency limit, <code>0</code> if unlimited */
+    private final int concurrencyLimit_;
+
+    /** Number of requests refused by the concurrency limit */
+    private final long rejected_;
+
+    /**
+     * Constructor.
+     * 
+     * @param url
+     *            the endpoint URL
+     * @param state
+     *            the circuit breaker state
+     * @param inFlight
+     *            the number of requests in progress
+     * @param requests
+     *            the number of requests
+     * @param failures
+     *            the number of failed requests
+     * @param latency
+     *            the latencies of the successful requests
+     */
+    public EndpointStatistics(String url, String state, int inFlight,
+            long requests, long failures, LatencyStatistics latency) {
+        this(url, state, inFlight, requests, failures, latency, 0, 0);
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param url
+     *            the endpoint URL
+     * @param state
+     *            the circuit breaker state
+     * @param inFlight
+     *            the number of requests in progress
+     * @param requests
+     *            the number of requests
+     * @param failures
+     *            the number of failed requests
+     * @param latency
+     *            the latencies of the successful requests
+     * @param concurrencyLimit
+     *            the concurrency limit, <code>0</code> if unlimited
+     * @param rejected
+     *            the number of requests refused by the concurrency limit
+     */
+    public EndpointStatistics(String url, String state, int inFlight,
+            long requests, long failures, LatencyStatistics latency,
+            int concurrencyLimit, long rejected) {
+        url_= url;
+        state_= state;
+        inFlight_= inFlight;
+        requests_= requests;
+        failures_= failures;
+        latency_= latency;
+        concurrencyLimit_= concurrencyLimit;
+        rejected_= rejected;
+    }
+
+    /**
+     * Returns the endpoint URL.
+     * 
+     * @return the URL
+     */
+    public String getUrl() {
+        return url_;
+    }
+
+    /**
+     * Returns the circuit breaker state.
+     * 
+     * @return <code>CLOSED</code>, <code>OPEN</code> or
+     *         <code>HALF_OPEN</code>
+     */
+    public String getState() {
+        return state_;
+    }
+
+    /**
+     * Returns the number of requests in progress.
+     * 
+     * @return the requests in progress
+     */
+    public int getInFlight() {
+        return inFlight_;
+    }
+
+    /**
+     * Returns the number of requests sent to the endpoint.
+     * 
+     * @return the number of requests
+     */
+    public long getRequests() {
+        return requests_;
+    }
+
+    /**
+     * Returns the number of failed requests.
+     * 
+     * @return the number of failures
+     */
+    public long getFailures() {
+        return failures_;
+    }
+
+    /**
+     * Returns the latencies of the successful requests.
+     * 
+     * @return the latency statistics
+     */
+    public LatencyStatistics getLatency() {
+        return latency_;
+    }
+
+    /**
+     * Returns the current concurrency limit of the endpoint.
+     * 
+     * @return the max number of requests in progress, <code>0</code> if
+     *         unlimited
+     */
+    public int getConcurrencyLimit() {
+        return concurrencyLimit_;
+    }
+
+    /**
+     * Returns the number of requests refused by the concurrency limit.
+     * 
+     * @return the number of refused requests
+     */
+    public long getRejected() {
+        return rejected_;
+    }
+}
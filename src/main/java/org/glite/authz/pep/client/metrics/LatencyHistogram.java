@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of latencies, with logarithmic buckets.
+ * <p>
+ * Each power of two range is divided into 4 linear sub-buckets, so the
+ * percentiles are computed with a relative error below 25%, whatever the
+ * recorded values range.
+ * <p>
+ * This class is thread-safe.
+ */
+public class LatencyHistogram {
+
+    /** Number of bits of the sub-bucket index */
+    private static final int SUB_BUCKET_BITS= 2;
+
+    /** Number of sub-buckets per power of two */
+    private static final int SUB_BUCKETS= 1 << SUB_BUCKET_BITS;
+
+    /** Number of buckets covering all the positive long values */
+    private static final int BUCKETS= (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    /** Bucket counts */
+    private final AtomicLongArray buckets_= new AtomicLongArray(BUCKETS);
+
+    /** Number of recorded values */
+    private final AtomicLong count_= new AtomicLong();
+
+    /** Sum of the recorded values */
+    private final AtomicLong sum_= new AtomicLong();
+
+    /** Max recorded value */
+    private final AtomicLong max_= new AtomicLong();
+
+    /**
+     * Records a latency.
+     * 
+     * @param value
+     *            the latency, negative values are recorded as <code>0</code>
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value= 0;
+        }
+        buckets_.incrementAndGet(bucketIndex(value));
+        count_.incrementAndGet();
+        sum_.addAndGet(value);
+        long max= max_.get();
+        while (value > max && !max_.compareAndSet(max, value)) {
+            max= max_.get();
+        }
+    }
+
+    /**
+     * Returns the number of recorded latencies.
+     * 
+     * @return the count
+     */
+    public long getCount() {
+        return count_.get();
+    }
+
+    /**
+     * Returns the sum of the recorded latencies.
+     * 
+     * @return the sum
+     */
+    public long getSum() {
+        return sum_.get();
+    }
+
+    /**
+     * Returns the max recorded latency.
+     * 
+     * @return the max, <code>0</code> if no value was recorded
+     */
+    public long getMax() {
+        return max_.get();
+    }
+
+    /**
+     * Returns the mean of the recorded latencies.
+     * 
+     * @return the mean, <code>0</code> if no value was recorded
+     */
+    public double getMean() {
+        long count= count_.get();
+        return count == 0 ? 0.0 : (double) sum_.get() / count;
+    }
+
+    /**
+     * Returns the latency at the given percentile. The value is the upper
+     * bound of the bucket containing the percentile.
+     * 
+     * @param percentile
+     *            the percentile, between <code>0</code> and <code>100</code>
+     * @return the latency at the percentile, <code>0</code> if no value was
+     *         recorded
+     */
+    public long getPercentile(double percentile) {
+        return getPercentile(percentile, this);
+    }
+
+    /**
+     * Returns the latency at the given percentile of several histograms
+     * merged. The value is the upper bound of the bucket containing the
+     * percentile.
+     * 
+     * @param percentile
+     *            the percentile, between <code>0</code> and <code>100</code>
+     * @param histograms
+     *            the histograms to merge
+     * @return the latency at the percentile, <code>0</code> if no value was
+     *         recorded
+     */
+    static long getPercentile(double percentile, LatencyHistogram... histograms) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 100");
+        }
+        long[] counts= new long[BUCKETS];
+        long total= 0;
+        long max= 0;
+        for (LatencyHistogram histogram : histograms) {
+            for (int i= 0; i < BUCKETS; i++) {
+                long count= histogram.buckets_.get(i);
+                counts[i]+= count;
+                total+= count;
+            }
+            max= Math.max(max, histogram.max_.get());
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank= Math.max(1, (long) Math.ceil(percentile / 100.0 * total));
+        long cumulated= 0;
+        for (int i= 0; i < BUCKETS; i++) {
+            cumulated+= counts[i];
+            if (cumulated >= rank) {
+                return Math.min(bucketUpperBound(i), max);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Returns the bucket index of a value.
+     * 
+     * @param value
+     *            a positive value
+     * @return the bucket index
+     */
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift= 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        int subBucket= (int) (value >>> shift) & (SUB_BUCKETS - 1);
+        return (shift + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Returns the highest value of a bucket.
+     * 
+     * @param index
+     *            the bucket index
+     * @return the bucket upper bound
+     */
+    static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift= index / SUB_BUCKETS - 1;
+        long lowerBound= ((long) (SUB_BUCKETS + index % SUB_BUCKETS)) << shift;
+        return lowerBound + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client.metrics;
+
+/**
+ * Immutable statistics of a {@link LatencyHistogram}, in milliseconds.
+ */
+public class LatencyStatistics {
+
+    /** Nanos per milli */
+    private static final double NANOS_PER_MILLI= 1000000.0;
+
+    /** Number of recorded latencies */
+    private final long count_;
+
+    /** Mean latency */
+    private final double mean_;
+
+    /** Median latency */
+    private final double p50_;
+
+    /** 90th percentile latency */
+    private final double p90_;
+
+    /** 99th percentile latency */
+    private final double p99_;
+
+    /** Max latency */
+    private final double max_;
+
+    /**
+     * Constructor. Takes the statistics of a histogram of latencies in
+     * nanos.
+     * 
+     * @param histogram
+     *            the latency histogram, in nanos
+     */
+    public LatencyStatistics(LatencyHistogram histogram) {
+        count_= histogram.getCount();
+        mean_= histogram.getMean() / NANOS_PER_MILLI;
+        p50_= histogram.getPercentile(50) / NANOS_PER_MILLI;
+        p90_= histogram.getPercentile(90) / NANOS_PER_MILLI;
+        p99_= histogram.getPercentile(99) / NANOS_PER_MILLI;
+        max_= histogram.getMax() / NANOS_PER_MILLI;
+    }
+
+    /**
+     * Returns the number of recorded latencies.
+     * 
+     * @return the count
+     */
+    public long getCount() {
+        return count_;
+    }
+
+    /**
+     * Returns the mean latency.
+     * 
+     * @return the mean in millis
+     */
+    public double getMean() {
+        return mean_;
+    }
+
+    /**
+     * Returns the median latency.
+     * 
+     * @return the median in millis
+     */
+    public double getP50() {
+        return p50_;
+    }
+
+    /**
+     * Returns the 90th percentile latency.
+     * 
+     * @return the 90th percentile in millis
+     */
+    public double getP90() {
+        return p90_;
+    }
+
+    /**
+     * Returns the 99th percentile latency.
+     * 
+     * @return the 99th percentile in millis
+     */
+    public double getP99() {
+        return p99_;
+    }
+
+    /**
+     * Returns the max latency.
+     * 
+     * @return the max in millis
+     */
+    public double getMax() {
+        return max_;
+    }
+
+    /** {@inheritDoc} */
+    public String toString() {
+        return "count=" + count_ + " mean=" + mean_ + "ms p50=" + p50_
+                + "ms p90=" + p90_ + "ms p99=" + p99_ + "ms max=" + max_
+                + "ms";
+    }
+}
@@ -0,0 +1,360 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client.metrics;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.glite.authz.pep.client.endpoint.ConcurrencyLimiter;
+import org.glite.authz.pep.client.endpoint.Endpoint;
+
+/**
+ * Metrics of a PEP client: counters, and latency histograms per
+ * authorization phase and per PEP daemon endpoint.
+ * <p>
+ * Recording is lock-free, and the statistics are computed when queried. The
+ * metrics can be registered as JMX MXBean.
+ * <p>
+ * This class is thread-safe.
+ */
+public class PEPClientMetrics implements PEPClientMetricsMXBean {
+
+    /** Latencies by phase, in nanos */
+    private final Map<AuthorizationPhase, LatencyHistogram> phaseLatencies_;
+
+    /** Metrics by endpoint, in configured order */
+    private final Map<Endpoint, EndpointMetrics> endpoints_= new LinkedHashMap<Endpoint, EndpointMetrics>();
+
+    /** Error counts by type */
+    private final ConcurrentMap<String, AtomicLong> errors_= new ConcurrentHashMap<String, AtomicLong>();
+
+    /** Number of authorizations */
+    private final AtomicLong authorizations_= new AtomicLong();
+
+    /** Number of failed authorizations */
+    private final AtomicLong authorizationFailures_= new AtomicLong();
+
+    /** Number of decision cache hits */
+    private final AtomicLong cacheHits_= new AtomicLong();
+
+    /** Number of failovers */
+    private final AtomicLong failovers_= new AtomicLong();
+
+    /** Number of hedged requests */
+    private final AtomicLong hedgedRequests_= new AtomicLong();
+
+    /** Number of obligation handlers applied to a result */
+    private final AtomicLong obligationHandlerInvocations_= new AtomicLong();
+
+    /** Number of obligation handlers skipped for a result */
+    private final AtomicLong obligationHandlerSkips_= new AtomicLong();
+
+    /** HTTP connection pool, <code>null</code> if not exposed */
+    private volatile ConnectionPoolMonitor connectionPool_= null;
+
+    /** TLS handshakes, <code>null</code> if not exposed */
+    private volatile TLSHandshakeMonitor tlsHandshakes_= null;
+
+    /** Trust store, <code>null</code> if not exposed */
+    private volatile TrustStoreMonitor trustStore_= null;
+
+    /**
+     * Constructor.
+     * 
+     * @param endpoints
+     *            the PEP daemon endpoints
+     */
+    public PEPClientMetrics(Iterable<Endpoint> endpoints) {
+        phaseLatencies_= new EnumMap<AuthorizationPhase, LatencyHistogram>(AuthorizationPhase.class);
+        for (AuthorizationPhase phase : AuthorizationPhase.values()) {
+            phaseLatencies_.put(phase, new LatencyHistogram());
+        }
+        for (Endpoint endpoint : endpoints) {
+            endpoints_.put(endpoint, new EndpointMetrics());
+        }
+    }
+
+    /**
+     * Records the latency of an authorization phase.
+     * 
+     * @param phase
+     *            the authorization phase
+     * @param startTime
+     *            the phase start time, from {@link System#nanoTime()}
+     */
+    public void recordPhase(AuthorizationPhase phase, long startTime) {
+        phaseLatencies_.get(phase).record(System.nanoTime() - startTime);
+    }
+
+    /**
+     * Records an authorization.
+     * 
+     * @param startTime
+     *            the authorization start time, from
+     *            {@link System#nanoTime()}
+     * @param success
+     *            whether the authorization was successful
+     */
+    public void recordAuthorization(long startTime, boolean success) {
+        recordPhase(AuthorizationPhase.AUTHORIZATION, startTime);
+        authorizations_.incrementAndGet();
+        if (!success) {
+            authorizationFailures_.incrementAndGet();
+        }
+    }
+
+    /**
+     * Records a request to a PEP daemon endpoint.
+     * 
+     * @param endpoint
+     *            the PEP daemon endpoint
+     * @param startTime
+     *            the request start time, from {@link System#nanoTime()}
+     * @param success
+     *            whether the request was successful
+     */
+    public void recordEndpointRequest(Endpoint endpoint, long startTime,
+            boolean success) {
+        EndpointMetrics metrics= endpoints_.get(endpoint);
+        if (metrics == null) {
+            return;
+        }
+        metrics.requests_.incrementAndGet();
+        if (success) {
+            metrics.latencies_.record(System.nanoTime() - startTime);
+        }
+        else {
+            metrics.failures_.incrementAndGet();
+        }
+    }
+
+    /**
+     * Records an error of a PEP daemon request, PIP or obligation handler, by
+     * the class name of its root cause.
+     * 
+     * @param error
+     *            the error
+     */
+    public void recordError(Throwable error) {
+        Throwable cause= error;
+        while (cause.getCause() != null && cause.getCause() != cause) {
+            cause= cause.getCause();
+        }
+        String type= cause.getClass().getName();
+        AtomicLong count= errors_.get(type);
+        if (count == null) {
+            AtomicLong newCount= new AtomicLong();
+            count= errors_.putIfAbsent(type, newCount);
+            if (count == null) {
+                count= newCount;
+            }
+        }
+        count.incrementAndGet();
+    }
+
+    /** Records a decision cache hit. */
+    public void recordCacheHit() {
+        cacheHits_.incrementAndGet();
+    }
+
+    /** Records a request answered by another endpoint than the first tried. */
+    public void recordFailover() {
+        failovers_.incrementAndGet();
+    }
+
+    /** Records a hedged request. */
+    public void recordHedgedRequest() {
+        hedgedRequests_.incrementAndGet();
+    }
+
+    /**
+     * Records the obligation handler dispatch of a result.
+     * 
+     * @param invoked
+     *            the number of handlers applied to the result
+     * @param skipped
+     *            the number of handlers skipped
+     */
+    public void recordObligationDispatch(int invoked, int skipped) {
+        obligationHandlerInvocations_.addAndGet(invoked);
+        obligationHandlerSkips_.addAndGet(skipped);
+    }
+
+    /**
+     * Sets the HTTP connection pool whose statistics are exposed.
+     * 
+     * @param connectionPool
+     *            the connection pool, <code>null</code> if none
+     */
+    public void setConnectionPool(ConnectionPoolMonitor connectionPool) {
+        connectionPool_= connectionPool;
+    }
+
+    /**
+     * Sets the TLS context whose handshake statistics are exposed.
+     * 
+     * @param tlsHandshakes
+     *            the TLS handshake monitor, <code>null</code> if none
+     */
+    public void setTLSHandshakes(TLSHandshakeMonitor tlsHandshakes) {
+        tlsHandshakes_= tlsHandshakes;
+    }
+
+    /**
+     * Sets the trust store whose load statistics are exposed.
+     * 
+     * @param trustStore
+     *            the trust store monitor, <code>null</code> if none
+     */
+    public void setTrustStore(TrustStoreMonitor trustStore) {
+        trustStore_= trustStore;
+    }
+
+    /**
+     * Returns the latency histogram of an authorization phase.
+     * 
+     * @param phase
+     *            the authorization phase
+     * @return the latency histogram, in nanos
+     */
+    public LatencyHistogram getPhaseLatency(AuthorizationPhase phase) {
+        return phaseLatencies_.get(phase);
+    }
+
+    /** {@inheritDoc} */
+    public long getAuthorizations() {
+        return authorizations_.get();
+    }
+
+    /** {@inheritDoc} */
+    public long getAuthorizationFailures() {
+        return authorizationFailures_.get();
+    }
+
+    /** {@inheritDoc} */
+    public long getCacheHits() {
+        return cacheHits_.get();
+    }
+
+    /** {@inheritDoc} */
+    public long getFailovers() {
+        return failovers_.get();
+    }
+
+    /** {@inheritDoc} */
+    public long getHedgedRequests() {
+        return hedgedRequests_.get();
+    }
+
+    /** {@inheritDoc} */
+    public long getObligationHandlerInvocations() {
+        return obligationHandlerInvocations_.get();
+    }
+
+    /** {@inheritDoc} */
+    public long getObligationHandlerSkips() {
+        return obligationHandlerSkips_.get();
+    }
+
+    /** {@inheritDoc} */
+    public Map<String, Long> getErrors() {
+        Map<String, Long> errors= new TreeMap<String, Long>();
+        for (Map.Entry<String, AtomicLong> entry : errors_.entrySet()) {
+            errors.put(entry.getKey(), entry.getValue().get());
+        }
+        return errors;
+    }
+
+    /** {@inheritDoc} */
+    public Map<String, LatencyStatistics> getPhaseLatencies() {
+        Map<String, LatencyStatistics> latencies= new LinkedHashMap<String, LatencyStatistics>();
+        for (Map.Entry<AuthorizationPhase, LatencyHistogram> entry : phaseLatencies_.entrySet()) {
+            latencies.put(entry.getKey().name(),
+                          new LatencyStatistics(entry.getValue()));
+        }
+        return latencies;
+    }
+
+    /** {@inheritDoc} */
+    public Map<String, EndpointStatistics> getEndpoints() {
+        Map<String, EndpointStatistics> statistics= new LinkedHashMap<String, EndpointStatistics>();
+        for (Map.Entry<Endpoint, EndpointMetrics> entry : endpoints_.entrySet()) {
+            Endpoint endpoint= entry.getKey();
+            EndpointMetrics metrics= entry.getValue();
+            ConcurrencyLimiter limiter= endpoint.getConcurrencyLimiter();
+            statistics.put(endpoint.getUrl(),
+                           new EndpointStatistics(endpoint.getUrl(),
+                                                  endpoint.getCircuitBreaker().getState().name(),
+                                                  endpoint.getInFlight(),
+                                                  metrics.requests_.get(),
+                                                  metrics.failures_.get(),
+                                                  new LatencyStatistics(metrics.latencies_),
+                                                  limiter != null ? limiter.getLimit()
+                                                                 : 0,
+                                                  limiter != null ? limiter.getRejected()
+                                                                 : 0));
+        }
+        return statistics;
+    }
+
+    /** {@inheritDoc} */
+    public ConnectionPoolStatistics getConnectionPool() {
+        ConnectionPoolMonitor connectionPool= connectionPool_;
+        if (connectionPool == null) {
+            return null;
+        }
+        return connectionPool.getConnectionPoolStatistics();
+    }
+
+    /** {@inheritDoc} */
+    public TLSHandshakeStatistics getTLSHandshakes() {
+        TLSHandshakeMonitor tlsHandshakes= tlsHandshakes_;
+        if (tlsHandshakes == null) {
+            return null;
+        }
+        return tlsHandshakes.getTLSHandshakeStatistics();
+    }
+
+    /** {@inheritDoc} */
+    public TrustStoreStatistics getTrustStore() {
+        TrustStoreMonitor trustStore= trustStore_;
+        if (trustStore == null) {
+            return null;
+        }
+        return trustStore.getTrustStoreStatistics();
+    }
+
+    /** Counters and latencies of an endpoint. */
+    private static final class EndpointMetrics {
+
+        /** Number of requests */
+        private final AtomicLong requests_= new AtomicLong();
+
+        /** Number of failed requests */
+        private final AtomicLong failures_= new AtomicLong();
+
+        /** Latencies of the successful requests, in nanos */
+        private final LatencyHistogram latencies_= new LatencyHistogram();
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client.metrics;
+
+import java.util.Map;
+
+/**
+ * JMX management interface of the {@link PEPClientMetrics}.
+ */
+public interface PEPClientMetricsMXBean {
+
+    /**
+     * Returns the number of authorizations.
+     * 
+     * @return the number of authorizations
+     */
+    public long getAuthorizations();
+
+    /**
+     * Returns the number of failed authorizations.
+     * 
+     * @return the number of failed authorizations
+     */
+    public long getAuthorizationFailures();
+
+    /**
+     * Returns the number of responses found in the decision cache.
+     * 
+     * @return the number of cache hits
+     */
+    public long getCacheHits();
+
+    /**
+     * Returns the number of requests answered by another endpoint than the
+     * first one tried.
+     * 
+     * @return the number of failovers
+     */
+    public long getFailovers();
+
+    /**
+     * Returns the number of hedged requests.
+     * 
+     * @return the number of hedged requests
+     */
+    public long getHedgedRequests();
+
+    /**
+     * Returns the number of obligation handler invocations.
+     * 
+     * @return the number of obligation handlers applied to a result
+     */
+    public long getObligationHandlerInvocations();
+
+    /**
+     * Returns the number of obligation handler invocations avoided by the
+     * obligation index, because the result did not contain the handler
+     * obligation.
+     * 
+     * @return the number of obligation handlers skipped for a result
+     */
+    public long getObligationHandlerSkips();
+
+    /**
+     * Returns the number of errors of the PEP daemon requests, PIPs and
+     * obligation handlers by type. The type is the class name of the root
+     * cause of the error.
+     * 
+     * @return the error counts by type
+     */
+    public Map<String, Long> getErrors();
+
+    /**
+     * Returns the latency statistics of each authorization phase.
+     * 
+     * @return the latency statistics by phase name
+     * @see AuthorizationPhase
+     */
+    public Map<String, LatencyStatistics> getPhaseLatencies();
+
+    /**
+     * Returns the statistics of each PEP daemon endpoint.
+     * 
+     * @return the endpoint statistics by URL
+     */
+    public Map<String, EndpointStatistics> getEndpoints();
+
+    /**
+     * Returns the statistics of the HTTP connection pool: the leased and
+     * idle connections, the threads waiting for a connection and the time
+     * waited.
+     * 
+     * @return the connection pool statistics, <code>null</code> if the HTTP
+     *         transport does not expose its connection pool
+     */
+    public ConnectionPoolStatistics getConnectionPool();
+
+    /**
+     * Returns the statistics of the TLS handshakes: full and resumed
+     * handshakes, and cached sessions. When the TLS context is shared, the
+     * handshakes of all the clients sharing it are counted.
+     * 
+     * @return the TLS handshake statistics, <code>null</code> if TLS is not
+     *         configured
+     */
+    public TLSHandshakeStatistics getTLSHandshakes();
+
+    /**
+     * Returns the statistics of the trust store loads: number and duration of
+     * the loads and refreshes, and size of the trust store.
+     * 
+     * @return the trust store statistics, <code>null</code> if the trust
+     *         material is not a CA directory
+     */
+    public TrustStoreStatistics getTrustStore();
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client.metrics;
+
+/**
+ * Immutable statistics of the TLS handshakes of a TLS context.
+ * <p>
+ * A full handshake validates the PEP daemon certificate chain, and signs
+ * with the client key if client authentication is enabled. A resumed
+ * handshake reuses a session of the session cache, and skips both.
+ */
+public class TLSHandshakeStatistics {
+
+    /** Number of full handshakes */
+    private final long fullHandshakes_;
+
+    /** Number of resumed handshakes */
+    private final long resumedHandshakes_;
+
+    /** Number of sessions in the client session cache */
+    private final int cachedSessions_;
+
+    /**
+     * Constructor.
+     * 
+     * @param fullHandshakes
+     *            the number of full handshakes
+     * @param resumedHandshakes
+     *            the number of resumed handshakes
+     * @param cachedSessions
+     *            the number of sessions in the session cache
+     */
+    public TLSHandshakeStatistics(long fullHandshakes, long resumedHandshakes,
+            int cachedSessions) {
+        fullHandshakes_= fullHandshakes;
+        resumedHandshakes_= resumedHandshakes;
+        cachedSessions_= cachedSessions;
+    }
+
+    /**
+     * Returns the number of full handshakes, validating the PEP daemon
+     * certificate chain.
+     * 
+     * @return the number of full handshakes
+     */
+    public long getFullHandshakes() {
+        return fullHandshakes_;
+    }
+
+    /**
+     * Returns the number of handshakes resuming a cached session. Only the
+     * handshakes of the commons-httpclient transport are counted, the JDK
+     * HTTP client does not expose its handshakes.
+     * 
+     * @return the number of resumed handshakes
+     */
+    public long getResumedHandshakes() {
+        return resumedHandshakes_;
+    }
+
+    /**
+     * Returns the number of sessions in the client session cache.
+     * 
+     * @return the number of cached sessions
+     */
+    public int getCachedSessions() {
+        return cachedSessions_;
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client.metrics;
+
+/**
+ * Immutable statistics of the loads of the trust store: the CA certificates
+ * and CRLs validating the PEP daemon certificate chains.
+ * <p>
+ * The memory used by the trust store is estimated by the encoded size of its
+ * CA certificates. In lazy mode, the CA certificates are loaded on demand
+ * and are neither counted nor measured.
+ */
+public class TrustStoreStatistics {
+
+    /** Number of successful loads, the initial one included */
+    private final long loads_;
+
+    /** Number of failed refreshes */
+    private final long failedLoads_;
+
+    /** Duration in millis of the last successful load */
+    private final long lastLoadDuration_;
+
+    /** Max duration in millis of a successful load */
+    private final long maxLoadDuration_;
+
+    /** Time in millis since the epoch of the last successful load */
+    private final long lastLoadTime_;
+
+    /** Number of trusted CA certificates */
+    private final int trustedIssuers_;
+
+    /** Encoded size in bytes of the trusted CA certificates */
+    private final long trustedIssuersSize_;
+
+    /**
+     * Constructor.
+     * 
+     * @param loads
+     *            the number of successful loads
+     * @param failedLoads
+     *            the number of failed refreshes
+     * @param lastLoadDuration
+     *            the duration in millis of the last load
+     * @param maxLoadDuration
+     *            the max duration in millis of a load
+     * @param lastLoadTime
+     *            the time in millis since the epoch of the last load
+     * @param trustedIssuers
+     *            the number of trusted CA certificates
+     * @param trustedIssuersSize
+     *            the encoded size in bytes of the trusted CA certificates
+     */
+    public TrustStoreStatistics(long loads, long failedLoads,
+            long lastLoadDuration, long maxLoadDuration, long lastLoadTime,
+            int trustedIssuers, long trustedIssuersSize) {
+        loads_= loads;
+        failedLoads_= failedLoads;
+        lastLoadDuration_= lastLoadDuration;
+        maxLoadDuration_= maxLoadDuration;
+        lastLoadTime_= lastLoadTime;
+        trustedIssuers_= trustedIssuers;
+        trustedIssuersSize_= trustedIssuersSize;
+    }
+
+    /**
+     * Returns the number of successful loads of the trust store, the initial
+     * load and the refreshes.
+     * 
+     * @return the number of loads
+     */
+    public long getLoads() {
+        return loads_;
+    }
+
+    /**
+     * Returns the number of failed refreshes. The previous trust store is
+     * kept after a failed refresh.
+     * 
+     * @return the number of failed refreshes
+     */
+    public long getFailedLoads() {
+        return failedLoads_;
+    }
+
+    /**
+     * Returns the duration of the last successful load.
+     * 
+     * @return the load duration in millis
+     */
+    public long getLastLoadDuration() {
+        return lastLoadDuration_;
+    }
+
+    /**
+     * Returns the max duration of a successful load.
+     * 
+     * @return the max load duration in millis
+     */
+    public long getMaxLoadDuration() {
+        return maxLoadDuration_;
+    }
+
+    /**
+     * Returns the time of the last successful load.
+     * 
+     * @return the time in millis since the epoch
+     */
+    public long getLastLoadTime() {
+        return lastLoadTime_;
+    }
+
+    /**
+     * Returns the number of trusted CA certificates, <code>0</code> in lazy
+     * mode.
+     * 
+     * @return the number of trusted CA certificates
+     */
+    public int getTrustedIssuers() {
+        return trustedIssuers_;
+    }
+
+    /**
+     * Returns the encoded size of the trusted CA certificates, an estimate of
+     * the memory used by the trust store, <code>0</code> in lazy mode.
+     * 
+     * @return the size in bytes
+     */
+    public long getTrustedIssuersSize() {
+        return trustedIssuersSize_;
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Histogram of the recent latencies.
+ * <p>
+ * The latencies are recorded in the histogram of the current time window,
+ * which becomes the previous one when the window ends. The percentiles are
+ * computed over the previous and the current windows, so they follow a
+ * latency change within two windows, unlike a cumulative
+ * {@link LatencyHistogram} dominated by the past latencies.
+ * <p>
+ * This class is thread-safe.
+ */
+public class WindowedLatencyHistogram {
+
+    /** Window length in nanos */
+    private final long window_;
+
+    /** Histogram of the current window */
+    private volatile LatencyHistogram current_= new LatencyHistogram();
+
+    /** Histogram of the previous window */
+    private volatile LatencyHistogram previous_= new LatencyHistogram();
+
+    /** Start of the current window, from {@link System#nanoTime()} */
+    private volatile long windowStart_= System.nanoTime();
+
+    /**
+     * Constructor.
+     * 
+     * @param window
+     *            the window length in millis
+     */
+    public WindowedLatencyHistogram(long window) {
+        if (window < 1) {
+            throw new IllegalArgumentException("Window must be greater than zero");
+        }
+        window_= TimeUnit.MILLISECONDS.toNanos(window);
+    }
+
+    /**
+     * Records a latency in the current window.
+     * 
+     * @param value
+     *            the latency, negative values are recorded as <code>0</code>
+     */
+    public void record(long value) {
+        rotate();
+        current_.record(value);
+    }
+
+    /**
+     * Returns the number of latencies recorded in the previous and current
+     * windows.
+     * 
+     * @return the count
+     */
+    public long getCount() {
+        rotate();
+        return previous_.getCount() + current_.getCount();
+    }
+
+    /**
+     * Returns the latency at the given percentile of the previous and current
+     * windows.
+     * 
+     * @param percentile
+     *            the percentile, between <code>0</code> and <code>100</code>
+     * @return the latency at the percentile, <code>0</code> if no value was
+     *         recorded
+     */
+    public long getPercentile(double percentile) {
+        rotate();
+        return LatencyHistogram.getPercentile(percentile, previous_, current_);
+    }
+
+    /**
+     * Starts a new window if the current one has ended. After more than two
+     * windows without rotation, the previous window is empty as well.
+     */
+    private void rotate() {
+        long now= System.nanoTime();
+        if (now - windowStart_ < window_) {
+            return;
+        }
+        synchronized (this) {
+            long elapsed= now - windowStart_;
+            if (elapsed < window_) {
+                return;
+            }
+            previous_= elapsed < 2 * window_ ? current_
+                    : new LatencyHistogram();
+            current_= new LatencyHistogram();
+            windowStart_= now;
+        }
+    }
+}
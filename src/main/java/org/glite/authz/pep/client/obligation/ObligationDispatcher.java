@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client.obligation;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.glite.authz.common.model.Obligation;
+import org.glite.authz.common.model.Result;
+import org.glite.authz.pep.obligation.ObligationHandler;
+
+/**
+ * Index of the obligation handlers by obligation identifier.
+ * <p>
+ * For each result, only the handlers of the obligations the result
+ * contains are selected, instead of all the handlers. The handlers without
+ * obligation identifier, with the {@link #ANY_OBLIGATION} identifier, or
+ * registered to see every result, are always selected. The selected
+ * handlers keep their registration order.
+ * <p>
+ * This class is immutable and thread-safe.
+ */
+public class ObligationDispatcher {
+
+    /** Obligation identifier of the handlers processing every result */
+    public static final String ANY_OBLIGATION= "*";
+
+    /** The handlers in registration order */
+    private final ObligationHandler[] handlers_;
+
+    /** Positions of the handlers by obligation identifier, ascending */
+    private final Map<String, int[]> index_;
+
+    /** Positions of the handlers processing every result, ascending */
+    private final int[] anyResult_;
+
+    /**
+     * Constructor.
+     * 
+     * @param handlers
+     *            the obligation handlers, in registration order
+     * @param allResultsHandlers
+     *            the handlers processing every result, whatever their
+     *            obligation identifier
+     */
+    public ObligationDispatcher(List<ObligationHandler> handlers,
+            Collection<ObligationHandler> allResultsHandlers) {
+        handlers_= handlers.toArray(new ObligationHandler[handlers.size()]);
+        Map<String, List<Integer>> positions= new HashMap<String, List<Integer>>();
+        List<Integer> anyResult= new ArrayList<Integer>();
+        for (int i= 0; i < handlers_.length; i++) {
+            ObligationHandler handler= handlers_[i];
+            String obligationId= handler.getObligationId();
+            if (obligationId == null || ANY_OBLIGATION.equals(obligationId)
+                    || containsIdentical(allResultsHandlers, handler)) {
+                anyResult.add(Integer.valueOf(i));
+            }
+            else {
+                List<Integer> obligationPositions= positions.get(obligationId);
+                if (obligationPositions == null) {
+                    obligationPositions= new ArrayList<Integer>();
+                    positions.put(obligationId, obligationPositions);
+                }
+                obligationPositions.add(Integer.valueOf(i));
+            }
+        }
+        index_= new HashMap<String, int[]>();
+        for (Map.Entry<String, List<Integer>> entry : positions.entrySet()) {
+            index_.put(entry.getKey(), toArray(entry.getValue()));
+        }
+        anyResult_= toArray(anyResult);
+    }
+
+    /**
+     * Returns the handlers to apply to the result.
+     * 
+     * @param result
+     *            the authorization result
+     * @return the selected handlers, in registration order
+     */
+    public List<ObligationHandler> select(Result result) {
+        List<Obligation> obligations= result.getObligations();
+        if (obligations == null || obligations.isEmpty() || index_.isEmpty()) {
+            return selectAnyResult();
+        }
+        boolean[] selected= new boolean[handlers_.length];
+        int count= 0;
+        for (int position : anyResult_) {
+            selected[position]= true;
+            count++;
+        }
+        for (Obligation obligation : obligations) {
+            int[] positions= index_.get(obligation.getId());
+            if (positions != null) {
+                for (int position : positions) {
+                    if (!selected[position]) {
+                        selected[position]= true;
+                        count++;
+                    }
+                }
+            }
+        }
+        List<ObligationHandler> handlers= new ArrayList<ObligationHandler>(count);
+        for (int i= 0; i < selected.length; i++) {
+            if (selected[i]) {
+                handlers.add(handlers_[i]);
+            }
+        }
+        return handlers;
+    }
+
+    /**
+     * Returns the number of registered handlers.
+     * 
+     * @return the number of handlers
+     */
+    public int size() {
+        return handlers_.length;
+    }
+
+    /**
+     * Returns the handlers processing every result.
+     */
+    private List<ObligationHandler> selectAnyResult() {
+        if (anyResult_.length == 0) {
+            return Collections.emptyList();
+        }
+        List<ObligationHandler> handlers= new ArrayList<ObligationHandler>(anyResult_.length);
+        for (int position : anyResult_) {
+            handlers.add(handlers_[position]);
+        }
+        return handlers;
+    }
+
+    private static boolean containsIdentical(
+            Collection<ObligationHandler> handlers, ObligationHandler handler) {
+        for (ObligationHandler element : handlers) {
+            if (element == handler) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int[] toArray(List<Integer> values) {
+        int[] array= new int[values.size()];
+        for (int i= 0; i < array.length; i++) {
+            array[i]= values.get(i).intValue();
+        }
+        return array;
+    }
+}
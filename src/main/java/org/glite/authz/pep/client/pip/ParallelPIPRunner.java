@@ -0,0 +1,328 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client.pip;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+
+import org.glite.authz.common.model.Request;
+import org.glite.authz.pep.pip.PIPProcessingException;
+import org.glite.authz.pep.pip.PolicyInformationPoint;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Runs the PIPs over a request concurrently, according to their
+ * dependencies.
+ * <p>
+ * A PIP starts as soon as all the PIPs it depends on have populated the
+ * request, the independent PIPs run in parallel on the executor. The
+ * authorization latency is therefore the one of the slowest chain of
+ * dependent PIPs, instead of the sum of all the PIPs.
+ * <p>
+ * The request model is not thread safe, so each PIP populates a private
+ * copy of the request, and its changes are merged into the request when it
+ * completes. A PIP exceeding its timeout fails the processing, and its
+ * changes are discarded even if it completes later.
+ */
+public class ParallelPIPRunner {
+
+    /** Class logger. */
+    private final Log log= LogFactory.getLog(ParallelPIPRunner.class);
+
+    /** PIPs in registration order, the dependencies first */
+    private final List<PolicyInformationPoint> pips_;
+
+    /** PIPs each PIP depends on */
+    private final Map<PolicyInformationPoint, List<PolicyInformationPoint>> dependencies_;
+
+    /** PIP timeouts in millis, <code>0</code> if none */
+    private final Map<PolicyInformationPoint, Long> timeouts_;
+
+    /** Executor running the PIPs */
+    private final Executor executor_;
+
+    /**
+     * Constructor.
+     * 
+     * @param pips
+     *            the PIPs, each one after the PIPs it depends on
+     * @param dependencies
+     *            the PIPs each PIP depends on, a missing entry means no
+     *            dependency
+     * @param timeouts
+     *            the PIP timeouts in millis, a missing entry means no
+     *            timeout
+     * @param executor
+     *            the executor running the PIPs
+     */
+    public ParallelPIPRunner(List<PolicyInformationPoint> pips,
+            Map<PolicyInformationPoint, List<PolicyInformationPoint>> dependencies,
+            Map<PolicyInformationPoint, Long> timeouts, Executor executor) {
+        if (executor == null) {
+            throw new IllegalArgumentException("executor can not be null");
+        }
+        pips_= new ArrayList<PolicyInformationPoint>(pips);
+        dependencies_= new IdentityHashMap<PolicyInformationPoint, List<PolicyInformationPoint>>();
+        timeouts_= new IdentityHashMap<PolicyInformationPoint, Long>();
+        for (PolicyInformationPoint pip : pips_) {
+            List<PolicyInformationPoint> pipDependencies= dependencies.get(pip);
+            if (pipDependencies == null) {
+                pipDependencies= Collections.emptyList();
+            }
+            for (PolicyInformationPoint dependency : pipDependencies) {
+                if (!dependencies_.containsKey(dependency)) {
+                    throw new IllegalArgumentException("PIP " + pip.getId()
+                            + " depends on PIP " + dependency.getId()
+                            + " which is not registered before it");
+                }
+            }
+            dependencies_.put(pip,
+                              new ArrayList<PolicyInformationPoint>(pipDependencies));
+            Long timeout= timeouts.get(pip);
+            timeouts_.put(pip, timeout != null ? timeout : Long.valueOf(0));
+        }
+        executor_= executor;
+    }
+
+    /**
+     * Runs the PIPs over the request and waits for their completion.
+     * 
+     * @param request
+     *            the request to populate
+     * @throws PIPProcessingException
+     *             if a PIP failed, timed out, or the thread was interrupted
+     */
+    public void run(Request request) throws PIPProcessingException {
+        run(request, 0);
+    }
+
+    /**
+     * Runs the PIPs over the request and waits for their completion, at most
+     * the given time.
+     * 
+     * @param request
+     *            the request to populate
+     * @param timeout
+     *            the max time to wait in millis, <code>0</code> to wait
+     *            until completion
+     * @throws PIPProcessingException
+     *             if a PIP failed, timed out, the run did not complete in
+     *             time, or the thread was interrupted
+     */
+    public void run(Request request, long timeout)
+            throws PIPProcessingException {
+        Execution execution= new Execution(request);
+        Map<PolicyInformationPoint, CompletableFuture<Void>> futures= new IdentityHashMap<PolicyInformationPoint, CompletableFuture<Void>>();
+        for (PolicyInformationPoint pip : pips_) {
+            List<PolicyInformationPoint> pipDependencies= dependencies_.get(pip);
+            CompletableFuture<?>[] dependencyFutures= new CompletableFuture<?>[pipDependencies.size()];
+            for (int i= 0; i < dependencyFutures.length; i++) {
+                dependencyFutures[i]= futures.get(pipDependencies.get(i));
+            }
+            CompletableFuture<Void> future= new CompletableFuture<Void>();
+            future.whenComplete(execution.new FailureListener(pip));
+            CompletableFuture.allOf(dependencyFutures).whenComplete(execution.new Starter(pip,
+                                                                                          future));
+            futures.put(pip, future);
+        }
+        CompletableFuture.allOf(futures.values().toArray(new CompletableFuture<?>[futures.size()])).whenComplete(new BiConsumer<Void, Throwable>() {
+            public void accept(Void result, Throwable failure) {
+                if (failure == null) {
+                    execution.done_.complete(null);
+                }
+            }
+        });
+        try {
+            if (timeout > 0) {
+                execution.done_.get(timeout, TimeUnit.MILLISECONDS);
+            }
+            else {
+                execution.done_.get();
+            }
+        } catch (TimeoutException e) {
+            throw new PIPProcessingException("PIPs not completed in "
+                    + timeout + " ms");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PIPProcessingException("Interrupted while running the PIPs",
+                                             e);
+        } catch (ExecutionException e) {
+            Throwable cause= e.getCause();
+            if (cause instanceof PIPProcessingException) {
+                throw (PIPProcessingException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new PIPProcessingException("PIP processing failure",
+                                             (Exception) cause);
+        } finally {
+            execution.abort();
+        }
+    }
+
+    /**
+     * State of a run of the PIPs over a request.
+     */
+    private final class Execution {
+
+        /** The request, also lock of the copies and merges */
+        private final Request request_;
+
+        /** Completed when all the PIPs succeeded, or at the first failure */
+        private final CompletableFuture<Void> done_= new CompletableFuture<Void>();
+
+        /** Whether the run is over, the late changes are discarded */
+        private boolean aborted_= false;
+
+        Execution(Request request) {
+            request_= request;
+        }
+
+        void abort() {
+            synchronized (request_) {
+                aborted_= true;
+            }
+        }
+
+        /**
+         * Populates a copy of the request, and merges it if the PIP did not
+         * time out.
+         */
+        void populate(PolicyInformationPoint pip,
+                CompletableFuture<Void> future) throws PIPProcessingException {
+            RequestCopy copy;
+            synchronized (request_) {
+                if (aborted_) {
+                    return;
+                }
+                copy= new RequestCopy(request_);
+            }
+            if (log.isDebugEnabled()) {
+                log.debug("applying PIP " + pip.getId());
+            }
+            boolean pipApplied= pip.populateRequest(copy.getRequest());
+            if (log.isDebugEnabled()) {
+                log.debug("PIP " + pip.getId() + " applied: " + pipApplied);
+            }
+            synchronized (request_) {
+                // a timeout can still occur right after the check, the run
+                // fails then anyway
+                if (!aborted_ && !future.isDone()) {
+                    copy.mergeInto(request_);
+                }
+            }
+        }
+
+        /**
+         * Starts the PIP when its dependencies are completed.
+         */
+        private final class Starter implements BiConsumer<Void, Throwable> {
+
+            private final PolicyInformationPoint pip_;
+
+            private final CompletableFuture<Void> future_;
+
+            Starter(PolicyInformationPoint pip, CompletableFuture<Void> future) {
+                pip_= pip;
+                future_= future;
+            }
+
+            public void accept(Void result, Throwable failure) {
+                if (failure != null) {
+                    // a dependency failed, and reports the failure
+                    future_.cancel(false);
+                    return;
+                }
+                long timeout= timeouts_.get(pip_).longValue();
+                if (timeout > 0) {
+                    future_.orTimeout(timeout, TimeUnit.MILLISECONDS);
+                }
+                try {
+                    executor_.execute(new Runnable() {
+                        public void run() {
+                            if (future_.isDone()) {
+                                return;
+                            }
+                            try {
+                                populate(pip_, future_);
+                                future_.complete(null);
+                            } catch (Throwable t) {
+                                future_.completeExceptionally(t);
+                            }
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    future_.completeExceptionally(e);
+                }
+            }
+        }
+
+        /**
+         * Fails the run at the first PIP failure.
+         */
+        private final class FailureListener implements
+                BiConsumer<Void, Throwable> {
+
+            private final PolicyInformationPoint pip_;
+
+            FailureListener(PolicyInformationPoint pip) {
+                pip_= pip;
+            }
+
+            public void accept(Void result, Throwable failure) {
+                if (failure == null || failure instanceof CancellationException) {
+                    return;
+                }
+                if (failure instanceof CompletionException
+                        && failure.getCause() != null) {
+                    failure= failure.getCause();
+                }
+                if (failure instanceof TimeoutException) {
+                    failure= new PIPProcessingException("PIP " + pip_.getId()
+                            + " timed out after " + timeouts_.get(pip_)
+                            + " ms");
+                }
+                else if (failure instanceof RejectedExecutionException) {
+                    failure= new PIPProcessingException("PIP " + pip_.getId()
+                            + " rejected by the executor",
+                                                        (Exception) failure);
+                }
+                done_.completeExceptionally(failure);
+            }
+        }
+    }
+}
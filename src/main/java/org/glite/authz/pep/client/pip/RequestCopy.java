@@ -0,0 +1,282 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client.pip;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import org.glite.authz.common.model.Action;
+import org.glite.authz.common.model.Attribute;
+import org.glite.authz.common.model.Environment;
+import org.glite.authz.common.model.Request;
+import org.glite.authz.common.model.Resource;
+import org.glite.authz.common.model.Subject;
+
+/**
+ * Private copy of a request populated by a PIP running concurrently with
+ * other PIPs.
+ * <p>
+ * The copy remembers the original element of each copied subject, resource,
+ * action and environment, and its attributes at copy time. Once populated,
+ * the changes made by the PIP (added or removed attributes and elements)
+ * are applied to the original request, leaving the changes made meanwhile
+ * by the other PIPs untouched.
+ * <p>
+ * Not thread safe, the caller must hold a lock on the original request
+ * while copying and merging.
+ */
+final class RequestCopy {
+
+    /** The copy populated by the PIP */
+    private final Request copy_;
+
+    /** Copied elements to their original element and attributes */
+    private final Map<Object, Original> originals_= new IdentityHashMap<Object, Original>();
+
+    /** Copied action, <code>null</code> if none */
+    private final Action action_;
+
+    /** Copied environment, <code>null</code> if none */
+    private final Environment environment_;
+
+    /**
+     * Constructor, copies the request.
+     * 
+     * @param request
+     *            the original request
+     */
+    RequestCopy(Request request) {
+        copy_= new Request();
+        for (Subject subject : request.getSubjects()) {
+            Subject subjectCopy= new Subject();
+            subjectCopy.setCategory(subject.getCategory());
+            copyAttributes(subject.getAttributes(), subjectCopy.getAttributes());
+            originals_.put(subjectCopy,
+                           new Original(subject,
+                                        subject.getAttributes(),
+                                        subject.getCategory()));
+            copy_.getSubjects().add(subjectCopy);
+        }
+        for (Resource resource : request.getResources()) {
+            Resource resourceCopy= new Resource();
+            resourceCopy.setResourceContent(resource.getResourceContent());
+            copyAttributes(resource.getAttributes(),
+                           resourceCopy.getAttributes());
+            originals_.put(resourceCopy,
+                           new Original(resource,
+                                        resource.getAttributes(),
+                                        resource.getResourceContent()));
+            copy_.getResources().add(resourceCopy);
+        }
+        Action action= request.getAction();
+        if (action != null) {
+            action_= new Action();
+            copyAttributes(action.getAttributes(), action_.getAttributes());
+            originals_.put(action_,
+                           new Original(action, action.getAttributes(), null));
+            copy_.setAction(action_);
+        }
+        else {
+            action_= null;
+        }
+        Environment environment= request.getEnvironment();
+        if (environment != null) {
+            environment_= new Environment();
+            copyAttributes(environment.getAttributes(),
+                           environment_.getAttributes());
+            originals_.put(environment_,
+                           new Original(environment,
+                                        environment.getAttributes(),
+                                        null));
+            copy_.setEnvironment(environment_);
+        }
+        else {
+            environment_= null;
+        }
+    }
+
+    /**
+     * Returns the copy to populate.
+     * 
+     * @return the request copy
+     */
+    Request getRequest() {
+        return copy_;
+    }
+
+    /**
+     * Applies the changes made to the copy to the original request.
+     * 
+     * @param request
+     *            the original request
+     */
+    void mergeInto(Request request) {
+        Set<Object> copiedSubjects= identitySet(copy_.getSubjects());
+        Set<Object> copiedResources= identitySet(copy_.getResources());
+        for (Map.Entry<Object, Original> entry : originals_.entrySet()) {
+            Object copy= entry.getKey();
+            Original original= entry.getValue();
+            if (copy instanceof Subject && !copiedSubjects.contains(copy)) {
+                removeIdentical(request.getSubjects(), original.element_);
+            }
+            else if (copy instanceof Resource
+                    && !copiedResources.contains(copy)) {
+                removeIdentical(request.getResources(), original.element_);
+            }
+        }
+        for (Subject subject : copy_.getSubjects()) {
+            Original original= originals_.get(subject);
+            if (original == null) {
+                request.getSubjects().add(subject);
+            }
+            else {
+                Subject originalSubject= (Subject) original.element_;
+                mergeAttributes(original.attributes_,
+                                subject.getAttributes(),
+                                originalSubject.getAttributes());
+                if (!equals(original.content_, subject.getCategory())) {
+                    originalSubject.setCategory(subject.getCategory());
+                }
+            }
+        }
+        for (Resource resource : copy_.getResources()) {
+            Original original= originals_.get(resource);
+            if (original == null) {
+                request.getResources().add(resource);
+            }
+            else {
+                Resource originalResource= (Resource) original.element_;
+                mergeAttributes(original.attributes_,
+                                resource.getAttributes(),
+                                originalResource.getAttributes());
+                if (!equals(original.content_, resource.getResourceContent())) {
+                    originalResource.setResourceContent(resource.getResourceContent());
+                }
+            }
+        }
+        Action action= copy_.getAction();
+        if (action != action_) {
+            // set, replaced or removed
+            request.setAction(action);
+        }
+        else if (action != null && request.getAction() != null) {
+            mergeAttributes(originals_.get(action).attributes_,
+                            action.getAttributes(),
+                            request.getAction().getAttributes());
+        }
+        Environment environment= copy_.getEnvironment();
+        if (environment != environment_) {
+            request.setEnvironment(environment);
+        }
+        else if (environment != null && request.getEnvironment() != null) {
+            mergeAttributes(originals_.get(environment).attributes_,
+                            environment.getAttributes(),
+                            request.getEnvironment().getAttributes());
+        }
+    }
+
+    /**
+     * Applies the attributes added and removed by the PIP.
+     * 
+     * @param initial
+     *            the attributes at copy time
+     * @param populated
+     *            the attributes of the copy populated by the PIP
+     * @param target
+     *            the attributes of the original element
+     */
+    private static void mergeAttributes(Set<Attribute> initial,
+            Set<Attribute> populated, Set<Attribute> target) {
+        // rehash, the PIP may have modified attributes in the set
+        Set<Attribute> result= new HashSet<Attribute>(populated);
+        for (Attribute attribute : initial) {
+            if (!result.contains(attribute)) {
+                target.remove(attribute);
+            }
+        }
+        for (Attribute attribute : result) {
+            if (!initial.contains(attribute)) {
+                target.add(attribute);
+            }
+        }
+    }
+
+    /**
+     * Copies the attributes, the values are shared.
+     */
+    private static void copyAttributes(Set<Attribute> attributes,
+            Set<Attribute> target) {
+        for (Attribute attribute : attributes) {
+            Attribute copy= new Attribute(attribute.getId(),
+                                          attribute.getDataType());
+            copy.setIssuer(attribute.getIssuer());
+            copy.getValues().addAll(attribute.getValues());
+            target.add(copy);
+        }
+    }
+
+    private static Set<Object> identitySet(Set<?> elements) {
+        Set<Object> set= Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+        set.addAll(elements);
+        return set;
+    }
+
+    /**
+     * Removes the element by identity, its hash code may have changed since
+     * it was added to the set.
+     */
+    private static void removeIdentical(Set<?> elements, Object element) {
+        Iterator<?> iterator= elements.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next() == element) {
+                iterator.remove();
+                return;
+            }
+        }
+    }
+
+    private static boolean equals(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    /**
+     * Original element of a copy, with its attributes at copy time.
+     */
+    private static final class Original {
+
+        /** The original subject, resource, action or environment */
+        private final Object element_;
+
+        /** Attributes at copy time */
+        private final Set<Attribute> attributes_;
+
+        /** Subject category or resource content at copy time */
+        private final String content_;
+
+        Original(Object element, Set<Attribute> attributes, String content) {
+            element_= element;
+            attributes_= new HashSet<Attribute>(attributes);
+            content_= content;
+        }
+    }
+}
@@ -0,0 +1,275 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client.tls;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.cert.CRLException;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509CRL;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.security.auth.x500.X500Principal;
+
+/**
+ * Immutable content of a CA directory loaded by the
+ * {@link CADirectoryLoader}: the CA certificates, and the CRLs whose
+ * signature was verified with the certificate of their issuing CA.
+ * <p>
+ * The CRLs read from a snapshot were verified before the snapshot was
+ * written, and are only decoded when first used.
+ */
+public class CADirectory {
+
+    /** The CA certificates */
+    private final List<X509Certificate> caCertificates_;
+
+    /** The verified CRLs */
+    private final List<VerifiedCRL> crls_;
+
+    /** CRLs by issuer */
+    private final Map<X500Principal, VerifiedCRL> crlsByIssuer_;
+
+    /** Whether the content was read from the snapshot */
+    private final boolean fromSnapshot_;
+
+    /**
+     * Constructor.
+     * 
+     * @param caCertificates
+     *            the CA certificates
+     * @param crls
+     *            the verified CRLs
+     * @param fromSnapshot
+     *            whether the content was read from the snapshot
+     */
+    CADirectory(List<X509Certificate> caCertificates, List<VerifiedCRL> crls,
+            boolean fromSnapshot) {
+        caCertificates_= Collections.unmodifiableList(caCertificates);
+        crls_= Collections.unmodifiableList(crls);
+        crlsByIssuer_= new HashMap<X500Principal, VerifiedCRL>();
+        for (VerifiedCRL crl : crls) {
+            VerifiedCRL other= crlsByIssuer_.get(crl.getIssuer());
+            if (other == null || crl.getThisUpdate() > other.getThisUpdate()) {
+                crlsByIssuer_.put(crl.getIssuer(), crl);
+            }
+        }
+        fromSnapshot_= fromSnapshot;
+    }
+
+    /**
+     * Returns the CA certificates.
+     * 
+     * @return an unmodifiable list of the CA certificates
+     */
+    public List<X509Certificate> getCACertificates() {
+        return caCertificates_;
+    }
+
+    /**
+     * Returns the verified CRLs, decoding them if needed. A CRL of the
+     * snapshot which can not be decoded is omitted.
+     * 
+     * @return the CRLs
+     */
+    public List<X509CRL> getCRLs() {
+        List<X509CRL> crls= new ArrayList<X509CRL>(crls_.size());
+        for (VerifiedCRL crl : crls_) {
+            try {
+                crls.add(crl.getCRL());
+            } catch (CRLException e) {
+                // getCRL(X500Principal) fails for its issuer
+            }
+        }
+        return crls;
+    }
+
+    /**
+     * Returns the number of verified CRLs, without decoding them.
+     * 
+     * @return the number of CRLs
+     */
+    int getCRLCount() {
+        return crls_.size();
+    }
+
+    /**
+     * Returns the verified CRLs, decoded or not.
+     * 
+     * @return an unmodifiable list of the CRLs
+     */
+    List<VerifiedCRL> getVerifiedCRLs() {
+        return crls_;
+    }
+
+    /**
+     * Returns the most recent CRL of an issuer, decoding it if needed.
+     * 
+     * @param issuer
+     *            the CA subject
+     * @return the CRL, <code>null</code> if the CA has no CRL
+     * @throws CRLException
+     *             if the CRL read from the snapshot can not be decoded
+     */
+    public X509CRL getCRL(X500Principal issuer) throws CRLException {
+        VerifiedCRL crl= crlsByIssuer_.get(issuer);
+        return crl != null ? crl.getCRL() : null;
+    }
+
+    /**
+     * Returns whether the content was read from the snapshot, instead of
+     * parsed from the directory files.
+     * 
+     * @return <code>true</code> if read from the snapshot
+     */
+    public boolean isFromSnapshot() {
+        return fromSnapshot_;
+    }
+
+    /**
+     * Creates an in-memory key store with the CA certificates as trusted
+     * certificate entries.
+     * 
+     * @return the key store
+     * @throws KeyStoreException
+     *             if the key store can not be created
+     */
+    public KeyStore createKeyStore() throws KeyStoreException {
+        KeyStore keystore= KeyStore.getInstance(KeyStore.getDefaultType());
+        try {
+            keystore.load(null, null);
+        } catch (IOException e) {
+            throw new KeyStoreException(e);
+        } catch (GeneralSecurityException e) {
+            throw new KeyStoreException(e);
+        }
+        int i= 0;
+        for (X509Certificate certificate : caCertificates_) {
+            keystore.setCertificateEntry("ca" + i++, certificate);
+        }
+        return keystore;
+    }
+
+    /**
+     * A verified CRL, decoded or still DER encoded, with the issuer and the
+     * update time needed to index it.
+     * <p>
+     * This class is thread-safe.
+     */
+    static final class VerifiedCRL {
+
+        /** The CRL issuer */
+        private final X500Principal issuer_;
+
+        /** The CRL issue time in millis */
+        private final long thisUpdate_;
+
+        /** The DER encoded CRL, <code>null</code> once decoded */
+        private byte[] encoded_;
+
+        /** The decoded CRL, <code>null</code> until decoded */
+        private X509CRL crl_;
+
+        /**
+         * Constructor of a decoded CRL.
+         * 
+         * @param crl
+         *            the CRL
+         */
+        VerifiedCRL(X509CRL crl) {
+            issuer_= crl.getIssuerX500Principal();
+            thisUpdate_= crl.getThisUpdate().getTime();
+            crl_= crl;
+        }
+
+        /**
+         * Constructor of a CRL decoded when first used.
+         * 
+         * @param issuer
+         *            the CRL issuer
+         * @param thisUpdate
+         *            the CRL issue time in millis
+         * @param encoded
+         *            the DER encoded CRL
+         */
+        VerifiedCRL(X500Principal issuer, long thisUpdate, byte[] encoded) {
+            issuer_= issuer;
+            thisUpdate_= thisUpdate;
+            encoded_= encoded;
+        }
+
+        /**
+         * Returns the CRL issuer.
+         * 
+         * @return the issuer
+         */
+        X500Principal getIssuer() {
+            return issuer_;
+        }
+
+        /**
+         * Returns the CRL issue time.
+         * 
+         * @return the issue time in millis
+         */
+        long getThisUpdate() {
+            return thisUpdate_;
+        }
+
+        /**
+         * Returns the DER encoded CRL.
+         * 
+         * @return the encoded CRL
+         * @throws CRLException
+         *             if the decoded CRL can not be encoded
+         */
+        synchronized byte[] getEncoded() throws CRLException {
+            return crl_ != null ? crl_.getEncoded() : encoded_;
+        }
+
+        /**
+         * Returns the CRL, decoding it on first call.
+         * 
+         * @return the CRL
+         * @throws CRLException
+         *             if the CRL can not be decoded
+         */
+        synchronized X509CRL getCRL() throws CRLException {
+            if (crl_ == null) {
+                try {
+                    CertificateFactory factory= CertificateFactory.getInstance("X.509");
+                    crl_= (X509CRL) factory.generateCRL(new ByteArrayInputStream(encoded_));
+                } catch (CertificateException e) {
+                    throw new CRLException(e);
+                }
+                encoded_= null;
+            }
+            return crl_;
+        }
+    }
+}
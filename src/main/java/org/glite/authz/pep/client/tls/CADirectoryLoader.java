@@ -0,0 +1,914 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client.tls;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CRLException;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509CRL;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.regex.Pattern;
+
+import javax.security.auth.x500.X500Principal;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Loads an OpenSSL style CA directory, typically the EUGridPMA bundle
+ * <code>/etc/grid-security/certificates</code>, as fast as possible.
+ * <p>
+ * The CA certificate files <code>&lt;hash&gt;.&lt;n&gt;</code> and the CRL
+ * files <code>&lt;hash&gt;.r&lt;n&gt;</code> are read and parsed in parallel
+ * in a fork-join pool. Each CRL is then verified with the certificate of its
+ * issuing CA, a CRL without issuer or with an invalid signature is ignored.
+ * The signing policy and namespace files are not read.
+ * <p>
+ * If a snapshot file is given, the DER encoded CA certificates and verified
+ * CRLs are also written in it, with a fingerprint of the directory: the name
+ * and the SHA-256 digest of the content of each CA and CRL file. The snapshot
+ * also records the size, modification and change times, device and inode of
+ * each file, read before its content. The next load maps the snapshot in
+ * memory, reads and hashes in parallel only the files whose recorded state
+ * changed and, if the fingerprint is unchanged, decodes the CA certificates
+ * of the snapshot, without parsing the directory files nor verifying the
+ * CRLs again. The CRLs are only decoded when first used. The recorded state
+ * of a file changed less than {@link #RACY_INTERVAL} before it was read is
+ * not trusted, as a change in the same time stamp tick would go unnoticed:
+ * the file is read again, and the snapshot rewritten. A stale, truncated or
+ * unreadable snapshot is ignored and rewritten.
+ * <p>
+ * The snapshot is trusted as much as the CA directory: it is only used when
+ * it is a regular file owned by the user running the process, and writable
+ * neither by its group nor by others. It is written readable by all, and
+ * writable only by its owner.
+ */
+public class CADirectoryLoader {
+
+    /** Class logger. */
+    private final Log log= LogFactory.getLog(CADirectoryLoader.class);
+
+    /** Snapshot file magic number */
+    private static final int SNAPSHOT_MAGIC= 0x43414453;
+
+    /** Snapshot file format version */
+    private static final int SNAPSHOT_VERSION= 3;
+
+    /**
+     * Time in millis after which a recorded file state is trusted, above the
+     * time stamp granularity of the file systems
+     */
+    static final long RACY_INTERVAL= 2000;
+
+    /** Permissions of the written snapshot */
+    private static final Set<PosixFilePermission> SNAPSHOT_PERMISSIONS= PosixFilePermissions.fromString("rw-r--r--");
+
+    /** Digest algorithm of the directory fingerprint */
+    private static final String DIGEST_ALGORITHM= "SHA-256";
+
+    /** Max number of files parsed by a single fork-join task */
+    private static final int TASK_THRESHOLD= 16;
+
+    /** CA certificate file names */
+    private static final Pattern CA_FILE= Pattern.compile("[0-9a-f]{8}\\.[0-9]+");
+
+    /** CRL file names */
+    private static final Pattern CRL_FILE= Pattern.compile("[0-9a-f]{8}\\.r[0-9]+");
+
+    /** The CA directory */
+    private final File directory_;
+
+    /** The snapshot file, <code>null</code> if none */
+    private final File snapshot_;
+
+    /** The pool parsing the files */
+    private final ForkJoinPool pool_;
+
+    /** Number of files read by the last load */
+    private int readFiles_;
+
+    /**
+     * Constructor.
+     * 
+     * @param directory
+     *            the CA directory
+     * @param snapshot
+     *            the snapshot file, <code>null</code> for no snapshot
+     * @param pool
+     *            the fork-join pool parsing the files
+     */
+    public CADirectoryLoader(File directory, File snapshot, ForkJoinPool pool) {
+        if (directory == null) {
+            throw new IllegalArgumentException("CA directory can not be null");
+        }
+        if (pool == null) {
+            throw new IllegalArgumentException("Fork-join pool can not be null");
+        }
+        directory_= directory;
+        snapshot_= snapshot;
+        pool_= pool;
+    }
+
+    /**
+     * Loads the CA directory, from the snapshot if it is up to date.
+     * 
+     * @return the CA certificates and verified CRLs
+     * @throws IOException
+     *             if the CA directory can not be listed
+     */
+    public CADirectory load() throws IOException {
+        long start= System.nanoTime();
+        long scanTime= System.currentTimeMillis();
+        Entry[] entries= listFiles();
+        ByteBuffer snapshot= null;
+        if (snapshot_ != null && snapshot_.exists() && isTrusted(snapshot_)) {
+            snapshot= mapSnapshot(entries);
+        }
+        // read and hash only the changed files, parsed if the snapshot can
+        // not be used
+        pool_.invoke(new DecodeTask(entries, 0, entries.length, false));
+        byte[] fingerprint= fingerprint(entries);
+
+        CADirectory ca= null;
+        if (snapshot != null) {
+            ca= readSnapshot(snapshot, fingerprint);
+        }
+        if (ca == null) {
+            ca= parseFiles(entries);
+            // the files are all read and hashed
+            fingerprint= fingerprint(entries);
+        }
+        // rewritten if stale, or to record the state of the files read again
+        boolean recorded= true;
+        readFiles_= 0;
+        for (Entry entry : entries) {
+            if (entry.read_) {
+                readFiles_++;
+                recorded&= entry.state_ == null;
+            }
+        }
+        if (snapshot_ != null && (!ca.isFromSnapshot() || !recorded)) {
+            try {
+                writeSnapshot(scanTime, entries, fingerprint, ca);
+            } catch (IOException e) {
+                log.warn("Failed to write CA snapshot " + snapshot_ + ": " + e.getMessage());
+            }
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Loaded " + ca.getCACertificates().size() + " CA certificates and "
+                    + ca.getCRLCount() + " CRLs from " + (ca.isFromSnapshot() ? snapshot_ : directory_)
+                    + ", reading " + readFiles_ + " of " + entries.length + " files, in "
+                    + (System.nanoTime() - start) / 1000000 + " ms");
+        }
+        return ca;
+    }
+
+    /**
+     * Returns the number of CA and CRL files read by the last load, the
+     * others being unchanged since the snapshot was written.
+     * 
+     * @return the number of files read
+     */
+    int getReadFiles() {
+        return readFiles_;
+    }
+
+    /**
+     * Lists the CA and CRL files of the directory, sorted by name.
+     * 
+     * @return the entries of the CA and CRL files, not read yet
+     * @throws IOException
+     *             if the directory can not be listed
+     */
+    private Entry[] listFiles() throws IOException {
+        String[] names= directory_.list();
+        if (names == null) {
+            throw new IOException(directory_ + " is not a readable directory");
+        }
+        Arrays.sort(names);
+        List<Entry> entries= new ArrayList<Entry>(names.length);
+        for (String name : names) {
+            boolean isCRL= CRL_FILE.matcher(name).matches();
+            if (isCRL || CA_FILE.matcher(name).matches()) {
+                entries.add(new Entry(new File(directory_, name), null, isCRL));
+            }
+        }
+        return entries.toArray(new Entry[entries.size()]);
+    }
+
+    /**
+     * Computes the fingerprint of the CA and CRL files, a digest of their
+     * names and content digests.
+     * 
+     * @param entries
+     *            the entries of the CA and CRL files, read and hashed
+     * @return the fingerprint
+     */
+    private byte[] fingerprint(Entry[] entries) {
+        MessageDigest digest= createDigest();
+        digest.update(directory_.getAbsolutePath().getBytes(StandardCharsets.UTF_8));
+        for (Entry entry : entries) {
+            digest.update(entry.file_.getName().getBytes(StandardCharsets.UTF_8));
+            // an unreadable file has no content digest
+            digest.update((byte) (entry.digest_ != null ? 1 : 0));
+            if (entry.digest_ != null) {
+                digest.update(entry.digest_);
+            }
+        }
+        return digest.digest();
+    }
+
+    /**
+     * Checks that the snapshot can only be written by the user running the
+     * process: a regular file owned by the user, and writable neither by its
+     * group nor by others.
+     * 
+     * @param snapshot
+     *            the snapshot file
+     * @return <code>true</code> if the snapshot can be trusted
+     */
+    private boolean isTrusted(File snapshot) {
+        Path path= snapshot.toPath();
+        try {
+            if (!Files.isRegularFile(path, LinkOption.NOFOLLOW_LINKS)) {
+                log.warn("Ignoring CA snapshot " + snapshot + ": not a regular file");
+                return false;
+            }
+            String owner= Files.getOwner(path, LinkOption.NOFOLLOW_LINKS).getName();
+            String user= System.getProperty("user.name");
+            if (!owner.equals(user)) {
+                log.warn("Ignoring CA snapshot " + snapshot + ": owned by " + owner + ", not by " + user);
+                return false;
+            }
+            PosixFileAttributeView view= Files.getFileAttributeView(path, PosixFileAttributeView.class,
+                                                                   LinkOption.NOFOLLOW_LINKS);
+            if (view != null) {
+                Set<PosixFilePermission> permissions= view.readAttributes().permissions();
+                if (permissions.contains(PosixFilePermission.GROUP_WRITE)
+                        || permissions.contains(PosixFilePermission.OTHERS_WRITE)) {
+                    log.warn("Ignoring CA snapshot " + snapshot + ": writable by group or others");
+                    return false;
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            log.warn("Ignoring CA snapshot " + snapshot + ": " + e.getMessage());
+            return false;
+        } catch (UnsupportedOperationException e) {
+            log.warn("Ignoring CA snapshot " + snapshot + ": file owner not supported");
+            return false;
+        }
+    }
+
+    /**
+     * Parses the read CA and CRL files in parallel, then verifies the CRLs.
+     * 
+     * @param entries
+     *            the entries of the CA and CRL files
+     * @return the CA certificates and verified CRLs
+     * @throws IOException
+     *             if the files can not be decoded
+     */
+    private CADirectory parseFiles(Entry[] entries) throws IOException {
+        decode(entries);
+
+        List<X509Certificate> certificates= new ArrayList<X509Certificate>();
+        Map<X500Principal, List<X509Certificate>> issuers= new HashMap<X500Principal, List<X509Certificate>>();
+        for (Entry entry : entries) {
+            if (entry.certificates_ != null) {
+                for (X509Certificate certificate : entry.certificates_) {
+                    certificates.add(certificate);
+                    List<X509Certificate> subjects= issuers.get(certificate.getSubjectX500Principal());
+                    if (subjects == null) {
+                        subjects= new ArrayList<X509Certificate>(1);
+                        issuers.put(certificate.getSubjectX500Principal(), subjects);
+                    }
+                    subjects.add(certificate);
+                }
+            }
+        }
+        List<CADirectory.VerifiedCRL> crls= new ArrayList<CADirectory.VerifiedCRL>();
+        for (Entry entry : entries) {
+            if (entry.crl_ != null) {
+                if (verify(entry.crl_, issuers.get(entry.crl_.getIssuerX500Principal()))) {
+                    crls.add(new CADirectory.VerifiedCRL(entry.crl_));
+                }
+                else {
+                    log.warn("Ignoring CRL " + entry.file_ + ": no issuing CA or invalid signature");
+                }
+            }
+        }
+        return new CADirectory(certificates, crls, false);
+    }
+
+    /**
+     * Verifies the signature of a CRL.
+     * 
+     * @param crl
+     *            the CRL
+     * @param issuers
+     *            the CA certificates with the CRL issuer subject, may be
+     *            <code>null</code>
+     * @return <code>true</code> if one of the CA certificates verifies the
+     *         CRL signature
+     */
+    private boolean verify(X509CRL crl, List<X509Certificate> issuers) {
+        if (issuers == null) {
+            return false;
+        }
+        for (X509Certificate issuer : issuers) {
+            try {
+                crl.verify(issuer.getPublicKey());
+                return true;
+            } catch (GeneralSecurityException e) {
+                // try the next CA certificate with the same subject
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Maps the snapshot file in memory, and reads the recorded states of the
+     * files. The recorded states changed long enough before the snapshot was
+     * written are set in the entries of the same files.
+     * 
+     * @param entries
+     *            the entries of the CA and CRL files
+     * @return the snapshot positioned after the recorded states, or
+     *         <code>null</code> if the snapshot is invalid
+     */
+    private ByteBuffer mapSnapshot(Entry[] entries) {
+        RandomAccessFile file= null;
+        try {
+            file= new RandomAccessFile(snapshot_, "r");
+            FileChannel channel= file.getChannel();
+            // the mapping stays valid once the file is closed
+            ByteBuffer buffer= channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != SNAPSHOT_MAGIC || buffer.getInt() != SNAPSHOT_VERSION) {
+                log.debug("Ignoring CA snapshot " + snapshot_ + ": unknown format");
+                return null;
+            }
+            long scanTime= buffer.getLong();
+            int fileCount= buffer.getInt();
+            Map<String, FileState> states= new HashMap<String, FileState>();
+            for (int i= 0; i < fileCount; i++) {
+                String name= new String(getBytes(buffer), StandardCharsets.UTF_8);
+                FileState state= new FileState(buffer);
+                if (state.isOlderThan(scanTime - RACY_INTERVAL)) {
+                    states.put(name, state);
+                }
+            }
+            for (Entry entry : entries) {
+                entry.recorded_= states.get(entry.file_.getName());
+            }
+            return buffer;
+        } catch (IOException e) {
+            log.warn("Ignoring CA snapshot " + snapshot_ + ": " + e.getMessage());
+            return null;
+        } catch (BufferUnderflowException e) {
+            log.warn("Ignoring truncated CA snapshot " + snapshot_);
+            return null;
+        } catch (NegativeArraySizeException e) {
+            log.warn("Ignoring corrupted CA snapshot " + snapshot_);
+            return null;
+        } finally {
+            if (file != null) {
+                try {
+                    file.close();
+                } catch (IOException e) {
+                    // ignored
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the CA certificates and CRLs of the mapped snapshot, if its
+     * fingerprint matches. The CA certificates are decoded, the CRLs are
+     * decoded when first used.
+     * 
+     * @param buffer
+     *            the snapshot positioned after the recorded file states
+     * @param fingerprint
+     *            the current fingerprint of the CA directory
+     * @return the snapshot content, or <code>null</code> if the snapshot is
+     *         stale or invalid
+     */
+    private CADirectory readSnapshot(ByteBuffer buffer, byte[] fingerprint) {
+        try {
+            byte[] snapshotFingerprint= new byte[fingerprint.length];
+            buffer.get(snapshotFingerprint);
+            if (!MessageDigest.isEqual(fingerprint, snapshotFingerprint)) {
+                log.debug("Ignoring CA snapshot " + snapshot_ + ": CA directory changed");
+                return null;
+            }
+            int certificateCount= buffer.getInt();
+            int crlCount= buffer.getInt();
+            if (certificateCount < 0 || crlCount < 0) {
+                return null;
+            }
+            Entry[] entries= new Entry[certificateCount];
+            for (int i= 0; i < entries.length; i++) {
+                entries[i]= new Entry(null, getBytes(buffer), false);
+            }
+            List<CADirectory.VerifiedCRL> crls= new ArrayList<CADirectory.VerifiedCRL>(crlCount);
+            for (int i= 0; i < crlCount; i++) {
+                X500Principal issuer= new X500Principal(getBytes(buffer));
+                long thisUpdate= buffer.getLong();
+                crls.add(new CADirectory.VerifiedCRL(issuer, thisUpdate, getBytes(buffer)));
+            }
+            decode(entries);
+
+            List<X509Certificate> certificates= new ArrayList<X509Certificate>(certificateCount);
+            for (Entry entry : entries) {
+                certificates.addAll(entry.certificates_);
+            }
+            return new CADirectory(certificates, crls, true);
+        } catch (IOException e) {
+            log.warn("Ignoring CA snapshot " + snapshot_ + ": " + e.getMessage());
+            return null;
+        } catch (BufferUnderflowException e) {
+            log.warn("Ignoring truncated CA snapshot " + snapshot_);
+            return null;
+        } catch (NegativeArraySizeException e) {
+            log.warn("Ignoring corrupted CA snapshot " + snapshot_);
+            return null;
+        } catch (IllegalArgumentException e) {
+            log.warn("Ignoring corrupted CA snapshot " + snapshot_ + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Reads a length prefixed byte array of the snapshot.
+     * 
+     * @param buffer
+     *            the snapshot
+     * @return the bytes
+     */
+    private static byte[] getBytes(ByteBuffer buffer) {
+        byte[] bytes= new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Writes the snapshot file: a temporary file is written, then atomically
+     * renamed, so a concurrent reader never sees a partial snapshot.
+     * 
+     * @param scanTime
+     *            the time in millis the states of the files were read from
+     * @param entries
+     *            the entries of the CA and CRL files, whose states and
+     *            digests are recorded
+     * @param fingerprint
+     *            the fingerprint of the CA directory
+     * @param ca
+     *            the CA certificates and verified CRLs
+     * @throws IOException
+     *             if the snapshot can not be written
+     */
+    private void writeSnapshot(long scanTime, Entry[] entries, byte[] fingerprint, CADirectory ca)
+            throws IOException {
+        File parent= snapshot_.getAbsoluteFile().getParentFile();
+        File temp= File.createTempFile(snapshot_.getName(), ".tmp", parent);
+        try {
+            PosixFileAttributeView view= Files.getFileAttributeView(temp.toPath(), PosixFileAttributeView.class);
+            if (view != null) {
+                view.setPermissions(SNAPSHOT_PERMISSIONS);
+            }
+            DataOutputStream out= new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            try {
+                out.writeInt(SNAPSHOT_MAGIC);
+                out.writeInt(SNAPSHOT_VERSION);
+                out.writeLong(scanTime);
+                int fileCount= 0;
+                for (Entry entry : entries) {
+                    if (entry.state_ != null && entry.digest_ != null) {
+                        fileCount++;
+                    }
+                }
+                out.writeInt(fileCount);
+                for (Entry entry : entries) {
+                    if (entry.state_ != null && entry.digest_ != null) {
+                        writeBytes(out, entry.file_.getName().getBytes(StandardCharsets.UTF_8));
+                        entry.state_.write(out, entry.digest_);
+                    }
+                }
+                out.write(fingerprint);
+                out.writeInt(ca.getCACertificates().size());
+                out.writeInt(ca.getCRLCount());
+                for (X509Certificate certificate : ca.getCACertificates()) {
+                    writeBytes(out, certificate.getEncoded());
+                }
+                for (CADirectory.VerifiedCRL crl : ca.getVerifiedCRLs()) {
+                    writeBytes(out, crl.getIssuer().getEncoded());
+                    out.writeLong(crl.getThisUpdate());
+                    writeBytes(out, crl.getEncoded());
+                }
+            } catch (CertificateException e) {
+                throw new IOException(e);
+            } catch (CRLException e) {
+                throw new IOException(e);
+            } finally {
+                out.close();
+            }
+            try {
+                Files.move(temp.toPath(), snapshot_.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                           StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp.toPath(), snapshot_.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            temp.delete();
+        }
+    }
+
+    /**
+     * Writes a length prefixed byte array in the snapshot.
+     * 
+     * @param out
+     *            the snapshot
+     * @param bytes
+     *            the bytes
+     * @throws IOException
+     *             if the bytes can not be written
+     */
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads and decodes the entries in the fork-join pool. A file which can
+     * not be read or decoded is ignored, as the OpenSSL style validators do.
+     * 
+     * @param entries
+     *            the entries to decode
+     * @throws IOException
+     *             if a snapshot entry can not be decoded
+     */
+    private void decode(Entry[] entries) throws IOException {
+        pool_.invoke(new DecodeTask(entries, 0, entries.length, true));
+        for (Entry entry : entries) {
+            if (entry.error_ != null) {
+                if (entry.file_ == null) {
+                    throw new IOException("Invalid CA snapshot entry: " + entry.error_.getMessage(),
+                                          entry.error_);
+                }
+                log.warn("Ignoring " + entry.file_ + ": " + entry.error_.getMessage());
+            }
+        }
+    }
+
+    /**
+     * A CA certificate or CRL file, or snapshot entry, and its decoded
+     * content.
+     */
+    private static class Entry {
+
+        /** The file, <code>null</code> for a snapshot entry */
+        final File file_;
+
+        /** Whether the entry is a CRL */
+        final boolean isCRL_;
+
+        /** The encoded content, read from the file if <code>null</code> */
+        byte[] encoded_;
+
+        /** The digest of the file content, <code>null</code> if not read */
+        byte[] digest_;
+
+        /** The file state read before its content, <code>null</code> if none */
+        FileState state_;
+
+        /** The file state recorded in the snapshot, <code>null</code> if none */
+        FileState recorded_;
+
+        /** Whether the file was read */
+        boolean read_;
+
+        /** The decoded certificates */
+        Collection<X509Certificate> certificates_;
+
+        /** The decoded CRL */
+        X509CRL crl_;
+
+        /** The read or decoding error */
+        Exception error_;
+
+        /**
+         * Constructor.
+         * 
+         * @param file
+         *            the file, <code>null</code> for a snapshot entry
+         * @param encoded
+         *            the encoded content, <code>null</code> to read the file
+         * @param isCRL
+         *            whether the entry is a CRL
+         */
+        Entry(File file, byte[] encoded, boolean isCRL) {
+            file_= file;
+            encoded_= encoded;
+            isCRL_= isCRL;
+        }
+    }
+
+    /**
+     * Returns a new digest of the fingerprint algorithm.
+     * 
+     * @return the digest
+     */
+    private static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(DIGEST_ALGORITHM + " digest not available", e);
+        }
+    }
+
+    /**
+     * The state of a file, read before its content: its size, modification
+     * and change times, device and inode. The change time is updated by any
+     * write or rename, and can not be set back.
+     */
+    private static final class FileState {
+
+        /** The attributes of the file state */
+        private static final String ATTRIBUTES= "unix:size,lastModifiedTime,ctime,dev,ino";
+
+        /** The file size */
+        private final long size_;
+
+        /** The modification time in nanos */
+        private final long modified_;
+
+        /** The change time in nanos */
+        private final long changed_;
+
+        /** The file system device */
+        private final long device_;
+
+        /** The file inode */
+        private final long inode_;
+
+        /** The recorded digest of the file content, <code>null</code> if read */
+        private final byte[] digest_;
+
+        /**
+         * Constructor.
+         * 
+         * @param attributes
+         *            the file attributes
+         */
+        private FileState(Map<String, Object> attributes) {
+            size_= ((Long) attributes.get("size")).longValue();
+            modified_= ((FileTime) attributes.get("lastModifiedTime")).to(TimeUnit.NANOSECONDS);
+            changed_= ((FileTime) attributes.get("ctime")).to(TimeUnit.NANOSECONDS);
+            device_= ((Long) attributes.get("dev")).longValue();
+            inode_= ((Long) attributes.get("ino")).longValue();
+            digest_= null;
+        }
+
+        /**
+         * Constructor of a state recorded in the snapshot.
+         * 
+         * @param buffer
+         *            the snapshot positioned at the state
+         */
+        private FileState(ByteBuffer buffer) {
+            size_= buffer.getLong();
+            modified_= buffer.getLong();
+            changed_= buffer.getLong();
+            device_= buffer.getLong();
+            inode_= buffer.getLong();
+            digest_= getBytes(buffer);
+        }
+
+        /**
+         * Reads the state of a file.
+         * 
+         * @param path
+         *            the file path, whose links are followed
+         * @return the file state, <code>null</code> if the file system does
+         *         not provide it
+         * @throws IOException
+         *             if the file attributes can not be read
+         */
+        static FileState read(Path path) throws IOException {
+            try {
+                return new FileState(Files.readAttributes(path, ATTRIBUTES));
+            } catch (UnsupportedOperationException e) {
+                return null;
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+
+        /**
+         * Writes the state in the snapshot, with the digest of the content.
+         * 
+         * @param out
+         *            the snapshot
+         * @param digest
+         *            the digest of the file content
+         * @throws IOException
+         *             if the state can not be written
+         */
+        void write(DataOutputStream out, byte[] digest) throws IOException {
+            out.writeLong(size_);
+            out.writeLong(modified_);
+            out.writeLong(changed_);
+            out.writeLong(device_);
+            out.writeLong(inode_);
+            writeBytes(out, digest);
+        }
+
+        /**
+         * Checks whether the file was modified and changed before a time.
+         * 
+         * @param time
+         *            the time in millis
+         * @return <code>true</code> if the file changed before the time
+         */
+        boolean isOlderThan(long time) {
+            long nanos= TimeUnit.MILLISECONDS.toNanos(time);
+            return modified_ < nanos && changed_ < nanos;
+        }
+
+        /** {@inheritDoc} */
+        public boolean equals(Object object) {
+            if (!(object instanceof FileState)) {
+                return false;
+            }
+            FileState other= (FileState) object;
+            return size_ == other.size_ && modified_ == other.modified_ && changed_ == other.changed_
+                    && device_ == other.device_ && inode_ == other.inode_;
+        }
+
+        /** {@inheritDoc} */
+        public int hashCode() {
+            return (int) (inode_ ^ changed_);
+        }
+    }
+
+    /**
+     * Fork-join task reading, hashing and decoding a range of entries, split
+     * in halves down to {@link CADirectoryLoader#TASK_THRESHOLD} entries. In
+     * the read and hash mode, the files unchanged since the snapshot was
+     * written are not read, and the content of the others is kept for a
+     * later decoding.
+     */
+    @SuppressWarnings("serial")
+    private static class DecodeTask extends RecursiveAction {
+
+        /** All the entries */
+        private final Entry[] entries_;
+
+        /** First entry of the range */
+        private final int from_;
+
+        /** End of the range, exclusive */
+        private final int to_;
+
+        /** Whether the entries are decoded, or only read and hashed */
+        private final boolean decode_;
+
+        /**
+         * Constructor.
+         * 
+         * @param entries
+         *            all the entries
+         * @param from
+         *            first entry of the range
+         * @param to
+         *            end of the range, exclusive
+         * @param decode
+         *            whether the entries are decoded, or only read and hashed
+         */
+        DecodeTask(Entry[] entries, int from, int to, boolean decode) {
+            entries_= entries;
+            from_= from;
+            to_= to;
+            decode_= decode;
+        }
+
+        /** {@inheritDoc} */
+        @SuppressWarnings("unchecked")
+        protected void compute() {
+            if (to_ - from_ > TASK_THRESHOLD) {
+                int middle= (from_ + to_) >>> 1;
+                invokeAll(new DecodeTask(entries_, from_, middle, decode_),
+                          new DecodeTask(entries_, middle, to_, decode_));
+                return;
+            }
+            MessageDigest digest= createDigest();
+            CertificateFactory factory= null;
+            if (decode_) {
+                try {
+                    factory= CertificateFactory.getInstance("X.509");
+                } catch (CertificateException e) {
+                    for (int i= from_; i < to_; i++) {
+                        entries_[i].error_= e;
+                    }
+                    return;
+                }
+            }
+            for (int i= from_; i < to_; i++) {
+                Entry entry= entries_[i];
+                if (entry.error_ != null) {
+                    continue;
+                }
+                try {
+                    if (entry.file_ != null && entry.state_ == null) {
+                        // read before the content, so that a later change
+                        // is detected by the next load
+                        entry.state_= FileState.read(entry.file_.toPath());
+                        if (entry.state_ != null && entry.state_.equals(entry.recorded_)) {
+                            entry.digest_= entry.recorded_.digest_;
+                        }
+                    }
+                    if (!decode_ && entry.digest_ != null) {
+                        // unchanged, read only if parsed
+                        continue;
+                    }
+                    if (entry.encoded_ == null) {
+                        entry.encoded_= Files.readAllBytes(entry.file_.toPath());
+                        entry.digest_= digest.digest(entry.encoded_);
+                        entry.read_= true;
+                    }
+                    if (!decode_) {
+                        continue;
+                    }
+                    ByteArrayInputStream in= new ByteArrayInputStream(entry.encoded_);
+                    if (entry.isCRL_) {
+                        entry.crl_= (X509CRL) factory.generateCRL(in);
+                    }
+                    else {
+                        entry.certificates_= (Collection<X509Certificate>) factory.generateCertificates(in);
+                        if (entry.certificates_.isEmpty()) {
+                            throw new CertificateException("no certificate found");
+                        }
+                    }
+                } catch (IOException e) {
+                    entry.error_= e;
+                } catch (GeneralSecurityException e) {
+                    entry.error_= e;
+                } finally {
+                    if (decode_) {
+                        entry.encoded_= null;
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client.tls;
+
+import java.security.cert.CRLException;
+import java.security.cert.CertificateException;
+import java.security.cert.X509CRL;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.X509TrustManager;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import eu.emi.security.authn.x509.CrlCheckingMode;
+
+/**
+ * Trust manager checking the certificates of a chain against the CRLs of a
+ * {@link CADirectory}, once the wrapped trust manager has validated the
+ * chain.
+ * <p>
+ * The CRLs are checked according to the CRL checking mode. A CRL is used
+ * only while valid, before its next update time. The CRLs of the CA
+ * directory are not refreshed, so the first use of an expired CRL is logged
+ * as a warning, and the expired CRLs are exposed. With
+ * {@link CrlCheckingMode#IF_VALID}, a certificate without valid CRL of its
+ * issuer is not checked, and the revocation checks skipped because of an
+ * expired CRL are counted. With {@link CrlCheckingMode#REQUIRE}, it is
+ * rejected, unless self-issued as a trust anchor. With
+ * {@link CrlCheckingMode#IGNORE}, the CRLs are not checked.
+ * <p>
+ * This class is thread-safe.
+ */
+public class CRLTrustManager implements X509TrustManager {
+
+    /** Class logger. */
+    private final Log log= LogFactory.getLog(CRLTrustManager.class);
+
+    /** The wrapped trust manager */
+    private final X509TrustManager trustManager_;
+
+    /** The CA directory holding the CRLs */
+    private final CADirectory caDirectory_;
+
+    /** The CRL checking mode */
+    private final CrlCheckingMode crlCheckingMode_;
+
+    /** The expired CRLs already logged */
+    private final Set<X509CRL> loggedExpiredCRLs_= ConcurrentHashMap.newKeySet();
+
+    /** Number of revocation checks skipped because of an expired CRL */
+    private final AtomicLong expiredCRLChecks_= new AtomicLong();
+
+    /**
+     * Constructor, checking the CRLs if valid.
+     * 
+     * @param trustManager
+     *            the trust manager validating the chains
+     * @param caDirectory
+     *            the CA directory holding the verified CRLs
+     */
+    public CRLTrustManager(X509TrustManager trustManager, CADirectory caDirectory) {
+        this(trustManager, caDirectory, CrlCheckingMode.IF_VALID);
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param trustManager
+     *            the trust manager validating the chains
+     * @param caDirectory
+     *            the CA directory holding the verified CRLs
+     * @param crlCheckingMode
+     *            the CRL checking mode
+     */
+    public CRLTrustManager(X509TrustManager trustManager, CADirectory caDirectory,
+            CrlCheckingMode crlCheckingMode) {
+        if (trustManager == null) {
+            throw new IllegalArgumentException("Trust manager can not be null");
+        }
+        if (caDirectory == null) {
+            throw new IllegalArgumentException("CA directory can not be null");
+        }
+        if (crlCheckingMode == null) {
+            throw new IllegalArgumentException("CRL checking mode can not be null");
+        }
+        trustManager_= trustManager;
+        caDirectory_= caDirectory;
+        crlCheckingMode_= crlCheckingMode;
+    }
+
+    /** {@inheritDoc} */
+    public void checkClientTrusted(X509Certificate[] chain, String authType)
+            throws CertificateException {
+        trustManager_.checkClientTrusted(chain, authType);
+        checkRevocation(chain);
+    }
+
+    /** {@inheritDoc} */
+    public void checkServerTrusted(X509Certificate[] chain, String authType)
+            throws CertificateException {
+        trustManager_.checkServerTrusted(chain, authType);
+        checkRevocation(chain);
+    }
+
+    /** {@inheritDoc} */
+    public X509Certificate[] getAcceptedIssuers() {
+        return trustManager_.getAcceptedIssuers();
+    }
+
+    /**
+     * Returns the CRLs of the CA directory past their next update time: their
+     * certificates are not checked, or are rejected if CRLs are required.
+     * 
+     * @return the expired CRLs, empty if none
+     */
+    public List<X509CRL> getExpiredCRLs() {
+        Date now= new Date();
+        List<X509CRL> expired= new ArrayList<X509CRL>();
+        for (X509CRL crl : caDirectory_.getCRLs()) {
+            if (isExpired(crl, now)) {
+                expired.add(crl);
+            }
+        }
+        return expired;
+    }
+
+    /**
+     * Returns the CRL checking mode.
+     * 
+     * @return the CRL checking mode
+     */
+    public CrlCheckingMode getCrlCheckingMode() {
+        return crlCheckingMode_;
+    }
+
+    /**
+     * Returns the number of certificate revocation checks skipped because the
+     * CRL of the issuer was expired.
+     * 
+     * @return the number of skipped revocation checks
+     */
+    public long getExpiredCRLChecks() {
+        return expiredCRLChecks_.get();
+    }
+
+    /**
+     * Checks that no certificate of the chain is revoked by a valid CRL, and
+     * in {@link CrlCheckingMode#REQUIRE} mode that the issuer of each
+     * certificate has a valid CRL.
+     * 
+     * @param chain
+     *            the validated chain
+     * @throws CertificateException
+     *             if a certificate is revoked, or its revocation can not be
+     *             checked as required
+     */
+    private void checkRevocation(X509Certificate[] chain) throws CertificateException {
+        if (crlCheckingMode_ == CrlCheckingMode.IGNORE) {
+            return;
+        }
+        boolean required= crlCheckingMode_ == CrlCheckingMode.REQUIRE;
+        Date now= new Date();
+        for (X509Certificate certificate : chain) {
+            X509CRL crl;
+            try {
+                crl= caDirectory_.getCRL(certificate.getIssuerX500Principal());
+            } catch (CRLException e) {
+                throw new CertificateException("CRL of " + certificate.getIssuerX500Principal()
+                        + " can not be decoded", e);
+            }
+            boolean selfIssued= certificate.getIssuerX500Principal().equals(certificate.getSubjectX500Principal());
+            if (crl == null) {
+                if (required && !selfIssued) {
+                    throw new CertificateException("No CRL of " + certificate.getIssuerX500Principal()
+                            + " to check the revocation of " + certificate.getSubjectX500Principal());
+                }
+                continue;
+            }
+            if (isExpired(crl, now)) {
+                if (loggedExpiredCRLs_.add(crl)) {
+                    log.warn("CRL of " + crl.getIssuerX500Principal() + " expired since "
+                            + crl.getNextUpdate() + (required ? ", its certificates are rejected"
+                                    : ", revocation of its certificates is not checked"));
+                }
+                if (required && !selfIssued) {
+                    throw new CertificateException("CRL of " + crl.getIssuerX500Principal()
+                            + " expired since " + crl.getNextUpdate());
+                }
+                expiredCRLChecks_.incrementAndGet();
+                continue;
+            }
+            if (crl.isRevoked(certificate)) {
+                throw new CertificateException("Certificate " + certificate.getSubjectX500Principal()
+                        + " is revoked by its issuer " + crl.getIssuerX500Principal());
+            }
+        }
+    }
+
+    /**
+     * Checks whether a CRL is past its next update time.
+     * 
+     * @param crl
+     *            the CRL
+     * @param now
+     *            the current time
+     * @return <code>true</code> if the CRL is expired
+     */
+    private static boolean isExpired(X509CRL crl, Date now) {
+        return crl.getNextUpdate() != null && crl.getNextUpdate().before(now);
+    }
+}
@@ -0,0 +1,336 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client.tls;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.X509TrustManager;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import eu.emi.security.authn.x509.StoreUpdateListener;
+import eu.emi.security.authn.x509.X509CertChainValidatorExt;
+
+/**
+ * Trust manager caching the successful validations of the PEP daemon
+ * certificate chains.
+ * <p>
+ * A TLS handshake validates the same few PEP daemon chains again and again,
+ * with a path building and CRL lookups each time. The validated chains are
+ * cached by SHA-256 fingerprint, and a chain found in the cache is trusted
+ * without validation. A failed validation is never cached.
+ * <p>
+ * A cached validation expires after the time-to-live, and at the latest
+ * when a certificate of the chain expires. When the trust manager watches
+ * the validator of the wrapped trust manager, the cache is also cleared
+ * each time the validator reloads its CA certificates or CRLs, so a newly
+ * revoked certificate is rejected after the next trust store refresh. A
+ * trust manager replaced by another one stops watching with
+ * {@link #unwatch()}.
+ * <p>
+ * The cache holds at most <code>maxEntries</code> chains, the least
+ * recently used one is evicted first.
+ * <p>
+ * This class is thread-safe.
+ */
+public class CachingTrustManager implements X509TrustManager {
+
+    /** Class logger. */
+    private final Log log= LogFactory.getLog(CachingTrustManager.class);
+
+    /** Digest algorithm of the chain fingerprints */
+    private static final String DIGEST_ALGORITHM= "SHA-256";
+
+    /** The wrapped trust manager */
+    private final X509TrustManager trustManager_;
+
+    /** Max time-to-live in millis of a cached validation */
+    private final long timeToLive_;
+
+    /** Max number of cached chains */
+    private final int maxEntries_;
+
+    /** Expiration times of the validated chains in access order, guarded by itself */
+    private final Map<ChainKey, Long> validations_;
+
+    /** Incremented by each clear, guarded by the validations */
+    private long generation_= 0;
+
+    /** Number of chains trusted from the cache */
+    private final AtomicLong hits_= new AtomicLong();
+
+    /** Number of chains validated by the wrapped trust manager */
+    private final AtomicLong misses_= new AtomicLong();
+
+    /** Clears the cache when a validator reloads its trust material */
+    private final StoreUpdateListener updateListener_;
+
+    /** Clears the cache when a reloading trust manager swaps its validator */
+    private final ReloadingTrustManager.ReloadListener reloadListener_;
+
+    /** Watched validator, <code>null</code> if none, guarded by this */
+    private X509CertChainValidatorExt watchedValidator_= null;
+
+    /** Watched reloading trust manager, <code>null</code> if none, guarded by this */
+    private ReloadingTrustManager watchedTrustManager_= null;
+
+    /**
+     * Constructor.
+     * 
+     * @param trustManager
+     *            the wrapped trust manager
+     * @param timeToLive
+     *            max time-to-live in millis of a cached validation, must be
+     *            greater than zero
+     * @param maxEntries
+     *            max number of cached chains, must be greater than zero
+     */
+    public CachingTrustManager(X509TrustManager trustManager, long timeToLive,
+            int maxEntries) {
+        if (trustManager == null) {
+            throw new IllegalArgumentException("Trust manager can not be null");
+        }
+        if (timeToLive < 1) {
+            throw new IllegalArgumentException("Validation time-to-live must be greater than zero");
+        }
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("Maximum number of cached chains must be greater than zero");
+        }
+        trustManager_= trustManager;
+        timeToLive_= timeToLive;
+        maxEntries_= maxEntries;
+        validations_= new LinkedHashMap<ChainKey, Long>(16, 0.75f, true) {
+            private static final long serialVersionUID= 1L;
+
+            protected boolean removeEldestEntry(Map.Entry<ChainKey, Long> eldest) {
+                return size() > maxEntries_;
+            }
+        };
+        updateListener_= new StoreUpdateListener() {
+            public void loadingNotification(String location, String type,
+                    Severity level, Exception cause) {
+                if (log.isDebugEnabled()) {
+                    log.debug("trust material " + location
+                            + " reloaded, clearing validation cache");
+                }
+                clear();
+            }
+        };
+        reloadListener_= new ReloadingTrustManager.ReloadListener() {
+            public void reloaded() {
+                log.debug("trust store reloaded, clearing validation cache");
+                clear();
+            }
+        };
+    }
+
+    /**
+     * Clears the cache each time the validator reloads its trust material,
+     * instead of the previously watched trust material.
+     * 
+     * @param validator
+     *            the validator of the wrapped trust manager
+     */
+    public synchronized void watch(X509CertChainValidatorExt validator) {
+        unwatch();
+        validator.addUpdateListener(updateListener_);
+        watchedValidator_= validator;
+    }
+
+    /**
+     * Clears the cache each time the reloading trust manager swaps its
+     * validator, or any of its validators reloads its trust material, instead
+     * of the previously watched trust material.
+     * 
+     * @param trustManager
+     *            the wrapped reloading trust manager
+     */
+    public synchronized void watch(ReloadingTrustManager trustManager) {
+        unwatch();
+        trustManager.addReloadListener(reloadListener_);
+        trustManager.addUpdateListener(updateListener_);
+        watchedTrustManager_= trustManager;
+    }
+
+    /**
+     * Stops watching the trust material, typically when the trust manager is
+     * replaced: its listeners are removed from the watched validator or
+     * reloading trust manager.
+     */
+    public synchronized void unwatch() {
+        if (watchedValidator_ != null) {
+            watchedValidator_.removeUpdateListener(updateListener_);
+            watchedValidator_= null;
+        }
+        if (watchedTrustManager_ != null) {
+            watchedTrustManager_.removeReloadListener(reloadListener_);
+            watchedTrustManager_.removeUpdateListener(updateListener_);
+            watchedTrustManager_= null;
+        }
+    }
+
+    /** {@inheritDoc} */
+    public void checkClientTrusted(X509Certificate[] chain, String authType)
+            throws CertificateException {
+        trustManager_.checkClientTrusted(chain, authType);
+    }
+
+    /** {@inheritDoc} */
+    public void checkServerTrusted(X509Certificate[] chain, String authType)
+            throws CertificateException {
+        if (chain == null || chain.length == 0) {
+            trustManager_.checkServerTrusted(chain, authType);
+            return;
+        }
+        ChainKey key= new ChainKey(chain, authType);
+        long now= System.currentTimeMillis();
+        long generation;
+        synchronized (validations_) {
+            generation= generation_;
+            Long expiration= validations_.get(key);
+            if (expiration != null) {
+                if (expiration.longValue() > now) {
+                    hits_.incrementAndGet();
+                    return;
+                }
+                validations_.remove(key);
+            }
+        }
+        misses_.incrementAndGet();
+        trustManager_.checkServerTrusted(chain, authType);
+        long expiration= now + timeToLive_;
+        for (X509Certificate certificate : chain) {
+            expiration= Math.min(expiration,
+                                 certificate.getNotAfter().getTime());
+        }
+        synchronized (validations_) {
+            // a validation against the trust material cleared meanwhile is
+            // not cached
+            if (generation_ == generation) {
+                validations_.put(key, Long.valueOf(expiration));
+            }
+        }
+    }
+
+    /** {@inheritDoc} */
+    public X509Certificate[] getAcceptedIssuers() {
+        return trustManager_.getAcceptedIssuers();
+    }
+
+    /** Removes all the cached validations. */
+    public void clear() {
+        synchronized (validations_) {
+            generation_++;
+            validations_.clear();
+        }
+    }
+
+    /**
+     * Returns the number of cached validations, including the expired ones
+     * not yet evicted.
+     * 
+     * @return number of cached chains
+     */
+    public int size() {
+        synchronized (validations_) {
+            return validations_.size();
+        }
+    }
+
+    /**
+     * Returns the number of chains trusted from the cache.
+     * 
+     * @return number of cache hits
+     */
+    public long getHits() {
+        return hits_.get();
+    }
+
+    /**
+     * Returns the number of chains validated by the wrapped trust manager.
+     * 
+     * @return number of cache misses
+     */
+    public long getMisses() {
+        return misses_.get();
+    }
+
+    /** SHA-256 fingerprint of a certificate chain and authentication type. */
+    private static final class ChainKey {
+
+        /** The fingerprint */
+        private final byte[] digest_;
+
+        /** The hash code */
+        private final int hashCode_;
+
+        /**
+         * Constructor.
+         * 
+         * @param chain
+         *            the certificate chain
+         * @param authType
+         *            the key exchange algorithm
+         * @throws CertificateException
+         *             if a certificate can not be encoded
+         */
+        private ChainKey(X509Certificate[] chain, String authType)
+                throws CertificateException {
+            MessageDigest digest;
+            try {
+                digest= MessageDigest.getInstance(DIGEST_ALGORITHM);
+            } catch (NoSuchAlgorithmException e) {
+                throw new CertificateException(DIGEST_ALGORITHM
+                        + " not supported", e);
+            }
+            if (authType != null) {
+                digest.update(authType.getBytes());
+            }
+            for (X509Certificate certificate : chain) {
+                digest.update(certificate.getEncoded());
+            }
+            digest_= digest.digest();
+            hashCode_= Arrays.hashCode(digest_);
+        }
+
+        /** {@inheritDoc} */
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof ChainKey)) {
+                return false;
+            }
+            return Arrays.equals(digest_, ((ChainKey) obj).digest_);
+        }
+
+        /** {@inheritDoc} */
+        public int hashCode() {
+            return hashCode_;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client.tls;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Watch of the files of a {@link Reloadable} material, registered in the
+ * {@link TLSMaterialWatcher} only while files are set and the material is
+ * retained by a TLS context.
+ * <p>
+ * This class is thread-safe.
+ */
+final class MaterialWatch {
+
+    /** Class logger. */
+    private final Log log= LogFactory.getLog(MaterialWatch.class);
+
+    /** The watched material */
+    private final Reloadable material_;
+
+    /** The watched files, empty if not watched, guarded by this */
+    private List<File> files_= Collections.emptyList();
+
+    /** Number of users retaining the material, guarded by this */
+    private int users_= 0;
+
+    /** Whether the files are registered in the watcher, guarded by this */
+    private boolean registered_= false;
+
+    /**
+     * Constructor.
+     * 
+     * @param material
+     *            the watched material
+     */
+    MaterialWatch(Reloadable material) {
+        material_= material;
+    }
+
+    /**
+     * Sets the watched files.
+     * 
+     * @param files
+     *            the material files, or their directories, empty to stop
+     *            watching
+     * @throws IOException
+     *             if a directory can not be watched
+     */
+    synchronized void setFiles(List<File> files) throws IOException {
+        files_= new ArrayList<File>(files);
+        update();
+    }
+
+    /**
+     * Retains the material: the files are watched while it is retained.
+     */
+    synchronized void retain() {
+        if (users_++ == 0) {
+            try {
+                update();
+            } catch (IOException e) {
+                log.warn("Failed to watch the TLS material files " + files_ + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Releases the material: the files are no longer watched after the last
+     * release.
+     */
+    synchronized void release() {
+        if (users_ > 0 && --users_ == 0) {
+            try {
+                update();
+            } catch (IOException e) {
+                // not thrown when unwatching
+            }
+        }
+    }
+
+    /**
+     * Registers or unregisters the files in the watcher.
+     * 
+     * @throws IOException
+     *             if a directory can not be watched
+     */
+    private void update() throws IOException {
+        TLSMaterialWatcher watcher= TLSMaterialWatcher.getInstance();
+        if (registered_) {
+            watcher.unwatch(material_);
+            registered_= false;
+        }
+        if (users_ == 0 || files_.isEmpty()) {
+            return;
+        }
+        registered_= true;
+        try {
+            for (File file : files_) {
+                watcher.watch(file, material_);
+            }
+        } catch (IOException e) {
+            watcher.unwatch(material_);
+            registered_= false;
+            throw e;
+        }
+    }
+}
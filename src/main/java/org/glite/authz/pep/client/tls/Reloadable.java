@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client.tls;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Key or trust material which can be reloaded from its files, see
+ * {@link TLSMaterialWatcher}.
+ * <p>
+ * The material is retained by the TLS contexts using it, and its files are
+ * watched only while it is retained: the watches of a material no longer
+ * used by any client are removed.
+ */
+public interface Reloadable {
+
+    /**
+     * Sets the files watched, while the material is retained, to reload it.
+     * 
+     * @param files
+     *            the material files, or their directories, empty to stop
+     *            watching
+     * @throws IOException
+     *             if a directory can not be watched
+     */
+    public void setWatchedFiles(List<File> files) throws IOException;
+
+    /**
+     * Retains the material for a user, typically a TLS context.
+     */
+    public void retain();
+
+    /**
+     * Releases the material retained by a user.
+     */
+    public void release();
+
+    /**
+     * Reloads the material from its files. If the files can not be loaded,
+     * the current material is kept.
+     * 
+     * @return <code>true</code> if the material was reloaded and changed
+     */
+    public boolean reload();
+}
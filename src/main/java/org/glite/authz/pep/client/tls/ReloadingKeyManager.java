@@ -0,0 +1,460 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client.tls;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.Principal;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.X509ExtendedKeyManager;
+import javax.net.ssl.X509KeyManager;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import eu.emi.security.authn.x509.impl.PEMCredential;
+
+/**
+ * Key manager of a PEM certificate and private key, which can be reloaded
+ * when the files are rotated.
+ * <p>
+ * The reload atomically swaps the key manager used by the next full
+ * handshakes: the SSL contexts, their connections and in-flight requests are
+ * kept. A certificate not matching its private key, for example while the
+ * files are being rotated, is rejected and the current key kept. After a
+ * reload, the sessions of the registered session contexts are invalidated,
+ * so that no session established with the previous key is resumed.
+ * <p>
+ * The aliases are prefixed with the generation of the credential they were
+ * chosen from, so that the certificate chain and private key of a handshake
+ * come from the same credential, even if it is reloaded meanwhile. The
+ * previous credential is kept for the handshakes in progress.
+ * <p>
+ * This class is thread-safe.
+ */
+public class ReloadingKeyManager extends X509ExtendedKeyManager implements
+        Reloadable {
+
+    /** Class logger. */
+    private final Log log= LogFactory.getLog(ReloadingKeyManager.class);
+
+    /** Separates the credential generation from the alias */
+    private static final char ALIAS_SEPARATOR= ':';
+
+    /** Data signed to check that the private key matches the certificate */
+    private static final byte[] CHALLENGE= "PEP client key check".getBytes(StandardCharsets.US_ASCII);
+
+    /** The PEM certificate file */
+    private final String certificateFile_;
+
+    /** The PEM private key file */
+    private final String keyFile_;
+
+    /** The private key password */
+    private final char[] password_;
+
+    /** Session contexts invalidated after a reload */
+    private final Map<SSLSessionContext, Boolean> sessionContexts_= Collections.synchronizedMap(new WeakHashMap<SSLSessionContext, Boolean>());
+
+    /** Generation of the last loaded credential */
+    private final AtomicLong generation_= new AtomicLong();
+
+    /** The current credential */
+    private volatile Credential credential_;
+
+    /** The previous credential, <code>null</code> if never reloaded */
+    private volatile Credential previousCredential_= null;
+
+    /** Watch of the files */
+    private final MaterialWatch watch_= new MaterialWatch(this);
+
+    /**
+     * Constructor. Loads the certificate and private key.
+     * 
+     * @param certificateFile
+     *            the PEM certificate file
+     * @param keyFile
+     *            the PEM private key file
+     * @param password
+     *            the private key password
+     * @throws IOException
+     *             if a file can not be read
+     * @throws GeneralSecurityException
+     *             if the certificate or private key can not be decoded, or do
+     *             not match
+     */
+    public ReloadingKeyManager(String certificateFile, String keyFile,
+            char[] password) throws IOException, GeneralSecurityException {
+        certificateFile_= certificateFile;
+        keyFile_= keyFile;
+        password_= password.clone();
+        credential_= load();
+    }
+
+    /**
+     * Loads and checks the certificate and private key.
+     * 
+     * @return the credential
+     * @throws IOException
+     *             if a file can not be read
+     * @throws GeneralSecurityException
+     *             if the certificate or private key can not be decoded, or do
+     *             not match
+     */
+    private Credential load() throws IOException, GeneralSecurityException {
+        PEMCredential credential= new PEMCredential(keyFile_, certificateFile_, password_);
+        X509Certificate[] chain= credential.getCertificateChain();
+        PrivateKey key= credential.getKey();
+        checkKey(key, chain[0].getPublicKey());
+        return new Credential(generation_.incrementAndGet(), chain, key, credential.getKeyManager());
+    }
+
+    /**
+     * Checks that the private key matches the public key of the certificate.
+     * 
+     * @param key
+     *            the private key
+     * @param publicKey
+     *            the public key of the certificate
+     * @throws GeneralSecurityException
+     *             if the keys do not match
+     */
+    private static void checkKey(PrivateKey key, PublicKey publicKey)
+            throws GeneralSecurityException {
+        String algorithm= key.getAlgorithm();
+        if ("EC".equals(algorithm)) {
+            algorithm= "ECDSA";
+        }
+        Signature signature= Signature.getInstance("SHA256with" + algorithm);
+        signature.initSign(key);
+        signature.update(CHALLENGE);
+        byte[] signed= signature.sign();
+        signature.initVerify(publicKey);
+        signature.update(CHALLENGE);
+        if (!signature.verify(signed)) {
+            throw new GeneralSecurityException("Private key does not match the certificate");
+        }
+    }
+
+    /**
+     * Invalidates the sessions of the session context after each reload. The
+     * session context is weakly referenced.
+     * 
+     * @param sessionContext
+     *            the client session context of an SSL context using this key
+     *            manager
+     */
+    public void invalidateOnReload(SSLSessionContext sessionContext) {
+        sessionContexts_.put(sessionContext, Boolean.TRUE);
+    }
+
+    /** {@inheritDoc} */
+    public void setWatchedFiles(List<File> files) throws IOException {
+        watch_.setFiles(files);
+    }
+
+    /** {@inheritDoc} */
+    public void retain() {
+        watch_.retain();
+    }
+
+    /** {@inheritDoc} */
+    public void release() {
+        watch_.release();
+    }
+
+    /** {@inheritDoc} */
+    public boolean reload() {
+        Credential credential;
+        try {
+            credential= load();
+        } catch (IOException e) {
+            log.warn("Failed to reload key material " + certificateFile_ + ": " + e.getMessage());
+            return false;
+        } catch (GeneralSecurityException e) {
+            log.warn("Failed to reload key material " + certificateFile_ + ": " + e.getMessage());
+            return false;
+        }
+        if (credential.equals(credential_)) {
+            return false;
+        }
+        previousCredential_= credential_;
+        credential_= credential;
+        log.info("Key material " + certificateFile_ + " reloaded: " + credential.chain_[0].getSubjectX500Principal());
+        List<SSLSessionContext> sessionContexts;
+        synchronized (sessionContexts_) {
+            sessionContexts= new ArrayList<SSLSessionContext>(sessionContexts_.keySet());
+        }
+        for (SSLSessionContext sessionContext : sessionContexts) {
+            Enumeration<byte[]> ids= sessionContext.getIds();
+            while (ids.hasMoreElements()) {
+                SSLSession session= sessionContext.getSession(ids.nextElement());
+                if (session != null) {
+                    session.invalidate();
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the PEM certificate file.
+     * 
+     * @return the certificate file name
+     */
+    public String getCertificateFile() {
+        return certificateFile_;
+    }
+
+    /**
+     * Returns the PEM private key file.
+     * 
+     * @return the private key file name
+     */
+    public String getKeyFile() {
+        return keyFile_;
+    }
+
+    /**
+     * Returns the current certificate chain.
+     * 
+     * @return the certificate chain
+     */
+    public X509Certificate[] getCertificateChain() {
+        return credential_.chain_.clone();
+    }
+
+    /** {@inheritDoc} */
+    public String chooseClientAlias(String[] keyType, Principal[] issuers,
+            Socket socket) {
+        Credential credential= credential_;
+        return credential.alias(credential.keyManager_.chooseClientAlias(keyType, issuers, socket));
+    }
+
+    /** {@inheritDoc} */
+    public String chooseEngineClientAlias(String[] keyType,
+            Principal[] issuers, SSLEngine engine) {
+        Credential credential= credential_;
+        X509KeyManager keyManager= credential.keyManager_;
+        if (keyManager instanceof X509ExtendedKeyManager) {
+            return credential.alias(((X509ExtendedKeyManager) keyManager).chooseEngineClientAlias(keyType, issuers, engine));
+        }
+        return credential.alias(keyManager.chooseClientAlias(keyType, issuers, null));
+    }
+
+    /** {@inheritDoc} */
+    public String chooseServerAlias(String keyType, Principal[] issuers,
+            Socket socket) {
+        Credential credential= credential_;
+        return credential.alias(credential.keyManager_.chooseServerAlias(keyType, issuers, socket));
+    }
+
+    /** {@inheritDoc} */
+    public String chooseEngineServerAlias(String keyType, Principal[] issuers,
+            SSLEngine engine) {
+        Credential credential= credential_;
+        X509KeyManager keyManager= credential.keyManager_;
+        if (keyManager instanceof X509ExtendedKeyManager) {
+            return credential.alias(((X509ExtendedKeyManager) keyManager).chooseEngineServerAlias(keyType, issuers, engine));
+        }
+        return credential.alias(keyManager.chooseServerAlias(keyType, issuers, null));
+    }
+
+    /** {@inheritDoc} */
+    public X509Certificate[] getCertificateChain(String alias) {
+        Credential credential= getCredential(alias);
+        if (credential == null) {
+            return null;
+        }
+        return credential.keyManager_.getCertificateChain(Credential.unprefixed(alias));
+    }
+
+    /** {@inheritDoc} */
+    public String[] getClientAliases(String keyType, Principal[] issuers) {
+        Credential credential= credential_;
+        return credential.aliases(credential.keyManager_.getClientAliases(keyType, issuers));
+    }
+
+    /** {@inheritDoc} */
+    public String[] getServerAliases(String keyType, Principal[] issuers) {
+        Credential credential= credential_;
+        return credential.aliases(credential.keyManager_.getServerAliases(keyType, issuers));
+    }
+
+    /** {@inheritDoc} */
+    public PrivateKey getPrivateKey(String alias) {
+        Credential credential= getCredential(alias);
+        if (credential == null) {
+            return null;
+        }
+        return credential.keyManager_.getPrivateKey(Credential.unprefixed(alias));
+    }
+
+    /**
+     * Returns the credential of the generation prefixing an alias.
+     * 
+     * @param alias
+     *            the prefixed alias
+     * @return the current or previous credential of the alias generation,
+     *         <code>null</code> if the alias is not prefixed or its
+     *         credential is no longer kept
+     */
+    private Credential getCredential(String alias) {
+        if (alias == null) {
+            return null;
+        }
+        int separator= alias.indexOf(ALIAS_SEPARATOR);
+        if (separator < 0) {
+            return null;
+        }
+        long generation;
+        try {
+            generation= Long.parseLong(alias.substring(0, separator));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        Credential credential= credential_;
+        if (credential.generation_ == generation) {
+            return credential;
+        }
+        credential= previousCredential_;
+        if (credential != null && credential.generation_ == generation) {
+            return credential;
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Credential of alias " + alias + " no longer kept");
+        }
+        return null;
+    }
+
+    /** A certificate chain, its private key and their key manager. */
+    private static final class Credential {
+
+        /** The generation of the credential */
+        private final long generation_;
+
+        /** The certificate chain */
+        private final X509Certificate[] chain_;
+
+        /** The private key */
+        private final PrivateKey key_;
+
+        /** The key manager of the credential */
+        private final X509KeyManager keyManager_;
+
+        /**
+         * Constructor.
+         * 
+         * @param generation
+         *            the generation of the credential
+         * @param chain
+         *            the certificate chain
+         * @param key
+         *            the private key
+         * @param keyManager
+         *            the key manager of the credential
+         */
+        private Credential(long generation, X509Certificate[] chain,
+                PrivateKey key, X509KeyManager keyManager) {
+            generation_= generation;
+            chain_= chain;
+            key_= key;
+            keyManager_= keyManager;
+        }
+
+        /**
+         * Prefixes an alias of the key manager with the generation.
+         * 
+         * @param alias
+         *            the alias of the key manager, possibly <code>null</code>
+         * @return the prefixed alias, <code>null</code> if the alias is
+         *         <code>null</code>
+         */
+        private String alias(String alias) {
+            if (alias == null) {
+                return null;
+            }
+            return Long.toString(generation_) + ALIAS_SEPARATOR + alias;
+        }
+
+        /**
+         * Prefixes the aliases of the key manager with the generation.
+         * 
+         * @param aliases
+         *            the aliases of the key manager, possibly
+         *            <code>null</code>
+         * @return the prefixed aliases, <code>null</code> if the aliases are
+         *         <code>null</code>
+         */
+        private String[] aliases(String[] aliases) {
+            if (aliases == null) {
+                return null;
+            }
+            String[] prefixed= new String[aliases.length];
+            for (int i= 0; i < aliases.length; i++) {
+                prefixed[i]= alias(aliases[i]);
+            }
+            return prefixed;
+        }
+
+        /**
+         * Removes the generation prefix of an alias.
+         * 
+         * @param alias
+         *            the prefixed alias
+         * @return the alias of the key manager
+         */
+        private static String unprefixed(String alias) {
+            return alias.substring(alias.indexOf(ALIAS_SEPARATOR) + 1);
+        }
+
+        /** {@inheritDoc} */
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Credential)) {
+                return false;
+            }
+            Credential other= (Credential) obj;
+            return Arrays.equals(chain_, other.chain_)
+                    && Arrays.equals(key_.getEncoded(), other.key_.getEncoded());
+        }
+
+        /** {@inheritDoc} */
+        public int hashCode() {
+            return Arrays.hashCode(chain_);
+        }
+    }
+}
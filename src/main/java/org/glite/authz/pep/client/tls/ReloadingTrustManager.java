@@ -0,0 +1,542 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client.tls;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.X509TrustManager;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.glite.authz.pep.client.metrics.TrustStoreMonitor;
+import org.glite.authz.pep.client.metrics.TrustStoreStatistics;
+
+import eu.emi.security.authn.x509.CommonX509TrustManager;
+import eu.emi.security.authn.x509.StoreUpdateListener;
+import eu.emi.security.authn.x509.X509CertChainValidatorExt;
+
+/**
+ * Trust manager validating the chains with a certificate chain validator,
+ * which is periodically created again to reload the trust store.
+ * <p>
+ * A new validator is created by the factory in a background timer thread,
+ * then atomically swapped with the current one: the validations in progress
+ * complete with the previous validator, which is disposed once the last of
+ * them completed, and a failed reload keeps it. Each load is timed and the
+ * trust store size measured, see {@link TrustStoreStatistics}. The reload
+ * listeners are notified after each swap, and the update listeners are
+ * attached to each new validator.
+ * <p>
+ * The trust manager is used by the TLS contexts, which retain it with
+ * {@link #retain()} and release it with {@link #release()}: when the last
+ * one releases it, the reloads are stopped and the validator disposed. A
+ * released trust manager retained again loads a new validator and resumes
+ * its reloads.
+ * <p>
+ * In lazy mode, the validator loads the CA certificates on demand and
+ * refreshes them itself: the trust manager does not reload it nor measure
+ * its trust store.
+ * <p>
+ * This class is thread-safe.
+ */
+public class ReloadingTrustManager implements X509TrustManager,
+        TrustStoreMonitor, Reloadable {
+
+    /** Class logger. */
+    private final Log log= LogFactory.getLog(ReloadingTrustManager.class);
+
+    /** Creates the validators */
+    private final ValidatorFactory factory_;
+
+    /** Whether the validator loads its CA certificates on demand */
+    private final boolean lazyMode_;
+
+    /** Reload listeners */
+    private final List<ReloadListener> listeners_= new CopyOnWriteArrayList<ReloadListener>();
+
+    /** Update listeners of the validators, guarded by reloadLock_ for the changes */
+    private final List<StoreUpdateListener> updateListeners_= new CopyOnWriteArrayList<StoreUpdateListener>();
+
+    /** Interval in millis between two reloads, <code>0</code> to never reload */
+    private final long refreshInterval_;
+
+    /** Serializes the reloads, retains and releases */
+    private final Object reloadLock_= new Object();
+
+    /** Reload timer, <code>null</code> if not reloaded periodically, guarded by reloadLock_ */
+    private Timer timer_= null;
+
+    /** Number of users retaining the trust manager, guarded by reloadLock_ */
+    private int users_= 0;
+
+    /** Whether the validator is disposed, guarded by reloadLock_ */
+    private boolean disposed_= false;
+
+    /** Watch of the files */
+    private final MaterialWatch watch_= new MaterialWatch(this);
+
+    /** Current validator and its trust manager */
+    private volatile Validation validation_;
+
+    /** Number of failed reloads, guarded by this */
+    private long failedLoads_= 0;
+
+    /** Number of successful loads, guarded by this */
+    private long loads_= 0;
+
+    /** Max duration in millis of a load, guarded by this */
+    private long maxLoadDuration_= 0;
+
+    /**
+     * Constructor. Creates the initial validator, and schedules its reloads.
+     * 
+     * @param factory
+     *            the factory creating the validators
+     * @param refreshInterval
+     *            the interval in millis between two reloads, <code>0</code>
+     *            to never reload
+     * @param lazyMode
+     *            whether the validators load their CA certificates on demand
+     */
+    public ReloadingTrustManager(ValidatorFactory factory,
+            long refreshInterval, boolean lazyMode) {
+        if (factory == null) {
+            throw new IllegalArgumentException("Validator factory can not be null");
+        }
+        if (refreshInterval < 0) {
+            throw new IllegalArgumentException("Refresh interval can not be negative");
+        }
+        factory_= factory;
+        lazyMode_= lazyMode;
+        refreshInterval_= refreshInterval;
+        validation_= load();
+        synchronized (reloadLock_) {
+            startReloads();
+        }
+    }
+
+    /**
+     * Schedules the periodic reloads, if enabled. Must be called with the
+     * reload lock held.
+     */
+    private void startReloads() {
+        if (refreshInterval_ > 0 && !lazyMode_) {
+            timer_= new Timer("PEPClient-truststore", true);
+            timer_.schedule(new TimerTask() {
+                public void run() {
+                    reload();
+                }
+            }, refreshInterval_, refreshInterval_);
+        }
+    }
+
+    /**
+     * Cancels the periodic reloads, and disposes the validator. Must be called
+     * with the reload lock held.
+     */
+    private void stopReloads() {
+        if (timer_ != null) {
+            timer_.cancel();
+            timer_= null;
+        }
+        if (!disposed_) {
+            disposed_= true;
+            validation_.retire();
+        }
+    }
+
+    /**
+     * Creates and measures a validator, with the update listeners. Must be
+     * called with the reload lock held, except by the constructor.
+     * 
+     * @return the validator and its trust manager
+     */
+    private Validation load() {
+        long start= System.nanoTime();
+        X509CertChainValidatorExt validator= factory_.createValidator();
+        for (StoreUpdateListener listener : updateListeners_) {
+            validator.addUpdateListener(listener);
+        }
+        int trustedIssuers= 0;
+        long trustedIssuersSize= 0;
+        if (!lazyMode_) {
+            X509Certificate[] issuers= validator.getTrustedIssuers();
+            trustedIssuers= issuers.length;
+            for (X509Certificate issuer : issuers) {
+                try {
+                    trustedIssuersSize+= issuer.getEncoded().length;
+                } catch (CertificateEncodingException e) {
+                    // not measured
+                }
+            }
+        }
+        long duration= (System.nanoTime() - start) / 1000000;
+        synchronized (this) {
+            loads_++;
+            maxLoadDuration_= Math.max(maxLoadDuration_, duration);
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Trust store loaded in " + duration + " ms: " + trustedIssuers + " CA certificates");
+        }
+        return new Validation(validator,
+                              new CommonX509TrustManager(validator),
+                              duration,
+                              System.currentTimeMillis(),
+                              trustedIssuers,
+                              trustedIssuersSize);
+    }
+
+    /**
+     * Reloads the trust store: creates a new validator and swaps it with the
+     * current one. If the new validator can not be created, the current one
+     * is kept.
+     * 
+     * @return <code>true</code> if the trust store was reloaded
+     */
+    public boolean reload() {
+        Validation previous;
+        synchronized (reloadLock_) {
+            if (disposed_) {
+                return false;
+            }
+            Validation validation;
+            try {
+                validation= load();
+            } catch (RuntimeException e) {
+                synchronized (this) {
+                    failedLoads_++;
+                }
+                log.warn("Failed to reload the trust store, keeping the previous one: " + e.getMessage());
+                return false;
+            }
+            previous= validation_;
+            validation_= validation;
+        }
+        previous.retire();
+        for (ReloadListener listener : listeners_) {
+            listener.reloaded();
+        }
+        return true;
+    }
+
+    /**
+     * Adds a listener notified after each reload.
+     * 
+     * @param listener
+     *            the reload listener
+     */
+    public void addReloadListener(ReloadListener listener) {
+        listeners_.add(listener);
+    }
+
+    /**
+     * Removes a reload listener.
+     * 
+     * @param listener
+     *            the reload listener
+     */
+    public void removeReloadListener(ReloadListener listener) {
+        listeners_.remove(listener);
+    }
+
+    /**
+     * Adds a listener notified each time a validator reloads its trust
+     * material itself, typically in lazy mode. The listener is attached to
+     * the current validator and to each new one.
+     * 
+     * @param listener
+     *            the validator update listener
+     */
+    public void addUpdateListener(StoreUpdateListener listener) {
+        synchronized (reloadLock_) {
+            updateListeners_.add(listener);
+            validation_.validator_.addUpdateListener(listener);
+        }
+    }
+
+    /**
+     * Removes a validator update listener, from the current validator and
+     * from the next ones.
+     * 
+     * @param listener
+     *            the validator update listener
+     */
+    public void removeUpdateListener(StoreUpdateListener listener) {
+        synchronized (reloadLock_) {
+            updateListeners_.remove(listener);
+            validation_.validator_.removeUpdateListener(listener);
+        }
+    }
+
+    /**
+     * Returns the current validator.
+     * 
+     * @return the certificate chain validator
+     */
+    public X509CertChainValidatorExt getValidator() {
+        return validation_.validator_;
+    }
+
+    /**
+     * Retains the trust manager for a user, typically a TLS context. If it was
+     * released by all its previous users, a new validator is loaded and the
+     * reloads are resumed.
+     */
+    public void retain() {
+        watch_.retain();
+        boolean loaded= false;
+        synchronized (reloadLock_) {
+            users_++;
+            if (!disposed_) {
+                return;
+            }
+            try {
+                validation_= load();
+                loaded= true;
+            } catch (RuntimeException e) {
+                synchronized (this) {
+                    failedLoads_++;
+                }
+                log.warn("Failed to load the trust store, keeping the previous one: " + e.getMessage());
+            }
+            disposed_= false;
+            startReloads();
+        }
+        if (loaded) {
+            for (ReloadListener listener : listeners_) {
+                listener.reloaded();
+            }
+        }
+    }
+
+    /**
+     * Releases the trust manager retained by a user. When the last user
+     * releases it, the reloads are stopped and the validator disposed.
+     */
+    public void release() {
+        synchronized (reloadLock_) {
+            if (users_ == 0) {
+                return;
+            }
+            users_--;
+            if (users_ == 0) {
+                stopReloads();
+            }
+        }
+        watch_.release();
+    }
+
+    /** {@inheritDoc} */
+    public void setWatchedFiles(List<File> files) throws IOException {
+        watch_.setFiles(files);
+    }
+
+    /**
+     * Stops the reloads and disposes the validator, if not retained by a
+     * user. Otherwise they are stopped when the last user releases the trust
+     * manager.
+     */
+    public void dispose() {
+        synchronized (reloadLock_) {
+            if (users_ == 0) {
+                stopReloads();
+            }
+        }
+    }
+
+    /** {@inheritDoc} */
+    public void checkClientTrusted(X509Certificate[] chain, String authType)
+            throws CertificateException {
+        Validation validation= enter();
+        try {
+            validation.trustManager_.checkClientTrusted(chain, authType);
+        } finally {
+            validation.exit();
+        }
+    }
+
+    /** {@inheritDoc} */
+    public void checkServerTrusted(X509Certificate[] chain, String authType)
+            throws CertificateException {
+        Validation validation= enter();
+        try {
+            validation.trustManager_.checkServerTrusted(chain, authType);
+        } finally {
+            validation.exit();
+        }
+    }
+
+    /**
+     * Returns the current validation, counted as in progress until
+     * {@link Validation#exit()}, so that it is not disposed meanwhile.
+     * 
+     * @return the current validation
+     */
+    private Validation enter() {
+        while (true) {
+            Validation validation= validation_;
+            validation.inProgress_.incrementAndGet();
+            // swapped meanwhile, possibly disposed
+            if (validation == validation_) {
+                return validation;
+            }
+            validation.exit();
+        }
+    }
+
+    /** {@inheritDoc} */
+    public X509Certificate[] getAcceptedIssuers() {
+        return validation_.trustManager_.getAcceptedIssuers();
+    }
+
+    /** {@inheritDoc} */
+    public synchronized TrustStoreStatistics getTrustStoreStatistics() {
+        Validation validation= validation_;
+        return new TrustStoreStatistics(loads_,
+                                        failedLoads_,
+                                        validation.loadDuration_,
+                                        maxLoadDuration_,
+                                        validation.loadTime_,
+                                        validation.trustedIssuers_,
+                                        validation.trustedIssuersSize_);
+    }
+
+    /**
+     * Creates the certificate chain validators of a
+     * {@link ReloadingTrustManager}.
+     */
+    public interface ValidatorFactory {
+
+        /**
+         * Creates a validator, loading the trust store.
+         * 
+         * @return the new validator
+         * @throws RuntimeException
+         *             if the trust store can not be loaded
+         */
+        public X509CertChainValidatorExt createValidator();
+    }
+
+    /**
+     * Listener notified after each reload of a {@link ReloadingTrustManager}.
+     */
+    public interface ReloadListener {
+
+        /**
+         * Called after the trust store was reloaded.
+         */
+        public void reloaded();
+    }
+
+    /** A validator, its trust manager and its load statistics. */
+    private static final class Validation {
+
+        /** The validator */
+        private final X509CertChainValidatorExt validator_;
+
+        /** The trust manager of the validator */
+        private final X509TrustManager trustManager_;
+
+        /** Load duration in millis */
+        private final long loadDuration_;
+
+        /** Load time in millis since the epoch */
+        private final long loadTime_;
+
+        /** Number of trusted CA certificates */
+        private final int trustedIssuers_;
+
+        /** Encoded size of the trusted CA certificates */
+        private final long trustedIssuersSize_;
+
+        /** Number of validations in progress */
+        private final AtomicInteger inProgress_= new AtomicInteger();
+
+        /** Whether the validator is no longer current */
+        private volatile boolean retired_= false;
+
+        /** Whether the validator is disposed */
+        private final AtomicBoolean disposed_= new AtomicBoolean();
+
+        /**
+         * Constructor.
+         * 
+         * @param validator
+         *            the validator
+         * @param trustManager
+         *            the trust manager of the validator
+         * @param loadDuration
+         *            the load duration in millis
+         * @param loadTime
+         *            the load time in millis since the epoch
+         * @param trustedIssuers
+         *            the number of trusted CA certificates
+         * @param trustedIssuersSize
+         *            the encoded size of the trusted CA certificates
+         */
+        private Validation(X509CertChainValidatorExt validator,
+                X509TrustManager trustManager, long loadDuration,
+                long loadTime, int trustedIssuers, long trustedIssuersSize) {
+            validator_= validator;
+            trustManager_= trustManager;
+            loadDuration_= loadDuration;
+            loadTime_= loadTime;
+            trustedIssuers_= trustedIssuers;
+            trustedIssuersSize_= trustedIssuersSize;
+        }
+
+        /**
+         * Marks the validator as no longer current, and disposes it if no
+         * validation is in progress.
+         */
+        private void retire() {
+            retired_= true;
+            if (inProgress_.get() == 0) {
+                dispose();
+            }
+        }
+
+        /**
+         * Ends a validation in progress, and disposes the retired validator
+         * after the last one.
+         */
+        private void exit() {
+            if (inProgress_.decrementAndGet() == 0 && retired_) {
+                dispose();
+            }
+        }
+
+        /** Disposes the validator once. */
+        private void dispose() {
+            if (disposed_.compareAndSet(false, true)) {
+                validator_.dispose();
+            }
+        }
+    }
+}
@@ -0,0 +1,294 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client.tls;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.Enumeration;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509KeyManager;
+import javax.net.ssl.X509TrustManager;
+
+import org.glite.authz.pep.client.metrics.TLSHandshakeMonitor;
+import org.glite.authz.pep.client.metrics.TLSHandshakeStatistics;
+import org.glite.authz.pep.client.metrics.TrustStoreMonitor;
+
+/**
+ * TLS context of the connections to the PEP daemons: an {@link SSLContext}
+ * with its client session cache, counting its full and resumed handshakes.
+ * <p>
+ * The sessions are cached by PEP daemon host and port, and resumed by the
+ * next connections: a TLS 1.2 session id or a TLS 1.3 session ticket skips
+ * the certificate chain validation and the client key signature of a full
+ * handshake. The context can be shared by several clients, see
+ * {@link TLSContextRegistry}.
+ * <p>
+ * The full handshakes are counted by the trust manager, which validates the
+ * PEP daemon certificate chain only in a full handshake.
+ * <p>
+ * The key and trust managers can be reloaded without creating a new
+ * context, see {@link ReloadingKeyManager} and
+ * {@link ReloadingTrustManager}: the next full handshakes use the reloaded
+ * material, and the connections already established are kept. The reloading
+ * key and trust managers are retained by the context until
+ * {@link #dispose()}, see {@link Reloadable}.
+ * <p>
+ * This class is thread-safe.
+ */
+public class TLSContext implements TLSHandshakeMonitor {
+
+    /** Default max number of cached sessions, the JSSE default */
+    public static final int DEFAULT_SESSION_CACHE_SIZE= 20480;
+
+    /** Default time in seconds a cached session can be resumed, one day */
+    public static final int DEFAULT_SESSION_TIMEOUT= 86400;
+
+    /** TLS protocol of the context */
+    private static final String PROTOCOL= "TLS";
+
+    /** The SSL context */
+    private final SSLContext sslContext_;
+
+    /** Number of full handshakes */
+    private final AtomicLong fullHandshakes_= new AtomicLong();
+
+    /** Number of resumed handshakes */
+    private final AtomicLong resumedHandshakes_= new AtomicLong();
+
+    /** Whether the trust manager validated a chain in the current thread */
+    private final ThreadLocal<Boolean> validated_= new ThreadLocal<Boolean>();
+
+    /** Monitor of the trust store, <code>null</code> if none */
+    private final TrustStoreMonitor trustStoreMonitor_;
+
+    /** The retained key material, <code>null</code> if not reloadable */
+    private final Reloadable keyMaterial_;
+
+    /** The retained trust material, <code>null</code> if not reloadable */
+    private final Reloadable trustMaterial_;
+
+    /** Whether the context is disposed */
+    private final AtomicBoolean disposed_= new AtomicBoolean();
+
+    /**
+     * Constructor.
+     * 
+     * @param keyManager
+     *            the client key manager, <code>null</code> if TLS client
+     *            authentication isn't enabled
+     * @param trustManager
+     *            the trust manager validating the PEP daemon certificates
+     * @param sessionCacheSize
+     *            max number of cached sessions, <code>0</code> for no limit
+     * @param sessionTimeout
+     *            time in seconds a cached session can be resumed,
+     *            <code>0</code> for no limit
+     * @throws IllegalArgumentException
+     *             if the SSL context can not be created
+     */
+    public TLSContext(X509KeyManager keyManager, X509TrustManager trustManager,
+            int sessionCacheSize, int sessionTimeout)
+            throws IllegalArgumentException {
+        this(keyManager, trustManager, null, sessionCacheSize, sessionTimeout);
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param keyManager
+     *            the client key manager, <code>null</code> if TLS client
+     *            authentication isn't enabled
+     * @param trustManager
+     *            the trust manager validating the PEP daemon certificates
+     * @param trustStoreMonitor
+     *            the monitor of the trust store of the trust manager,
+     *            <code>null</code> if none. A {@link ReloadingTrustManager}
+     *            is retained, as a {@link ReloadingKeyManager}, until the
+     *            context is disposed
+     * @param sessionCacheSize
+     *            max number of cached sessions, <code>0</code> for no limit
+     * @param sessionTimeout
+     *            time in seconds a cached session can be resumed,
+     *            <code>0</code> for no limit
+     * @throws IllegalArgumentException
+     *             if the SSL context can not be created
+     */
+    public TLSContext(X509KeyManager keyManager, X509TrustManager trustManager,
+            TrustStoreMonitor trustStoreMonitor, int sessionCacheSize,
+            int sessionTimeout) throws IllegalArgumentException {
+        if (trustManager == null) {
+            throw new IllegalArgumentException("Trust manager can not be null");
+        }
+        if (sessionCacheSize < 0 || sessionTimeout < 0) {
+            throw new IllegalArgumentException("Session cache size and timeout can not be negative");
+        }
+        try {
+            KeyManager[] keyManagers= null;
+            if (keyManager != null) {
+                keyManagers= new KeyManager[] { keyManager };
+            }
+            sslContext_= SSLContext.getInstance(PROTOCOL);
+            sslContext_.init(keyManagers,
+                             new TrustManager[] { new CountingTrustManager(trustManager) },
+                             null);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalArgumentException("Error create SSL context", e);
+        }
+        SSLSessionContext sessionContext= sslContext_.getClientSessionContext();
+        sessionContext.setSessionCacheSize(sessionCacheSize);
+        sessionContext.setSessionTimeout(sessionTimeout);
+        if (keyManager instanceof ReloadingKeyManager) {
+            ((ReloadingKeyManager) keyManager).invalidateOnReload(sessionContext);
+        }
+        trustStoreMonitor_= trustStoreMonitor;
+        keyMaterial_= keyManager instanceof Reloadable ? (Reloadable) keyManager : null;
+        trustMaterial_= trustStoreMonitor instanceof Reloadable ? (Reloadable) trustStoreMonitor : null;
+        if (keyMaterial_ != null) {
+            keyMaterial_.retain();
+        }
+        if (trustMaterial_ != null) {
+            trustMaterial_.retain();
+        }
+    }
+
+    /**
+     * Disposes the context: releases its reloading key and trust managers,
+     * whose reloads and watches stop if no other context uses them. The
+     * established connections are not closed.
+     */
+    public void dispose() {
+        if (!disposed_.compareAndSet(false, true)) {
+            return;
+        }
+        if (keyMaterial_ != null) {
+            keyMaterial_.release();
+        }
+        if (trustMaterial_ != null) {
+            trustMaterial_.release();
+        }
+    }
+
+    /**
+     * Returns the monitor of the trust store used by the context, which for
+     * a shared context is the one of the client that created it.
+     * 
+     * @return the trust store monitor, <code>null</code> if none
+     */
+    public TrustStoreMonitor getTrustStoreMonitor() {
+        return trustStoreMonitor_;
+    }
+
+    /**
+     * Returns the SSL context.
+     * 
+     * @return the SSL context
+     */
+    public SSLContext getSSLContext() {
+        return sslContext_;
+    }
+
+    /**
+     * Performs the handshake of a socket created by the SSL context, and
+     * counts it as full or resumed.
+     * 
+     * @param socket
+     *            the connected socket
+     * @throws IOException
+     *             if the handshake fails
+     */
+    public void startHandshake(SSLSocket socket) throws IOException {
+        validated_.set(Boolean.FALSE);
+        try {
+            socket.startHandshake();
+            if (!Boolean.TRUE.equals(validated_.get())) {
+                resumedHandshakes_.incrementAndGet();
+            }
+        } finally {
+            validated_.remove();
+        }
+    }
+
+    /** {@inheritDoc} */
+    public TLSHandshakeStatistics getTLSHandshakeStatistics() {
+        int cachedSessions= 0;
+        Enumeration<byte[]> ids= sslContext_.getClientSessionContext().getIds();
+        while (ids.hasMoreElements()) {
+            ids.nextElement();
+            cachedSessions++;
+        }
+        return new TLSHandshakeStatistics(fullHandshakes_.get(),
+                                          resumedHandshakes_.get(),
+                                          cachedSessions);
+    }
+
+    /**
+     * Trust manager counting the server certificate chain validations, one
+     * per full handshake.
+     * <p>
+     * It is not an <code>X509ExtendedTrustManager</code>, so the JSSE still
+     * performs the endpoint identification and algorithm constraints checks
+     * around the validation.
+     */
+    private final class CountingTrustManager implements X509TrustManager {
+
+        /** The wrapped trust manager */
+        private final X509TrustManager trustManager_;
+
+        /**
+         * Constructor.
+         * 
+         * @param trustManager
+         *            the wrapped trust manager
+         */
+        private CountingTrustManager(X509TrustManager trustManager) {
+            trustManager_= trustManager;
+        }
+
+        /** {@inheritDoc} */
+        public void checkClientTrusted(X509Certificate[] chain, String authType)
+                throws CertificateException {
+            trustManager_.checkClientTrusted(chain, authType);
+        }
+
+        /** {@inheritDoc} */
+        public void checkServerTrusted(X509Certificate[] chain, String authType)
+                throws CertificateException {
+            fullHandshakes_.incrementAndGet();
+            if (validated_.get() != null) {
+                // handshake started by startHandshake(SSLSocket)
+                validated_.set(Boolean.TRUE);
+            }
+            trustManager_.checkServerTrusted(chain, authType);
+        }
+
+        /** {@inheritDoc} */
+        public X509Certificate[] getAcceptedIssuers() {
+            return trustManager_.getAcceptedIssuers();
+        }
+    }
+}
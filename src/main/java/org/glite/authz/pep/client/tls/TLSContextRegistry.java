@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client.tls;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.net.ssl.X509KeyManager;
+import javax.net.ssl.X509TrustManager;
+
+import org.glite.authz.pep.client.metrics.TrustStoreMonitor;
+
+/**
+ * Registry of the {@link TLSContext}s shared by the PEP clients of the JVM.
+ * <p>
+ * The clients configured with the same key and trust material, and the same
+ * session cache settings, share a TLS context, and therefore its session
+ * cache: a session established by one client is resumed by the others. The
+ * material is identified by the files or the key store it was loaded from,
+ * see
+ * {@link org.glite.authz.pep.client.config.PEPClientConfiguration#getTrustMaterialIdentity()}
+ * , and the context is created with the key and trust managers of the first
+ * client. The identities include the validation cache settings and whether
+ * the material is watched, which are those of the managers: the managers of
+ * a shared context are retained, and so watched, until it is disposed, even
+ * after the client that created it is shut down.
+ * <p>
+ * The contexts are reference counted, and removed from the registry and
+ * disposed when the last client using it releases it.
+ * <p>
+ * This class is thread-safe.
+ */
+public final class TLSContextRegistry {
+
+    /** Shared contexts by identity */
+    private final Map<List<Object>, TLSContext> contexts_= new HashMap<List<Object>, TLSContext>();
+
+    /** Identities of the shared contexts */
+    private final Map<TLSContext, List<Object>> identities_= new IdentityHashMap<TLSContext, List<Object>>();
+
+    /** Number of clients using each shared context */
+    private final Map<TLSContext, Integer> references_= new IdentityHashMap<TLSContext, Integer>();
+
+    /** Constructor. */
+    TLSContextRegistry() {
+    }
+
+    /**
+     * Acquires the TLS context shared for the key and trust material, creating
+     * it if needed. It must be released with {@link #release(TLSContext)}.
+     * 
+     * @param keyMaterialIdentity
+     *            identifies the key material, <code>null</code> if TLS client
+     *            authentication isn't enabled
+     * @param trustMaterialIdentity
+     *            identifies the trust material
+     * @param keyManager
+     *            the client key manager, <code>null</code> if TLS client
+     *            authentication isn't enabled
+     * @param trustManager
+     *            the trust manager validating the PEP daemon certificates
+     * @param trustStoreMonitor
+     *            the monitor of the trust store of the trust manager,
+     *            <code>null</code> if none
+     * @param sessionCacheSize
+     *            max number of cached sessions, <code>0</code> for no limit
+     * @param sessionTimeout
+     *            time in seconds a cached session can be resumed,
+     *            <code>0</code> for no limit
+     * @return the shared TLS context
+     * @throws IllegalArgumentException
+     *             if the material can not be identified, or the SSL context
+     *             can not be created
+     */
+    public synchronized TLSContext acquire(Object keyMaterialIdentity,
+            Object trustMaterialIdentity, X509KeyManager keyManager,
+            X509TrustManager trustManager, TrustStoreMonitor trustStoreMonitor,
+            int sessionCacheSize, int sessionTimeout)
+            throws IllegalArgumentException {
+        if (trustMaterialIdentity == null
+                || (keyManager != null && keyMaterialIdentity == null)) {
+            throw new IllegalArgumentException("Key and trust material can not be identified");
+        }
+        List<Object> identity= Arrays.asList(keyMaterialIdentity,
+                                             trustMaterialIdentity,
+                                             Integer.valueOf(sessionCacheSize),
+                                             Integer.valueOf(sessionTimeout));
+        TLSContext context= contexts_.get(identity);
+        if (context == null) {
+            context= new TLSContext(keyManager,
+                                    trustManager,
+                                    trustStoreMonitor,
+                                    sessionCacheSize,
+                                    sessionTimeout);
+            contexts_.put(identity, context);
+            identities_.put(context, identity);
+            references_.put(context, Integer.valueOf(0));
+        }
+        references_.put(context,
+                        Integer.valueOf(references_.get(context).intValue() + 1));
+        return context;
+    }
+
+    /**
+     * Releases a TLS context acquired from the registry. The context is
+     * removed from the registry and disposed when it is no longer used.
+     * 
+     * @param context
+     *            the shared TLS context
+     */
+    public synchronized void release(TLSContext context) {
+        Integer references= references_.get(context);
+        if (references == null) {
+            return;
+        }
+        if (references.intValue() > 1) {
+            references_.put(context, Integer.valueOf(references.intValue() - 1));
+        }
+        else {
+            references_.remove(context);
+            contexts_.remove(identities_.remove(context));
+            context.dispose();
+        }
+    }
+
+    /**
+     * Returns the number of shared TLS contexts in use.
+     * 
+     * @return the number of shared contexts
+     */
+    public synchronized int size() {
+        return contexts_.size();
+    }
+
+    /**
+     * Returns the registry of the JVM.
+     * 
+     * @return the registry
+     */
+    public static TLSContextRegistry getInstance() {
+        return SingletonHolder.INSTANCE;
+    }
+
+    /** Lazy initialization of the singleton. */
+    private static final class SingletonHolder {
+
+        /** Singleton */
+        private static final TLSContextRegistry INSTANCE= new TLSContextRegistry();
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * $Id$
+ */
+package org.glite.authz.pep.client.tls;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Watches the key and trust material files of the PEP clients of the JVM,
+ * and reloads the material when its files change.
+ * <p>
+ * The directory of each watched file is registered in a watch service, and
+ * any change in the directory reloads the material watching it: a
+ * rotation replacing a symbolic link, or renaming a temporary file, is
+ * detected as well as a file rewritten in place. The changes of each
+ * directory are collected until it is quiet for {@link #QUIET_PERIOD}
+ * millis, so that a certificate and its private key rotated one after the
+ * other are reloaded once, and a directory changing continuously does not
+ * delay the reloads of the others. An unchanged material is not swapped, see
+ * {@link Reloadable}.
+ * <p>
+ * A single daemon thread, started by the first watch, polls the changes and
+ * reloads the material. It stops when no directory is watched anymore.
+ * <p>
+ * This class is thread-safe.
+ */
+public final class TLSMaterialWatcher {
+
+    /** Time in millis without change before the material is reloaded */
+    public static final long QUIET_PERIOD= 1000;
+
+    /** Class logger. */
+    private final Log log= LogFactory.getLog(TLSMaterialWatcher.class);
+
+    /** Watched materials by directory */
+    private final Map<Path, Set<Reloadable>> targets_= new HashMap<Path, Set<Reloadable>>();
+
+    /** Watch keys by directory */
+    private final Map<Path, WatchKey> keys_= new HashMap<Path, WatchKey>();
+
+    /** The watch service, <code>null</code> until the first watch */
+    private WatchService watchService_= null;
+
+    /** Constructor. */
+    TLSMaterialWatcher() {
+    }
+
+    /**
+     * Reloads the material when the file, or a file of the directory, changes.
+     * 
+     * @param file
+     *            a material file, or a directory of material files
+     * @param material
+     *            the material to reload
+     * @throws IOException
+     *             if the directory can not be watched
+     */
+    public synchronized void watch(File file, Reloadable material)
+            throws IOException {
+        File absolute= file.getAbsoluteFile();
+        Path directory= (absolute.isDirectory() ? absolute : absolute.getParentFile()).toPath();
+        if (watchService_ == null) {
+            final WatchService watchService= FileSystems.getDefault().newWatchService();
+            watchService_= watchService;
+            Thread thread= new Thread(new Runnable() {
+                public void run() {
+                    poll(watchService);
+                }
+            }, "PEPClient-tls-watcher");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        Set<Reloadable> targets= targets_.get(directory);
+        if (targets == null) {
+            keys_.put(directory, directory.register(watchService_,
+                                                    StandardWatchEventKinds.ENTRY_CREATE,
+                                                    StandardWatchEventKinds.ENTRY_MODIFY,
+                                                    StandardWatchEventKinds.ENTRY_DELETE));
+            targets= new LinkedHashSet<Reloadable>();
+            targets_.put(directory, targets);
+        }
+        targets.add(material);
+        if (log.isDebugEnabled()) {
+            log.debug("Watching " + directory + " for " + file);
+        }
+    }
+
+    /**
+     * Stops reloading the material. The directories no longer watched are
+     * unregistered, and the watcher thread stopped if none is left.
+     * 
+     * @param material
+     *            the material to stop reloading
+     */
+    public synchronized void unwatch(Reloadable material) {
+        Iterator<Map.Entry<Path, Set<Reloadable>>> entries= targets_.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<Path, Set<Reloadable>> entry= entries.next();
+            Set<Reloadable> targets= entry.getValue();
+            targets.remove(material);
+            if (targets.isEmpty()) {
+                keys_.remove(entry.getKey()).cancel();
+                entries.remove();
+            }
+        }
+        if (targets_.isEmpty() && watchService_ != null) {
+            try {
+                watchService_.close();
+            } catch (IOException e) {
+                log.warn("Failed to close the TLS material watch service: " + e.getMessage());
+            }
+            watchService_= null;
+        }
+    }
+
+    /**
+     * Returns the number of watched directories.
+     * 
+     * @return the number of watched directories
+     */
+    public synchronized int size() {
+        return targets_.size();
+    }
+
+    /**
+     * Polls the changes, and reloads the materials of each changed directory
+     * once it is quiet for the quiet period.
+     * 
+     * @param watchService
+     *            the watch service to poll, until closed
+     */
+    private void poll(WatchService watchService) {
+        // time in millis of the last change of each changed directory
+        Map<Path, Long> changes= new HashMap<Path, Long>();
+        try {
+            while (true) {
+                WatchKey key;
+                if (changes.isEmpty()) {
+                    key= watchService.take();
+                }
+                else {
+                    long wait= Collections.min(changes.values()) + QUIET_PERIOD - System.currentTimeMillis();
+                    key= watchService.poll(Math.max(wait, 0), TimeUnit.MILLISECONDS);
+                }
+                long now= System.currentTimeMillis();
+                while (key != null) {
+                    changes.put(collect(key), Long.valueOf(now));
+                    key= watchService.poll();
+                }
+                Set<Reloadable> changed= new LinkedHashSet<Reloadable>();
+                Iterator<Map.Entry<Path, Long>> entries= changes.entrySet().iterator();
+                while (entries.hasNext()) {
+                    Map.Entry<Path, Long> entry= entries.next();
+                    if (entry.getValue().longValue() + QUIET_PERIOD <= now) {
+                        changed.addAll(getTargets(entry.getKey()));
+                        entries.remove();
+                    }
+                }
+                for (Reloadable material : changed) {
+                    try {
+                        material.reload();
+                    } catch (RuntimeException e) {
+                        log.warn("Failed to reload TLS material: " + e.getMessage());
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            log.debug("TLS material watcher interrupted");
+        } catch (ClosedWatchServiceException e) {
+            log.debug("TLS material watcher closed");
+        }
+    }
+
+    /**
+     * Consumes the events of a watch key.
+     * 
+     * @param key
+     *            the signaled watch key
+     * @return the changed directory
+     */
+    private static Path collect(WatchKey key) {
+        key.pollEvents();
+        key.reset();
+        return (Path) key.watchable();
+    }
+
+    /**
+     * Returns the materials watching a directory.
+     * 
+     * @param directory
+     *            the watched directory
+     * @return a copy of the materials, empty if the directory is no longer
+     *         watched
+     */
+    private synchronized Set<Reloadable> getTargets(Path directory) {
+        Set<Reloadable> targets= targets_.get(directory);
+        if (targets == null) {
+            return Collections.emptySet();
+        }
+        return new LinkedHashSet<Reloadable>(targets);
+    }
+
+    /**
+     * Returns the watcher of the JVM.
+     * 
+     * @return the watcher
+     */
+    public static TLSMaterialWatcher getInstance() {
+        return SingletonHolder.INSTANCE;
+    }
+
+    /** Lazy initialization of the singleton. */
+    private static final class SingletonHolder {
+
+        /** Singleton */
+        private static final TLSMaterialWatcher INSTANCE= new TLSMaterialWatcher();
+    }
+}
@@ -147,19 +147,20 @@ public final class CommonXACMLAuthorizationProfile extends
         super(CommonXACMLAuthorizationProfileConstants.COMMON_XACML_AUTHZ_V1_1_PROFILE_ID);
     }
 
-    /** Singleton instance */
-    private static CommonXACMLAuthorizationProfile SINGLETON= null;
+    /** Lazily initialized singleton, lock-free once the class is loaded */
+    private static final class SingletonHolder {
+
+        /** Singleton */
+        private static final CommonXACMLAuthorizationProfile INSTANCE= new CommonXACMLAuthorizationProfile();
+    }
 
     /**
      * Gets the EMI Common XACML Authorization Profile instance
      * 
      * @return
      */
-    public static synchronized CommonXACMLAuthorizationProfile getInstance() {
-        if (SINGLETON == null) {
-            SINGLETON= new CommonXACMLAuthorizationProfile();
-        }
-        return SINGLETON;
+    public static CommonXACMLAuthorizationProfile getInstance() {
+        return SingletonHolder.INSTANCE;
     }
 
 }
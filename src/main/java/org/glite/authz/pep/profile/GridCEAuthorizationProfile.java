@@ -93,8 +93,12 @@ public final class GridCEAuthorizationProfile extends
     public static final String ACTION_SUBSCRIPTION_MANAGE= ACTION_CE_SUBSCRIPTION_PREFIX
             + GLiteAuthorizationProfileConstants.SEPARATOR + "manage";
 
-    /** Singleton */
-    private static GridCEAuthorizationProfile SINGLETON= null;
+    /** Lazily initialized singleton, lock-free once the class is loaded */
+    private static final class SingletonHolder {
+
+        /** Singleton */
+        private static final GridCEAuthorizationProfile INSTANCE= new GridCEAuthorizationProfile();
+    }
 
     /*
      * (non-Javadoc)
@@ -166,10 +170,7 @@ public final class GridCEAuthorizationProfile extends
      * 
      * @return
      */
-    public static synchronized GridCEAuthorizationProfile getInstance() {
-        if (SINGLETON == null) {
-            SINGLETON= new GridCEAuthorizationProfile();
-        }
-        return SINGLETON;
+    public static GridCEAuthorizationProfile getInstance() {
+        return SingletonHolder.INSTANCE;
     }
 }
@@ -34,8 +34,12 @@ import org.glite.authz.common.profile.GLiteAuthorizationProfileConstants;
 public final class GridWNAuthorizationProfile extends
         AbstractAuthorizationProfile {
 
-    /** Singleton */
-    private static GridWNAuthorizationProfile SINGLETON= null;
+    /** Lazily initialized singleton, lock-free once the class is loaded */
+    private static final class SingletonHolder {
+
+        /** Singleton */
+        private static final GridWNAuthorizationProfile INSTANCE= new GridWNAuthorizationProfile();
+    }
 
     /** Action value <b>execute</b>: {@value} */
     public static final String ACTION_EXECUTE= GLiteAuthorizationProfileConstants.NS_ACTION
@@ -106,11 +110,8 @@ public final class GridWNAuthorizationProfile extends
      * 
      * @return
      */
-    public static synchronized GridWNAuthorizationProfile getInstance() {
-        if (SINGLETON == null) {
-            SINGLETON= new GridWNAuthorizationProfile();
-        }
-        return SINGLETON;
+    public static GridWNAuthorizationProfile getInstance() {
+        return SingletonHolder.INSTANCE;
     }
 
     /**
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glite.authz.pep.client;
+
+import junit.framework.TestCase;
+
+/**
+ * DeadlineTestCase
+ */
+public class DeadlineTestCase extends TestCase {
+
+    public void testNone() throws Exception {
+        assertSame(Deadline.NONE, Deadline.after(0));
+        assertTrue(Deadline.NONE.isUnlimited());
+        assertFalse(Deadline.NONE.isExpired());
+        assertEquals(Long.MAX_VALUE, Deadline.NONE.remaining());
+        assertEquals(5000, Deadline.NONE.timeout(5000));
+        assertEquals(0, Deadline.NONE.timeout(0));
+        Deadline.NONE.check("test", null);
+    }
+
+    public void testNegative() {
+        try {
+            Deadline.after(-1);
+            fail("negative timeout");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testTimeout() throws Exception {
+        Deadline deadline= Deadline.after(10000);
+        assertFalse(deadline.isUnlimited());
+        assertEquals(10000, deadline.getTimeout());
+        assertTrue(deadline.remaining() <= 10000);
+        // the configured timeout is shorter
+        assertEquals(500, deadline.timeout(500));
+        // the remaining budget is shorter
+        assertTrue(deadline.timeout(60000) <= 10000);
+        assertTrue(deadline.timeout(0) <= 10000);
+        deadline.check("test", null);
+    }
+
+    public void testExpired() throws Exception {
+        Deadline deadline= Deadline.after(1);
+        Thread.sleep(5);
+        assertTrue(deadline.isExpired());
+        assertEquals(0, deadline.remaining());
+        // a step always gets at least a millisecond
+        assertEquals(1, deadline.timeout(5000));
+        Exception cause= new Exception("attempt failed");
+        try {
+            deadline.check("the next attempt", cause);
+            fail("deadline expired");
+        } catch (PEPClientTimeoutException e) {
+            assertSame(cause, e.getCause());
+            assertTrue(e.getMessage().endsWith("before the next attempt"));
+        }
+    }
+
+    public void testShare() throws Exception {
+        assertSame(Deadline.NONE, Deadline.NONE.share(3));
+        Deadline deadline= Deadline.after(9000);
+        assertSame(deadline, deadline.share(1));
+        Deadline attempt= deadline.share(3);
+        assertTrue(attempt.remaining() <= 3000);
+        assertTrue(attempt.remaining() > 2000);
+        assertTrue(attempt.timeout(0) <= 3000);
+        assertFalse(attempt.isExpired());
+    }
+}
@@ -22,6 +22,10 @@ import java.io.File;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import junit.framework.TestCase;
 
@@ -31,6 +35,10 @@ import org.glite.authz.common.model.Response;
 import org.glite.authz.common.security.PEMFileReader;
 import org.glite.authz.pep.client.PEPClient;
 import org.glite.authz.pep.client.config.PEPClientConfiguration;
+import org.glite.authz.pep.client.http.HttpTransportType;
+import org.glite.authz.pep.pip.PIPException;
+import org.glite.authz.pep.pip.PIPProcessingException;
+import org.glite.authz.pep.pip.PolicyInformationPoint;
 import org.glite.authz.pep.profile.AuthorizationProfile;
 import org.glite.authz.pep.profile.GridWNAuthorizationProfile;
 
@@ -63,6 +71,60 @@ public class PEPClientTestCase extends TestCase {
         System.out.println("Online tests are disabled!");
     }
 
+    public void testAuthorizeAsyncFailure() throws Exception {
+        PEPClientConfiguration config= new PEPClientConfiguration();
+        config.addPEPDaemonEndpoint("http://localhost:1/authz");
+        PEPClient client= new PEPClient(config);
+        CompletableFuture<Response> future= client.authorizeAsync(new Request());
+        try {
+            future.get(30, TimeUnit.SECONDS);
+            fail("PEP daemon is not available");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof PEPClientException);
+        } finally {
+            client.shutdown();
+        }
+    }
+
+    public void testAuthorizeJdkTransportFailure() throws Exception {
+        PEPClientConfiguration config= new PEPClientConfiguration();
+        config.addPEPDaemonEndpoint("http://localhost:1/authz");
+        config.setHttpTransportType(HttpTransportType.JDK_HTTPCLIENT);
+        PEPClient client= new PEPClient(config);
+        try {
+            client.authorize(new Request());
+            fail("PEP daemon is not available");
+        } catch (PEPClientException e) {
+            assertNotNull(e.getCause());
+        } finally {
+            client.shutdown();
+        }
+    }
+
+    public void testAuthorizeAsyncMaxRequests() throws Exception {
+        CountDownLatch latch= new CountDownLatch(1);
+        PEPClientConfiguration config= new PEPClientConfiguration();
+        config.addPEPDaemonEndpoint("http://localhost:1/authz");
+        config.addPolicyInformationPoint(new BlockingPIP(latch));
+        config.setMaxAsyncRequests(1);
+        PEPClient client= new PEPClient(config);
+        try {
+            CompletableFuture<Response> first= client.authorizeAsync(new Request());
+            CompletableFuture<Response> second= client.authorizeAsync(new Request());
+            assertTrue(second.isCompletedExceptionally());
+            assertFalse(first.isDone());
+            latch.countDown();
+            try {
+                first.get(30, TimeUnit.SECONDS);
+                fail("PEP daemon is not available");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof PEPClientException);
+            }
+        } finally {
+            client.shutdown();
+        }
+    }
+
     /**
      * @throws Exception
      * @throws CertificateException
@@ -130,5 +192,71 @@ public class PEPClientTestCase extends TestCase {
         }
     }
 
+    public void testAuthorizeAllKeepsOrder() throws Exception {
+        PEPClientConfiguration config= new PEPClientConfiguration();
+        config.addPEPDaemonEndpoint("http://localhost:1/authz");
+        config.setBatchParallelism(2);
+        PEPClient client= new PEPClient(config);
+        try {
+            AuthorizationProfile profile= GridWNAuthorizationProfile.getInstance();
+            Request request1= profile.createRequest(profile.createSubjectId("CN=John Doe"),
+                                                    profile.createResourceId("switch"),
+                                                    profile.createActionId("submit"));
+            Request request2= profile.createRequest(profile.createSubjectId("CN=Jane Doe"),
+                                                    profile.createResourceId("switch"),
+                                                    profile.createActionId("submit"));
+            Request request3= profile.createRequest(profile.createSubjectId("CN=John Doe"),
+                                                    profile.createResourceId("switch"),
+                                                    profile.createActionId("submit"));
+            List<AuthorizationOutcome> outcomes= client.authorizeAll(Arrays.asList(request1,
+                                                                                   request2,
+                                                                                   request3));
+            assertEquals(3, outcomes.size());
+            for (AuthorizationOutcome outcome : outcomes) {
+                assertFalse(outcome.isSuccess());
+                assertNotNull(outcome.getException());
+            }
+            assertSame(request1, outcomes.get(0).getRequest());
+            assertSame(request2, outcomes.get(1).getRequest());
+            assertSame(request3, outcomes.get(2).getRequest());
+            // identical requests are authorized once
+            assertSame(outcomes.get(0).getException(),
+                       outcomes.get(2).getException());
+            assertNotSame(outcomes.get(0).getException(),
+                          outcomes.get(1).getException());
+        } finally {
+            client.shutdown();
+        }
+    }
+
+    /** PIP blocking until the latch is released */
+    private static class BlockingPIP implements PolicyInformationPoint {
+
+        private CountDownLatch latch_;
+
+        BlockingPIP(CountDownLatch latch) {
+            latch_= latch;
+        }
+
+        public String getId() {
+            return "BlockingPIP";
+        }
+
+        public void start() throws PIPException {
+        }
+
+        public void stop() throws PIPException {
+        }
+
+        public boolean populateRequest(Request request)
+                throws PIPProcessingException {
+            try {
+                latch_.await();
+            } catch (InterruptedException e) {
+                throw new PIPProcessingException("interrupted", e);
+            }
+            return false;
+        }
+    }
 
 }
@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glite.authz.pep.client.cache;
+
+import junit.framework.TestCase;
+
+import org.glite.authz.common.model.Action;
+import org.glite.authz.common.model.Attribute;
+import org.glite.authz.common.model.Obligation;
+import org.glite.authz.common.model.Request;
+import org.glite.authz.common.model.Resource;
+import org.glite.authz.common.model.Response;
+import org.glite.authz.common.model.Result;
+import org.glite.authz.common.model.Subject;
+
+/**
+ * JUnit to test the {@link DecisionCache} and the {@link RequestKey}.
+ */
+public class DecisionCacheTestCase extends TestCase {
+
+    private Request createRequest(String subjectId, String... values) {
+        Subject subject= new Subject();
+        Attribute subjectIdAttribute= new Attribute(Attribute.ID_SUB_ID,
+                                                    Attribute.DT_X500_NAME);
+        subjectIdAttribute.getValues().add(subjectId);
+        subject.getAttributes().add(subjectIdAttribute);
+        Attribute fqans= new Attribute("http://glite.org/xacml/attribute/fqan",
+                                       Attribute.DT_STRING);
+        for (String value : values) {
+            fqans.getValues().add(value);
+        }
+        subject.getAttributes().add(fqans);
+        Resource resource= new Resource();
+        Attribute resourceId= new Attribute(Attribute.ID_RES_ID,
+                                            Attribute.DT_STRING);
+        resourceId.getValues().add("switch");
+        resource.getAttributes().add(resourceId);
+        Action action= new Action();
+        Attribute actionId= new Attribute(Attribute.ID_ACT_ID,
+                                          Attribute.DT_STRING);
+        actionId.getValues().add("submit");
+        action.getAttributes().add(actionId);
+        Request request= new Request();
+        request.getSubjects().add(subject);
+        request.getResources().add(resource);
+        request.setAction(action);
+        return request;
+    }
+
+    private Response createResponse(int decision) {
+        Response response= new Response();
+        Result result= new Result();
+        result.setDecision(decision);
+        result.setResourceId("switch");
+        Obligation obligation= new Obligation();
+        obligation.setId("http://glite.org/xacml/obligation/local-environment-map/posix");
+        obligation.setFulfillOn(decision);
+        result.getObligations().add(obligation);
+        response.getResults().add(result);
+        return response;
+    }
+
+    public void testRequestKeyIgnoresValueOrder() {
+        RequestKey key1= RequestKey.create(createRequest("CN=John Doe", "/atlas", "/atlas/production"));
+        RequestKey key2= RequestKey.create(createRequest("CN=John Doe", "/atlas/production", "/atlas"));
+        RequestKey key3= RequestKey.create(createRequest("CN=Jane Doe", "/atlas", "/atlas/production"));
+        assertEquals(key1, key2);
+        assertEquals(key1.hashCode(), key2.hashCode());
+        assertFalse(key1.equals(key3));
+        assertEquals(64, key1.toString().length());
+    }
+
+    public void testRequestKeyDistinguishesNullFromEmpty() {
+        RequestKey nullValue= RequestKey.create(createRequest("CN=John Doe",
+                                                              "/atlas",
+                                                              null));
+        RequestKey emptyValue= RequestKey.create(createRequest("CN=John Doe",
+                                                               "/atlas",
+                                                               ""));
+        assertFalse(nullValue.equals(emptyValue));
+        assertEquals(nullValue,
+                     RequestKey.create(createRequest("CN=John Doe",
+                                                     null,
+                                                     "/atlas")));
+    }
+
+    public void testGetReturnsIndependentCopies() {
+        DecisionCache cache= new DecisionCache(10, 60000);
+        RequestKey key= RequestKey.create(createRequest("CN=John Doe"));
+        assertNull(cache.get(key));
+        assertTrue(cache.put(key, createResponse(Result.DECISION_PERMIT)));
+        Response first= cache.get(key);
+        assertNotNull(first);
+        // obligation handlers may alter the returned response
+        first.getResults().get(0).getObligations().clear();
+        Response second= cache.get(key);
+        assertNotSame(first, second);
+        assertEquals(Result.DECISION_PERMIT,
+                     second.getResults().get(0).getDecision());
+        assertEquals(1, second.getResults().get(0).getObligations().size());
+        assertEquals(2, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    public void testIndeterminateIsNotCached() {
+        DecisionCache cache= new DecisionCache(10, 60000);
+        RequestKey key= RequestKey.create(createRequest("CN=John Doe"));
+        assertFalse(cache.put(key,
+                              createResponse(Result.DECISION_INDETERMINATE)));
+        assertFalse(cache.put(key, new Response()));
+        assertEquals(0, cache.size());
+    }
+
+    public void testLeastRecentlyUsedIsEvicted() {
+        DecisionCache cache= new DecisionCache(2, 60000);
+        RequestKey key1= RequestKey.create(createRequest("CN=One"));
+        RequestKey key2= RequestKey.create(createRequest("CN=Two"));
+        RequestKey key3= RequestKey.create(createRequest("CN=Three"));
+        cache.put(key1, createResponse(Result.DECISION_PERMIT));
+        cache.put(key2, createResponse(Result.DECISION_DENY));
+        assertNotNull(cache.get(key1));
+        cache.put(key3, createResponse(Result.DECISION_PERMIT));
+        assertEquals(2, cache.size());
+        assertNotNull(cache.get(key1));
+        assertNull(cache.get(key2));
+        assertNotNull(cache.get(key3));
+    }
+
+    public void testExpiredEntryIsRemoved() throws InterruptedException {
+        DecisionCache cache= new DecisionCache(10, 20);
+        RequestKey key= RequestKey.create(createRequest("CN=John Doe"));
+        cache.put(key, createResponse(Result.DECISION_PERMIT));
+        assertNotNull(cache.get(key));
+        Thread.sleep(50);
+        assertNull(cache.get(key));
+        assertEquals(0, cache.size());
+    }
+}
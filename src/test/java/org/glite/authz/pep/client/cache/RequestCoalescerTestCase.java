@@ -0,0 +1,236 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glite.authz.pep.client.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.glite.authz.common.model.Request;
+import org.glite.authz.common.model.Response;
+import org.glite.authz.common.model.Result;
+import org.glite.authz.pep.client.Deadline;
+import org.glite.authz.pep.client.PEPClientException;
+import org.glite.authz.pep.client.PEPClientTimeoutException;
+
+/**
+ * JUnit to test the {@link RequestCoalescer}.
+ */
+public class RequestCoalescerTestCase extends TestCase {
+
+    private static final int THREADS= 8;
+
+    private final RequestKey key_= RequestKey.create(new Request());
+
+    private Response createResponse() {
+        Result result= new Result();
+        result.setDecision(Result.DECISION_PERMIT);
+        Response response= new Response();
+        response.getResults().add(result);
+        return response;
+    }
+
+    public void testIdenticalRequestsShareOneCall() throws Exception {
+        final RequestCoalescer coalescer= new RequestCoalescer();
+        final AtomicInteger calls= new AtomicInteger();
+        final CountDownLatch release= new CountDownLatch(1);
+        final RequestCoalescer.Call call= new RequestCoalescer.Call() {
+            public Response call() throws PEPClientException {
+                calls.incrementAndGet();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new PEPClientException(e);
+                }
+                return createResponse();
+            }
+        };
+        final List<Response> responses= new ArrayList<Response>();
+        List<Thread> threads= new ArrayList<Thread>();
+        for (int i= 0; i < THREADS; i++) {
+            Thread thread= new Thread() {
+                public void run() {
+                    try {
+                        Response response= coalescer.execute(key_, call);
+                        synchronized (responses) {
+                            responses.add(response);
+                        }
+                    } catch (PEPClientException e) {
+                        fail(e.getMessage());
+                    }
+                }
+            };
+            threads.add(thread);
+            thread.start();
+        }
+        // wait for all the threads to join the call in progress
+        long deadline= System.currentTimeMillis() + 10000;
+        while (coalescer.getCoalesced() < THREADS - 1
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        release.countDown();
+        for (Thread thread : threads) {
+            thread.join(10000);
+        }
+        assertEquals(1, calls.get());
+        assertEquals(THREADS, responses.size());
+        for (int i= 0; i < THREADS; i++) {
+            Response response= responses.get(i);
+            assertEquals(Result.DECISION_PERMIT,
+                         response.getResults().get(0).getDecision());
+            for (int j= 0; j < i; j++) {
+                assertNotSame(responses.get(j), response);
+            }
+        }
+
+        // call completed, next request performs a new call
+        coalescer.execute(key_, call);
+        assertEquals(2, calls.get());
+    }
+
+    public void testFailureShared() throws Exception {
+        final RequestCoalescer coalescer= new RequestCoalescer();
+        final CountDownLatch started= new CountDownLatch(1);
+        final CountDownLatch release= new CountDownLatch(1);
+        Thread leader= new Thread() {
+            public void run() {
+                try {
+                    coalescer.execute(key_, new RequestCoalescer.Call() {
+                        public Response call() throws PEPClientException {
+                            started.countDown();
+                            try {
+                                release.await(10, TimeUnit.SECONDS);
+                            } catch (InterruptedException e) {
+                                // ignored
+                            }
+                            throw new PEPClientException("PEP daemon down");
+                        }
+                    });
+                } catch (PEPClientException e) {
+                    // expected
+                }
+            }
+        };
+        leader.start();
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        Thread releaser= new Thread() {
+            public void run() {
+                long deadline= System.currentTimeMillis() + 10000;
+                while (coalescer.getCoalesced() < 1
+                        && System.currentTimeMillis() < deadline) {
+                    try {
+                        Thread.sleep(10);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                release.countDown();
+            }
+        };
+        releaser.start();
+        try {
+            coalescer.execute(key_, new RequestCoalescer.Call() {
+                public Response call() throws PEPClientException {
+                    fail("call must be shared");
+                    return null;
+                }
+            });
+            fail("PEPClientException expected");
+        } catch (PEPClientException e) {
+            assertEquals("PEP daemon down", e.getCause().getMessage());
+        }
+        leader.join(10000);
+        releaser.join(10000);
+    }
+
+    private Thread startLeader(final RequestCoalescer coalescer,
+            final Deadline deadline, final CountDownLatch started) {
+        Thread leader= new Thread() {
+            public void run() {
+                try {
+                    coalescer.execute(key_, new RequestCoalescer.Call() {
+                        public Response call() throws PEPClientException {
+                            started.countDown();
+                            long end= System.currentTimeMillis() + 10000;
+                            while (coalescer.getCoalesced() < 1
+                                    && System.currentTimeMillis() < end) {
+                                try {
+                                    Thread.sleep(10);
+                                } catch (InterruptedException e) {
+                                    break;
+                                }
+                            }
+                            // the leader ran out of its own budget
+                            throw new PEPClientTimeoutException("leader deadline exceeded");
+                        }
+                    }, deadline);
+                } catch (PEPClientException e) {
+                    // expected
+                }
+            }
+        };
+        leader.start();
+        return leader;
+    }
+
+    public void testLeaderTimeoutRetriedByFollower() throws Exception {
+        final RequestCoalescer coalescer= new RequestCoalescer();
+        final CountDownLatch started= new CountDownLatch(1);
+        Thread leader= startLeader(coalescer, Deadline.after(100), started);
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        final AtomicInteger calls= new AtomicInteger();
+        Response response= coalescer.execute(key_,
+                                             new RequestCoalescer.Call() {
+                                                 public Response call()
+                                                         throws PEPClientException {
+                                                     calls.incrementAndGet();
+                                                     return createResponse();
+                                                 }
+                                             },
+                                             Deadline.after(10000));
+        assertEquals(Result.DECISION_PERMIT,
+                     response.getResults().get(0).getDecision());
+        // the follower performed the call again as leader
+        assertEquals(1, calls.get());
+        leader.join(10000);
+    }
+
+    public void testLeaderTimeoutPropagatedOnExpiredDeadline()
+            throws Exception {
+        final RequestCoalescer coalescer= new RequestCoalescer();
+        final CountDownLatch started= new CountDownLatch(1);
+        Thread leader= startLeader(coalescer, Deadline.after(100), started);
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        try {
+            coalescer.execute(key_, new RequestCoalescer.Call() {
+                public Response call() throws PEPClientException {
+                    fail("deadline expired, call not performed again");
+                    return null;
+                }
+            }, Deadline.after(1));
+            fail("PEPClientTimeoutException expected");
+        } catch (PEPClientTimeoutException e) {
+            // expected
+        }
+        leader.join(10000);
+    }
+}
@@ -0,0 +1,700 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glite.authz.pep.client.daemon;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.SSLContext;
+
+import org.glite.authz.common.model.Obligation;
+import org.glite.authz.common.model.Request;
+import org.glite.authz.common.model.Response;
+import org.glite.authz.common.model.Result;
+import org.glite.authz.common.model.Status;
+import org.glite.authz.common.model.StatusCode;
+import org.glite.authz.common.util.Base64;
+
+import com.caucho.hessian.io.HessianInput;
+import com.caucho.hessian.io.HessianOutput;
+
+/**
+ * In-process stand-in of the PEP daemon, for the network, resilience and
+ * load tests of the PEP client.
+ * <p>
+ * The daemon speaks the PEP daemon protocol: a base64 encoded Hessian
+ * serialized request POSTed over HTTP/1.1 (with keep-alive) or HTTPS, and
+ * a base64 encoded Hessian serialized response. The decisions are scripted
+ * with a {@link Responder}, and latency and {@link Fault}s can be injected,
+ * either scripted for the next requests or randomly at a given rate.
+ * <p>
+ * The daemon listens on an ephemeral port of the loopback interface.
+ */
+public class EmbeddedPEPDaemon {
+
+    /** Path of the authorization service */
+    public static final String PATH= "/authz";
+
+    /** Maximal length of a request or header line */
+    private static final int MAX_LINE_LENGTH= 8192;
+
+    /** TLS context, <code>null</code> for plain HTTP */
+    private final SSLContext sslContext_;
+
+    /** Listening socket */
+    private ServerSocket serverSocket_= null;
+
+    /** Connection handlers */
+    private ExecutorService executor_= null;
+
+    /** Open connections */
+    private final Set<Socket> connections_= ConcurrentHashMap.newKeySet();
+
+    /** Scripted decisions */
+    private volatile Responder responder_= permit();
+
+    /** Injected latency */
+    private volatile LatencyDistribution latency_= LatencyDistribution.NONE;
+
+    /** Random faults rates */
+    private final Map<Fault, Double> faultRates_= new ConcurrentHashMap<Fault, Double>();
+
+    /** Scripted faults of the next requests */
+    private final Queue<Fault> scriptedFaults_= new ConcurrentLinkedQueue<Fault>();
+
+    /** HTTP status of the {@link Fault#HTTP_ERROR} fault */
+    private volatile int httpErrorStatus_= 503;
+
+    /** Chunk size of the {@link Fault#SLOW_RESPONSE} fault */
+    private volatile int slowChunkSize_= 16;
+
+    /** Delay between chunks of the {@link Fault#SLOW_RESPONSE} fault */
+    private volatile long slowChunkDelay_= 50;
+
+    /** Idle time in millis after which a connection is closed, 0 for none */
+    private volatile int keepAliveTimeout_= 0;
+
+    /** Random generator for latencies and faults */
+    private final Random random_= new Random();
+
+    /** Number of requests read */
+    private final AtomicInteger requestCount_= new AtomicInteger();
+
+    /** Number of accepted connections */
+    private final AtomicInteger connectionCount_= new AtomicInteger();
+
+    /** Number of injected faults */
+    private final AtomicInteger faultCount_= new AtomicInteger();
+
+    /**
+     * Constructor of a plain HTTP daemon.
+     */
+    public EmbeddedPEPDaemon() {
+        this(null);
+    }
+
+    /**
+     * Constructor of an HTTPS daemon.
+     * 
+     * @param sslContext
+     *            the TLS context with the server credential, or
+     *            <code>null</code> for plain HTTP
+     */
+    public EmbeddedPEPDaemon(SSLContext sslContext) {
+        sslContext_= sslContext;
+    }
+
+    /**
+     * Starts listening on an ephemeral port.
+     * 
+     * @throws IOException
+     *             if the server socket can not be created
+     */
+    public synchronized void start() throws IOException {
+        if (serverSocket_ != null) {
+            throw new IllegalStateException("daemon already started");
+        }
+        InetAddress loopback= InetAddress.getByName("127.0.0.1");
+        if (sslContext_ != null) {
+            serverSocket_= sslContext_.getServerSocketFactory().createServerSocket(0,
+                                                                                   128,
+                                                                                   loopback);
+        }
+        else {
+            serverSocket_= new ServerSocket(0, 128, loopback);
+        }
+        final String name= "EmbeddedPEPDaemon-" + serverSocket_.getLocalPort();
+        executor_= Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger threadNumber_= new AtomicInteger(1);
+
+            public Thread newThread(Runnable runnable) {
+                Thread thread= new Thread(runnable, name + "-"
+                        + threadNumber_.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        final ServerSocket serverSocket= serverSocket_;
+        executor_.execute(new Runnable() {
+            public void run() {
+                accept(serverSocket);
+            }
+        });
+    }
+
+    /**
+     * Stops the daemon, closing the listening socket and all the open
+     * connections.
+     */
+    public synchronized void stop() {
+        if (serverSocket_ == null) {
+            return;
+        }
+        closeQuietly(serverSocket_);
+        for (Socket socket : connections_) {
+            closeQuietly(socket);
+        }
+        executor_.shutdownNow();
+        try {
+            executor_.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        serverSocket_= null;
+        executor_= null;
+    }
+
+    /**
+     * Returns the PEP daemon endpoint URL.
+     * 
+     * @return the endpoint URL
+     */
+    public synchronized String getEndpoint() {
+        if (serverSocket_ == null) {
+            throw new IllegalStateException("daemon not started");
+        }
+        return (sslContext_ != null ? "https" : "http") + "://127.0.0.1:"
+                + serverSocket_.getLocalPort() + PATH;
+    }
+
+    /**
+     * Sets the scripted decisions.
+     * 
+     * @param responder
+     *            the responder
+     */
+    public void setResponder(Responder responder) {
+        if (responder == null) {
+            throw new IllegalArgumentException("responder can not be null");
+        }
+        responder_= responder;
+    }
+
+    /**
+     * Sets the latency injected before answering a request.
+     * 
+     * @param latency
+     *            the latency distribution
+     */
+    public void setLatency(LatencyDistribution latency) {
+        if (latency == null) {
+            throw new IllegalArgumentException("latency can not be null");
+        }
+        latency_= latency;
+    }
+
+    /**
+     * Sets the rate at which a fault is randomly injected.
+     * 
+     * @param fault
+     *            the fault
+     * @param rate
+     *            the rate, between 0 (never) and 1 (always)
+     */
+    public void setFaultRate(Fault fault, double rate) {
+        if (rate < 0 || rate > 1) {
+            throw new IllegalArgumentException("rate must be between 0 and 1");
+        }
+        faultRates_.put(fault, Double.valueOf(rate));
+    }
+
+    /**
+     * Injects the fault in the next requests, before any random fault.
+     * 
+     * @param fault
+     *            the fault
+     * @param count
+     *            the number of requests affected
+     */
+    public void scheduleFault(Fault fault, int count) {
+        for (int i= 0; i < count; i++) {
+            scriptedFaults_.add(fault);
+        }
+    }
+
+    /**
+     * Sets the HTTP status of the {@link Fault#HTTP_ERROR} fault. Default is
+     * 503.
+     * 
+     * @param status
+     *            the HTTP status
+     */
+    public void setHttpErrorStatus(int status) {
+        if (status < 400 || status > 599) {
+            throw new IllegalArgumentException("status must be an HTTP error status");
+        }
+        httpErrorStatus_= status;
+    }
+
+    /**
+     * Sets the pace of the {@link Fault#SLOW_RESPONSE} fault. Default is 16
+     * bytes each 50 milliseconds.
+     * 
+     * @param chunkSize
+     *            the number of bytes written at once
+     * @param chunkDelay
+     *            the delay between two chunks in milliseconds
+     */
+    public void setSlowResponse(int chunkSize, long chunkDelay) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("chunkSize must be greater than 0");
+        }
+        if (chunkDelay < 0) {
+            throw new IllegalArgumentException("chunkDelay can not be negative");
+        }
+        slowChunkSize_= chunkSize;
+        slowChunkDelay_= chunkDelay;
+    }
+
+    /**
+     * Sets the time after which an idle keep-alive connection is closed,
+     * without notice to the client, as a PEP daemon does.
+     * 
+     * @param timeout
+     *            the keep-alive timeout in millis, <code>0</code> for none
+     */
+    public void setKeepAliveTimeout(int timeout) {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("timeout can not be negative");
+        }
+        keepAliveTimeout_= timeout;
+    }
+
+    /**
+     * Sets the seed of the random generator, to reproduce a run.
+     * 
+     * @param seed
+     *            the seed
+     */
+    public void setSeed(long seed) {
+        random_.setSeed(seed);
+    }
+
+    /**
+     * Returns the number of requests read, including the faulted ones.
+     * 
+     * @return the request count
+     */
+    public int getRequestCount() {
+        return requestCount_.get();
+    }
+
+    /**
+     * Returns the number of accepted connections.
+     * 
+     * @return the connection count
+     */
+    public int getConnectionCount() {
+        return connectionCount_.get();
+    }
+
+    /**
+     * Returns the number of injected faults.
+     * 
+     * @return the fault count
+     */
+    public int getFaultCount() {
+        return faultCount_.get();
+    }
+
+    /**
+     * Returns a responder permitting all requests, without obligation.
+     * 
+     * @return the responder
+     */
+    public static Responder permit() {
+        return decision(Result.DECISION_PERMIT);
+    }
+
+    /**
+     * Returns a responder answering all requests with the decision and
+     * obligations.
+     * 
+     * @param decision
+     *            the decision, see {@link Result}
+     * @param obligations
+     *            the obligations of the result
+     * @return the responder
+     */
+    public static Responder decision(final int decision,
+            final Obligation... obligations) {
+        return new Responder() {
+            public Response respond(Request request) {
+                StatusCode code= new StatusCode();
+                code.setCode(StatusCode.SC_OK);
+                Status status= new Status();
+                status.setCode(code);
+                Result result= new Result();
+                result.setDecision(decision);
+                result.setStatus(status);
+                for (Obligation obligation : obligations) {
+                    result.getObligations().add(obligation);
+                }
+                Response response= new Response();
+                response.setRequest(request);
+                response.getResults().add(result);
+                return response;
+            }
+        };
+    }
+
+    /**
+     * Accepts the connections until the server socket is closed.
+     */
+    private void accept(ServerSocket serverSocket) {
+        while (!serverSocket.isClosed()) {
+            final Socket socket;
+            try {
+                socket= serverSocket.accept();
+            } catch (IOException e) {
+                // closed
+                return;
+            }
+            connectionCount_.incrementAndGet();
+            connections_.add(socket);
+            try {
+                executor_.execute(new Runnable() {
+                    public void run() {
+                        serve(socket);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                connections_.remove(socket);
+                closeQuietly(socket);
+            }
+        }
+    }
+
+    /**
+     * Serves the requests of a connection until it is closed.
+     */
+    private void serve(Socket socket) {
+        try {
+            socket.setTcpNoDelay(true);
+            InputStream in= new BufferedInputStream(socket.getInputStream());
+            OutputStream out= new BufferedOutputStream(socket.getOutputStream());
+            boolean keepAlive= true;
+            while (keepAlive) {
+                // an idle timeout closes the connection
+                socket.setSoTimeout(keepAliveTimeout_);
+                String requestLine= readLine(in);
+                if (requestLine == null) {
+                    return;
+                }
+                socket.setSoTimeout(0);
+                Map<String, String> headers= readHeaders(in);
+                byte[] body= readBody(in, headers);
+                requestCount_.incrementAndGet();
+                keepAlive= !"close".equalsIgnoreCase(headers.get("connection"));
+                if (requestLine.startsWith("HEAD ")) {
+                    // no body in a HEAD response
+                    writeResponse(out,
+                                  405,
+                                  "text/plain",
+                                  new byte[0],
+                                  keepAlive,
+                                  false);
+                    continue;
+                }
+                if (!requestLine.startsWith("POST ")) {
+                    writeResponse(out,
+                                  405,
+                                  "text/plain",
+                                  "POST only".getBytes("UTF-8"),
+                                  keepAlive,
+                                  false);
+                    continue;
+                }
+                Fault fault= nextFault();
+                sleep(latency_.nextDelay(random_));
+                if (fault == Fault.CONNECTION_RESET) {
+                    socket.setSoLinger(true, 0);
+                    return;
+                }
+                if (fault == Fault.NO_RESPONSE) {
+                    // until the client gives up or the daemon is stopped
+                    while (in.read() != -1) {
+                        // discard
+                    }
+                    return;
+                }
+                if (fault == Fault.HTTP_ERROR) {
+                    writeResponse(out,
+                                  httpErrorStatus_,
+                                  "text/plain",
+                                  "injected fault".getBytes("UTF-8"),
+                                  keepAlive,
+                                  false);
+                    continue;
+                }
+                byte[] content;
+                try {
+                    content= encode(responder_.respond(decode(body)));
+                } catch (IOException e) {
+                    writeResponse(out,
+                                  400,
+                                  "text/plain",
+                                  e.toString().getBytes("UTF-8"),
+                                  keepAlive,
+                                  false);
+                    continue;
+                }
+                writeResponse(out,
+                              200,
+                              "application/octet-stream",
+                              content,
+                              keepAlive,
+                              fault == Fault.SLOW_RESPONSE);
+            }
+        } catch (IOException e) {
+            // connection closed or reset by the client, or daemon stopped
+        } catch (InterruptedException e) {
+            // daemon stopped
+        } finally {
+            connections_.remove(socket);
+            closeQuietly(socket);
+        }
+    }
+
+    /**
+     * Returns the fault to inject, or <code>null</code>.
+     */
+    private Fault nextFault() {
+        Fault fault= scriptedFaults_.poll();
+        if (fault == null) {
+            for (Map.Entry<Fault, Double> rate : faultRates_.entrySet()) {
+                if (random_.nextDouble() < rate.getValue().doubleValue()) {
+                    fault= rate.getKey();
+                    break;
+                }
+            }
+        }
+        if (fault != null) {
+            faultCount_.incrementAndGet();
+        }
+        return fault;
+    }
+
+    private static void sleep(long delay) throws InterruptedException {
+        if (delay > 0) {
+            Thread.sleep(delay);
+        }
+    }
+
+    /**
+     * Deserializes the base64 encoded Hessian request.
+     */
+    private static Request decode(byte[] body) throws IOException {
+        InputStream is= new Base64.InputStream(new ByteArrayInputStream(body));
+        HessianInput hin= new HessianInput(is);
+        Object request= hin.readObject(Request.class);
+        if (!(request instanceof Request)) {
+            throw new IOException("request body is not an authorization request");
+        }
+        return (Request) request;
+    }
+
+    /**
+     * Serializes the response to base64 encoded Hessian.
+     */
+    private static byte[] encode(Response response) throws IOException {
+        ByteArrayOutputStream out= new ByteArrayOutputStream();
+        HessianOutput hout= new HessianOutput(out);
+        hout.writeObject(response);
+        hout.flush();
+        return Base64.encodeBytes(out.toByteArray()).getBytes("UTF-8");
+    }
+
+    /**
+     * Writes the HTTP response, trickling the content if slow.
+     */
+    private void writeResponse(OutputStream out, int status,
+            String contentType, byte[] content, boolean keepAlive,
+            boolean slow) throws IOException, InterruptedException {
+        StringBuilder head= new StringBuilder();
+        head.append("HTTP/1.1 ").append(status).append(' ').append(status == 200 ? "OK"
+                : "Error").append("\r\n");
+        head.append("Content-Type: ").append(contentType).append("\r\n");
+        head.append("Content-Length: ").append(content.length).append("\r\n");
+        if (!keepAlive) {
+            head.append("Connection: close\r\n");
+        }
+        head.append("\r\n");
+        out.write(head.toString().getBytes("ISO-8859-1"));
+        if (slow) {
+            int chunkSize= slowChunkSize_;
+            long chunkDelay= slowChunkDelay_;
+            for (int offset= 0; offset < content.length; offset+= chunkSize) {
+                out.flush();
+                sleep(chunkDelay);
+                out.write(content,
+                          offset,
+                          Math.min(chunkSize, content.length - offset));
+            }
+        }
+        else {
+            out.write(content);
+        }
+        out.flush();
+    }
+
+    /**
+     * Reads the header lines, names in lower case.
+     */
+    private static Map<String, String> readHeaders(InputStream in)
+            throws IOException {
+        Map<String, String> headers= new HashMap<String, String>();
+        String line;
+        while ((line= readLine(in)) != null && line.length() > 0) {
+            int colon= line.indexOf(':');
+            if (colon > 0) {
+                headers.put(line.substring(0, colon).trim().toLowerCase(),
+                            line.substring(colon + 1).trim());
+            }
+        }
+        if (line == null) {
+            throw new SocketException("connection closed in headers");
+        }
+        return headers;
+    }
+
+    /**
+     * Reads the request body, with content length or chunked.
+     */
+    private static byte[] readBody(InputStream in, Map<String, String> headers)
+            throws IOException {
+        if ("chunked".equalsIgnoreCase(headers.get("transfer-encoding"))) {
+            ByteArrayOutputStream body= new ByteArrayOutputStream();
+            while (true) {
+                String sizeLine= readLine(in);
+                if (sizeLine == null) {
+                    throw new SocketException("connection closed in body");
+                }
+                int extension= sizeLine.indexOf(';');
+                int size= Integer.parseInt((extension < 0 ? sizeLine
+                        : sizeLine.substring(0, extension)).trim(), 16);
+                if (size == 0) {
+                    // trailers
+                    readHeaders(in);
+                    return body.toByteArray();
+                }
+                body.write(readFully(in, size));
+                readLine(in);
+            }
+        }
+        String contentLength= headers.get("content-length");
+        if (contentLength == null) {
+            return new byte[0];
+        }
+        return readFully(in, Integer.parseInt(contentLength));
+    }
+
+    private static byte[] readFully(InputStream in, int length)
+            throws IOException {
+        byte[] data= new byte[length];
+        int offset= 0;
+        while (offset < length) {
+            int read= in.read(data, offset, length - offset);
+            if (read < 0) {
+                throw new SocketException("connection closed in body");
+            }
+            offset+= read;
+        }
+        return data;
+    }
+
+    /**
+     * Reads a CRLF terminated line, or returns <code>null</code> at the end of
+     * the stream.
+     */
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line= new StringBuilder();
+        int c;
+        while ((c= in.read()) != -1) {
+            if (c == '\n') {
+                int length= line.length();
+                if (length > 0 && line.charAt(length - 1) == '\r') {
+                    line.setLength(length - 1);
+                }
+                return line.toString();
+            }
+            if (line.length() >= MAX_LINE_LENGTH) {
+                throw new IOException("line too long");
+            }
+            line.append((char) c);
+        }
+        return line.length() > 0 ? line.toString() : null;
+    }
+
+    private static void closeQuietly(ServerSocket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // ignored
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // ignored
+        }
+    }
+}
@@ -0,0 +1,740 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glite.authz.pep.client.daemon;
+
+import java.net.ServerSocket;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import junit.framework.TestCase;
+
+import org.glite.authz.common.model.Attribute;
+import org.glite.authz.common.model.AttributeAssignment;
+import org.glite.authz.common.model.Environment;
+import org.glite.authz.common.model.Obligation;
+import org.glite.authz.common.model.Request;
+import org.glite.authz.common.model.Response;
+import org.glite.authz.common.model.Result;
+import org.glite.authz.pep.client.AuthorizationOutcome;
+import org.glite.authz.pep.client.PEPClient;
+import org.glite.authz.pep.client.PEPClientException;
+import org.glite.authz.pep.client.PEPClientTimeoutException;
+import org.glite.authz.pep.client.config.PEPClientConfiguration;
+import org.glite.authz.pep.client.endpoint.ConcurrencyLimitPolicy;
+import org.glite.authz.pep.client.http.HttpTransportType;
+import org.glite.authz.pep.client.http.JdkHttpTransport;
+import org.glite.authz.pep.client.metrics.ConnectionPoolStatistics;
+import org.glite.authz.pep.client.metrics.EndpointStatistics;
+import org.glite.authz.pep.client.metrics.TLSHandshakeStatistics;
+import org.glite.authz.pep.client.tls.TLSContextRegistry;
+import org.glite.authz.pep.pip.PIPException;
+import org.glite.authz.pep.pip.PIPProcessingException;
+import org.glite.authz.pep.pip.PolicyInformationPoint;
+
+/**
+ * Network tests of the {@link PEPClient} against the
+ * {@link EmbeddedPEPDaemon}.
+ */
+public class EmbeddedPEPDaemonTestCase extends TestCase {
+
+    private List<EmbeddedPEPDaemon> daemons_;
+
+    private List<PEPClient> clients_;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        daemons_= new ArrayList<EmbeddedPEPDaemon>();
+        clients_= new ArrayList<PEPClient>();
+    }
+
+    protected void tearDown() throws Exception {
+        for (PEPClient client : clients_) {
+            client.shutdown();
+        }
+        for (EmbeddedPEPDaemon daemon : daemons_) {
+            daemon.stop();
+        }
+        super.tearDown();
+    }
+
+    private EmbeddedPEPDaemon startDaemon() throws Exception {
+        EmbeddedPEPDaemon daemon= new EmbeddedPEPDaemon();
+        daemon.start();
+        daemons_.add(daemon);
+        return daemon;
+    }
+
+    private PEPClient createClient(PEPClientConfiguration config)
+            throws Exception {
+        PEPClient client= new PEPClient(config);
+        clients_.add(client);
+        return client;
+    }
+
+    private PEPClientConfiguration createConfig(EmbeddedPEPDaemon... daemons)
+            throws Exception {
+        PEPClientConfiguration config= new PEPClientConfiguration();
+        for (EmbeddedPEPDaemon daemon : daemons) {
+            config.addPEPDaemonEndpoint(daemon.getEndpoint());
+        }
+        return config;
+    }
+
+    private Obligation createObligation() {
+        AttributeAssignment userId= new AttributeAssignment();
+        userId.setAttributeId("http://glite.org/xacml/attribute/user-id");
+        userId.setValue("atlas042");
+        Obligation obligation= new Obligation();
+        obligation.setId("http://glite.org/xacml/obligation/local-environment-map/posix");
+        obligation.setFulfillOn(Result.DECISION_PERMIT);
+        obligation.getAttributeAssignments().add(userId);
+        return obligation;
+    }
+
+    private void assertPermit(Response response) {
+        assertEquals(1, response.getResults().size());
+        assertEquals(Result.DECISION_PERMIT,
+                     response.getResults().get(0).getDecision());
+    }
+
+    public void testDecisionAndObligation() throws Exception {
+        EmbeddedPEPDaemon daemon= startDaemon();
+        daemon.setResponder(EmbeddedPEPDaemon.decision(Result.DECISION_PERMIT,
+                                                       createObligation()));
+        PEPClient client= createClient(createConfig(daemon));
+        for (int i= 0; i < 3; i++) {
+            Response response= client.authorize(new Request());
+            assertPermit(response);
+            Obligation obligation= response.getResults().get(0).getObligations().get(0);
+            assertEquals("atlas042",
+                         obligation.getAttributeAssignments().get(0).getValue());
+        }
+        assertEquals(3, daemon.getRequestCount());
+        // keep-alive
+        assertEquals(1, daemon.getConnectionCount());
+    }
+
+    public void testAuthorizeAllCopiesDuplicateResponses() throws Exception {
+        EmbeddedPEPDaemon daemon= startDaemon();
+        daemon.setResponder(EmbeddedPEPDaemon.decision(Result.DECISION_PERMIT,
+                                                       createObligation()));
+        PEPClientConfiguration config= createConfig(daemon);
+        config.setBatchParallelism(2);
+        PEPClient client= createClient(config);
+        Request request= new Request();
+        List<AuthorizationOutcome> outcomes= client.authorizeAll(Arrays.asList(request,
+                                                                               request,
+                                                                               new Request()));
+        assertEquals(1, daemon.getRequestCount());
+        Response first= outcomes.get(0).getResponse();
+        assertNotSame(first, outcomes.get(1).getResponse());
+        assertNotSame(first, outcomes.get(2).getResponse());
+        assertNotSame(outcomes.get(1).getResponse(),
+                      outcomes.get(2).getResponse());
+        // altering a response does not alter the duplicates
+        first.getResults().clear();
+        assertPermit(outcomes.get(1).getResponse());
+        assertPermit(outcomes.get(2).getResponse());
+    }
+
+    public void testJdkTransport() throws Exception {
+        EmbeddedPEPDaemon daemon= startDaemon();
+        PEPClientConfiguration config= createConfig(daemon);
+        config.setHttpTransportType(HttpTransportType.JDK_HTTPCLIENT);
+        PEPClient client= createClient(config);
+        assertPermit(client.authorize(new Request()));
+        assertPermit(client.authorize(new Request()));
+        assertEquals(2, daemon.getRequestCount());
+    }
+
+    public void testDeny() throws Exception {
+        EmbeddedPEPDaemon daemon= startDaemon();
+        daemon.setResponder(EmbeddedPEPDaemon.decision(Result.DECISION_DENY));
+        PEPClient client= createClient(createConfig(daemon));
+        Response response= client.authorize(new Request());
+        assertEquals(Result.DECISION_DENY,
+                     response.getResults().get(0).getDecision());
+    }
+
+    public void testHttpErrorFailover() throws Exception {
+        EmbeddedPEPDaemon primary= startDaemon();
+        EmbeddedPEPDaemon secondary= startDaemon();
+        primary.scheduleFault(Fault.HTTP_ERROR, 1);
+        PEPClient client= createClient(createConfig(primary, secondary));
+        assertPermit(client.authorize(new Request()));
+        assertEquals(1, primary.getFaultCount());
+        assertEquals(1, secondary.getRequestCount());
+        assertEquals(1, client.getMetrics().getFailovers());
+    }
+
+    public void testHttpErrorSingleEndpoint() throws Exception {
+        EmbeddedPEPDaemon daemon= startDaemon();
+        daemon.setFaultRate(Fault.HTTP_ERROR, 1.0);
+        PEPClient client= createClient(createConfig(daemon));
+        try {
+            client.authorize(new Request());
+            fail("HTTP error expected");
+        } catch (PEPClientException e) {
+            // expected
+        }
+    }
+
+    public void testConnectionResetFailover() throws Exception {
+        EmbeddedPEPDaemon primary= startDaemon();
+        EmbeddedPEPDaemon secondary= startDaemon();
+        primary.setFaultRate(Fault.CONNECTION_RESET, 1.0);
+        PEPClient client= createClient(createConfig(primary, secondary));
+        assertPermit(client.authorize(new Request()));
+        assertTrue(primary.getFaultCount() > 0);
+        assertEquals(1, secondary.getRequestCount());
+    }
+
+    public void testSlowResponse() throws Exception {
+        EmbeddedPEPDaemon daemon= startDaemon();
+        daemon.setSlowResponse(64, 5);
+        daemon.scheduleFault(Fault.SLOW_RESPONSE, 1);
+        PEPClient client= createClient(createConfig(daemon));
+        assertPermit(client.authorize(new Request()));
+        assertEquals(1, daemon.getFaultCount());
+    }
+
+    public void testTLS() throws Exception {
+        TestCredentials credentials= new TestCredentials();
+        EmbeddedPEPDaemon daemon= new EmbeddedPEPDaemon(credentials.createServerContext());
+        daemon.start();
+        daemons_.add(daemon);
+        for (HttpTransportType transport : HttpTransportType.values()) {
+            PEPClientConfiguration config= createConfig(daemon);
+            config.setTrustMaterial(credentials.getTrustStore());
+            config.setHttpTransportType(transport);
+            PEPClient client= createClient(config);
+            assertPermit(client.authorize(new Request()));
+        }
+        assertEquals(HttpTransportType.values().length,
+                     daemon.getRequestCount());
+    }
+
+    public void testConcurrentLoad() throws Exception {
+        EmbeddedPEPDaemon primary= startDaemon();
+        EmbeddedPEPDaemon secondary= startDaemon();
+        primary.setSeed(42);
+        primary.setLatency(LatencyDistribution.exponential(1));
+        primary.setFaultRate(Fault.HTTP_ERROR, 0.2);
+        secondary.setLatency(LatencyDistribution.uniform(0, 2));
+        final PEPClient client= createClient(createConfig(primary, secondary));
+        int threads= 8;
+        final int requests= 50;
+        ExecutorService executor= Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Integer>> futures= new ArrayList<Future<Integer>>();
+            for (int i= 0; i < threads; i++) {
+                futures.add(executor.submit(new Callable<Integer>() {
+                    public Integer call() throws Exception {
+                        int permits= 0;
+                        for (int j= 0; j < requests; j++) {
+                            Response response= client.authorize(new Request());
+                            if (response.getResults().get(0).getDecision() == Result.DECISION_PERMIT) {
+                                permits++;
+                            }
+                        }
+                        return Integer.valueOf(permits);
+                    }
+                }));
+            }
+            int permits= 0;
+            for (Future<Integer> future : futures) {
+                permits+= future.get().intValue();
+            }
+            assertEquals(threads * requests, permits);
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(threads * requests, primary.getRequestCount()
+                - primary.getFaultCount() + secondary.getRequestCount());
+    }
+
+    public void testParallelPIPs() throws Exception {
+        EmbeddedPEPDaemon daemon= startDaemon();
+        PEPClientConfiguration config= createConfig(daemon);
+        config.setPIPThreads(2);
+        config.addPolicyInformationPoint(new EnvironmentPIP("first"), 1000);
+        config.addPolicyInformationPoint(new EnvironmentPIP("second"), 1000);
+        PEPClient client= createClient(config);
+        Request request= new Request();
+        request.setEnvironment(new Environment());
+        Response response= client.authorize(request);
+        assertPermit(response);
+        // the daemon echoes the populated request
+        assertEquals(2,
+                     response.getRequest().getEnvironment().getAttributes().size());
+    }
+
+    public void testAuthorizationDeadline() throws Exception {
+        EmbeddedPEPDaemon daemon= startDaemon();
+        daemon.setFaultRate(Fault.NO_RESPONSE, 1.0);
+        for (HttpTransportType transport : HttpTransportType.values()) {
+            PEPClientConfiguration config= createConfig(daemon);
+            config.setHttpTransportType(transport);
+            PEPClient client= createClient(config);
+            long start= System.currentTimeMillis();
+            try {
+                client.authorize(new Request(), 300);
+                fail("deadline expected with " + transport);
+            } catch (PEPClientTimeoutException e) {
+                // expected
+            }
+            long elapsed= System.currentTimeMillis() - start;
+            assertTrue("deadline exceeded by " + elapsed + " ms with "
+                    + transport, elapsed < 2000);
+        }
+    }
+
+    public void testConfiguredAuthorizationTimeout() throws Exception {
+        EmbeddedPEPDaemon daemon= startDaemon();
+        daemon.setFaultRate(Fault.NO_RESPONSE, 1.0);
+        PEPClientConfiguration config= createConfig(daemon);
+        config.setAuthorizationTimeout(300);
+        PEPClient client= createClient(config);
+        try {
+            client.authorize(new Request());
+            fail("deadline expected");
+        } catch (PEPClientTimeoutException e) {
+            // expected
+        }
+    }
+
+    public void testReadTimeoutFailoverWithinDeadline() throws Exception {
+        EmbeddedPEPDaemon primary= startDaemon();
+        EmbeddedPEPDaemon secondary= startDaemon();
+        primary.setFaultRate(Fault.NO_RESPONSE, 1.0);
+        PEPClientConfiguration config= createConfig(primary, secondary);
+        config.setReadTimeout(200);
+        PEPClient client= createClient(config);
+        assertPermit(client.authorize(new Request(), 5000));
+        assertEquals(1, primary.getFaultCount());
+        assertEquals(1, secondary.getRequestCount());
+    }
+
+    public void testHungEndpointFailover() throws Exception {
+        EmbeddedPEPDaemon primary= startDaemon();
+        EmbeddedPEPDaemon secondary= startDaemon();
+        primary.setFaultRate(Fault.NO_RESPONSE, 1.0);
+        PEPClientConfiguration config= createConfig(primary, secondary);
+        config.setCircuitBreakerThreshold(1);
+        PEPClient client= createClient(config);
+        // without read timeout, the primary is given half of the budget
+        long start= System.currentTimeMillis();
+        assertPermit(client.authorize(new Request(), 2000));
+        assertTrue(System.currentTimeMillis() - start < 2000);
+        assertEquals("OPEN", getState(client, primary));
+        assertPermit(client.authorize(new Request(), 2000));
+        assertEquals(1, primary.getFaultCount());
+        assertEquals(2, secondary.getRequestCount());
+    }
+
+    public void testHungEndpointReducesConcurrencyLimit() throws Exception {
+        EmbeddedPEPDaemon primary= startDaemon();
+        EmbeddedPEPDaemon secondary= startDaemon();
+        primary.setFaultRate(Fault.NO_RESPONSE, 1.0);
+        PEPClientConfiguration config= createConfig(primary, secondary);
+        config.setConcurrencyLimitEnabled(true);
+        config.setMinConcurrencyLimit(1);
+        config.setMaxConcurrencyLimit(10);
+        config.setMaxConnectionsPerHost(10);
+        PEPClient client= createClient(config);
+        assertEquals(10, getStatistics(client, primary).getConcurrencyLimit());
+        assertPermit(client.authorize(new Request(), 2000));
+        // the timeout is released as a failure, not cancelled
+        EndpointStatistics statistics= getStatistics(client, primary);
+        assertEquals(0, statistics.getInFlight());
+        assertEquals(9, statistics.getConcurrencyLimit());
+    }
+
+    public void testConnectionPoolTimeout() throws Exception {
+        EmbeddedPEPDaemon daemon= startDaemon();
+        daemon.setLatency(LatencyDistribution.fixed(1000));
+        PEPClientConfiguration config= createConfig(daemon);
+        config.setMaxConnectionsPerHost(1);
+        config.setConnectionPoolTimeout(100);
+        final PEPClient client= createClient(config);
+        ExecutorService executor= Executors.newSingleThreadExecutor();
+        try {
+            Future<Response> leaser= executor.submit(new Callable<Response>() {
+                public Response call() throws Exception {
+                    return client.authorize(new Request());
+                }
+            });
+            while (client.getMetrics().getConnectionPool().getLeased() == 0) {
+                Thread.sleep(5);
+            }
+            long start= System.currentTimeMillis();
+            try {
+                client.authorize(new Request());
+                fail("connection pool timeout expected");
+            } catch (PEPClientException e) {
+                // expected
+            }
+            assertTrue(System.currentTimeMillis() - start < 900);
+            assertPermit(leaser.get());
+        } finally {
+            executor.shutdownNow();
+        }
+        ConnectionPoolStatistics pool= client.getMetrics().getConnectionPool();
+        assertEquals(1, pool.getAcquisitions());
+        assertEquals(1, pool.getTimeouts());
+        assertEquals(0, pool.getLeased());
+        assertEquals(1, pool.getIdle());
+        assertEquals(0, pool.getWaiting());
+        assertEquals(2, pool.getWaitTime().getCount());
+        assertTrue(pool.getWaitTime().getMax() >= 100.0);
+    }
+
+    public void testConcurrencyLimitShedsToSecondary() throws Exception {
+        EmbeddedPEPDaemon primary= startDaemon();
+        EmbeddedPEPDaemon secondary= startDaemon();
+        primary.setLatency(LatencyDistribution.fixed(500));
+        PEPClientConfiguration config= createConfig(primary, secondary);
+        config.setConcurrencyLimitEnabled(true);
+        config.setMaxConcurrencyLimit(1);
+        config.setConcurrencyLimitPolicy(ConcurrencyLimitPolicy.SHED);
+        final PEPClient client= createClient(config);
+        ExecutorService executor= Executors.newSingleThreadExecutor();
+        try {
+            Future<Response> slow= executor.submit(new Callable<Response>() {
+                public Response call() throws Exception {
+                    return client.authorize(new Request());
+                }
+            });
+            while (primary.getRequestCount() == 0) {
+                Thread.sleep(5);
+            }
+            long start= System.currentTimeMillis();
+            assertPermit(client.authorize(new Request()));
+            assertTrue(System.currentTimeMillis() - start < 400);
+            assertPermit(slow.get());
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, primary.getRequestCount());
+        assertEquals(1, secondary.getRequestCount());
+        assertEquals(1,
+                     client.getMetrics().getEndpoints().get(primary.getEndpoint()).getRejected());
+    }
+
+    public void testShedHalfOpenTrialRecovers() throws Exception {
+        EmbeddedPEPDaemon primary= startDaemon();
+        EmbeddedPEPDaemon secondary= startDaemon();
+        primary.scheduleFault(Fault.HTTP_ERROR, 1);
+        secondary.scheduleFault(Fault.HTTP_ERROR, 1);
+        PEPClientConfiguration config= createConfig(primary, secondary);
+        config.setCircuitBreakerThreshold(1);
+        config.setEndpointProbeInterval(500);
+        config.setConcurrencyLimitEnabled(true);
+        config.setMaxConcurrencyLimit(1);
+        config.setConcurrencyLimitPolicy(ConcurrencyLimitPolicy.SHED);
+        final PEPClient client= createClient(config);
+        try {
+            client.authorize(new Request());
+            fail("HTTP error expected");
+        } catch (PEPClientException e) {
+            // expected
+        }
+        assertEquals("OPEN", getState(client, primary));
+        // last resort request holding the primary limit for its share of
+        // the deadline, then failing over to the secondary
+        primary.setLatency(LatencyDistribution.fixed(5000));
+        ExecutorService executor= Executors.newSingleThreadExecutor();
+        try {
+            Future<Response> holder= executor.submit(new Callable<Response>() {
+                public Response call() throws Exception {
+                    return client.authorize(new Request(), 3000);
+                }
+            });
+            while (primary.getRequestCount() < 2) {
+                Thread.sleep(5);
+            }
+            while (!"HALF_OPEN".equals(getState(client, primary))) {
+                Thread.sleep(5);
+            }
+            // the primary trial is shed, the secondary answers
+            assertPermit(client.authorize(new Request()));
+            assertEquals(1,
+                         client.getMetrics().getEndpoints().get(primary.getEndpoint()).getRejected());
+            // the primary timeout is a failure, the secondary answers
+            assertPermit(holder.get());
+        } finally {
+            executor.shutdownNow();
+        }
+        // the trial is available to the primary once probed again
+        while (!"HALF_OPEN".equals(getState(client, primary))) {
+            Thread.sleep(5);
+        }
+        primary.setLatency(LatencyDistribution.NONE);
+        assertPermit(client.authorize(new Request()));
+        assertEquals(3, primary.getRequestCount());
+        assertEquals("CLOSED", getState(client, primary));
+    }
+
+    private String getState(PEPClient client, EmbeddedPEPDaemon daemon) {
+        return client.getMetrics().getEndpoints().get(daemon.getEndpoint()).getState();
+    }
+
+    private EndpointStatistics getStatistics(PEPClient client,
+            EmbeddedPEPDaemon daemon) {
+        return client.getMetrics().getEndpoints().get(daemon.getEndpoint());
+    }
+
+    public void testConcurrencyLimitQueue() throws Exception {
+        EmbeddedPEPDaemon daemon= startDaemon();
+        daemon.setLatency(LatencyDistribution.fixed(100));
+        PEPClientConfiguration config= createConfig(daemon);
+        config.setConcurrencyLimitEnabled(true);
+        config.setMaxConcurrencyLimit(1);
+        final PEPClient client= createClient(config);
+        ExecutorService executor= Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Response>> futures= new ArrayList<Future<Response>>();
+            for (int i= 0; i < 4; i++) {
+                futures.add(executor.submit(new Callable<Response>() {
+                    public Response call() throws Exception {
+                        return client.authorize(new Request());
+                    }
+                }));
+            }
+            for (Future<Response> future : futures) {
+                assertPermit(future.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(4, daemon.getRequestCount());
+        // queued requests are serialized on a single connection
+        assertEquals(1, daemon.getConnectionCount());
+    }
+
+    public void testVirtualThreads() throws Exception {
+        EmbeddedPEPDaemon daemon= startDaemon();
+        daemon.setLatency(LatencyDistribution.fixed(20));
+        PEPClientConfiguration config= createConfig(daemon);
+        config.setHttpTransportType(HttpTransportType.JDK_HTTPCLIENT);
+        // falls back to platform threads before Java 21
+        config.setVirtualThreads(true);
+        config.setMaxAsyncRequests(200);
+        PEPClient client= createClient(config);
+        List<CompletableFuture<Response>> futures= new ArrayList<CompletableFuture<Response>>();
+        for (int i= 0; i < 200; i++) {
+            futures.add(client.authorizeAsync(new Request()));
+        }
+        for (CompletableFuture<Response> future : futures) {
+            assertPermit(future.get());
+        }
+        assertEquals(200, daemon.getRequestCount());
+    }
+
+    public void testRetryOnStaleConnection() throws Exception {
+        EmbeddedPEPDaemon daemon= startDaemon();
+        daemon.setKeepAliveTimeout(100);
+        PEPClientConfiguration config= createConfig(daemon);
+        config.setStaleConnectionCheck(false);
+        PEPClient client= createClient(config);
+        assertPermit(client.authorize(new Request()));
+        // the daemon closes the idle connection
+        Thread.sleep(300);
+        assertPermit(client.authorize(new Request()));
+        assertEquals(2, daemon.getConnectionCount());
+        assertEquals(2, daemon.getRequestCount());
+    }
+
+    public void testRetryOnStaleTLSConnection() throws Exception {
+        TestCredentials credentials= new TestCredentials();
+        EmbeddedPEPDaemon daemon= new EmbeddedPEPDaemon(credentials.createServerContext());
+        daemon.start();
+        daemons_.add(daemon);
+        daemon.setKeepAliveTimeout(100);
+        PEPClientConfiguration config= createConfig(daemon);
+        config.setTrustMaterial(credentials.getTrustStore());
+        config.setStaleConnectionCheck(false);
+        PEPClient client= createClient(config);
+        assertPermit(client.authorize(new Request()));
+        // the daemon closes the idle connection
+        Thread.sleep(300);
+        assertPermit(client.authorize(new Request()));
+        assertEquals(2, daemon.getConnectionCount());
+        assertEquals(2, daemon.getRequestCount());
+    }
+
+    public void testIdleConnectionEviction() throws Exception {
+        EmbeddedPEPDaemon daemon= startDaemon();
+        PEPClientConfiguration config= createConfig(daemon);
+        config.setConnectionIdleTimeout(100);
+        config.setIdleConnectionCheckInterval(50);
+        PEPClient client= createClient(config);
+        assertPermit(client.authorize(new Request()));
+        assertEquals(1, client.getMetrics().getConnectionPool().getIdle());
+        long deadline= System.currentTimeMillis() + 2000;
+        while (client.getMetrics().getConnectionPool().getIdle() > 0
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(0, client.getMetrics().getConnectionPool().getIdle());
+        assertPermit(client.authorize(new Request()));
+        assertEquals(2, daemon.getConnectionCount());
+    }
+
+    public void testWarmUp() throws Exception {
+        EmbeddedPEPDaemon daemon= startDaemon();
+        PEPClientConfiguration config= createConfig(daemon);
+        config.setWarmUp(true);
+        config.setWarmUpConnections(3);
+        PEPClient client= createClient(config);
+        assertEquals(3, client.getMetrics().getConnectionPool().getIdle());
+        assertPermit(client.authorize(new Request()));
+        assertEquals(1, daemon.getRequestCount());
+        long deadline= System.currentTimeMillis() + 2000;
+        while (daemon.getConnectionCount() < 3
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(3, daemon.getConnectionCount());
+        // limited by the max connections per host
+        assertEquals(5, client.warmUp(10));
+    }
+
+    public void testWarmUpTLS() throws Exception {
+        TestCredentials credentials= new TestCredentials();
+        EmbeddedPEPDaemon daemon= new EmbeddedPEPDaemon(credentials.createServerContext());
+        daemon.start();
+        daemons_.add(daemon);
+        for (HttpTransportType transport : HttpTransportType.values()) {
+            PEPClientConfiguration config= createConfig(daemon);
+            config.setTrustMaterial(credentials.getTrustStore());
+            config.setHttpTransportType(transport);
+            PEPClient client= createClient(config);
+            assertEquals(1, client.warmUp());
+            assertPermit(client.authorize(new Request()));
+        }
+    }
+
+    public void testWarmUpBoundedWithoutResponse() throws Exception {
+        // connections accepted by the backlog, never answered
+        ServerSocket serverSocket= new ServerSocket(0);
+        try {
+            JdkHttpTransport transport= new JdkHttpTransport(0, 0, null, null);
+            long start= System.currentTimeMillis();
+            assertEquals(0,
+                         transport.warmUp("http://localhost:"
+                                 + serverSocket.getLocalPort() + "/authz", 2));
+            assertTrue(System.currentTimeMillis() - start < 3000);
+        } finally {
+            serverSocket.close();
+        }
+    }
+
+    public void testSharedTLSContextResumesSessions() throws Exception {
+        TestCredentials credentials= new TestCredentials();
+        EmbeddedPEPDaemon daemon= new EmbeddedPEPDaemon(credentials.createServerContext());
+        daemon.start();
+        daemons_.add(daemon);
+        KeyStore trustStore= credentials.getTrustStore();
+        PEPClient[] clients= new PEPClient[2];
+        for (int i= 0; i < clients.length; i++) {
+            PEPClientConfiguration config= createConfig(daemon);
+            config.setTrustMaterial(trustStore);
+            config.setSharedTLSContext(true);
+            clients[i]= createClient(config);
+        }
+        assertPermit(clients[0].authorize(new Request()));
+        // new connection of the second client resumes the session
+        assertPermit(clients[1].authorize(new Request()));
+        TLSHandshakeStatistics handshakes= clients[1].getMetrics().getTLSHandshakes();
+        assertEquals(1, handshakes.getFullHandshakes());
+        assertEquals(1, handshakes.getResumedHandshakes());
+        assertEquals(2, daemon.getConnectionCount());
+        int sharedContexts= TLSContextRegistry.getInstance().size();
+        clients[0].shutdown();
+        assertEquals(sharedContexts, TLSContextRegistry.getInstance().size());
+        clients[1].shutdown();
+        assertEquals(sharedContexts - 1,
+                     TLSContextRegistry.getInstance().size());
+    }
+
+    public void testSharedTLSContextValidationCache() throws Exception {
+        KeyStore trustStore= new TestCredentials().getTrustStore();
+        int sharedContexts= TLSContextRegistry.getInstance().size();
+        for (long ttl : new long[] { 0, 60000, 60000 }) {
+            PEPClientConfiguration config= new PEPClientConfiguration();
+            config.addPEPDaemonEndpoint("https://localhost:1/authz");
+            config.setTrustMaterial(trustStore);
+            config.setTrustValidationCacheTTL(ttl);
+            config.setSharedTLSContext(true);
+            createClient(config);
+        }
+        // distinct validation cache settings are distinct contexts
+        assertEquals(sharedContexts + 2,
+                     TLSContextRegistry.getInstance().size());
+    }
+
+    public void testStop() throws Exception {
+        EmbeddedPEPDaemon daemon= startDaemon();
+        PEPClient client= createClient(createConfig(daemon));
+        assertPermit(client.authorize(new Request()));
+        daemon.stop();
+        try {
+            client.authorize(new Request());
+            fail("daemon is stopped");
+        } catch (PEPClientException e) {
+            // expected
+        }
+    }
+
+    /**
+     * PIP adding an environment attribute named after its id.
+     */
+    private static class EnvironmentPIP implements PolicyInformationPoint {
+
+        private final String id_;
+
+        EnvironmentPIP(String id) {
+            id_= id;
+        }
+
+        public String getId() {
+            return id_;
+        }
+
+        public void start() throws PIPException {
+        }
+
+        public void stop() throws PIPException {
+        }
+
+        public boolean populateRequest(Request request)
+                throws PIPProcessingException {
+            Attribute attribute= new Attribute(id_, Attribute.DT_STRING);
+            attribute.getValues().add("value");
+            request.getEnvironment().getAttributes().add(attribute);
+            return true;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glite.authz.pep.client.daemon;
+
+import java.util.Random;
+
+/**
+ * Distribution of the latency injected by the {@link EmbeddedPEPDaemon}
+ * before answering a request.
+ */
+public abstract class LatencyDistribution {
+
+    /** No latency */
+    public static final LatencyDistribution NONE= fixed(0);
+
+    /**
+     * Returns the next latency.
+     * 
+     * @param random
+     *            the random generator of the daemon
+     * @return the latency in milliseconds
+     */
+    public abstract long nextDelay(Random random);
+
+    /**
+     * Constant latency.
+     * 
+     * @param delay
+     *            the latency in milliseconds
+     * @return the distribution
+     */
+    public static LatencyDistribution fixed(final long delay) {
+        return new LatencyDistribution() {
+            public long nextDelay(Random random) {
+                return delay;
+            }
+        };
+    }
+
+    /**
+     * Latency uniformly distributed between min and max.
+     * 
+     * @param min
+     *            the minimal latency in milliseconds
+     * @param max
+     *            the maximal latency in milliseconds
+     * @return the distribution
+     */
+    public static LatencyDistribution uniform(final long min, final long max) {
+        if (max < min) {
+            throw new IllegalArgumentException("max must be greater or equal to min");
+        }
+        return new LatencyDistribution() {
+            public long nextDelay(Random random) {
+                return min + (long) (random.nextDouble() * (max - min));
+            }
+        };
+    }
+
+    /**
+     * Exponentially distributed latency, the typical service time of a
+     * loaded daemon.
+     * 
+     * @param mean
+     *            the mean latency in milliseconds
+     * @return the distribution
+     */
+    public static LatencyDistribution exponential(final long mean) {
+        return new LatencyDistribution() {
+            public long nextDelay(Random random) {
+                return (long) (-mean * Math.log(1.0 - random.nextDouble()));
+            }
+        };
+    }
+
+    /**
+     * Long tail latency: mostly fast, sometimes slow. Typically a daemon
+     * doing a garbage collection or waiting on its PAP.
+     * 
+     * @param fast
+     *            the usual latency in milliseconds
+     * @param slow
+     *            the tail latency in milliseconds
+     * @param slowRatio
+     *            the ratio of slow requests, between 0 and 1
+     * @return the distribution
+     */
+    public static LatencyDistribution bimodal(final long fast,
+            final long slow, final double slowRatio) {
+        return new LatencyDistribution() {
+            public long nextDelay(Random random) {
+                return random.nextDouble() < slowRatio ? slow : fast;
+            }
+        };
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glite.authz.pep.client.daemon;
+
+import org.glite.authz.common.model.Request;
+import org.glite.authz.common.model.Response;
+
+/**
+ * Scripted decision of the {@link EmbeddedPEPDaemon}.
+ */
+public interface Responder {
+
+    /**
+     * Returns the response to the authorization request.
+     * 
+     * @param request
+     *            the deserialized authorization request
+     * @return the response to send back
+     */
+    public Response respond(Request request);
+}
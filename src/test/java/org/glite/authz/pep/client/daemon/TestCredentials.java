@@ -0,0 +1,265 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glite.authz.pep.client.daemon;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.cert.Certificate;
+import java.security.cert.X509CRL;
+import java.security.cert.X509Certificate;
+import java.util.Base64;
+import java.util.Date;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.BasicConstraints;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.asn1.x509.GeneralNames;
+import org.bouncycastle.asn1.x509.CRLReason;
+import org.bouncycastle.asn1.x509.KeyUsage;
+import org.bouncycastle.cert.X509v2CRLBuilder;
+import org.bouncycastle.cert.X509v3CertificateBuilder;
+import org.bouncycastle.cert.jcajce.JcaX509CRLConverter;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+
+/**
+ * Throw-away CA and <code>localhost</code> server credential for the TLS
+ * tests of the {@link EmbeddedPEPDaemon}.
+ */
+public class TestCredentials {
+
+    /** Password of the in-memory key stores */
+    private static final char[] PASSWORD= "changeit".toCharArray();
+
+    /** Validity of the certificates */
+    private static final long VALIDITY= 24L * 3600L * 1000L;
+
+    private final X509Certificate caCert_;
+
+    private final PrivateKey caKey_;
+
+    private final X509Certificate serverCert_;
+
+    private final PrivateKey serverKey_;
+
+    /**
+     * Generates a CA and a server certificate for <code>localhost</code>.
+     * 
+     * @throws Exception
+     *             if the credentials can not be generated
+     */
+    public TestCredentials() throws Exception {
+        KeyPairGenerator generator= KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        KeyPair caKeys= generator.generateKeyPair();
+        KeyPair serverKeys= generator.generateKeyPair();
+        X500Name caName= new X500Name("CN=Test CA,O=Argus,C=CH");
+        caCert_= createCertificate(caName,
+                                   caKeys.getPrivate(),
+                                   caName,
+                                   caKeys.getPublic(),
+                                   true);
+        caKey_= caKeys.getPrivate();
+        serverCert_= createCertificate(caName,
+                                       caKeys.getPrivate(),
+                                       new X500Name("CN=localhost,O=Argus,C=CH"),
+                                       serverKeys.getPublic(),
+                                       false);
+        serverKey_= serverKeys.getPrivate();
+    }
+
+    private static X509Certificate createCertificate(X500Name issuer,
+            PrivateKey issuerKey, X500Name subject, PublicKey subjectKey,
+            boolean ca) throws Exception {
+        long now= System.currentTimeMillis();
+        X509v3CertificateBuilder builder= new JcaX509v3CertificateBuilder(issuer,
+                                                                          BigInteger.valueOf(now),
+                                                                          new Date(now - VALIDITY),
+                                                                          new Date(now + VALIDITY),
+                                                                          subject,
+                                                                          subjectKey);
+        builder.addExtension(Extension.basicConstraints,
+                             true,
+                             new BasicConstraints(ca));
+        if (ca) {
+            builder.addExtension(Extension.keyUsage,
+                                 true,
+                                 new KeyUsage(KeyUsage.keyCertSign
+                                         | KeyUsage.cRLSign));
+        }
+        else {
+            builder.addExtension(Extension.keyUsage,
+                                 true,
+                                 new KeyUsage(KeyUsage.digitalSignature
+                                         | KeyUsage.keyEncipherment));
+            builder.addExtension(Extension.subjectAlternativeName,
+                                 false,
+                                 new GeneralNames(new GeneralName[] {
+                                         new GeneralName(GeneralName.dNSName,
+                                                         "localhost"),
+                                         new GeneralName(GeneralName.iPAddress,
+                                                         "127.0.0.1") }));
+        }
+        return new JcaX509CertificateConverter().getCertificate(builder.build(new JcaContentSignerBuilder("SHA256withRSA").build(issuerKey)));
+    }
+
+    /**
+     * Returns the trust store containing the CA certificate, to use as client
+     * trust material.
+     * 
+     * @return the trust store
+     * @throws Exception
+     *             if the key store can not be created
+     */
+    public KeyStore getTrustStore() throws Exception {
+        KeyStore truststore= KeyStore.getInstance("JKS");
+        truststore.load(null, null);
+        truststore.setCertificateEntry("ca", caCert_);
+        return truststore;
+    }
+
+    /**
+     * Returns the TLS context of the server, with the <code>localhost</code>
+     * credential.
+     * 
+     * @return the server TLS context
+     * @throws Exception
+     *             if the context can not be created
+     */
+    public SSLContext createServerContext() throws Exception {
+        KeyStore keystore= KeyStore.getInstance("JKS");
+        keystore.load(null, null);
+        keystore.setKeyEntry("server",
+                             serverKey_,
+                             PASSWORD,
+                             new Certificate[] { serverCert_, caCert_ });
+        KeyManagerFactory kmf= KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        kmf.init(keystore, PASSWORD);
+        SSLContext context= SSLContext.getInstance("TLS");
+        context.init(kmf.getKeyManagers(), null, null);
+        return context;
+    }
+
+    /**
+     * Returns the CA certificate.
+     * 
+     * @return the CA certificate
+     */
+    public X509Certificate getCACertificate() {
+        return caCert_;
+    }
+
+    /**
+     * Returns the <code>localhost</code> server certificate.
+     * 
+     * @return the server certificate
+     */
+    public X509Certificate getServerCertificate() {
+        return serverCert_;
+    }
+
+    /**
+     * Creates a CRL of the CA.
+     * 
+     * @param nextUpdate
+     *            the next update time of the CRL
+     * @param revoked
+     *            the revoked certificates
+     * @return the CRL signed by the CA
+     * @throws Exception
+     *             if the CRL can not be created
+     */
+    public X509CRL createCRL(Date nextUpdate, X509Certificate... revoked)
+            throws Exception {
+        Date now= new Date();
+        X509v2CRLBuilder builder= new X509v2CRLBuilder(X500Name.getInstance(caCert_.getSubjectX500Principal().getEncoded()),
+                                                       now);
+        builder.setNextUpdate(nextUpdate);
+        for (X509Certificate certificate : revoked) {
+            builder.addCRLEntry(certificate.getSerialNumber(),
+                                now,
+                                CRLReason.keyCompromise);
+        }
+        return new JcaX509CRLConverter().getCRL(builder.build(new JcaContentSignerBuilder("SHA256withRSA").build(caKey_)));
+    }
+
+    /**
+     * Returns the private key of the <code>localhost</code> server
+     * certificate.
+     * 
+     * @return the server private key
+     */
+    public PrivateKey getServerKey() {
+        return serverKey_;
+    }
+
+    /**
+     * Writes the server certificate and its unencrypted private key in PEM
+     * files.
+     * 
+     * @param certificateFile
+     *            the certificate file
+     * @param keyFile
+     *            the private key file
+     * @throws Exception
+     *             if the files can not be written
+     */
+    public void writeServerCredential(File certificateFile, File keyFile)
+            throws Exception {
+        writePEM(certificateFile, "CERTIFICATE", serverCert_.getEncoded());
+        writePEM(keyFile, "PRIVATE KEY", serverKey_.getEncoded());
+    }
+
+    /**
+     * Writes a PEM file.
+     * 
+     * @param file
+     *            the file
+     * @param type
+     *            the PEM type, like <code>CERTIFICATE</code>
+     * @param encoded
+     *            the DER encoded content
+     * @throws IOException
+     *             if the file can not be written
+     */
+    public static void writePEM(File file, String type, byte[] encoded)
+            throws IOException {
+        OutputStream out= new FileOutputStream(file);
+        try {
+            String pem= "-----BEGIN " + type + "-----\n"
+                    + Base64.getMimeEncoder(64, new byte[] { '\n' }).encodeToString(encoded)
+                    + "\n-----END " + type + "-----\n";
+            out.write(pem.getBytes(StandardCharsets.US_ASCII));
+        } finally {
+            out.close();
+        }
+    }
+}
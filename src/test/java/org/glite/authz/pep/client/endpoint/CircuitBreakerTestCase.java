@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glite.authz.pep.client.endpoint;
+
+import junit.framework.TestCase;
+
+/**
+ * CircuitBreakerTestCase
+ */
+public class CircuitBreakerTestCase extends TestCase {
+
+    public void testOpensAfterThreshold() {
+        CircuitBreaker breaker= new CircuitBreaker(3);
+        assertFalse(breaker.recordFailure());
+        assertFalse(breaker.recordFailure());
+        assertTrue(breaker.allowRequest());
+        assertTrue(breaker.recordFailure());
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest());
+        // already open
+        assertFalse(breaker.recordFailure());
+    }
+
+    public void testSuccessResetsFailures() {
+        CircuitBreaker breaker= new CircuitBreaker(2);
+        breaker.recordFailure();
+        breaker.recordSuccess();
+        assertFalse(breaker.recordFailure());
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    public void testHalfOpenSingleTrial() {
+        CircuitBreaker breaker= new CircuitBreaker(1);
+        assertFalse(breaker.halfOpen());
+        assertTrue(breaker.recordFailure());
+        assertTrue(breaker.halfOpen());
+        assertTrue(breaker.allowRequest());
+        assertFalse(breaker.allowRequest());
+        // failed trial opens the circuit again
+        assertTrue(breaker.recordFailure());
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        breaker.halfOpen();
+        assertTrue(breaker.allowRequest());
+        breaker.recordSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.allowRequest());
+        assertTrue(breaker.allowRequest());
+    }
+
+    public void testReleaseTrial() {
+        CircuitBreaker breaker= new CircuitBreaker(1);
+        breaker.recordFailure();
+        breaker.halfOpen();
+        assertTrue(breaker.allowRequest());
+        assertFalse(breaker.allowRequest());
+        // trial ended without outcome, the next request is the trial
+        breaker.releaseTrial();
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertEquals(1, breaker.getConsecutiveFailures());
+        assertTrue(breaker.allowRequest());
+    }
+
+    public void testDisabled() {
+        CircuitBreaker breaker= new CircuitBreaker(0);
+        for (int i= 0; i < 10; i++) {
+            assertFalse(breaker.recordFailure());
+        }
+        assertTrue(breaker.allowRequest());
+    }
+
+    public void testEndpointPort() {
+        assertEquals(443, new Endpoint("https://pepd.example.org/authz", 3).getPort());
+        assertEquals(8154, new Endpoint("https://pepd.example.org:8154/authz", 3).getPort());
+        try {
+            new Endpoint("pepd.example.org", 3);
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
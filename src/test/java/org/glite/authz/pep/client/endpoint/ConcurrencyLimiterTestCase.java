@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glite.authz.pep.client.endpoint;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * ConcurrencyLimiterTestCase
+ */
+public class ConcurrencyLimiterTestCase extends TestCase {
+
+    private static final long MILLI= 1000000L;
+
+    public void testLimit() {
+        ConcurrencyLimiter limiter= new ConcurrencyLimiter(2, 1, 10);
+        assertTrue(limiter.tryAcquire());
+        assertTrue(limiter.tryAcquire());
+        assertFalse(limiter.tryAcquire());
+        assertEquals(2, limiter.getInFlight());
+        assertEquals(1, limiter.getRejected());
+    }
+
+    public void testAdditiveIncrease() {
+        ConcurrencyLimiter limiter= new ConcurrencyLimiter(2, 1, 3);
+        // steady RTT with the limit used
+        for (int i= 0; i < 20; i++) {
+            long startTime= System.nanoTime() - 10 * MILLI;
+            assertTrue(limiter.tryAcquire());
+            assertTrue(limiter.tryAcquire());
+            limiter.release(startTime, true);
+            limiter.release(startTime, true);
+        }
+        assertEquals(3, limiter.getLimit());
+    }
+
+    public void testNoIncreaseWhenUnused() {
+        ConcurrencyLimiter limiter= new ConcurrencyLimiter(4, 1, 10);
+        for (int i= 0; i < 20; i++) {
+            long startTime= System.nanoTime() - 10 * MILLI;
+            assertTrue(limiter.tryAcquire());
+            limiter.release(startTime, true);
+        }
+        assertEquals(4, limiter.getLimit());
+    }
+
+    public void testDecreaseOnFailure() throws Exception {
+        ConcurrencyLimiter limiter= new ConcurrencyLimiter(20, 15, 20);
+        Thread.sleep(1);
+        long startTime= System.nanoTime();
+        assertTrue(limiter.tryAcquire());
+        limiter.release(startTime, false);
+        assertEquals(18, limiter.getLimit());
+
+        // requests sent before the decrease do not decrease again
+        assertTrue(limiter.tryAcquire());
+        limiter.release(startTime, false);
+        assertEquals(18, limiter.getLimit());
+
+        // bounded by the min limit
+        for (int i= 0; i < 10; i++) {
+            Thread.sleep(1);
+            startTime= System.nanoTime();
+            assertTrue(limiter.tryAcquire());
+            limiter.release(startTime, false);
+        }
+        assertEquals(15, limiter.getLimit());
+    }
+
+    public void testCancel() throws Exception {
+        ConcurrencyLimiter limiter= new ConcurrencyLimiter(20, 15, 20);
+        Thread.sleep(1);
+        assertTrue(limiter.tryAcquire());
+        limiter.cancel();
+        assertEquals(0, limiter.getInFlight());
+        assertEquals(20, limiter.getLimit());
+    }
+
+    public void testDecreaseOnLatency() throws Exception {
+        ConcurrencyLimiter limiter= new ConcurrencyLimiter(10, 1, 10);
+        Thread.sleep(1);
+        assertTrue(limiter.tryAcquire());
+        limiter.release(System.nanoTime() - 5 * MILLI, true);
+        assertEquals(10, limiter.getLimit());
+        // RTT over twice the min RTT
+        Thread.sleep(25);
+        assertTrue(limiter.tryAcquire());
+        limiter.release(System.nanoTime() - 20 * MILLI, true);
+        assertEquals(9, limiter.getLimit());
+    }
+
+    public void testQueue() throws Exception {
+        final ConcurrencyLimiter limiter= new ConcurrencyLimiter(1, 1, 1);
+        final long startTime= System.nanoTime();
+        assertTrue(limiter.tryAcquire());
+        assertFalse(limiter.tryAcquire(10, TimeUnit.MILLISECONDS));
+        final CountDownLatch waiting= new CountDownLatch(1);
+        Thread releaser= new Thread() {
+            public void run() {
+                try {
+                    waiting.await();
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                limiter.release(startTime, true);
+            }
+        };
+        releaser.start();
+        waiting.countDown();
+        assertTrue(limiter.tryAcquire(5, TimeUnit.SECONDS));
+        assertEquals(1, limiter.getInFlight());
+        releaser.join();
+    }
+
+    public void testInvalidLimits() {
+        try {
+            new ConcurrencyLimiter(1, 0, 1);
+            fail("min limit must be positive");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            new ConcurrencyLimiter(5, 1, 4);
+            fail("initial limit above max limit");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glite.authz.pep.client.endpoint;
+
+import junit.framework.TestCase;
+
+/**
+ * HedgingBudgetTestCase
+ */
+public class HedgingBudgetTestCase extends TestCase {
+
+    public void testRatio() {
+        HedgingBudget budget= new HedgingBudget(0.1, 10);
+        assertFalse(budget.tryWithdraw());
+        int hedged= 0;
+        for (int i= 0; i < 1000; i++) {
+            budget.deposit();
+            if (budget.tryWithdraw()) {
+                hedged++;
+            }
+        }
+        assertTrue("hedged=" + hedged, hedged >= 99 && hedged <= 100);
+    }
+
+    public void testMaxBurst() {
+        HedgingBudget budget= new HedgingBudget(0.5, 3);
+        for (int i= 0; i < 100; i++) {
+            budget.deposit();
+        }
+        assertTrue(budget.tryWithdraw());
+        assertTrue(budget.tryWithdraw());
+        assertTrue(budget.tryWithdraw());
+        assertFalse(budget.tryWithdraw());
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glite.authz.pep.client.endpoint;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * LoadBalancerTestCase
+ */
+public class LoadBalancerTestCase extends TestCase {
+
+    private List<Endpoint> endpoints(int... weights) {
+        List<Endpoint> endpoints= new ArrayList<Endpoint>();
+        for (int i= 0; i < weights.length; i++) {
+            endpoints.add(new Endpoint("https://pepd" + i + ".example.org:8154/authz",
+                                       weights[i],
+                                       3));
+        }
+        return endpoints;
+    }
+
+    public void testFailover() {
+        List<Endpoint> endpoints= endpoints(1, 1, 1);
+        LoadBalancer balancer= new LoadBalancer(endpoints,
+                                                LoadBalancingStrategy.FAILOVER);
+        for (int i= 0; i < 5; i++) {
+            assertEquals(endpoints, balancer.select());
+        }
+    }
+
+    public void testRoundRobin() {
+        List<Endpoint> endpoints= endpoints(1, 1, 1);
+        LoadBalancer balancer= new LoadBalancer(endpoints,
+                                                LoadBalancingStrategy.ROUND_ROBIN);
+        for (int i= 0; i < 6; i++) {
+            List<Endpoint> selected= balancer.select();
+            assertEquals(3, selected.size());
+            assertSame(endpoints.get(i % 3), selected.get(0));
+        }
+    }
+
+    public void testWeighted() {
+        List<Endpoint> endpoints= endpoints(3, 1);
+        LoadBalancer balancer= new LoadBalancer(endpoints,
+                                                LoadBalancingStrategy.WEIGHTED);
+        int first= 0;
+        for (int i= 0; i < 40; i++) {
+            List<Endpoint> selected= balancer.select();
+            assertEquals(2, selected.size());
+            if (selected.get(0) == endpoints.get(0)) {
+                first++;
+            }
+        }
+        assertEquals(30, first);
+    }
+
+    public void testPowerOfTwoChoicesAvoidsSlowEndpoint() throws Exception {
+        List<Endpoint> endpoints= endpoints(1, 1);
+        Endpoint slow= endpoints.get(0);
+        slow.requestEnded(slow.requestStarted() - 50000000L, true);
+        Endpoint fast= endpoints.get(1);
+        fast.requestEnded(fast.requestStarted(), true);
+        LoadBalancer balancer= new LoadBalancer(endpoints,
+                                                LoadBalancingStrategy.POWER_OF_TWO_CHOICES);
+        for (int i= 0; i < 10; i++) {
+            assertSame(fast, balancer.select().get(0));
+        }
+    }
+
+    public void testFailuresPenalized() throws Exception {
+        List<Endpoint> endpoints= endpoints(1, 1);
+        Endpoint failing= endpoints.get(0);
+        failing.requestEnded(failing.requestStarted() - 10000000L, true);
+        double latency= failing.getLatencyEWMA();
+        // failing fast does not lower the latency
+        failing.requestEnded(failing.requestStarted(), false);
+        assertTrue(failing.getLatencyEWMA() > latency);
+        Endpoint healthy= endpoints.get(1);
+        healthy.requestEnded(healthy.requestStarted() - 10000000L, true);
+        LoadBalancer balancer= new LoadBalancer(endpoints,
+                                                LoadBalancingStrategy.POWER_OF_TWO_CHOICES);
+        for (int i= 0; i < 10; i++) {
+            assertSame(healthy, balancer.select().get(0));
+        }
+    }
+}
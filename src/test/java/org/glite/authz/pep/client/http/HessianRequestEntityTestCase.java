@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glite.authz.pep.client.http;
+
+import java.io.ByteArrayOutputStream;
+
+import junit.framework.TestCase;
+
+import org.glite.authz.common.model.Attribute;
+import org.glite.authz.common.model.Request;
+import org.glite.authz.common.model.Subject;
+import org.glite.authz.common.util.Base64;
+
+import com.caucho.hessian.io.HessianOutput;
+
+/**
+ * JUnit to test the {@link HessianRequestEntity}.
+ */
+public class HessianRequestEntityTestCase extends TestCase {
+
+    private Request createRequest(int values) {
+        Subject subject= new Subject();
+        Attribute attribute= new Attribute("http://glite.org/xacml/attribute/fqan",
+                                           Attribute.DT_STRING);
+        for (int i= 0; i < values; i++) {
+            attribute.getValues().add("/atlas/Role=production/" + i);
+        }
+        subject.getAttributes().add(attribute);
+        Request request= new Request();
+        request.getSubjects().add(subject);
+        return request;
+    }
+
+    private String encode(Request request) throws Exception {
+        ByteArrayOutputStream out= new ByteArrayOutputStream();
+        HessianOutput hout= new HessianOutput(out);
+        hout.writeObject(request);
+        hout.flush();
+        return Base64.encodeBytes(out.toByteArray());
+    }
+
+    public void testSameContentAsEncodeBytes() throws Exception {
+        for (int values= 0; values < 50; values++) {
+            Request request= createRequest(values);
+            HessianRequestEntity entity= new HessianRequestEntity(request);
+            ByteArrayOutputStream out= new ByteArrayOutputStream();
+            entity.writeRequest(out);
+            String expected= encode(request);
+            assertEquals(expected, out.toString("UTF-8"));
+            assertEquals(expected.length(), entity.getContentLength());
+            // repeatable
+            out.reset();
+            entity.writeRequest(out);
+            assertEquals(expected, out.toString("UTF-8"));
+        }
+    }
+
+    public void testContentNotChangedByRequest() throws Exception {
+        Request request= createRequest(3);
+        String expected= encode(request);
+        HessianRequestEntity entity= new HessianRequestEntity(request);
+        request.getSubjects().clear();
+        ByteArrayOutputStream out= new ByteArrayOutputStream();
+        entity.writeRequest(out);
+        assertEquals(expected, out.toString("UTF-8"));
+        assertEquals(expected.length(), entity.getContentLength());
+    }
+
+    public void testBase64Length() throws Exception {
+        for (int length= 0; length < 1000; length++) {
+            byte[] data= new byte[length];
+            assertEquals("length " + length,
+                         Base64.encodeBytes(data).length(),
+                         HessianRequestEntity.base64Length(length));
+        }
+    }
+}
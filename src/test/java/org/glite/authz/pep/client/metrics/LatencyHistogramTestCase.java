@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glite.authz.pep.client.metrics;
+
+import junit.framework.TestCase;
+
+/**
+ * LatencyHistogramTestCase
+ */
+public class LatencyHistogramTestCase extends TestCase {
+
+    public void testBuckets() {
+        long previousUpperBound= -1;
+        for (long value= 0; value < 100000; value++) {
+            int index= LatencyHistogram.bucketIndex(value);
+            long upperBound= LatencyHistogram.bucketUpperBound(index);
+            assertTrue(value <= upperBound);
+            if (index > 0) {
+                assertTrue(value > LatencyHistogram.bucketUpperBound(index - 1));
+            }
+            assertTrue(upperBound >= previousUpperBound);
+            previousUpperBound= upperBound;
+        }
+        int last= LatencyHistogram.bucketIndex(Long.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.bucketUpperBound(last));
+    }
+
+    public void testPercentiles() {
+        LatencyHistogram histogram= new LatencyHistogram();
+        assertEquals(0, histogram.getPercentile(99));
+        for (int i= 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1000000L, histogram.getMax());
+        assertEquals(500500.0, histogram.getMean(), 0.001);
+        long p50= histogram.getPercentile(50);
+        assertTrue("p50=" + p50, p50 >= 500000 && p50 < 500000 * 1.25);
+        long p99= histogram.getPercentile(99);
+        assertTrue("p99=" + p99, p99 >= 990000 && p99 <= 1000000);
+        assertEquals(1000000L, histogram.getPercentile(100));
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glite.authz.pep.client.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.net.ConnectException;
+import java.util.Collections;
+import java.util.Map;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+
+import junit.framework.TestCase;
+
+import org.glite.authz.common.model.Request;
+import org.glite.authz.pep.client.PEPClient;
+import org.glite.authz.pep.client.PEPClientException;
+import org.glite.authz.pep.client.config.PEPClientConfiguration;
+import org.glite.authz.pep.client.endpoint.Endpoint;
+
+/**
+ * JUnit to test the {@link PEPClientMetrics}.
+ */
+public class PEPClientMetricsTestCase extends TestCase {
+
+    public void testRecord() {
+        Endpoint endpoint= new Endpoint("https://pepd.example.org:8154/authz", 3);
+        PEPClientMetrics metrics= new PEPClientMetrics(Collections.singletonList(endpoint));
+        long startTime= System.nanoTime() - 2000000L;
+        metrics.recordAuthorization(startTime, true);
+        metrics.recordAuthorization(startTime, false);
+        metrics.recordEndpointRequest(endpoint, startTime, true);
+        metrics.recordEndpointRequest(endpoint, startTime, false);
+        metrics.recordError(new PEPClientException("failed",
+                                                   new ConnectException("refused")));
+        metrics.recordFailover();
+
+        assertEquals(2, metrics.getAuthorizations());
+        assertEquals(1, metrics.getAuthorizationFailures());
+        assertEquals(1, metrics.getFailovers());
+        assertEquals(Long.valueOf(1),
+                     metrics.getErrors().get(ConnectException.class.getName()));
+        LatencyStatistics authorization= metrics.getPhaseLatencies().get("AUTHORIZATION");
+        assertEquals(2, authorization.getCount());
+        assertTrue(authorization.getP50() >= 2.0);
+        EndpointStatistics statistics= metrics.getEndpoints().get(endpoint.getUrl());
+        assertEquals(2, statistics.getRequests());
+        assertEquals(1, statistics.getFailures());
+        assertEquals(1, statistics.getLatency().getCount());
+        assertEquals("CLOSED", statistics.getState());
+    }
+
+    public void testClientMXBean() throws Exception {
+        String name= "org.glite.authz.pep.client:type=PEPClientMetrics,name=test";
+        PEPClientConfiguration config= new PEPClientConfiguration();
+        config.addPEPDaemonEndpoint("http://localhost:1/authz");
+        config.setMetricsMBeanName(name);
+        PEPClient client= new PEPClient(config);
+        MBeanServer server= ManagementFactory.getPlatformMBeanServer();
+        ObjectName objectName= new ObjectName(name);
+        try {
+            try {
+                client.authorize(new Request());
+                fail("PEP daemon is not available");
+            } catch (PEPClientException e) {
+                // expected
+            }
+            assertEquals(1L, server.getAttribute(objectName, "Authorizations"));
+            assertEquals(1L,
+                         server.getAttribute(objectName,
+                                             "AuthorizationFailures"));
+            TabularData phases= (TabularData) server.getAttribute(objectName,
+                                                                  "PhaseLatencies");
+            CompositeData pip= (CompositeData) phases.get(new Object[] { "PIP" }).get("value");
+            assertEquals(1L, pip.get("count"));
+            TabularData endpoints= (TabularData) server.getAttribute(objectName,
+                                                                     "Endpoints");
+            assertEquals(1, endpoints.size());
+            Map<String, Long> errors= client.getMetrics().getErrors();
+            assertEquals(1, errors.size());
+        } finally {
+            client.shutdown();
+        }
+        assertFalse(server.isRegistered(objectName));
+    }
+}
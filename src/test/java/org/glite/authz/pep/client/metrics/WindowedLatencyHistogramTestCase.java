@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glite.authz.pep.client.metrics;
+
+import junit.framework.TestCase;
+
+/**
+ * WindowedLatencyHistogramTestCase
+ */
+public class WindowedLatencyHistogramTestCase extends TestCase {
+
+    public void testPercentilesOfRecentWindows() throws Exception {
+        WindowedLatencyHistogram histogram= new WindowedLatencyHistogram(200);
+        for (int i= 1; i <= 100; i++) {
+            histogram.record(1000000L);
+        }
+        assertEquals(100, histogram.getCount());
+        assertEquals(1000000L, histogram.getPercentile(99));
+        // the slow latencies move to the previous window, still counted
+        Thread.sleep(250);
+        for (int i= 1; i <= 100; i++) {
+            histogram.record(1000L);
+        }
+        assertEquals(200, histogram.getCount());
+        assertEquals(1000000L, histogram.getPercentile(99));
+        long p25= histogram.getPercentile(25);
+        assertTrue("p25=" + p25, p25 >= 1000 && p25 < 1250);
+    }
+
+    public void testExpiredWindows() throws Exception {
+        WindowedLatencyHistogram histogram= new WindowedLatencyHistogram(100);
+        histogram.record(1000000L);
+        Thread.sleep(250);
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentile(99));
+    }
+}
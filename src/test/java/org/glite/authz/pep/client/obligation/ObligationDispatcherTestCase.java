@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glite.authz.pep.client.obligation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.glite.authz.common.model.Obligation;
+import org.glite.authz.common.model.Request;
+import org.glite.authz.common.model.Result;
+import org.glite.authz.pep.obligation.ObligationHandler;
+import org.glite.authz.pep.obligation.ObligationProcessingException;
+
+/**
+ * ObligationDispatcherTestCase
+ */
+public class ObligationDispatcherTestCase extends TestCase {
+
+    private Result result(String... obligationIds) {
+        Result result= new Result();
+        result.setDecision(Result.DECISION_PERMIT);
+        for (String obligationId : obligationIds) {
+            Obligation obligation= new Obligation();
+            obligation.setId(obligationId);
+            result.getObligations().add(obligation);
+        }
+        return result;
+    }
+
+    public void testSelectByObligation() {
+        ObligationHandler posix= new Handler("posix");
+        ObligationHandler pool= new Handler("pool");
+        ObligationHandler quota= new Handler("quota");
+        ObligationDispatcher dispatcher= new ObligationDispatcher(Arrays.asList(posix,
+                                                                                pool,
+                                                                                quota),
+                                                                  Collections.<ObligationHandler> emptyList());
+        assertEquals(3, dispatcher.size());
+        assertEquals(Arrays.asList(posix),
+                     dispatcher.select(result("posix", "unknown")));
+        // registration order, once per result
+        assertEquals(Arrays.asList(posix, quota),
+                     dispatcher.select(result("quota", "posix", "quota")));
+        assertTrue(dispatcher.select(result()).isEmpty());
+    }
+
+    public void testEveryResultHandlers() {
+        ObligationHandler audit= new Handler("audit");
+        ObligationHandler any= new Handler(ObligationDispatcher.ANY_OBLIGATION);
+        ObligationHandler none= new Handler(null);
+        ObligationHandler posix= new Handler("posix");
+        List<ObligationHandler> handlers= new ArrayList<ObligationHandler>(Arrays.asList(audit,
+                                                                                         any,
+                                                                                         posix,
+                                                                                         none));
+        ObligationDispatcher dispatcher= new ObligationDispatcher(handlers,
+                                                                  Arrays.asList(audit));
+        assertEquals(Arrays.asList(audit, any, none),
+                     dispatcher.select(result()));
+        assertEquals(Arrays.asList(audit, any, posix, none),
+                     dispatcher.select(result("posix")));
+    }
+
+    /**
+     * Handler of an obligation, doing nothing.
+     */
+    private static class Handler implements ObligationHandler {
+
+        private final String obligationId_;
+
+        Handler(String obligationId) {
+            obligationId_= obligationId;
+        }
+
+        public String getId() {
+            return "Handler-" + obligationId_;
+        }
+
+        public String getObligationId() {
+            return obligationId_;
+        }
+
+        public int getHandlerPrecedence() {
+            return 0;
+        }
+
+        public boolean evaluateObligation(Request request, Result result)
+                throws ObligationProcessingException {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,270 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glite.authz.pep.client.pip;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.glite.authz.common.model.Attribute;
+import org.glite.authz.common.model.Environment;
+import org.glite.authz.common.model.Request;
+import org.glite.authz.common.model.Subject;
+import org.glite.authz.pep.client.config.PEPClientConfiguration;
+import org.glite.authz.pep.pip.PIPException;
+import org.glite.authz.pep.pip.PIPProcessingException;
+import org.glite.authz.pep.pip.PolicyInformationPoint;
+
+/**
+ * ParallelPIPRunnerTestCase
+ */
+public class ParallelPIPRunnerTestCase extends TestCase {
+
+    private ExecutorService executor_;
+
+    private List<PolicyInformationPoint> pips_;
+
+    private Map<PolicyInformationPoint, List<PolicyInformationPoint>> dependencies_;
+
+    private Map<PolicyInformationPoint, Long> timeouts_;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        executor_= Executors.newFixedThreadPool(4);
+        pips_= new ArrayList<PolicyInformationPoint>();
+        dependencies_= new IdentityHashMap<PolicyInformationPoint, List<PolicyInformationPoint>>();
+        timeouts_= new IdentityHashMap<PolicyInformationPoint, Long>();
+    }
+
+    protected void tearDown() throws Exception {
+        executor_.shutdownNow();
+        super.tearDown();
+    }
+
+    private void add(PolicyInformationPoint pip, long timeout,
+            PolicyInformationPoint... dependencies) {
+        pips_.add(pip);
+        List<PolicyInformationPoint> pipDependencies= new ArrayList<PolicyInformationPoint>();
+        Collections.addAll(pipDependencies, dependencies);
+        dependencies_.put(pip, pipDependencies);
+        timeouts_.put(pip, Long.valueOf(timeout));
+    }
+
+    private ParallelPIPRunner createRunner() {
+        return new ParallelPIPRunner(pips_, dependencies_, timeouts_, executor_);
+    }
+
+    private Request createRequest() {
+        Subject subject= new Subject();
+        subject.getAttributes().add(attribute("subject-id", "CN=John Doe"));
+        Request request= new Request();
+        request.getSubjects().add(subject);
+        return request;
+    }
+
+    private static Attribute attribute(String id, String value) {
+        Attribute attribute= new Attribute(id, Attribute.DT_STRING);
+        attribute.getValues().add(value);
+        return attribute;
+    }
+
+    private static Subject subject(Request request) {
+        assertEquals(1, request.getSubjects().size());
+        return request.getSubjects().iterator().next();
+    }
+
+    private static boolean hasAttribute(Request request, String id) {
+        for (Attribute attribute : subject(request).getAttributes()) {
+            if (attribute.getId().equals(id)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void testIndependentPIPsRunConcurrently() throws Exception {
+        add(new SubjectAttributePIP("voms", 300), 0);
+        add(new SubjectAttributePIP("gridmap", 300), 0);
+        add(new SubjectAttributePIP("banning", 300), 0);
+        Request request= createRequest();
+        long start= System.currentTimeMillis();
+        createRunner().run(request);
+        long elapsed= System.currentTimeMillis() - start;
+        assertTrue("elapsed " + elapsed, elapsed < 800);
+        assertTrue(hasAttribute(request, "subject-id"));
+        assertTrue(hasAttribute(request, "voms"));
+        assertTrue(hasAttribute(request, "gridmap"));
+        assertTrue(hasAttribute(request, "banning"));
+    }
+
+    public void testDependencies() throws Exception {
+        SubjectAttributePIP voms= new SubjectAttributePIP("voms", 100);
+        SubjectAttributePIP gridmap= new SubjectAttributePIP("gridmap", 0);
+        gridmap.requires("voms");
+        add(voms, 0);
+        add(gridmap, 0, voms);
+        Request request= createRequest();
+        createRunner().run(request);
+        assertTrue(hasAttribute(request, "voms"));
+        assertTrue(hasAttribute(request, "gridmap"));
+    }
+
+    public void testTimeout() throws Exception {
+        SubjectAttributePIP slow= new SubjectAttributePIP("slow", 500);
+        add(slow, 50);
+        add(new SubjectAttributePIP("fast", 0), 0);
+        Request request= createRequest();
+        try {
+            createRunner().run(request);
+            fail("PIP timeout expected");
+        } catch (PIPProcessingException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("slow"));
+        }
+        // the late changes are discarded
+        Thread.sleep(700);
+        assertEquals(1, slow.getCalls());
+        assertFalse(hasAttribute(request, "slow"));
+    }
+
+    public void testFailureSkipsDependents() throws Exception {
+        SubjectAttributePIP failing= new SubjectAttributePIP("failing", 0);
+        failing.fail();
+        SubjectAttributePIP dependent= new SubjectAttributePIP("dependent", 0);
+        add(failing, 0);
+        add(dependent, 0, failing);
+        try {
+            createRunner().run(createRequest());
+            fail("PIP failure expected");
+        } catch (PIPProcessingException e) {
+            assertEquals("failing failed", e.getMessage());
+        }
+        assertEquals(0, dependent.getCalls());
+    }
+
+    public void testMergeRemovalAndEnvironment() throws Exception {
+        PolicyInformationPoint pip= new SubjectAttributePIP("unused", 0) {
+            public boolean populateRequest(Request request) {
+                subject(request).getAttributes().clear();
+                Environment environment= new Environment();
+                environment.getAttributes().add(attribute("profile-id",
+                                                          "wn"));
+                request.setEnvironment(environment);
+                return true;
+            }
+        };
+        add(pip, 0);
+        add(new SubjectAttributePIP("voms", 50), 0);
+        Request request= createRequest();
+        createRunner().run(request);
+        assertFalse(hasAttribute(request, "subject-id"));
+        assertTrue(hasAttribute(request, "voms"));
+        assertEquals(1, request.getEnvironment().getAttributes().size());
+    }
+
+    public void testConfigurationDependencies() throws Exception {
+        PEPClientConfiguration config= new PEPClientConfiguration();
+        SubjectAttributePIP first= new SubjectAttributePIP("first", 0);
+        SubjectAttributePIP second= new SubjectAttributePIP("second", 0);
+        SubjectAttributePIP third= new SubjectAttributePIP("third", 0);
+        config.addPolicyInformationPoint(first);
+        config.addPolicyInformationPoint(second);
+        config.addPolicyInformationPoint(third, 100, "first");
+        assertTrue(config.getPolicyInformationPointDependencies(first).isEmpty());
+        assertSame(first,
+                   config.getPolicyInformationPointDependencies(second).get(0));
+        assertSame(first,
+                   config.getPolicyInformationPointDependencies(third).get(0));
+        assertEquals(100, config.getPolicyInformationPointTimeout(third));
+        try {
+            config.addPolicyInformationPoint(new SubjectAttributePIP("fourth",
+                                                                     0),
+                                             0,
+                                             "unknown");
+            fail("unknown dependency");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * PIP adding a subject attribute named after its id, after a delay.
+     */
+    private static class SubjectAttributePIP implements PolicyInformationPoint {
+
+        private final String id_;
+
+        private final long delay_;
+
+        private final AtomicInteger calls_= new AtomicInteger();
+
+        private String required_= null;
+
+        private boolean fail_= false;
+
+        SubjectAttributePIP(String id, long delay) {
+            id_= id;
+            delay_= delay;
+        }
+
+        void requires(String id) {
+            required_= id;
+        }
+
+        void fail() {
+            fail_= true;
+        }
+
+        int getCalls() {
+            return calls_.get();
+        }
+
+        public String getId() {
+            return id_;
+        }
+
+        public void start() throws PIPException {
+        }
+
+        public void stop() throws PIPException {
+        }
+
+        public boolean populateRequest(Request request)
+                throws PIPProcessingException {
+            calls_.incrementAndGet();
+            if (fail_) {
+                throw new PIPProcessingException(id_ + " failed");
+            }
+            if (required_ != null && !hasAttribute(request, required_)) {
+                throw new PIPProcessingException(required_ + " missing");
+            }
+            try {
+                Thread.sleep(delay_);
+            } catch (InterruptedException e) {
+                throw new PIPProcessingException("interrupted", e);
+            }
+            subject(request).getAttributes().add(attribute(id_, "value"));
+            return true;
+        }
+    }
+}
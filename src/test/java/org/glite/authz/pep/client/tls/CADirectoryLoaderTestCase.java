@@ -0,0 +1,247 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glite.authz.pep.client.tls;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.cert.CertificateException;
+import java.security.cert.X509CRL;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+import java.util.concurrent.ForkJoinPool;
+
+import javax.net.ssl.X509TrustManager;
+
+import junit.framework.TestCase;
+
+import org.glite.authz.pep.client.daemon.TestCredentials;
+
+import eu.emi.security.authn.x509.CrlCheckingMode;
+
+/**
+ * JUnit to test the {@link CADirectoryLoader} and the
+ * {@link CRLTrustManager}.
+ */
+public class CADirectoryLoaderTestCase extends TestCase {
+
+    private static TestCredentials credentials_;
+
+    private File directory_;
+
+    private File snapshot_;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        if (credentials_ == null) {
+            credentials_= new TestCredentials();
+        }
+        directory_= File.createTempFile("cadir", "");
+        directory_.delete();
+        directory_.mkdir();
+        snapshot_= new File(directory_.getParentFile(), directory_.getName() + ".snapshot");
+        TestCredentials.writePEM(new File(directory_, "0a1b2c3d.0"), "CERTIFICATE", credentials_.getCACertificate().getEncoded());
+        Date nextUpdate= new Date(System.currentTimeMillis() + 3600000L);
+        TestCredentials.writePEM(new File(directory_, "0a1b2c3d.r0"), "X509 CRL", credentials_.createCRL(nextUpdate).getEncoded());
+        TestCredentials.writePEM(new File(directory_, "deadbeef.0"), "CERTIFICATE", "garbage".getBytes(StandardCharsets.US_ASCII));
+        TestCredentials.writePEM(new File(directory_, "0a1b2c3d.signing_policy"), "CERTIFICATE", "garbage".getBytes(StandardCharsets.US_ASCII));
+    }
+
+    protected void tearDown() throws Exception {
+        for (File file : directory_.listFiles()) {
+            file.delete();
+        }
+        directory_.delete();
+        snapshot_.delete();
+        super.tearDown();
+    }
+
+    public void testLoadDirectory() throws Exception {
+        CADirectory ca= new CADirectoryLoader(directory_, null, ForkJoinPool.commonPool()).load();
+        assertFalse(ca.isFromSnapshot());
+        assertEquals(1, ca.getCACertificates().size());
+        assertEquals(credentials_.getCACertificate(), ca.getCACertificates().get(0));
+        assertEquals(1, ca.getCRLs().size());
+        assertNotNull(ca.getCRL(credentials_.getCACertificate().getSubjectX500Principal()));
+        assertTrue(ca.createKeyStore().isCertificateEntry("ca0"));
+        assertFalse(snapshot_.exists());
+    }
+
+    public void testSnapshotReused() throws Exception {
+        CADirectory ca= new CADirectoryLoader(directory_, snapshot_, ForkJoinPool.commonPool()).load();
+        assertFalse(ca.isFromSnapshot());
+        assertTrue(snapshot_.isFile());
+
+        CADirectory cached= new CADirectoryLoader(directory_, snapshot_, ForkJoinPool.commonPool()).load();
+        assertTrue(cached.isFromSnapshot());
+        assertEquals(ca.getCACertificates(), cached.getCACertificates());
+        assertEquals(ca.getCRLs(), cached.getCRLs());
+    }
+
+    public void testStaleSnapshotIgnored() throws Exception {
+        new CADirectoryLoader(directory_, snapshot_, ForkJoinPool.commonPool()).load();
+        TestCredentials other= new TestCredentials();
+        TestCredentials.writePEM(new File(directory_, "4e5f6a7b.0"), "CERTIFICATE", other.getCACertificate().getEncoded());
+
+        CADirectory ca= new CADirectoryLoader(directory_, snapshot_, ForkJoinPool.commonPool()).load();
+        assertFalse(ca.isFromSnapshot());
+        assertEquals(2, ca.getCACertificates().size());
+        assertTrue(new CADirectoryLoader(directory_, snapshot_, ForkJoinPool.commonPool()).load().isFromSnapshot());
+    }
+
+    public void testUnchangedFilesNotRead() throws Exception {
+        CADirectory ca= new CADirectoryLoader(directory_, snapshot_, ForkJoinPool.commonPool()).load();
+        // the files changed too recently to be trusted are read again
+        Thread.sleep(CADirectoryLoader.RACY_INTERVAL + 100);
+        CADirectoryLoader loader= new CADirectoryLoader(directory_, snapshot_, ForkJoinPool.commonPool());
+        assertTrue(loader.load().isFromSnapshot());
+        assertEquals(3, loader.getReadFiles());
+
+        loader= new CADirectoryLoader(directory_, snapshot_, ForkJoinPool.commonPool());
+        CADirectory cached= loader.load();
+        assertTrue(cached.isFromSnapshot());
+        assertEquals(0, loader.getReadFiles());
+        assertEquals(ca.getCACertificates(), cached.getCACertificates());
+        assertEquals(ca.getCRLs().get(0),
+                     cached.getCRL(credentials_.getCACertificate().getSubjectX500Principal()));
+    }
+
+    public void testModifiedContentDetected() throws Exception {
+        new CADirectoryLoader(directory_, snapshot_, ForkJoinPool.commonPool()).load();
+        File crlFile= new File(directory_, "0a1b2c3d.r0");
+        long length= crlFile.length();
+        long lastModified= crlFile.lastModified();
+        Date nextUpdate= new Date((System.currentTimeMillis() / 1000L) * 1000L + 7200000L);
+        TestCredentials.writePEM(crlFile, "X509 CRL", credentials_.createCRL(nextUpdate).getEncoded());
+        crlFile.setLastModified(lastModified);
+        assertEquals(length, crlFile.length());
+
+        CADirectory ca= new CADirectoryLoader(directory_, snapshot_, ForkJoinPool.commonPool()).load();
+        assertFalse(ca.isFromSnapshot());
+        assertEquals(nextUpdate, ca.getCRLs().get(0).getNextUpdate());
+    }
+
+    public void testWritableSnapshotIgnored() throws Exception {
+        new CADirectoryLoader(directory_, snapshot_, ForkJoinPool.commonPool()).load();
+        Files.setPosixFilePermissions(snapshot_.toPath(), PosixFilePermissions.fromString("rw-rw-r--"));
+        assertFalse(new CADirectoryLoader(directory_, snapshot_, ForkJoinPool.commonPool()).load().isFromSnapshot());
+
+        // rewritten writable only by its owner
+        assertEquals(PosixFilePermissions.fromString("rw-r--r--"), Files.getPosixFilePermissions(snapshot_.toPath()));
+        assertTrue(new CADirectoryLoader(directory_, snapshot_, ForkJoinPool.commonPool()).load().isFromSnapshot());
+    }
+
+    public void testCorruptedSnapshotIgnored() throws Exception {
+        OutputStream out= new FileOutputStream(snapshot_);
+        out.write(new byte[] { 0x43, 0x41, 0x44, 0x53, 0x00 });
+        out.close();
+        CADirectory ca= new CADirectoryLoader(directory_, snapshot_, ForkJoinPool.commonPool()).load();
+        assertFalse(ca.isFromSnapshot());
+        assertEquals(1, ca.getCACertificates().size());
+    }
+
+    public void testCRLWithoutIssuerIgnored() throws Exception {
+        TestCredentials other= new TestCredentials();
+        Date nextUpdate= new Date(System.currentTimeMillis() + 3600000L);
+        TestCredentials.writePEM(new File(directory_, "0a1b2c3d.r0"), "X509 CRL", other.createCRL(nextUpdate).getEncoded());
+        CADirectory ca= new CADirectoryLoader(directory_, null, ForkJoinPool.commonPool()).load();
+        assertEquals(0, ca.getCRLs().size());
+    }
+
+    public void testRevokedCertificateRejected() throws Exception {
+        X509Certificate[] chain= new X509Certificate[] { credentials_.getServerCertificate(),
+                credentials_.getCACertificate() };
+        Date nextUpdate= new Date(System.currentTimeMillis() + 3600000L);
+        TestCredentials.writePEM(new File(directory_, "0a1b2c3d.r0"), "X509 CRL",
+                 credentials_.createCRL(nextUpdate, credentials_.getServerCertificate()).getEncoded());
+        CRLTrustManager trustManager= new CRLTrustManager(new AcceptingTrustManager(),
+                                                          new CADirectoryLoader(directory_, null, ForkJoinPool.commonPool()).load());
+        try {
+            trustManager.checkServerTrusted(chain, "RSA");
+            fail("revoked certificate accepted");
+        } catch (CertificateException e) {
+            // expected
+        }
+    }
+
+    public void testExpiredCRLIgnored() throws Exception {
+        X509Certificate[] chain= new X509Certificate[] { credentials_.getServerCertificate(),
+                credentials_.getCACertificate() };
+        X509CRL crl= credentials_.createCRL(new Date(System.currentTimeMillis() - 1000L),
+                                            credentials_.getServerCertificate());
+        TestCredentials.writePEM(new File(directory_, "0a1b2c3d.r0"), "X509 CRL", crl.getEncoded());
+        CRLTrustManager trustManager= new CRLTrustManager(new AcceptingTrustManager(),
+                                                          new CADirectoryLoader(directory_, null, ForkJoinPool.commonPool()).load());
+        assertEquals(1, trustManager.getExpiredCRLs().size());
+        trustManager.checkServerTrusted(chain, "RSA");
+        long checks= trustManager.getExpiredCRLChecks();
+        assertTrue(checks > 0);
+        trustManager.checkServerTrusted(chain, "RSA");
+        assertEquals(2 * checks, trustManager.getExpiredCRLChecks());
+    }
+
+    public void testRequiredCRL() throws Exception {
+        X509Certificate[] chain= new X509Certificate[] { credentials_.getServerCertificate(),
+                credentials_.getCACertificate() };
+        CRLTrustManager trustManager= new CRLTrustManager(new AcceptingTrustManager(),
+                                                          new CADirectoryLoader(directory_, null, ForkJoinPool.commonPool()).load(),
+                                                          CrlCheckingMode.REQUIRE);
+        trustManager.checkServerTrusted(chain, "RSA");
+
+        X509CRL crl= credentials_.createCRL(new Date(System.currentTimeMillis() - 1000L));
+        TestCredentials.writePEM(new File(directory_, "0a1b2c3d.r0"), "X509 CRL", crl.getEncoded());
+        trustManager= new CRLTrustManager(new AcceptingTrustManager(),
+                                          new CADirectoryLoader(directory_, null, ForkJoinPool.commonPool()).load(),
+                                          CrlCheckingMode.REQUIRE);
+        try {
+            trustManager.checkServerTrusted(chain, "RSA");
+            fail("certificate accepted with an expired CRL");
+        } catch (CertificateException e) {
+            // expected
+        }
+
+        new File(directory_, "0a1b2c3d.r0").delete();
+        trustManager= new CRLTrustManager(new AcceptingTrustManager(),
+                                          new CADirectoryLoader(directory_, null, ForkJoinPool.commonPool()).load(),
+                                          CrlCheckingMode.REQUIRE);
+        try {
+            trustManager.checkServerTrusted(chain, "RSA");
+            fail("certificate accepted without CRL");
+        } catch (CertificateException e) {
+            // expected
+        }
+    }
+
+    /** Trust manager accepting any chain. */
+    private static final class AcceptingTrustManager implements X509TrustManager {
+
+        public void checkClientTrusted(X509Certificate[] chain, String authType)
+                throws CertificateException {
+        }
+
+        public void checkServerTrusted(X509Certificate[] chain, String authType)
+                throws CertificateException {
+        }
+
+        public X509Certificate[] getAcceptedIssuers() {
+            return new X509Certificate[0];
+        }
+    }
+}
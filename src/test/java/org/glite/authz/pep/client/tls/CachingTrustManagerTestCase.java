@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glite.authz.pep.client.tls;
+
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+
+import javax.net.ssl.X509TrustManager;
+
+import junit.framework.TestCase;
+
+import org.glite.authz.pep.client.daemon.TestCredentials;
+
+/**
+ * JUnit to test the {@link CachingTrustManager}.
+ */
+public class CachingTrustManagerTestCase extends TestCase {
+
+    private static X509Certificate[] chain1_;
+
+    private static X509Certificate[] chain2_;
+
+    private CountingTrustManager trustManager_;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        if (chain1_ == null) {
+            chain1_= new X509Certificate[] { new TestCredentials().getCACertificate() };
+            chain2_= new X509Certificate[] { new TestCredentials().getCACertificate() };
+        }
+        trustManager_= new CountingTrustManager();
+    }
+
+    public void testValidationCached() throws Exception {
+        CachingTrustManager cache= new CachingTrustManager(trustManager_,
+                                                           60000,
+                                                           10);
+        cache.checkServerTrusted(chain1_, "RSA");
+        cache.checkServerTrusted(chain1_, "RSA");
+        assertEquals(1, trustManager_.validations_);
+        cache.checkServerTrusted(chain2_, "RSA");
+        assertEquals(2, trustManager_.validations_);
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+    }
+
+    public void testFailureNotCached() throws Exception {
+        CachingTrustManager cache= new CachingTrustManager(trustManager_,
+                                                           60000,
+                                                           10);
+        trustManager_.reject_= true;
+        for (int i= 0; i < 2; i++) {
+            try {
+                cache.checkServerTrusted(chain1_, "RSA");
+                fail("chain rejected");
+            } catch (CertificateException e) {
+                // expected
+            }
+        }
+        assertEquals(2, trustManager_.validations_);
+        assertEquals(0, cache.size());
+    }
+
+    public void testExpiration() throws Exception {
+        CachingTrustManager cache= new CachingTrustManager(trustManager_,
+                                                           50,
+                                                           10);
+        cache.checkServerTrusted(chain1_, "RSA");
+        Thread.sleep(100);
+        cache.checkServerTrusted(chain1_, "RSA");
+        assertEquals(2, trustManager_.validations_);
+    }
+
+    public void testLeastRecentlyUsedEvicted() throws Exception {
+        CachingTrustManager cache= new CachingTrustManager(trustManager_,
+                                                           60000,
+                                                           1);
+        cache.checkServerTrusted(chain1_, "RSA");
+        cache.checkServerTrusted(chain2_, "RSA");
+        assertEquals(1, cache.size());
+        cache.checkServerTrusted(chain1_, "RSA");
+        assertEquals(3, trustManager_.validations_);
+    }
+
+    public void testClear() throws Exception {
+        CachingTrustManager cache= new CachingTrustManager(trustManager_,
+                                                           60000,
+                                                           10);
+        cache.checkServerTrusted(chain1_, "RSA");
+        cache.clear();
+        cache.checkServerTrusted(chain1_, "RSA");
+        assertEquals(2, trustManager_.validations_);
+    }
+
+    public void testClearDuringValidation() throws Exception {
+        CachingTrustManager cache= new CachingTrustManager(trustManager_,
+                                                           60000,
+                                                           10);
+        // the trust material is reloaded while the chain is validated
+        trustManager_.clearing_= cache;
+        cache.checkServerTrusted(chain1_, "RSA");
+        assertEquals(0, cache.size());
+        trustManager_.clearing_= null;
+        cache.checkServerTrusted(chain1_, "RSA");
+        assertEquals(1, cache.size());
+        assertEquals(2, trustManager_.validations_);
+    }
+
+    /** Trust manager counting the validations. */
+    private static final class CountingTrustManager implements
+            X509TrustManager {
+
+        private int validations_= 0;
+
+        private boolean reject_= false;
+
+        private CachingTrustManager clearing_= null;
+
+        public void checkClientTrusted(X509Certificate[] chain, String authType)
+                throws CertificateException {
+            throw new CertificateException("not a server");
+        }
+
+        public void checkServerTrusted(X509Certificate[] chain, String authType)
+                throws CertificateException {
+            validations_++;
+            if (clearing_ != null) {
+                clearing_.clear();
+            }
+            if (reject_) {
+                throw new CertificateException("rejected");
+            }
+        }
+
+        public X509Certificate[] getAcceptedIssuers() {
+            return new X509Certificate[0];
+        }
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glite.authz.pep.client.tls;
+
+import java.io.File;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.Collections;
+
+import junit.framework.TestCase;
+
+import org.glite.authz.pep.client.daemon.TestCredentials;
+
+/**
+ * JUnit to test the {@link ReloadingKeyManager} and the
+ * {@link TLSMaterialWatcher}.
+ */
+public class ReloadingKeyManagerTestCase extends TestCase {
+
+    private static final char[] PASSWORD= "changeit".toCharArray();
+
+    private static TestCredentials credentials1_;
+
+    private static TestCredentials credentials2_;
+
+    private File directory_;
+
+    private File certificateFile_;
+
+    private File keyFile_;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        if (credentials1_ == null) {
+            credentials1_= new TestCredentials();
+            credentials2_= new TestCredentials();
+        }
+        directory_= File.createTempFile("keymaterial", "");
+        directory_.delete();
+        directory_.mkdir();
+        certificateFile_= new File(directory_, "hostcert.pem");
+        keyFile_= new File(directory_, "hostkey.pem");
+        credentials1_.writeServerCredential(certificateFile_, keyFile_);
+    }
+
+    protected void tearDown() throws Exception {
+        for (File file : directory_.listFiles()) {
+            file.delete();
+        }
+        directory_.delete();
+        super.tearDown();
+    }
+
+    private ReloadingKeyManager createKeyManager() throws Exception {
+        return new ReloadingKeyManager(certificateFile_.getPath(),
+                                       keyFile_.getPath(),
+                                       PASSWORD);
+    }
+
+    public void testReload() throws Exception {
+        ReloadingKeyManager keyManager= createKeyManager();
+        assertEquals(credentials1_.getServerCertificate(), keyManager.getCertificateChain()[0]);
+        assertFalse(keyManager.reload());
+
+        credentials2_.writeServerCredential(certificateFile_, keyFile_);
+        assertTrue(keyManager.reload());
+        assertEquals(credentials2_.getServerCertificate(), keyManager.getCertificateChain()[0]);
+        String alias= keyManager.chooseClientAlias(new String[] { "RSA" }, null, null);
+        assertEquals(credentials2_.getServerCertificate(), keyManager.getCertificateChain(alias)[0]);
+        assertEquals(credentials2_.getServerKey(), keyManager.getPrivateKey(alias));
+    }
+
+    public void testAliasResolvedFromItsCredential() throws Exception {
+        ReloadingKeyManager keyManager= createKeyManager();
+        String alias= keyManager.chooseClientAlias(new String[] { "RSA" }, null, null);
+        credentials2_.writeServerCredential(certificateFile_, keyFile_);
+        assertTrue(keyManager.reload());
+
+        // a handshake in progress gets the chain and key it chose
+        assertEquals(credentials1_.getServerCertificate(), keyManager.getCertificateChain(alias)[0]);
+        assertEquals(credentials1_.getServerKey(), keyManager.getPrivateKey(alias));
+        String reloaded= keyManager.chooseClientAlias(new String[] { "RSA" }, null, null);
+        assertFalse(alias.equals(reloaded));
+        assertEquals(credentials2_.getServerCertificate(), keyManager.getCertificateChain(reloaded)[0]);
+        assertEquals(credentials2_.getServerKey(), keyManager.getPrivateKey(reloaded));
+        assertNull(keyManager.getPrivateKey("unknown"));
+    }
+
+    public void testMismatchedKeyRejected() throws Exception {
+        ReloadingKeyManager keyManager= createKeyManager();
+        TestCredentials.writePEM(keyFile_, "PRIVATE KEY", credentials2_.getServerKey().getEncoded());
+        assertFalse(keyManager.reload());
+        assertEquals(credentials1_.getServerCertificate(), keyManager.getCertificateChain()[0]);
+        try {
+            createKeyManager();
+            fail("private key does not match the certificate");
+        } catch (GeneralSecurityException e) {
+            // expected
+        }
+    }
+
+    public void testWatchedWhileRetained() throws Exception {
+        ReloadingKeyManager keyManager= createKeyManager();
+        TLSMaterialWatcher watcher= TLSMaterialWatcher.getInstance();
+        keyManager.setWatchedFiles(Arrays.asList(certificateFile_, keyFile_));
+        assertEquals(0, watcher.size());
+        keyManager.retain();
+        keyManager.retain();
+        assertEquals(1, watcher.size());
+        keyManager.release();
+        assertEquals(1, watcher.size());
+        keyManager.release();
+        assertEquals(0, watcher.size());
+
+        keyManager.retain();
+        assertEquals(1, watcher.size());
+        keyManager.setWatchedFiles(Collections.<File> emptyList());
+        assertEquals(0, watcher.size());
+        keyManager.release();
+    }
+
+    public void testWatchReloads() throws Exception {
+        ReloadingKeyManager keyManager= createKeyManager();
+        TLSMaterialWatcher watcher= TLSMaterialWatcher.getInstance();
+        watcher.watch(certificateFile_, keyManager);
+        watcher.watch(keyFile_, keyManager);
+        try {
+            assertEquals(1, watcher.size());
+            credentials2_.writeServerCredential(certificateFile_, keyFile_);
+            long deadline= System.currentTimeMillis() + 10000;
+            while (!credentials2_.getServerCertificate().equals(keyManager.getCertificateChain()[0])
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(100);
+            }
+            assertEquals(credentials2_.getServerCertificate(), keyManager.getCertificateChain()[0]);
+        } finally {
+            watcher.unwatch(keyManager);
+        }
+        assertEquals(0, watcher.size());
+    }
+}
@@ -0,0 +1,263 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glite.authz.pep.client.tls;
+
+import java.security.KeyStore;
+import java.security.cert.X509Certificate;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.glite.authz.pep.client.daemon.TestCredentials;
+import org.glite.authz.pep.client.metrics.TrustStoreStatistics;
+
+import eu.emi.security.authn.x509.StoreUpdateListener;
+import eu.emi.security.authn.x509.ValidationResult;
+import eu.emi.security.authn.x509.X509CertChainValidatorExt;
+import eu.emi.security.authn.x509.impl.InMemoryKeystoreCertChainValidator;
+
+/**
+ * JUnit to test the {@link ReloadingTrustManager}.
+ */
+public class ReloadingTrustManagerTestCase extends TestCase {
+
+    private static TestCredentials credentials_;
+
+    private CountingFactory factory_;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        if (credentials_ == null) {
+            credentials_= new TestCredentials();
+        }
+        factory_= new CountingFactory(credentials_.getTrustStore());
+    }
+
+    public void testInitialLoadMeasured() throws Exception {
+        ReloadingTrustManager trustManager= new ReloadingTrustManager(factory_, 0, false);
+        TrustStoreStatistics statistics= trustManager.getTrustStoreStatistics();
+        assertEquals(1, statistics.getLoads());
+        assertEquals(0, statistics.getFailedLoads());
+        assertEquals(1, statistics.getTrustedIssuers());
+        assertEquals(credentials_.getCACertificate().getEncoded().length,
+                     statistics.getTrustedIssuersSize());
+        assertTrue(statistics.getLastLoadTime() > 0);
+        trustManager.checkServerTrusted(new X509Certificate[] { credentials_.getServerCertificate(),
+                credentials_.getCACertificate() }, "RSA");
+        trustManager.dispose();
+    }
+
+    public void testReloadSwapsValidator() throws Exception {
+        ReloadingTrustManager trustManager= new ReloadingTrustManager(factory_, 0, false);
+        final int[] reloads= new int[1];
+        trustManager.addReloadListener(new ReloadingTrustManager.ReloadListener() {
+            public void reloaded() {
+                reloads[0]++;
+            }
+        });
+        X509CertChainValidatorExt validator= trustManager.getValidator();
+        assertTrue(trustManager.reload());
+        assertNotSame(validator, trustManager.getValidator());
+        assertEquals(1, reloads[0]);
+        assertEquals(2, trustManager.getTrustStoreStatistics().getLoads());
+        trustManager.dispose();
+    }
+
+    public void testUpdateListenersAttachedToNewValidators() throws Exception {
+        ReloadingTrustManager trustManager= new ReloadingTrustManager(factory_, 0, false);
+        CachingTrustManager cache= new CachingTrustManager(trustManager,
+                                                           60000,
+                                                           10);
+        cache.watch(trustManager);
+        assertEquals(1, factory_.created_.get(0).updateListeners_.size());
+        assertTrue(trustManager.reload());
+        assertEquals(1, factory_.created_.get(1).updateListeners_.size());
+        // watching again does not add listeners
+        cache.watch(trustManager);
+        assertEquals(1, factory_.created_.get(1).updateListeners_.size());
+        cache.unwatch();
+        assertEquals(0, factory_.created_.get(1).updateListeners_.size());
+        assertTrue(trustManager.reload());
+        assertEquals(0, factory_.created_.get(2).updateListeners_.size());
+        trustManager.dispose();
+    }
+
+    public void testFailedReloadKeepsValidator() throws Exception {
+        ReloadingTrustManager trustManager= new ReloadingTrustManager(factory_, 0, false);
+        X509CertChainValidatorExt validator= trustManager.getValidator();
+        factory_.fail_= true;
+        assertFalse(trustManager.reload());
+        assertSame(validator, trustManager.getValidator());
+        assertEquals(1, trustManager.getTrustStoreStatistics().getLoads());
+        assertEquals(1, trustManager.getTrustStoreStatistics().getFailedLoads());
+        trustManager.dispose();
+    }
+
+    public void testPeriodicReload() throws Exception {
+        ReloadingTrustManager trustManager= new ReloadingTrustManager(factory_, 50, false);
+        Thread.sleep(300);
+        trustManager.dispose();
+        assertTrue(factory_.validators_ > 2);
+    }
+
+    public void testPreviousValidatorDisposedAfterValidations() throws Exception {
+        final ReloadingTrustManager trustManager= new ReloadingTrustManager(factory_, 0, false);
+        TrackedValidator validator= factory_.created_.get(0);
+        validator.entered_= new CountDownLatch(1);
+        validator.blocked_= new CountDownLatch(1);
+        final X509Certificate[] chain= new X509Certificate[] { credentials_.getServerCertificate(),
+                credentials_.getCACertificate() };
+        Thread validation= new Thread(new Runnable() {
+            public void run() {
+                try {
+                    trustManager.checkServerTrusted(chain, "RSA");
+                } catch (Exception e) {
+                    // checked by the disposal
+                }
+            }
+        });
+        validation.start();
+        assertTrue(validator.entered_.await(5, TimeUnit.SECONDS));
+        assertTrue(trustManager.reload());
+        assertFalse(validator.disposed_);
+
+        validator.blocked_.countDown();
+        validation.join(5000);
+        assertTrue(validator.disposed_);
+        assertFalse(factory_.created_.get(1).disposed_);
+        trustManager.dispose();
+        assertTrue(factory_.created_.get(1).disposed_);
+    }
+
+    public void testReleaseStopsReloads() throws Exception {
+        ReloadingTrustManager trustManager= new ReloadingTrustManager(factory_, 50, false);
+        trustManager.retain();
+        trustManager.retain();
+        trustManager.release();
+        Thread.sleep(200);
+        assertTrue(factory_.validators_ > 1);
+
+        trustManager.release();
+        int validators= factory_.validators_;
+        assertTrue(factory_.created_.get(validators - 1).disposed_);
+        Thread.sleep(200);
+        assertEquals(validators, factory_.validators_);
+
+        // retained again, loads a new validator and resumes the reloads
+        trustManager.retain();
+        assertEquals(validators + 1, factory_.validators_);
+        assertFalse(factory_.created_.get(validators).disposed_);
+        Thread.sleep(200);
+        assertTrue(factory_.validators_ > validators + 1);
+        trustManager.release();
+    }
+
+    public void testDisposeDeferredWhileRetained() throws Exception {
+        ReloadingTrustManager trustManager= new ReloadingTrustManager(factory_, 0, false);
+        trustManager.retain();
+        trustManager.dispose();
+        assertFalse(factory_.created_.get(0).disposed_);
+        trustManager.release();
+        assertTrue(factory_.created_.get(0).disposed_);
+    }
+
+    public void testLazyModeNotReloaded() throws Exception {
+        ReloadingTrustManager trustManager= new ReloadingTrustManager(factory_, 50, true);
+        Thread.sleep(200);
+        assertEquals(1, factory_.validators_);
+        assertEquals(0, trustManager.getTrustStoreStatistics().getTrustedIssuers());
+        trustManager.dispose();
+    }
+
+    /** Factory counting the created validators. */
+    private static final class CountingFactory implements
+            ReloadingTrustManager.ValidatorFactory {
+
+        private final KeyStore truststore_;
+
+        private volatile int validators_= 0;
+
+        private volatile boolean fail_= false;
+
+        private final List<TrackedValidator> created_= new CopyOnWriteArrayList<TrackedValidator>();
+
+        private CountingFactory(KeyStore truststore) {
+            truststore_= truststore;
+        }
+
+        public X509CertChainValidatorExt createValidator() {
+            if (fail_) {
+                throw new IllegalStateException("trust store not readable");
+            }
+            validators_++;
+            try {
+                TrackedValidator validator= new TrackedValidator(truststore_);
+                created_.add(validator);
+                return validator;
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    /** Validator recording its disposal, and optionally blocking a validation. */
+    private static final class TrackedValidator extends
+            InMemoryKeystoreCertChainValidator {
+
+        private volatile boolean disposed_= false;
+
+        private volatile CountDownLatch entered_= null;
+
+        private volatile CountDownLatch blocked_= null;
+
+        private final List<StoreUpdateListener> updateListeners_= new CopyOnWriteArrayList<StoreUpdateListener>();
+
+        private TrackedValidator(KeyStore truststore) throws Exception {
+            super(truststore);
+        }
+
+        public void addUpdateListener(StoreUpdateListener listener) {
+            updateListeners_.add(listener);
+            super.addUpdateListener(listener);
+        }
+
+        public void removeUpdateListener(StoreUpdateListener listener) {
+            updateListeners_.remove(listener);
+            super.removeUpdateListener(listener);
+        }
+
+        public ValidationResult validate(X509Certificate[] certChain) {
+            if (blocked_ != null) {
+                entered_.countDown();
+                try {
+                    blocked_.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return super.validate(certChain);
+        }
+
+        public void dispose() {
+            disposed_= true;
+            super.dispose();
+        }
+    }
+}
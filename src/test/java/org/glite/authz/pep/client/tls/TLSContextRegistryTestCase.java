@@ -0,0 +1,234 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glite.authz.pep.client.tls;
+
+import java.io.File;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.KeyStore;
+
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManagerFactory;
+import javax.net.ssl.X509TrustManager;
+
+import junit.framework.TestCase;
+
+import org.glite.authz.pep.client.config.PEPClientConfiguration;
+import org.glite.authz.pep.client.daemon.TestCredentials;
+import org.glite.authz.pep.client.metrics.TLSHandshakeStatistics;
+
+/**
+ * JUnit to test the {@link TLSContextRegistry}.
+ */
+public class TLSContextRegistryTestCase extends TestCase {
+
+    private static final String PASSWORD= "changeit";
+
+    private static TestCredentials credentials1_;
+
+    private static TestCredentials credentials2_;
+
+    private TLSContextRegistry registry_;
+
+    private KeyStore trustStore_;
+
+    private File directory_;
+
+    private File certificateFile_;
+
+    private File keyFile_;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        if (credentials1_ == null) {
+            credentials1_= new TestCredentials();
+            credentials2_= new TestCredentials();
+        }
+        registry_= new TLSContextRegistry();
+        trustStore_= credentials1_.getTrustStore();
+        directory_= File.createTempFile("keymaterial", "");
+        directory_.delete();
+        directory_.mkdir();
+        certificateFile_= new File(directory_, "hostcert.pem");
+        keyFile_= new File(directory_, "hostkey.pem");
+        credentials1_.writeServerCredential(certificateFile_, keyFile_);
+    }
+
+    protected void tearDown() throws Exception {
+        for (File file : directory_.listFiles()) {
+            file.delete();
+        }
+        directory_.delete();
+        super.tearDown();
+    }
+
+    private PEPClientConfiguration createConfig(boolean watch)
+            throws Exception {
+        PEPClientConfiguration config= new PEPClientConfiguration();
+        config.setTrustMaterial(trustStore_);
+        config.setKeyMaterial(certificateFile_.getPath(),
+                              keyFile_.getPath(),
+                              PASSWORD);
+        config.setTLSMaterialWatch(watch);
+        return config;
+    }
+
+    private TLSContext acquire(PEPClientConfiguration config) {
+        return registry_.acquire(config.getKeyMaterialIdentity(),
+                                 config.getTrustMaterialIdentity(),
+                                 config.getKeyManager(),
+                                 config.getTrustManager(),
+                                 config.getTrustStoreMonitor(),
+                                 config.getTLSSessionCacheSize(),
+                                 config.getTLSSessionTimeout());
+    }
+
+    private X509TrustManager createTrustManager() throws Exception {
+        TrustManagerFactory tmf= TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        tmf.init(trustStore_);
+        return (X509TrustManager) tmf.getTrustManagers()[0];
+    }
+
+    public void testReferenceCounted() throws Exception {
+        X509TrustManager trustManager= createTrustManager();
+        TLSContext context1= registry_.acquire(null, "truststore", null, trustManager, null, 10, 60);
+        TLSContext context2= registry_.acquire(null, "truststore", null, trustManager, null, 10, 60);
+        assertSame(context1, context2);
+        // different session settings
+        TLSContext context3= registry_.acquire(null, "truststore", null, trustManager, null, 20, 60);
+        assertNotSame(context1, context3);
+        assertEquals(2, registry_.size());
+        registry_.release(context1);
+        assertEquals(2, registry_.size());
+        registry_.release(context2);
+        assertEquals(1, registry_.size());
+        registry_.release(context3);
+        assertEquals(0, registry_.size());
+        try {
+            registry_.acquire(null, null, null, trustManager, null, 10, 60);
+            fail("trust material can not be identified");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testSessionResumedAcrossClients() throws Exception {
+        X509TrustManager trustManager= createTrustManager();
+        final SSLServerSocket serverSocket= (SSLServerSocket) credentials1_.createServerContext().getServerSocketFactory().createServerSocket(0);
+        Thread server= new Thread() {
+            public void run() {
+                try {
+                    for (int i= 0; i < 2; i++) {
+                        SSLSocket socket= (SSLSocket) serverSocket.accept();
+                        try {
+                            socket.startHandshake();
+                            socket.getOutputStream().write(1);
+                            socket.getOutputStream().flush();
+                            socket.getInputStream().read();
+                        } finally {
+                            socket.close();
+                        }
+                    }
+                } catch (Exception e) {
+                    // the client fails
+                }
+            }
+        };
+        server.start();
+        try {
+            // each client acquires the context with its own trust manager
+            TLSContext context1= registry_.acquire(null, "truststore", null, trustManager, null, 10, 60);
+            TLSContext context2= registry_.acquire(null, "truststore", null, createTrustManager(), null, 10, 60);
+            connect(context1, serverSocket);
+            connect(context2, serverSocket);
+            TLSHandshakeStatistics handshakes= context2.getTLSHandshakeStatistics();
+            assertEquals(1, handshakes.getFullHandshakes());
+            assertEquals(1, handshakes.getResumedHandshakes());
+            registry_.release(context1);
+            registry_.release(context2);
+        } finally {
+            server.join(5000);
+            serverSocket.close();
+        }
+    }
+
+    private void connect(TLSContext context, ServerSocket serverSocket)
+            throws Exception {
+        SSLSocket socket= (SSLSocket) context.getSSLContext().getSocketFactory().createSocket("localhost",
+                                                                                              serverSocket.getLocalPort());
+        try {
+            socket.setSoTimeout(5000);
+            context.startHandshake(socket);
+            // reads the session ticket sent after the handshake
+            assertEquals(1, socket.getInputStream().read());
+            socket.getOutputStream().write(1);
+            socket.getOutputStream().flush();
+        } finally {
+            closeQuietly(socket);
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (Exception e) {
+            // ignored
+        }
+    }
+
+    public void testWatchedMaterialNotSharedWithUnwatched() throws Exception {
+        PEPClientConfiguration watched1= createConfig(true);
+        PEPClientConfiguration unwatched= createConfig(false);
+        PEPClientConfiguration watched2= createConfig(true);
+        TLSContext context1= acquire(watched1);
+        TLSContext context2= acquire(unwatched);
+        TLSContext context3= acquire(watched2);
+        assertNotSame(context1, context2);
+        assertSame(context1, context3);
+        registry_.release(context1);
+        registry_.release(context2);
+        assertEquals(1, registry_.size());
+        registry_.release(context3);
+        assertEquals(0, registry_.size());
+    }
+
+    public void testSharedContextWatchedAfterCreatorRelease()
+            throws Exception {
+        TLSMaterialWatcher watcher= TLSMaterialWatcher.getInstance();
+        int watched= watcher.size();
+        PEPClientConfiguration creator= createConfig(true);
+        PEPClientConfiguration other= createConfig(true);
+        TLSContext context= acquire(creator);
+        assertSame(context, acquire(other));
+        assertEquals(watched + 1, watcher.size());
+        // the context keeps the key manager of its creator watched
+        registry_.release(context);
+        assertEquals(watched + 1, watcher.size());
+        ReloadingKeyManager keyManager= (ReloadingKeyManager) creator.getKeyManager();
+        credentials2_.writeServerCredential(certificateFile_, keyFile_);
+        long deadline= System.currentTimeMillis() + 10000;
+        while (!credentials2_.getServerCertificate().equals(keyManager.getCertificateChain()[0])
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+        }
+        assertEquals(credentials2_.getServerCertificate(), keyManager.getCertificateChain()[0]);
+        registry_.release(context);
+        assertEquals(0, registry_.size());
+        assertEquals(watched, watcher.size());
+    }
+}